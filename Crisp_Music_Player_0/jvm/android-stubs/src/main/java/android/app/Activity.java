@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.MenuInflater;
+import android.view.View;
+
+public class Activity extends Context {
+    protected void onCreate(Bundle savedInstanceState) {
+    }
+
+    protected void onSaveInstanceState(Bundle outState) {
+    }
+
+    public void setContentView(int layoutResID) {
+    }
+
+    public View findViewById(int id) {
+        return null;
+    }
+
+    public Intent getIntent() {
+        return null;
+    }
+
+    public MenuInflater getMenuInflater() {
+        return new MenuInflater();
+    }
+
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        return false;
+    }
+}
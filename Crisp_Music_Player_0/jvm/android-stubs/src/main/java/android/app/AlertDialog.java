@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.view.View;
+
+public class AlertDialog implements DialogInterface {
+    public static class Builder {
+        public Builder(Context context) {
+        }
+
+        public Builder setTitle(CharSequence title) {
+            return this;
+        }
+
+        public Builder setMessage(CharSequence message) {
+            return this;
+        }
+
+        public Builder setView(View view) {
+            return this;
+        }
+
+        public Builder setPositiveButton(CharSequence text,
+                DialogInterface.OnClickListener listener) {
+            return this;
+        }
+
+        public Builder setNegativeButton(CharSequence text,
+                DialogInterface.OnClickListener listener) {
+            return this;
+        }
+
+        public AlertDialog show() {
+            return new AlertDialog();
+        }
+    }
+}
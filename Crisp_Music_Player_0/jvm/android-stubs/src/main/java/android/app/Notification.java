@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+public class Notification {
+    public static final int FLAG_ONGOING_EVENT = 0x00000002;
+
+    public int icon;
+    public CharSequence tickerText;
+    public Bitmap largeIcon;
+    public int flags;
+
+    CharSequence mContentTitle;
+    CharSequence mContentText;
+
+    public void setLatestEventInfo(Context context, CharSequence contentTitle,
+            CharSequence contentText, PendingIntent contentIntent) {
+        mContentTitle = contentTitle;
+        mContentText = contentText;
+    }
+
+    // stand-in only, for tests
+
+    public CharSequence getContentTitle() {
+        return mContentTitle;
+    }
+
+    public CharSequence getContentText() {
+        return mContentText;
+    }
+}
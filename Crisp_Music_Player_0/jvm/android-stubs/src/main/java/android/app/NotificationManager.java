@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Keeps the notifications posted to it, and counts the posts. */
+public class NotificationManager {
+    final Map<Integer, Notification> mNotifications = new HashMap<Integer, Notification>();
+    int mNotifies;
+
+    public void notify(int id, Notification notification) {
+        mNotifications.put(id, notification);
+        mNotifies++;
+    }
+
+    public void cancel(int id) {
+        mNotifications.remove(id);
+    }
+
+    // stand-in only, for tests
+
+    /** Returns the notification posted last with the id, or null if there is none. */
+    public Notification getNotification(int id) {
+        return mNotifications.get(id);
+    }
+
+    /** Returns how many times notify() was called. */
+    public int getNotifyCount() {
+        return mNotifies;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Runs nothing by itself: whoever drives the service calls its callbacks. Keeps the
+ * notification it is in the foreground with.
+ */
+public abstract class Service extends Context {
+    public static final int START_NOT_STICKY = 2;
+
+    Notification mForegroundNotification;
+    int mStartForegrounds;
+    int mStopForegrounds;
+
+    public void onCreate() {
+    }
+
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_NOT_STICKY;
+    }
+
+    public void onDestroy() {
+    }
+
+    public void onLowMemory() {
+    }
+
+    public void onTrimMemory(int level) {
+    }
+
+    public abstract IBinder onBind(Intent intent);
+
+    public final void stopSelf() {
+    }
+
+    public final void startForeground(int id, Notification notification) {
+        mForegroundNotification = notification;
+        mStartForegrounds++;
+    }
+
+    public final void stopForeground(boolean removeNotification) {
+        mForegroundNotification = null;
+        mStopForegrounds++;
+    }
+
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+    }
+
+    // stand-in only, for tests
+
+    /** Returns the notification the service is in the foreground with, or null. */
+    public Notification getForegroundNotification() {
+        return mForegroundNotification;
+    }
+
+    public int getStartForegroundCount() {
+        return mStartForegrounds;
+    }
+
+    public int getStopForegroundCount() {
+        return mStopForegrounds;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.app.NotificationManager;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Resources;
+import android.media.AudioManager;
+import android.net.wifi.WifiManager;
+
+import java.io.File;
+
+/**
+ * A context whose system services are fresh stand-ins, and whose files and cache directories
+ * are under java.io.tmpdir. Subclasses (a service under test) override what they need.
+ */
+public class Context {
+    public static final String AUDIO_SERVICE = "audio";
+    public static final String WIFI_SERVICE = "wifi";
+    public static final String NOTIFICATION_SERVICE = "notification";
+    public static final int MODE_PRIVATE = 0;
+
+    final ContentResolver mContentResolver = new ContentResolver();
+    final ApplicationInfo mApplicationInfo = new ApplicationInfo();
+
+    public Object getSystemService(String name) {
+        if (AUDIO_SERVICE.equals(name)) return new AudioManager();
+        if (WIFI_SERVICE.equals(name)) return new WifiManager();
+        if (NOTIFICATION_SERVICE.equals(name)) return new NotificationManager();
+        return null;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public ContentResolver getContentResolver() {
+        return mContentResolver;
+    }
+
+    public Resources getResources() {
+        return new Resources();
+    }
+
+    public ApplicationInfo getApplicationInfo() {
+        return mApplicationInfo;
+    }
+
+    public ComponentName startService(Intent service) {
+        return null;
+    }
+
+    public File getFilesDir() {
+        return directory("files");
+    }
+
+    public File getCacheDir() {
+        return directory("cache");
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return null;
+    }
+
+    static File directory(String name) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "android-stubs/" + name);
+        dir.mkdirs();
+        return dir;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+public class Intent {
+    public static final String ACTION_MEDIA_BUTTON = "android.intent.action.MEDIA_BUTTON";
+    public static final String EXTRA_KEY_EVENT = "android.intent.extra.KEY_EVENT";
+
+    String mAction;
+    Uri mData;
+    Bundle mExtras;
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public Intent(Context packageContext, Class<?> cls) {
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Uri getData() {
+        return mData;
+    }
+
+    public Intent setData(Uri data) {
+        mData = data;
+        return this;
+    }
+
+    public Intent setComponent(ComponentName component) {
+        return this;
+    }
+
+    public Bundle getExtras() {
+        return mExtras;
+    }
+
+    public Intent putExtra(String name, int value) {
+        extras().putInt(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        extras().putBoolean(name, value);
+        return this;
+    }
+
+    Bundle extras() {
+        if (mExtras == null) mExtras = new Bundle();
+        return mExtras;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.graphics;
+
+import android.content.res.Resources;
+
+import java.io.FileDescriptor;
+import java.io.InputStream;
+
+/** Decodes nothing: every image reads as missing. */
+public class BitmapFactory {
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public boolean inPurgeable;
+        public boolean inInputShareable;
+        public Bitmap.Config inPreferredConfig;
+        public int outWidth;
+        public int outHeight;
+    }
+
+    public static Bitmap decodeStream(InputStream is, Rect outPadding, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeFile(String pathName, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeFileDescriptor(FileDescriptor fd, Rect outPadding, Options opts) {
+        return null;
+    }
+
+    public static Bitmap decodeResource(Resources res, int id) {
+        return null;
+    }
+}
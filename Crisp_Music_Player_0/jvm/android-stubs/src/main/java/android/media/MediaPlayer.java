@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+
+/** Plays nothing and never calls its listeners; see PlayerBackend for a player tests drive. */
+public class MediaPlayer {
+    public interface OnPreparedListener {
+        void onPrepared(MediaPlayer mp);
+    }
+
+    public interface OnCompletionListener {
+        void onCompletion(MediaPlayer mp);
+    }
+
+    public interface OnErrorListener {
+        boolean onError(MediaPlayer mp, int what, int extra);
+    }
+
+    public void setOnPreparedListener(OnPreparedListener listener) {
+    }
+
+    public void setOnCompletionListener(OnCompletionListener listener) {
+    }
+
+    public void setOnErrorListener(OnErrorListener listener) {
+    }
+
+    public void setWakeMode(Context context, int mode) {
+    }
+
+    public void setAudioStreamType(int streamtype) {
+    }
+
+    public void setDataSource(String path) throws IOException {
+    }
+
+    public void setDataSource(Context context, Uri uri) throws IOException {
+    }
+
+    public void setNextMediaPlayer(MediaPlayer next) {
+    }
+
+    public void prepareAsync() {
+    }
+
+    public void start() {
+    }
+
+    public void pause() {
+    }
+
+    public void stop() {
+    }
+
+    public void reset() {
+    }
+
+    public void release() {
+    }
+
+    public void seekTo(int msec) {
+    }
+
+    public boolean isPlaying() {
+        return false;
+    }
+
+    public int getCurrentPosition() {
+        return 0;
+    }
+
+    public int getDuration() {
+        return 0;
+    }
+
+    public void setVolume(float leftVolume, float rightVolume) {
+    }
+
+    public int getAudioSessionId() {
+        return 0;
+    }
+}
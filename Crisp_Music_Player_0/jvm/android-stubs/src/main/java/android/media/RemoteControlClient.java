@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media;
+
+import android.app.PendingIntent;
+import android.graphics.Bitmap;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the metadata applied to it, and counts editors and applies, so a test can see what a
+ * remote control would show and how much it took to get there.
+ */
+public class RemoteControlClient {
+    public static final int PLAYSTATE_STOPPED = 1;
+    public static final int PLAYSTATE_PAUSED = 2;
+    public static final int PLAYSTATE_PLAYING = 3;
+    public static final int FLAG_KEY_MEDIA_PREVIOUS = 1 << 0;
+    public static final int FLAG_KEY_MEDIA_PLAY = 1 << 2;
+    public static final int FLAG_KEY_MEDIA_PAUSE = 1 << 4;
+    public static final int FLAG_KEY_MEDIA_STOP = 1 << 5;
+    public static final int FLAG_KEY_MEDIA_NEXT = 1 << 7;
+
+    /** Edits a copy of the client's metadata, which apply() makes the client's. */
+    public class MetadataEditor {
+        final Map<Integer, Object> mValues;
+        int mPuts;
+
+        MetadataEditor(Map<Integer, Object> values) {
+            mValues = values;
+        }
+
+        public MetadataEditor putString(int key, String value) {
+            mPuts++;
+            mValues.put(key, value);
+            return this;
+        }
+
+        public MetadataEditor putLong(int key, long value) {
+            mPuts++;
+            mValues.put(key, value);
+            return this;
+        }
+
+        public MetadataEditor putBitmap(int key, Bitmap bitmap) {
+            mPuts++;
+            mValues.put(key, bitmap);
+            return this;
+        }
+
+        public void clear() {
+            mValues.clear();
+        }
+
+        public void apply() {
+            mMetadata = mValues;
+            mApplies++;
+            mPutsApplied += mPuts;
+        }
+    }
+
+    Map<Integer, Object> mMetadata = new HashMap<Integer, Object>();
+    int mEditors;
+    int mApplies;
+    int mPutsApplied;
+    int mPlaybackState;
+    int mTransportControlFlags;
+
+    public RemoteControlClient(PendingIntent mediaButtonIntent) {
+    }
+
+    public RemoteControlClient(PendingIntent mediaButtonIntent, Looper looper) {
+    }
+
+    public MetadataEditor editMetadata(boolean startEmpty) {
+        mEditors++;
+        return new MetadataEditor(startEmpty ? new HashMap<Integer, Object>()
+                : new HashMap<Integer, Object>(mMetadata));
+    }
+
+    public void setPlaybackState(int state) {
+        mPlaybackState = state;
+    }
+
+    public void setTransportControlFlags(int transportControlFlags) {
+        mTransportControlFlags = transportControlFlags;
+    }
+
+    // stand-in only, for tests
+
+    /** Returns the metadata the client shows. */
+    public Map<Integer, Object> getMetadata() {
+        return mMetadata;
+    }
+
+    /** Returns how many editors were made. */
+    public int getEditorCount() {
+        return mEditors;
+    }
+
+    /** Returns how many editors were applied. */
+    public int getApplyCount() {
+        return mApplies;
+    }
+
+    /** Returns how many puts the applied editors were made with. */
+    public int getPutCount() {
+        return mPutsApplied;
+    }
+
+    public int getPlaybackState() {
+        return mPlaybackState;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net.wifi;
+
+public class WifiManager {
+    public static final int WIFI_MODE_FULL = 1;
+
+    public class WifiLock {
+        boolean mHeld;
+
+        public void acquire() {
+            mHeld = true;
+        }
+
+        public void release() {
+            mHeld = false;
+        }
+
+        public boolean isHeld() {
+            return mHeld;
+        }
+    }
+
+    public WifiLock createWifiLock(int lockType, String tag) {
+        return new WifiLock();
+    }
+}
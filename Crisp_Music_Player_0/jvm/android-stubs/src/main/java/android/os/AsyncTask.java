@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Runs doInBackground() as soon as the task is executed, on the calling thread, and posts the
+ * progress updates and the result to the main looper, so a task runs in a predictable order.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+    final Handler mHandler = new Handler(Looper.getMainLooper());
+    volatile boolean mCancelled;
+
+    protected abstract Result doInBackground(Params... params);
+
+    protected void onProgressUpdate(Progress... values) {
+    }
+
+    protected void onPostExecute(Result result) {
+    }
+
+    public final AsyncTask<Params, Progress, Result> execute(Params... params) {
+        final Result result = doInBackground(params);
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (!mCancelled) onPostExecute(result);
+            }
+        });
+        return this;
+    }
+
+    protected final void publishProgress(final Progress... values) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (!mCancelled) onProgressUpdate(values);
+            }
+        });
+    }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        mCancelled = true;
+        return true;
+    }
+
+    public final boolean isCancelled() {
+        return mCancelled;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The one looper there is, standing in for the main thread's. Nothing loops by itself: a test
+ * calls {@link #runDue()} (or {@link #runAll()}) on the thread it treats as the main thread,
+ * and the messages due by {@link SystemClock#uptimeMillis()} run there in order. Messages can
+ * be queued from any thread.
+ */
+public final class Looper {
+    static final Looper sMainLooper = new Looper();
+
+    static final class Message implements Comparable<Message> {
+        final Handler mHandler;
+        final Runnable mCallback;
+        final long mWhen;
+        final long mSeq;
+
+        Message(Handler handler, Runnable callback, long when, long seq) {
+            mHandler = handler;
+            mCallback = callback;
+            mWhen = when;
+            mSeq = seq;
+        }
+
+        public int compareTo(Message other) {
+            if (mWhen != other.mWhen) return mWhen < other.mWhen ? -1 : 1;
+            return mSeq < other.mSeq ? -1 : (mSeq == other.mSeq ? 0 : 1);
+        }
+    }
+
+    final PriorityQueue<Message> mQueue = new PriorityQueue<Message>();
+    long mNextSeq;
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    synchronized void enqueue(Handler handler, Runnable callback, long when) {
+        mQueue.add(new Message(handler, callback, when, mNextSeq++));
+    }
+
+    synchronized void remove(Handler handler, Runnable callback) {
+        List<Message> removed = new ArrayList<Message>();
+        for (Message message : mQueue) {
+            if (message.mHandler == handler && message.mCallback == callback) {
+                removed.add(message);
+            }
+        }
+        mQueue.removeAll(removed);
+    }
+
+    // stand-in only, for tests
+
+    /** Runs the messages due now, and those they queue that are due now too. */
+    public int runDue() {
+        int count = 0;
+        while (true) {
+            Message message;
+            synchronized (this) {
+                message = mQueue.peek();
+                if (message == null || message.mWhen > SystemClock.uptimeMillis()) return count;
+                mQueue.poll();
+            }
+            message.mCallback.run();
+            count++;
+        }
+    }
+
+    /** Runs every message queued, however far ahead it is due, and returns how many ran. */
+    public int runAll() {
+        int count = 0;
+        while (true) {
+            Message message;
+            synchronized (this) {
+                message = mQueue.poll();
+            }
+            if (message == null) return count;
+            message.mCallback.run();
+            count++;
+        }
+    }
+
+    /** Returns when the first message is due, or Long.MAX_VALUE if none is queued. */
+    public synchronized long getNextDueTime() {
+        Message message = mQueue.peek();
+        return message == null ? Long.MAX_VALUE : message.mWhen;
+    }
+
+    /** Returns how many messages are queued. */
+    public synchronized int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    /** Drops every message queued. */
+    public synchronized void clear() {
+        mQueue.clear();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Reads the JVM's monotonic clock, unless a test has fixed the time with
+ * {@link #setFixedTime(long)}, which is how a simulation moves time forward by hand.
+ */
+public final class SystemClock {
+    static volatile long sFixedMillis = -1;
+
+    public static long uptimeMillis() {
+        long fixed = sFixedMillis;
+        return fixed >= 0 ? fixed : System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+
+    /** Stand-in only: makes both clocks read millis, or the real time again if it is -1. */
+    public static void setFixedTime(long millis) {
+        sFixedMillis = millis;
+    }
+}
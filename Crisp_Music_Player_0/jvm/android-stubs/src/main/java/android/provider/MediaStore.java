@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import android.net.Uri;
+
+public final class MediaStore {
+    public interface MediaColumns extends BaseColumns {
+        String DATA = "_data";
+        String TITLE = "title";
+        String DATE_MODIFIED = "date_modified";
+    }
+
+    public static final class Audio {
+        public interface AudioColumns extends MediaColumns {
+            String ARTIST = "artist";
+            String ALBUM = "album";
+            String ALBUM_ID = "album_id";
+            String DURATION = "duration";
+            String IS_MUSIC = "is_music";
+        }
+
+        public static final class Media implements AudioColumns {
+            public static final Uri EXTERNAL_CONTENT_URI =
+                    Uri.parse("content://media/external/audio/media");
+            public static final Uri INTERNAL_CONTENT_URI =
+                    Uri.parse("content://media/internal/audio/media");
+        }
+    }
+}
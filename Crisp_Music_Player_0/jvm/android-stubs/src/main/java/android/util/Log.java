@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/** Prints to stderr if the android.log system property is true, and otherwise drops it. */
+public final class Log {
+    static final boolean VERBOSE = Boolean.getBoolean("android.log");
+
+    public static int v(String tag, String msg) {
+        return print(VERBOSE, "V", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg) {
+        return print(VERBOSE, "D", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg) {
+        return print(VERBOSE, "I", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return print(VERBOSE, "W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print(VERBOSE, "W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print(VERBOSE, "E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print(VERBOSE, "E", tag, msg, tr);
+    }
+
+    static int print(boolean enabled, String level, String tag, String msg, Throwable tr) {
+        if (!enabled) return 0;
+        System.err.println(level + "/" + tag + ": " + msg + (tr == null ? "" : ": " + tr));
+        return 0;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+/** Stands in for the class aapt generates from res/; only the IDs the code refers to. */
+public final class R {
+    public static final class drawable {
+        public static final int dummy_album_art = 0x7f020000;
+        public static final int ic_media_play = 0x7f020001;
+        public static final int ic_stat_playing = 0x7f020002;
+    }
+
+    public static final class layout {
+        public static final int main = 0x7f030000;
+    }
+
+    public static final class id {
+        public static final int playbutton = 0x7f050000;
+        public static final int pausebutton = 0x7f050001;
+        public static final int skipbutton = 0x7f050002;
+        public static final int rewindbutton = 0x7f050003;
+        public static final int seekbar = 0x7f050004;
+        public static final int songlist = 0x7f050005;
+        public static final int album_title = 0x7f050006;
+        public static final int song_title = 0x7f050007;
+        public static final int artist_title = 0x7f050008;
+        public static final int timepassed = 0x7f050009;
+        public static final int timeremaining = 0x7f05000a;
+        public static final int imageView1 = 0x7f05000b;
+        public static final int progress = 0x7f05000c;
+        public static final int repeat = 0x7f05000d;
+        public static final int shuffle = 0x7f05000e;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ArtworkDecoderTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** Has art of the given size for every album, and decodes it the way BitmapFactory does. */
+    static class FixedSizeDecoder extends ArtworkDecoder {
+        final int mWidth;
+        final int mHeight;
+        int mSampleSize;
+
+        FixedSizeDecoder(int width, int height) {
+            super(null, null);
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        Bitmap decodeStream(Uri uri, BitmapFactory.Options options) {
+            if (options.inJustDecodeBounds) {
+                options.outWidth = mWidth;
+                options.outHeight = mHeight;
+                return null;
+            }
+            mSampleSize = options.inSampleSize;
+            return Bitmap.createBitmap(mWidth / mSampleSize, mHeight / mSampleSize,
+                    Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    @Test
+    public void theSampleSizeLeavesTheLongestEdgeAtLeastAsBigAsAsked() {
+        assertEquals(1, ArtworkDecoder.computeSampleSize(100, 100, 100));
+        assertEquals(1, ArtworkDecoder.computeSampleSize(199, 50, 100));
+        assertEquals(2, ArtworkDecoder.computeSampleSize(200, 50, 100));
+        assertEquals(2, ArtworkDecoder.computeSampleSize(50, 399, 100));
+        assertEquals(4, ArtworkDecoder.computeSampleSize(400, 400, 100));
+        assertEquals(8, ArtworkDecoder.computeSampleSize(1200, 800, 100));
+        assertEquals(8, ArtworkDecoder.computeSampleSize(1000, 1000, 64));
+        assertEquals(16, ArtworkDecoder.computeSampleSize(1024, 1024, 64));
+        // art smaller than asked isn't sampled at all
+        assertEquals(1, ArtworkDecoder.computeSampleSize(40, 30, 320));
+        for (int edge = 1; edge < 3000; edge += 7) {
+            int sample = ArtworkDecoder.computeSampleSize(edge, 1, 100);
+            assertTrue(edge + "", edge / sample >= 100 || sample == 1);
+            assertTrue(edge + "", edge / (sample * 2) < 100);
+        }
+    }
+
+    @Test
+    public void edgesKeepTheAspectRatio() {
+        assertEquals(100, ArtworkDecoder.scaleEdge(150, 150, 100));
+        assertEquals(66, ArtworkDecoder.scaleEdge(100, 150, 100));
+        // a sliver doesn't scale down to nothing
+        assertEquals(1, ArtworkDecoder.scaleEdge(1, 5000, 100));
+    }
+
+    @Test
+    public void artIsSampledThenScaledToTheAskedSize() {
+        FixedSizeDecoder decoder = new FixedSizeDecoder(1200, 800);
+        Bitmap bitmap = decoder.decode(1, ArtworkDecoder.NOTIFICATION_SIZE);
+        assertEquals(8, decoder.mSampleSize);
+        assertEquals(100, bitmap.getWidth());
+        assertEquals(66, bitmap.getHeight());
+
+        decoder = new FixedSizeDecoder(300, 600);
+        bitmap = decoder.decode(1, ArtworkDecoder.LOCK_SCREEN_SIZE);
+        assertEquals(1, decoder.mSampleSize);
+        assertEquals(160, bitmap.getWidth());
+        assertEquals(320, bitmap.getHeight());
+
+        // exactly the asked size after sampling, so not scaled
+        decoder = new FixedSizeDecoder(256, 256);
+        bitmap = decoder.decode(1, ArtworkDecoder.LIST_SIZE);
+        assertEquals(4, decoder.mSampleSize);
+        assertEquals(64, bitmap.getWidth());
+
+        assertNull(new FixedSizeDecoder(0, 0).decode(1, ArtworkDecoder.LIST_SIZE));
+    }
+
+    @Test
+    public void staleThumbnailsAreOnlyDeletedByDeleteStale() throws IOException {
+        File dir = mFolder.getRoot();
+        ArtworkDecoder decoder = new ArtworkDecoder(null, dir);
+        for (long album = 1; album <= 2; album++) {
+            for (int size : ArtworkDecoder.SIZES) {
+                assertTrue(decoder.getThumbnail(album, size).createNewFile());
+            }
+        }
+
+        decoder.invalidate(1);
+        assertTrue(decoder.isStale(1));
+        assertFalse(decoder.isStale(2));
+        assertTrue(decoder.getThumbnail(1, ArtworkDecoder.LIST_SIZE).exists());
+
+        decoder.deleteStale();
+        assertFalse(decoder.isStale(1));
+        for (int size : ArtworkDecoder.SIZES) {
+            assertFalse(decoder.getThumbnail(1, size).exists());
+            assertTrue(decoder.getThumbnail(2, size).exists());
+        }
+    }
+}
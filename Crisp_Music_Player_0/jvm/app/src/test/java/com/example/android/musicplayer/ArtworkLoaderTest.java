@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ArtworkLoaderTest {
+    static final int SIZE = 64;
+
+    /** Decodes nothing until the gate opens, and remembers what it was asked for. */
+    static class SlowLoader implements ArtworkCache.Loader {
+        final CountDownLatch mGate = new CountDownLatch(1);
+        final BlockingQueue<Long> mStarted = new LinkedBlockingQueue<Long>();
+        final List<Long> mLoaded = new ArrayList<Long>();
+
+        public Bitmap load(long albumId, int size) {
+            mStarted.add(albumId);
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            synchronized (this) {
+                mLoaded.add(albumId);
+            }
+            return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        }
+
+        /** Waits until the loader thread is decoding the album. */
+        void awaitStarted(long albumId) throws InterruptedException {
+            Long started = mStarted.poll(5, TimeUnit.SECONDS);
+            assertEquals(Long.valueOf(albumId), started);
+        }
+
+        void open() {
+            mGate.countDown();
+        }
+
+        synchronized List<Long> getLoaded() {
+            return new ArrayList<Long>(mLoaded);
+        }
+    }
+
+    /** Remembers what it was handed, on which thread. */
+    static class Recorder implements ArtworkLoader.Callback {
+        final List<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+        Thread mThread;
+
+        public void onArtworkLoaded(Bitmap bitmap) {
+            mBitmaps.add(bitmap);
+            mThread = Thread.currentThread();
+        }
+    }
+
+    SlowLoader mSlowLoader;
+    ArtworkCache mCache;
+    ArtworkLoader mLoader;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        mSlowLoader = new SlowLoader();
+        mCache = new ArtworkCache(mSlowLoader, 1 << 20);
+        mLoader = new ArtworkLoader(mCache, new Handler(Looper.getMainLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        mSlowLoader.open();
+        mLoader.shutdown();
+        Looper.getMainLooper().clear();
+    }
+
+    /**
+     * Waits for the loader thread to run out of work, then runs what it posted to the
+     * handler, as the main thread would.
+     */
+    void drain() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mLoader.mExecutor.getActiveCount() > 0
+                || !mLoader.mExecutor.getQueue().isEmpty()) {
+            assertTrue("loader still busy", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        Looper.getMainLooper().runDue();
+    }
+
+    /** Keeps the loader thread busy decoding album 0 until the gate opens. */
+    Recorder block() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        mLoader.load(0, SIZE, recorder);
+        mSlowLoader.awaitStarted(0);
+        return recorder;
+    }
+
+    @Test
+    public void cachedArtComesBackAtOnce() throws InterruptedException {
+        mSlowLoader.open();
+        Bitmap cached = mCache.get(1, SIZE);
+        Recorder recorder = new Recorder();
+
+        ArtworkLoader.Ticket ticket = mLoader.load(1, SIZE, recorder);
+        assertTrue(ticket.isDone());
+        assertSame(cached, ticket.getBitmap());
+        drain();
+        assertTrue(recorder.mBitmaps.isEmpty());
+        assertEquals(1, mSlowLoader.getLoaded().size());
+
+        ArtworkLoader.Ticket none = mLoader.load(-1, SIZE, recorder);
+        assertTrue(none.isDone());
+        assertNull(none.getBitmap());
+    }
+
+    @Test
+    public void artIsHandedOverOnTheHandlersThread() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        ArtworkLoader.Ticket ticket = mLoader.load(1, SIZE, recorder);
+        assertFalse(ticket.isDone());
+        mSlowLoader.open();
+        drain();
+
+        assertTrue(ticket.isDone());
+        assertNotNull(ticket.getBitmap());
+        assertEquals(1, recorder.mBitmaps.size());
+        assertSame(ticket.getBitmap(), recorder.mBitmaps.get(0));
+        assertSame(Thread.currentThread(), recorder.mThread);
+    }
+
+    @Test
+    public void requestsForTheSameArtShareADecode() throws InterruptedException {
+        Recorder decoding = block();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder joining = new Recorder();
+        mLoader.load(1, SIZE, first);
+        mLoader.load(1, SIZE, second);
+        // a request for the art being decoded joins that decode
+        mLoader.load(0, SIZE, joining);
+        // another size is other art
+        mLoader.load(1, SIZE * 2, new Recorder());
+        mSlowLoader.open();
+        drain();
+
+        assertEquals(Arrays.asList(0L, 1L, 1L), mSlowLoader.getLoaded());
+        assertEquals(1, first.mBitmaps.size());
+        assertSame(first.mBitmaps.get(0), second.mBitmaps.get(0));
+        assertSame(decoding.mBitmaps.get(0), joining.mBitmaps.get(0));
+        assertTrue(mLoader.getStats(), mLoader.getStats().contains("3 loaded, 2 joined"));
+    }
+
+    @Test
+    public void cancelledRequestsAreNotDecoded() throws InterruptedException {
+        Recorder decoding = block();
+        Recorder cancelled = new Recorder();
+        Recorder kept = new Recorder();
+        Recorder alone = new Recorder();
+        ArtworkLoader.Ticket shared = mLoader.load(1, SIZE, cancelled);
+        mLoader.load(1, SIZE, kept);
+        ArtworkLoader.Ticket single = mLoader.load(2, SIZE, alone);
+        mLoader.cancel(shared);
+        mLoader.cancel(single);
+        mLoader.cancel(single);
+        mLoader.cancel(null);
+        assertEquals(1, mLoader.mExecutor.getQueue().size());
+        mSlowLoader.open();
+        drain();
+
+        assertEquals(Arrays.asList(0L, 1L), mSlowLoader.getLoaded());
+        assertTrue(cancelled.mBitmaps.isEmpty());
+        assertEquals(1, kept.mBitmaps.size());
+        assertTrue(alone.mBitmaps.isEmpty());
+        assertFalse(single.isDone());
+        assertEquals(1, decoding.mBitmaps.size());
+    }
+
+    @Test
+    public void cancellingADecodeInProgressOnlyDropsTheCallback() throws InterruptedException {
+        Recorder decoding = new Recorder();
+        ArtworkLoader.Ticket ticket = mLoader.load(0, SIZE, decoding);
+        mSlowLoader.awaitStarted(0);
+        mLoader.cancel(ticket);
+        mSlowLoader.open();
+        drain();
+
+        assertTrue(decoding.mBitmaps.isEmpty());
+        // the art is cached all the same, for the next time it's asked for
+        assertTrue(mLoader.load(0, SIZE, decoding).isDone());
+    }
+
+    @Test
+    public void aDecodeUnderWayWhenTheCacheIsClearedIsntKept() throws InterruptedException {
+        final Bitmap[] decoded = new Bitmap[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                decoded[0] = mCache.get(5, SIZE);
+            }
+        });
+        thread.start();
+        mSlowLoader.awaitStarted(5);
+        mCache.clear();
+        mSlowLoader.open();
+        thread.join(5000);
+
+        // whoever asked still gets the art, but the next lookup decodes it again
+        assertNotNull(decoded[0]);
+        assertNull(mCache.peek(5, SIZE));
+        assertNotSame(decoded[0], mCache.get(5, SIZE));
+        assertEquals(Arrays.asList(5L, 5L), mSlowLoader.getLoaded());
+    }
+
+    @Test
+    public void invalidateOnlyForgetsTheOneAlbum() throws InterruptedException {
+        mSlowLoader.open();
+        Bitmap kept = mCache.get(1, SIZE);
+        mCache.get(2, SIZE);
+        mCache.get(2, SIZE * 2);
+        long bytes = mCache.mBytes;
+
+        mCache.invalidate(2);
+        assertSame(kept, mCache.peek(1, SIZE).mBitmap);
+        assertNull(mCache.peek(2, SIZE));
+        assertNull(mCache.peek(2, SIZE * 2));
+        assertEquals(bytes - 5 * SIZE * SIZE * 4, mCache.mBytes);
+    }
+
+    @Test
+    public void aDecodeUnderWayWhenItsAlbumIsInvalidatedIsntKept()
+            throws InterruptedException {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                mCache.get(5, SIZE);
+            }
+        });
+        thread.start();
+        mSlowLoader.awaitStarted(5);
+        mCache.invalidate(5);
+        mSlowLoader.open();
+        thread.join(5000);
+        assertNull(mCache.peek(5, SIZE));
+    }
+
+    @Test
+    public void aFullQueueDropsTheOldestRequests() throws InterruptedException {
+        block();
+        int requests = ArtworkLoader.QUEUE_CAPACITY + 2;
+        Recorder[] recorders = new Recorder[requests];
+        ArtworkLoader.Ticket first = null;
+        for (int i = 0; i < requests; i++) {
+            recorders[i] = new Recorder();
+            ArtworkLoader.Ticket ticket = mLoader.load(i + 1, SIZE, recorders[i]);
+            if (i == 0) first = ticket;
+        }
+        assertEquals(ArtworkLoader.QUEUE_CAPACITY, mLoader.mExecutor.getQueue().size());
+        // a dropped album is asked for again from scratch, at the back of the queue
+        Recorder again = new Recorder();
+        mLoader.load(1, SIZE, again);
+
+        // the dropped requests are done without art, while the decoder is still busy
+        Looper.getMainLooper().runDue();
+        assertTrue(first.isDone());
+        assertNull(first.getBitmap());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Arrays.asList((Bitmap) null), recorders[i].mBitmaps);
+            assertSame(Thread.currentThread(), recorders[i].mThread);
+        }
+        mSlowLoader.open();
+        drain();
+
+        List<Long> expected = new ArrayList<Long>();
+        expected.add(0L);
+        for (long album = 4; album <= requests; album++) expected.add(album);
+        expected.add(1L);
+        assertEquals(expected, mSlowLoader.getLoaded());
+        for (int i = 0; i < 3; i++) assertEquals(1, recorders[i].mBitmaps.size());
+        for (int i = 3; i < requests; i++) assertNotNull(recorders[i].mBitmaps.get(0));
+        assertNotNull(again.mBitmaps.get(0));
+        assertTrue(mLoader.getStats(), mLoader.getStats().contains("3 dropped"));
+    }
+
+    @Test
+    public void loadNeverWaitsForTheDecoder() throws InterruptedException {
+        block();
+        long worst = 0;
+        for (int i = 1; i <= 1000; i++) {
+            long start = System.nanoTime();
+            mLoader.load(i, SIZE, new Recorder());
+            worst = Math.max(worst, System.nanoTime() - start);
+        }
+        assertTrue("load took " + worst / 1000 + " us", worst < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void trackStartsDontWaitForArt() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        MemoryContentResolver resolver = SyntheticLibrary.create(200, 1);
+        SyntheticLibrary.resetRetriever();
+        MusicRetriever.getArtworkCache().clear();
+        MusicRetriever.setArtworkDecoder(new ArtworkDecoder(resolver, null) {
+            @Override
+            public Bitmap decode(long albumId, int size) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        VirtualClock clock = new VirtualClock(1000000);
+        FakePlayerFactory players = new FakePlayerFactory();
+        PlaybackSimulation.SimulatedService service =
+                new PlaybackSimulation.SimulatedService(resolver, mFolder.getRoot());
+        try {
+            service.start(players, clock);
+            long worst = 0;
+            for (int i = 0; i < 20; i++) {
+                long start = System.nanoTime();
+                service.onStartCommand(new Intent(i == 0 ? MusicService.ACTION_PLAY
+                        : MusicService.ACTION_SKIP), 0, 0);
+                clock.advance(new FakePlayerFactory.Track().mPrepareMs);
+                worst = Math.max(worst, System.nanoTime() - start);
+                assertEquals(MusicService.State.Playing, service.mState);
+                assertTrue(service.mPlayer.isPlaying());
+            }
+            assertTrue("a track change took " + worst / 1000 + " us",
+                    worst < TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue(service.mArtworkLoader.getStats().contains("dropped"));
+        } finally {
+            gate.countDown();
+            service.onDestroy();
+            clock.release();
+            MusicRetriever.setArtworkDecoder(null);
+            MusicRetriever.getArtworkCache().clear();
+            SyntheticLibrary.resetRetriever();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The engine ticks on its own thread in real time, but reads the fade's progress from the
+ * virtual clock, so the volumes only move when the test moves the clock.
+ */
+public class CrossfadeEngineTest {
+    static final long FADE_MS = 1000;
+    static final float DELTA = 1e-4f;
+
+    VirtualClock mClock;
+    FakePlayerFactory mFactory;
+    CrossfadeEngine mEngine;
+    final List<PlayerBackend> mDone = new ArrayList<PlayerBackend>();
+
+    @Before
+    public void setUp() {
+        mClock = new VirtualClock(1000000);
+        mFactory = new FakePlayerFactory();
+        mEngine = new CrossfadeEngine(new Handler(Looper.getMainLooper()), mClock,
+                new CrossfadeEngine.Listener() {
+                    public void onFadeOutDone(PlayerBackend outgoing) {
+                        mDone.add(outgoing);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.cancel();
+        mClock.release();
+    }
+
+    FakePlayer playing(String source) throws Exception {
+        FakePlayer player = mFactory.create(null);
+        player.setDataSource(source);
+        player.prepareAsync();
+        mClock.advance(new FakePlayerFactory.Track().mPrepareMs);
+        player.start();
+        return player;
+    }
+
+    static float out(float progress, float maxVolume) {
+        return (float) Math.cos(progress * Math.PI / 2) * maxVolume;
+    }
+
+    static float in(float progress, float maxVolume) {
+        return (float) Math.sin(progress * Math.PI / 2) * maxVolume;
+    }
+
+    /** Waits, in real time, for the timer thread to see that the fade is over. */
+    void awaitFadeEnd() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mEngine.isFading() && System.currentTimeMillis() < deadline) Thread.sleep(2);
+        assertFalse(mEngine.isFading());
+    }
+
+    @Test
+    public void fadesOutAndInAndHandsOverTheOutgoingPlayer() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 1f);
+        assertTrue(mEngine.isFading());
+        assertEquals(1f, outgoing.getVolume(), DELTA);
+        assertEquals(0f, incoming.getVolume(), DELTA);
+
+        mClock.advance(FADE_MS);
+        awaitFadeEnd();
+        assertEquals(FakePlayer.State.STOPPED, outgoing.getState());
+        assertEquals(FakePlayer.State.STARTED, incoming.getState());
+        assertEquals(1f, incoming.getVolume(), DELTA);
+        // the listener hears about it on the handler's thread
+        assertTrue(mDone.isEmpty());
+        mClock.runDue();
+        assertEquals(1, mDone.size());
+        assertSame(outgoing, mDone.get(0));
+    }
+
+    @Test
+    public void duckingMidFadeScalesBothPlayers() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 1f);
+        mClock.advance(FADE_MS / 2);
+
+        mEngine.setMaxVolume(0.2f);
+        assertEquals(out(0.5f, 0.2f), outgoing.getVolume(), DELTA);
+        assertEquals(in(0.5f, 0.2f), incoming.getVolume(), DELTA);
+
+        mClock.advance(FADE_MS / 2);
+        awaitFadeEnd();
+        assertEquals(0.2f, incoming.getVolume(), DELTA);
+    }
+
+    @Test
+    public void pauseHoldsTheFadeWhereItIs() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 1f);
+        mClock.advance(FADE_MS / 4);
+
+        // the caller pauses the incoming player, which is the current one
+        mEngine.pause();
+        incoming.pause();
+        assertEquals(FakePlayer.State.PAUSED, outgoing.getState());
+        mClock.advance(10 * FADE_MS);
+        Thread.sleep(3 * CrossfadeEngine.TICK_MS);
+        assertTrue(mEngine.isFading());
+
+        // ducking while paused applies at the point the fade was paused at
+        mEngine.setMaxVolume(0.5f);
+        assertEquals(out(0.25f, 0.5f), outgoing.getVolume(), DELTA);
+        assertEquals(in(0.25f, 0.5f), incoming.getVolume(), DELTA);
+
+        mEngine.resume();
+        incoming.start();
+        assertEquals(FakePlayer.State.STARTED, outgoing.getState());
+        assertEquals(out(0.25f, 0.5f), outgoing.getVolume(), DELTA);
+        mClock.advance(FADE_MS / 2);
+        mEngine.setMaxVolume(1f);
+        assertEquals(out(0.75f, 1f), outgoing.getVolume(), DELTA);
+        assertEquals(in(0.75f, 1f), incoming.getVolume(), DELTA);
+
+        mClock.advance(FADE_MS / 4);
+        awaitFadeEnd();
+        assertEquals(FakePlayer.State.STOPPED, outgoing.getState());
+        assertEquals(1f, incoming.getVolume(), DELTA);
+    }
+
+    @Test
+    public void cancelEndsTheFadeAndReturnsTheOutgoingPlayer() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 0.2f);
+        mClock.advance(FADE_MS / 2);
+
+        assertSame(outgoing, mEngine.cancel());
+        assertFalse(mEngine.isFading());
+        assertEquals(FakePlayer.State.STOPPED, outgoing.getState());
+        assertEquals(FakePlayer.State.STARTED, incoming.getState());
+        assertEquals(0.2f, incoming.getVolume(), DELTA);
+        assertNull(mEngine.cancel());
+
+        // nothing is left to tick or to tell the listener
+        mClock.advance(FADE_MS);
+        Thread.sleep(3 * CrossfadeEngine.TICK_MS);
+        mClock.runDue();
+        assertTrue(mDone.isEmpty());
+        assertEquals(0.2f, incoming.getVolume(), DELTA);
+    }
+
+    @Test
+    public void cancelWhilePausedLeavesTheOutgoingPlayerPaused() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 1f);
+        mClock.advance(FADE_MS / 2);
+        mEngine.pause();
+        incoming.pause();
+
+        assertSame(outgoing, mEngine.cancel());
+        assertEquals(FakePlayer.State.PAUSED, outgoing.getState());
+        assertEquals(FakePlayer.State.PAUSED, incoming.getState());
+        assertEquals(1f, incoming.getVolume(), DELTA);
+        assertEquals(0, mFactory.getIllegalCallCount());
+    }
+
+    @Test
+    public void startingAnotherFadeEndsTheFirst() throws Exception {
+        FakePlayer first = playing("a");
+        FakePlayer second = playing("b");
+        FakePlayer third = playing("c");
+        mEngine.start(first, second, FADE_MS, 1f);
+        mClock.advance(FADE_MS / 2);
+
+        mEngine.start(second, third, FADE_MS, 1f);
+        assertEquals(FakePlayer.State.STOPPED, first.getState());
+        assertEquals(1f, second.getVolume(), DELTA);
+        assertEquals(0f, third.getVolume(), DELTA);
+        mClock.runDue();
+        assertEquals(1, mDone.size());
+        assertSame(first, mDone.get(0));
+    }
+
+    @Test
+    public void aReleasedPlayerDoesntBreakTheFade() throws Exception {
+        FakePlayer outgoing = playing("a");
+        FakePlayer incoming = playing("b");
+        mEngine.start(outgoing, incoming, FADE_MS, 1f);
+        mClock.advance(FADE_MS / 2);
+
+        outgoing.release();
+        mEngine.setMaxVolume(0.5f);
+        assertSame(outgoing, mEngine.cancel());
+        assertFalse(mEngine.isFading());
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * A player that plays nothing but keeps MediaPlayer's state rules and timing. It prepares,
+ * plays through its track and starts a chained player at the end as its
+ * {@link FakePlayerFactory.Script} says, in {@link SystemClock} time. Its events arrive on the
+ * main looper, like MediaPlayer's arrive on the looper of the thread that made it. Calls in a
+ * state MediaPlayer doesn't allow them in throw IllegalStateException and put the player in
+ * the error state, as MediaPlayer does.
+ */
+public class FakePlayer implements PlayerBackend {
+    public enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, COMPLETED, ERROR, END
+    }
+
+    final FakePlayerFactory mFactory;
+    final int mId;
+    final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    Listener mListener;
+    State mState = State.IDLE;
+    String mSource;
+    FakePlayerFactory.Track mTrack;
+
+    // position when playback last started or was sought, and when it last started (-1 if not
+    // playing)
+    int mPositionMs;
+    long mStartedAt = -1;
+    float mLeftVolume = 1f;
+    float mRightVolume = 1f;
+    FakePlayer mNext;
+
+    final Runnable mPrepared = new Runnable() {
+        public void run() {
+            onPrepareDone();
+        }
+    };
+
+    final Runnable mCompleted = new Runnable() {
+        public void run() {
+            onPlaybackDone();
+        }
+    };
+
+    FakePlayer(FakePlayerFactory factory, int id) {
+        mFactory = factory;
+        mId = id;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public synchronized void setAudioStreamType(int streamType) {
+    }
+
+    public void setDataSource(Context context, Uri uri) throws IOException {
+        setDataSource(uri.toString());
+    }
+
+    public synchronized void setDataSource(String path) throws IOException {
+        check("setDataSource", mState == State.IDLE);
+        FakePlayerFactory.Track track = mFactory.scriptFor(path);
+        if (track.mSourceFails) throw new IOException("can't open " + path);
+        mSource = path;
+        mTrack = track;
+        mState = State.INITIALIZED;
+    }
+
+    public synchronized void prepareAsync() {
+        check("prepareAsync", mState == State.INITIALIZED || mState == State.STOPPED);
+        mState = State.PREPARING;
+        mFactory.mPrepares++;
+        mHandler.postDelayed(mPrepared, mTrack.mPrepareMs);
+    }
+
+    void onPrepareDone() {
+        Listener listener;
+        boolean failed;
+        synchronized (this) {
+            if (mState != State.PREPARING) return;
+            failed = mTrack.mPrepareError != 0;
+            mState = failed ? State.ERROR : State.PREPARED;
+            mPositionMs = 0;
+            listener = mListener;
+        }
+        if (listener == null) return;
+        if (!failed) {
+            listener.onPrepared(this);
+        } else if (!listener.onError(this, mTrack.mPrepareError, 0)) {
+            listener.onCompletion(this);
+        }
+    }
+
+    public synchronized void start() {
+        check("start", mState == State.PREPARED || mState == State.STARTED
+                || mState == State.PAUSED || mState == State.COMPLETED);
+        if (mState == State.STARTED) return;
+        if (mState == State.COMPLETED) mPositionMs = 0;
+        play();
+    }
+
+    void play() {
+        mState = State.STARTED;
+        mStartedAt = SystemClock.uptimeMillis();
+        mFactory.onStarted(this);
+        scheduleCompletion();
+    }
+
+    void scheduleCompletion() {
+        mHandler.removeCallbacks(mCompleted);
+        if (mState == State.STARTED) {
+            mHandler.postDelayed(mCompleted, Math.max(0, mTrack.mDurationMs - mPositionMs));
+        }
+    }
+
+    void onPlaybackDone() {
+        Listener listener;
+        synchronized (this) {
+            if (mState != State.STARTED) return;
+            if (getCurrentPosition() < mTrack.mDurationMs) {
+                scheduleCompletion();
+                return;
+            }
+            mPositionMs = mTrack.mDurationMs;
+            mStartedAt = -1;
+            mState = State.COMPLETED;
+            mFactory.onCompleted(this);
+            // the platform starts the chained player before telling anyone
+            FakePlayer next = mNext;
+            mNext = null;
+            if (next != null) next.startChained();
+            listener = mListener;
+        }
+        if (listener != null) listener.onCompletion(this);
+    }
+
+    synchronized void startChained() {
+        if (mState == State.PREPARED) play();
+    }
+
+    public synchronized void pause() {
+        check("pause", mState == State.STARTED || mState == State.PAUSED
+                || mState == State.COMPLETED);
+        if (mState != State.STARTED) return;
+        mPositionMs = getCurrentPosition();
+        mStartedAt = -1;
+        mState = State.PAUSED;
+        mHandler.removeCallbacks(mCompleted);
+    }
+
+    public synchronized void stop() {
+        check("stop", mState == State.PREPARED || mState == State.STARTED
+                || mState == State.PAUSED || mState == State.STOPPED
+                || mState == State.COMPLETED);
+        halt(State.STOPPED);
+    }
+
+    public synchronized void reset() {
+        check("reset", mState != State.END);
+        halt(State.IDLE);
+        mSource = null;
+        mTrack = null;
+        mPositionMs = 0;
+    }
+
+    public synchronized void release() {
+        if (mState == State.END) return;
+        halt(State.END);
+        mListener = null;
+        mFactory.onReleased(this);
+    }
+
+    void halt(State state) {
+        mHandler.removeCallbacks(mPrepared);
+        mHandler.removeCallbacks(mCompleted);
+        if (mState == State.STARTED) mPositionMs = getCurrentPosition();
+        mStartedAt = -1;
+        mNext = null;
+        mState = state;
+    }
+
+    public synchronized void seekTo(int msec) {
+        check("seekTo", mState == State.PREPARED || mState == State.STARTED
+                || mState == State.PAUSED || mState == State.COMPLETED);
+        mPositionMs = Math.max(0, Math.min(mTrack.mDurationMs, msec));
+        if (mState == State.STARTED) mStartedAt = SystemClock.uptimeMillis();
+        scheduleCompletion();
+    }
+
+    public synchronized boolean isPlaying() {
+        check("isPlaying", mState != State.END);
+        return mState == State.STARTED;
+    }
+
+    public synchronized int getCurrentPosition() {
+        if (mTrack == null || !isPrepared()) return 0;
+        long position = mPositionMs;
+        if (mStartedAt >= 0) position += SystemClock.uptimeMillis() - mStartedAt;
+        return (int) Math.min(mTrack.mDurationMs, position);
+    }
+
+    public synchronized int getDuration() {
+        return mTrack == null || !isPrepared() ? 0 : mTrack.mDurationMs;
+    }
+
+    boolean isPrepared() {
+        return mState == State.PREPARED || mState == State.STARTED || mState == State.PAUSED
+                || mState == State.STOPPED || mState == State.COMPLETED;
+    }
+
+    public synchronized void setVolume(float leftVolume, float rightVolume) {
+        check("setVolume", mState != State.END && mState != State.ERROR);
+        mLeftVolume = leftVolume;
+        mRightVolume = rightVolume;
+    }
+
+    public synchronized boolean setNextPlayer(PlayerBackend next) {
+        check("setNextPlayer", mState != State.END);
+        if (!mFactory.mCanChain) return false;
+        if (next != null && ((FakePlayer) next).getState() != State.PREPARED) {
+            throw new IllegalStateException("next player is " + ((FakePlayer) next).getState());
+        }
+        mNext = (FakePlayer) next;
+        return true;
+    }
+
+    void check(String call, boolean allowed) {
+        if (allowed) return;
+        State state = mState;
+        if (state != State.END) mState = State.ERROR;
+        mFactory.mIllegalCalls++;
+        throw new IllegalStateException(call + "() on " + this + " in state " + state);
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    public synchronized String getSource() {
+        return mSource;
+    }
+
+    public synchronized float getVolume() {
+        return Math.max(mLeftVolume, mRightVolume);
+    }
+
+    /** Returns whether the player is playing at a volume that can be heard. */
+    public synchronized boolean isAudible() {
+        return mState == State.STARTED && getVolume() > 0;
+    }
+
+    public synchronized FakePlayer getNext() {
+        return mNext;
+    }
+
+    @Override
+    public String toString() {
+        return "FakePlayer#" + mId;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes {@link FakePlayer}s, tells them how each source behaves, and keeps track of them: which
+ * are still alive, and how long the silence between one track ending by itself and the next
+ * one starting was.
+ */
+public class FakePlayerFactory implements PlayerBackend.Factory {
+    /** How a source behaves when a player opens it. */
+    public static class Track {
+        public int mPrepareMs = 50;
+        public int mDurationMs = 180000;
+        // the error code prepareAsync() ends with, or 0 if it prepares
+        public int mPrepareError = 0;
+        public boolean mSourceFails = false;
+    }
+
+    /** Decides how a source behaves, each time a player opens it. */
+    public interface Script {
+        Track scriptFor(String source);
+    }
+
+    public static final Script DEFAULT_SCRIPT = new Script() {
+        public Track scriptFor(String source) {
+            return new Track();
+        }
+    };
+
+    Script mScript = DEFAULT_SCRIPT;
+    // whether setNextPlayer() chains players, as on SDK level 16 and up
+    boolean mCanChain = true;
+
+    final List<FakePlayer> mPlayers = new ArrayList<FakePlayer>();
+    int mReleased;
+    int mPrepares;
+    int mIllegalCalls;
+
+    // when a track last played to its end with nothing started since, or -1
+    long mEndedAt = -1;
+    final LatencyHistogram mGaps = new LatencyHistogram("gap");
+
+    public FakePlayerFactory() {
+    }
+
+    public FakePlayerFactory(Script script, boolean canChain) {
+        mScript = script;
+        mCanChain = canChain;
+    }
+
+    public synchronized FakePlayer create(Context context) {
+        FakePlayer player = new FakePlayer(this, mPlayers.size());
+        mPlayers.add(player);
+        return player;
+    }
+
+    public synchronized void setScript(Script script) {
+        mScript = script;
+    }
+
+    public synchronized void setCanChain(boolean canChain) {
+        mCanChain = canChain;
+    }
+
+    synchronized Track scriptFor(String source) {
+        return mScript.scriptFor(source);
+    }
+
+    synchronized void onStarted(FakePlayer player) {
+        if (mEndedAt < 0) return;
+        mGaps.record((SystemClock.uptimeMillis() - mEndedAt) * 1000);
+        mEndedAt = -1;
+    }
+
+    synchronized void onCompleted(FakePlayer player) {
+        mEndedAt = SystemClock.uptimeMillis();
+    }
+
+    synchronized void onReleased(FakePlayer player) {
+        mReleased++;
+    }
+
+    /** Forgets that a track ended, so that starting another one doesn't count as a gap. */
+    public synchronized void clearEnded() {
+        mEndedAt = -1;
+    }
+
+    /** Returns every player made so far. */
+    public synchronized List<FakePlayer> getPlayers() {
+        return new ArrayList<FakePlayer>(mPlayers);
+    }
+
+    /** Returns the players that haven't been released. */
+    public List<FakePlayer> getLivePlayers() {
+        List<FakePlayer> live = new ArrayList<FakePlayer>();
+        for (FakePlayer player : getPlayers()) {
+            if (player.getState() != FakePlayer.State.END) live.add(player);
+        }
+        return live;
+    }
+
+    /** Returns the players playing at a volume that can be heard. */
+    public List<FakePlayer> getAudiblePlayers() {
+        List<FakePlayer> audible = new ArrayList<FakePlayer>();
+        for (FakePlayer player : getPlayers()) {
+            if (player.isAudible()) audible.add(player);
+        }
+        return audible;
+    }
+
+    /**
+     * Returns the silences, in microseconds, between a track playing to its end and the next
+     * one starting.
+     */
+    public LatencyHistogram getGaps() {
+        return mGaps;
+    }
+
+    public synchronized int getPrepareCount() {
+        return mPrepares;
+    }
+
+    public synchronized int getIllegalCallCount() {
+        return mIllegalCalls;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class FuzzyMatcherTest {
+    static final String[] WORDS = {
+            "and", "band", "bands", "bend", "blue", "brand", "midnight", "night", "nights",
+            "sand", "the", "thing"
+    };
+
+    /** Returns the words found, with their distances, by word. */
+    static TreeMap<String, Integer> match(FuzzyMatcher matcher, String token, boolean prefix) {
+        FuzzyMatcher.Matches matches = matcher.match(token, FuzzyMatcher.maxEdits(token), prefix);
+        TreeMap<String, Integer> found = new TreeMap<String, Integer>();
+        for (int i = 0; i < matches.size(); i++) {
+            found.put(matcher.mWords[matches.getWord(i)], matches.getDistance(i));
+        }
+        return found;
+    }
+
+    @Test
+    public void aSwapInAShortWordIsOneTypo() {
+        FuzzyMatcher matcher = new FuzzyMatcher(WORDS);
+        TreeMap<String, Integer> found = match(matcher, "bnad", false);
+        assertEquals(Integer.valueOf(1), found.get("band"));
+        assertEquals("{band=1}", found.toString());
+        assertEquals(Integer.valueOf(1), match(matcher, "bnad", true).get("bands"));
+    }
+
+    @Test
+    public void aSwapInALongerWordIsOneTypo() {
+        FuzzyMatcher matcher = new FuzzyMatcher(WORDS);
+        assertEquals("{night=1, nights=2}", match(matcher, "nihgt", false).toString());
+        assertEquals("{midnight=1}", match(matcher, "midngiht", false).toString());
+        assertEquals(Integer.valueOf(1), match(matcher, "nihgt", true).get("nights"));
+    }
+
+    @Test
+    public void otherTyposAreFound() {
+        FuzzyMatcher matcher = new FuzzyMatcher(WORDS);
+        assertEquals("{and=1, band=1, bend=1}", match(matcher, "bnd", false).toString());
+        assertEquals(Integer.valueOf(1), match(matcher, "brnd", false).get("brand"));
+        assertEquals(Integer.valueOf(2), match(matcher, "mdinigt", false).get("midnight"));
+    }
+
+    @Test
+    public void shortWordsTolerateOneTypoAndTheShortestNone() {
+        FuzzyMatcher matcher = new FuzzyMatcher(WORDS);
+        assertEquals("{the=1}", match(matcher, "hte", false).toString());
+        assertEquals(0, FuzzyMatcher.maxEdits("th"));
+        assertEquals("{}", match(matcher, "ht", false).toString());
+        assertEquals("{the=0, thing=0}", match(matcher, "th", true).toString());
+    }
+
+    /** The optimal string alignment distance, straight from its definition. */
+    static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    static int prefixDistance(String token, String word) {
+        int best = Integer.MAX_VALUE;
+        for (int j = 0; j <= word.length(); j++) {
+            best = Math.min(best, distance(token, word.substring(0, j)));
+        }
+        return best;
+    }
+
+    static String typo(String word, Random random) {
+        StringBuilder sb = new StringBuilder(word);
+        int i = random.nextInt(sb.length());
+        char c = (char) ('a' + random.nextInt(6));
+        switch (random.nextInt(4)) {
+            case 0:
+                sb.insert(i, c);
+                break;
+            case 1:
+                if (sb.length() > 1) sb.deleteCharAt(i);
+                break;
+            case 2:
+                sb.setCharAt(i, c);
+                break;
+            default:
+                if (i + 1 < sb.length()) {
+                    char swapped = sb.charAt(i);
+                    sb.setCharAt(i, sb.charAt(i + 1));
+                    sb.setCharAt(i + 1, swapped);
+                }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void findsEveryWordWithinTheTypos() {
+        Random random = new Random(1);
+        // a small alphabet, so that many words are a typo or two apart
+        TreeSet<String> dictionary = new TreeSet<String>();
+        while (dictionary.size() < 2000) {
+            char[] word = new char[2 + random.nextInt(9)];
+            for (int i = 0; i < word.length; i++) word[i] = (char) ('a' + random.nextInt(6));
+            dictionary.add(new String(word));
+        }
+        String[] words = dictionary.toArray(new String[0]);
+        FuzzyMatcher matcher = new FuzzyMatcher(words);
+
+        for (int q = 0; q < 500; q++) {
+            String token = words[random.nextInt(words.length)];
+            for (int t = random.nextInt(3); t > 0; t--) token = typo(token, random);
+            int edits = FuzzyMatcher.maxEdits(token);
+            for (boolean prefix : new boolean[] { false, true }) {
+                List<String> expected = new ArrayList<String>();
+                for (String word : words) {
+                    int d = prefix ? prefixDistance(token, word) : distance(token, word);
+                    if (d <= edits) expected.add(word + "=" + d);
+                }
+                List<String> actual = new ArrayList<String>();
+                for (Map.Entry<String, Integer> entry : match(matcher, token, prefix).entrySet()) {
+                    actual.add(entry.getKey() + "=" + entry.getValue());
+                }
+                assertEquals(token + (prefix ? " as a prefix" : ""), expected, actual);
+            }
+        }
+    }
+}
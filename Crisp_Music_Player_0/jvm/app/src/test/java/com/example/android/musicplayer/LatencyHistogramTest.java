@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatencyHistogramTest {
+    @Test
+    public void everyValueFallsInABucketAtMostAnEighthWide() {
+        int previous = -1;
+        for (int bits = 0; bits < LatencyHistogram.MAX_BITS; bits++) {
+            for (long value : new long[] { (1L << bits) - 1, 1L << bits, (3L << bits) / 2 }) {
+                if (value > LatencyHistogram.MAX_VALUE) continue;
+                int bucket = LatencyHistogram.bucketOf(value);
+                long highest = LatencyHistogram.highestValueIn(bucket);
+                long lowest = bucket == 0 ? 0 : LatencyHistogram.highestValueIn(bucket - 1) + 1;
+                assertTrue(value + " in [" + lowest + ", " + highest + "]",
+                        lowest <= value && value <= highest);
+                assertTrue(value + " in a bucket " + (highest - lowest + 1) + " wide",
+                        (highest - lowest) * LatencyHistogram.SUB_BUCKETS <= value);
+                assertTrue(bucket >= previous);
+                previous = bucket;
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.bucketOf(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinTheirBucket() {
+        Random random = new Random(1);
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        long[] values = new long[100000];
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            // spread over six orders of magnitude, like skips and scans are
+            values[i] = (long) Math.pow(10, random.nextDouble() * 6);
+            histogram.record(values[i]);
+            sum += values[i];
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(sum / values.length, histogram.getMean());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for (double fraction : new double[] { 0.01, 0.1, 0.5, 0.9, 0.99, 0.999, 1 }) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long read = histogram.getPercentile(fraction);
+            assertTrue(fraction + ": " + read + " for " + exact,
+                    read >= exact && read <= exact + exact / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(histogram.getMax(), histogram.getPercentile(1));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMean());
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+        assertEquals(2, histogram.getCount());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void recordSinceReadsTheHistogramsClock() {
+        final long[] now = { 5000000 };
+        LatencyHistogram histogram = new LatencyHistogram("test", new Clock() {
+            public long nanoTime() {
+                return now[0];
+            }
+        });
+        long start = now[0];
+        now[0] += 1234567;
+        histogram.recordSince(start);
+        histogram.recordNanos(999);
+        assertEquals(1234, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test
+    public void threadsRecordingAtOnceLoseNothing() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) histogram.record(i % 1000 + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(999 + threads.length - 1, histogram.getMax());
+        // each thread's values average 499.5 plus its offset, 0 to 3
+        assertEquals(501, histogram.getMean());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class LibraryCollatorTest {
+    final LibraryCollator mCollator = new LibraryCollator();
+
+    @Test
+    public void normalizeStripsOneLeadingArticle() {
+        assertEquals("Beatles", LibraryCollator.normalize("The Beatles"));
+        assertEquals("Tribe Called Quest", LibraryCollator.normalize("  a Tribe Called Quest "));
+        assertEquals("Ocean", LibraryCollator.normalize("AN   Ocean"));
+        assertEquals("The End", LibraryCollator.normalize("The The End"));
+        // only whole words, and never the whole name
+        assertEquals("Theatre", LibraryCollator.normalize("Theatre"));
+        assertEquals("Anthem", LibraryCollator.normalize("Anthem"));
+        assertEquals("The", LibraryCollator.normalize("The"));
+        assertEquals("", LibraryCollator.normalize(null));
+    }
+
+    @Test
+    public void comparesWithoutArticlesCaseOrAccents() {
+        assertEquals(0, mCollator.compare("The Beatles", "beatles"));
+        assertEquals(0, mCollator.compare("\u00e9t\u00e9", "Ete"));
+        assertEquals(0, mCollator.compare(null, ""));
+        assertTrue(mCollator.compare("The Beatles", "Abba") > 0);
+        assertTrue(mCollator.compare("A Zebra", "The Yak") > 0);
+        assertTrue(mCollator.compare(null, "a") < 0);
+    }
+
+    @Test
+    public void ranksFollowTheCollationOrder() {
+        List<String> names = Arrays.asList("The Cure", "abba", "Beatles", "ABBA", "the beatles",
+                "\u00c9cho", "echo", "Zz Top");
+        StringPool pool = new StringPool();
+        for (String name : names) pool.intern(name);
+        int[] ranks = mCollator.rank(pool);
+        assertEquals(pool.size(), ranks.length);
+        for (int a = 0; a < ranks.length; a++) {
+            for (int b = 0; b < ranks.length; b++) {
+                int compare = mCollator.compare(pool.get(a), pool.get(b));
+                assertEquals(pool.get(a) + " / " + pool.get(b),
+                        Integer.signum(compare), Integer.signum(ranks[a] - ranks[b]));
+            }
+        }
+        // equal names share a rank, and the ranks have no gaps
+        assertEquals(ranks[pool.find("Beatles")], ranks[pool.find("the beatles")]);
+        assertEquals(0, ranks[pool.find("abba")]);
+        assertEquals(4, ranks[pool.find("Zz Top")]);
+    }
+}
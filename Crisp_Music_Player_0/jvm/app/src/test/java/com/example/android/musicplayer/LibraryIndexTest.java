@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LibraryIndexTest {
+    LibraryStore mStore;
+
+    @Before
+    public void setUp() {
+        SyntheticLibrary.resetRetriever();
+        SyntheticLibrary.load(SyntheticLibrary.create(3000, 5));
+        mStore = MusicRetriever.mLibrary;
+    }
+
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    static List<Integer> artistTracks(LibraryIndex index, int artist) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < index.getArtistTrackCount(artist); i++) {
+            rows.add(index.getArtistTrack(artist, i));
+        }
+        return rows;
+    }
+
+    static List<Integer> albumTracks(LibraryIndex index, int album) {
+        List<Integer> rows = new ArrayList<Integer>();
+        for (int i = 0; i < index.getAlbumTrackCount(album); i++) {
+            rows.add(index.getAlbumTrack(album, i));
+        }
+        return rows;
+    }
+
+    static List<Integer> artistAlbums(LibraryIndex index, int artist) {
+        List<Integer> albums = new ArrayList<Integer>();
+        for (int i = 0; i < index.getArtistAlbumCount(artist); i++) {
+            albums.add(index.getArtistAlbum(artist, i));
+        }
+        return albums;
+    }
+
+    /** Checks every key of the index against a scan of the tracks, in their order. */
+    void assertIndexes(LibraryIndex index, TrackList tracks) {
+        for (int artist = 0; artist < mStore.getArtistPool().size(); artist++) {
+            List<Integer> rows = new ArrayList<Integer>();
+            List<Integer> albums = new ArrayList<Integer>();
+            for (int i = 0; i < tracks.size(); i++) {
+                int row = tracks.getRow(i);
+                if (mStore.getArtistCode(row) != artist) continue;
+                rows.add(row);
+                int album = mStore.getAlbumCode(row);
+                if (!albums.contains(album)) albums.add(album);
+            }
+            assertEquals(rows, artistTracks(index, artist));
+            assertEquals(albums, artistAlbums(index, artist));
+        }
+        for (int album = 0; album < mStore.getAlbumPool().size(); album++) {
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = 0; i < tracks.size(); i++) {
+                if (mStore.getAlbumCode(tracks.getRow(i)) == album) rows.add(tracks.getRow(i));
+            }
+            assertEquals(rows, albumTracks(index, album));
+        }
+    }
+
+    @Test
+    public void listsEveryArtistsAndAlbumsTracksInOrder() {
+        assertIndexes(LibraryIndex.build(mStore, MusicRetriever.mItems), MusicRetriever.mItems);
+    }
+
+    @Test
+    public void coversOnlyTheTracksItWasBuiltFor() {
+        TrackList some = new TrackList(mStore);
+        for (int i = MusicRetriever.mItems.size() - 1; i >= 0; i -= 3) {
+            some.addRow(MusicRetriever.mItems.getRow(i));
+        }
+        assertIndexes(LibraryIndex.build(mStore, some), some);
+        assertIndexes(LibraryIndex.build(mStore, new TrackList(mStore)), new TrackList(mStore));
+    }
+
+    @Test
+    public void browsingByNameGoesThroughTheIndex() {
+        String artist = MusicRetriever.getArtists().get(MusicRetriever.getArtists().size() / 2);
+        List<String> titles = new ArrayList<String>();
+        List<String> albums = new ArrayList<String>();
+        TrackList items = MusicRetriever.mItems;
+        for (int i = 0; i < items.size(); i++) {
+            int row = items.getRow(i);
+            if (!mStore.getArtist(row).equals(artist)) continue;
+            titles.add(mStore.getTitle(row));
+            if (!albums.contains(mStore.getAlbum(row))) albums.add(mStore.getAlbum(row));
+        }
+        assertEquals(titles, MusicRetriever.getSongsByArtist(artist));
+        assertEquals(titles.size(), MusicRetriever.tempPlaylist.size());
+        albums.add("All Songs");
+        assertEquals(albums, MusicRetriever.getAlbumsByArtist(artist));
+
+        String album = albums.get(0);
+        List<String> albumTitles = new ArrayList<String>();
+        for (int i = 0; i < items.size(); i++) {
+            int row = items.getRow(i);
+            if (mStore.getAlbum(row).equals(album)) albumTitles.add(mStore.getTitle(row));
+        }
+        assertEquals(albumTitles, MusicRetriever.getSongsByAlbum(album));
+
+        assertEquals(0, MusicRetriever.getSongsByArtist("No such artist").size());
+        assertEquals(1, MusicRetriever.getAlbumsByArtist("No such artist").size());
+    }
+}
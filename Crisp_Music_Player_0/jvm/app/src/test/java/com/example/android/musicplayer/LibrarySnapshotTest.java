@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LibrarySnapshotTest {
+    static final int SIZE = 3000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    MemoryContentResolver mResolver;
+    File mFile;
+    LibrarySnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        mResolver = SyntheticLibrary.create(SIZE, 3);
+        SyntheticLibrary.load(mResolver);
+        mFile = new File(mFolder.getRoot(), "library.snapshot");
+        mSnapshot = new LibrarySnapshot(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    static List<Long> ids(List<Item> items) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Item item : items) ids.add(item.getId());
+        return ids;
+    }
+
+    static void assertSameImage(LibrarySnapshot.Image expected, LibrarySnapshot.Image actual) {
+        assertEquals(expected.mSize, actual.mSize);
+        assertEquals(expected.mMaxId, actual.mMaxId);
+        assertEquals(expected.mMaxDateModified, actual.mMaxDateModified);
+        assertArrayEquals(expected.mIds, actual.mIds);
+        assertArrayEquals(expected.mDurations, actual.mDurations);
+        assertArrayEquals(expected.mAlbumIds, actual.mAlbumIds);
+        assertArrayEquals(expected.mArtists, actual.mArtists);
+        assertArrayEquals(expected.mAlbums, actual.mAlbums);
+        assertArrayEquals(expected.mTitles, actual.mTitles);
+        assertArrayEquals(expected.mArtistPool, actual.mArtistPool);
+        assertArrayEquals(expected.mAlbumPool, actual.mAlbumPool);
+        assertArrayEquals(expected.mTitlePool, actual.mTitlePool);
+        assertArrayEquals(expected.mSongOrder, actual.mSongOrder);
+        assertArrayEquals(expected.mArtistOrder, actual.mArtistOrder);
+        assertArrayEquals(expected.mAlbumOrder, actual.mAlbumOrder);
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        LibrarySnapshot.Image image = MusicRetriever.captureSnapshot();
+        mSnapshot.write(image);
+        assertTrue(mFile.exists());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertSameImage(image, mSnapshot.read());
+
+        // before populate() there are no sorted lists to save
+        image.mSongOrder = null;
+        image.mArtistOrder = null;
+        image.mAlbumOrder = null;
+        mSnapshot.write(image);
+        assertSameImage(image, mSnapshot.read());
+    }
+
+    @Test
+    public void aRestoredLibraryMatchesTheOneThatWasSaved() {
+        // with a deleted track, which is left out and the rows after it renumbered
+        mResolver.delete(100);
+        MusicRetriever.applyChanges(
+                new LibrarySync(mResolver, MusicRetriever.mLibrary).query());
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+        List<Long> items = ids(MusicRetriever.getItems());
+        List<Long> songs = ids(MusicRetriever.getOrderedSongs());
+        List<String> titles = new ArrayList<String>(MusicRetriever.getOrdSongs());
+        List<String> artists = new ArrayList<String>(MusicRetriever.getArtists());
+        List<String> albums = new ArrayList<String>(MusicRetriever.getAlbums());
+
+        SyntheticLibrary.resetRetriever();
+        MusicRetriever retriever = new MusicRetriever(new MemoryContentResolver());
+        retriever.setSnapshot(mSnapshot);
+        retriever.prepare();
+        assertTrue(MusicRetriever.isRestoredFromSnapshot());
+        assertEquals(items, ids(MusicRetriever.getItems()));
+        assertEquals(songs, ids(MusicRetriever.getOrderedSongs()));
+        assertEquals(titles, MusicRetriever.getOrdSongs());
+        assertEquals(artists, MusicRetriever.getArtists());
+        assertEquals(albums, MusicRetriever.getAlbums());
+        assertEquals(SIZE - 1, MusicRetriever.mLibrary.liveCount());
+    }
+
+    void overwriteInt(long offset, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void aSnapshotOfAnotherVersionIsIgnoredAndDeleted() throws IOException {
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+        overwriteInt(4, LibrarySnapshot.VERSION + 1);
+        assertNull(mSnapshot.read());
+        assertFalse(mFile.exists());
+
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+        overwriteInt(0, 0x12345678);
+        assertNull(mSnapshot.read());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void aCorruptSnapshotIsIgnoredAndDeleted() throws IOException {
+        // cut short
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() / 2);
+        } finally {
+            file.close();
+        }
+        assertNull(mSnapshot.read());
+        assertFalse(mFile.exists());
+
+        // a track count that can't be
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+        overwriteInt(8, -5);
+        assertNull(mSnapshot.read());
+        assertFalse(mFile.exists());
+
+        // and an empty file
+        assertTrue(mFile.createNewFile());
+        assertNull(mSnapshot.read());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void withoutASnapshotTheLibraryIsReadFromTheMediaStore() {
+        assertNull(mSnapshot.read());
+        SyntheticLibrary.resetRetriever();
+        MusicRetriever retriever = new MusicRetriever(mResolver);
+        retriever.setSnapshot(mSnapshot);
+        retriever.prepare();
+        assertFalse(MusicRetriever.isRestoredFromSnapshot());
+        assertEquals(SIZE, MusicRetriever.getItems().size());
+        assertNotNull(MusicRetriever.getItems().get(SIZE - 1));
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Syncs a loaded library with changes made to the media store, and checks every list the
+ * retriever keeps against the ones a full rebuild from the same media store gives.
+ */
+public class LibrarySyncTest {
+    static final int SIZE = 2000;
+
+    MemoryContentResolver mResolver;
+    long mLastModified;
+
+    @Before
+    public void setUp() {
+        mResolver = SyntheticLibrary.create(SIZE, 7);
+        SyntheticLibrary.load(mResolver);
+        mLastModified = MusicRetriever.mLibrary.getMaxDateModified();
+    }
+
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    /** Marks a track as modified after everything the library has read. */
+    MemoryContentResolver.Track touch(long id) {
+        MemoryContentResolver.Track track = mResolver.find(id);
+        track.mDateModified = ++mLastModified;
+        return track;
+    }
+
+    MemoryContentResolver.Track add(String artist, String title, String album) {
+        long id = mResolver.getTracks().get(mResolver.size() - 1).mId + 1;
+        return mResolver.add(id, artist, title, album, 200000, 90000 + id, ++mLastModified);
+    }
+
+    LibrarySync.Changes query() {
+        return new LibrarySync(mResolver, MusicRetriever.mLibrary).query();
+    }
+
+    static List<Long> updatedIds(LibrarySync.Changes changes) {
+        List<Long> ids = new ArrayList<Long>();
+        for (int i = 0; i < changes.mUpdateCount; i++) ids.add(changes.mIds[i]);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    static List<Long> ids(List<Item> items) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Item item : items) ids.add(item.getId());
+        return ids;
+    }
+
+    static List<Long> sortedIds(List<Item> items) {
+        List<Long> ids = ids(items);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Everything the retriever shows of the library, by id and name, since store rows differ
+     * between a synced library and a rebuilt one. Tracks with the same title may be in either
+     * order in the sorted list, so that one is compared by title, plus the ids it holds.
+     */
+    static List<Object> view() {
+        List<Object> view = new ArrayList<Object>();
+        view.add(ids(MusicRetriever.getItems()));
+        view.add(new ArrayList<String>(MusicRetriever.getSongs()));
+        view.add(new ArrayList<String>(MusicRetriever.getOrdSongs()));
+        List<String> sortedTitles = new ArrayList<String>();
+        for (Item item : MusicRetriever.getOrderedSongs()) sortedTitles.add(item.getTitle());
+        view.add(sortedTitles);
+        view.add(sortedIds(MusicRetriever.getOrderedSongs()));
+        view.add(new ArrayList<String>(MusicRetriever.getArtists()));
+        view.add(new ArrayList<String>(MusicRetriever.getAlbums()));
+        for (String artist : MusicRetriever.getArtists()) {
+            view.add(MusicRetriever.getAlbumsByArtist(artist));
+            view.add(MusicRetriever.getSongsByArtist(artist));
+        }
+        for (String album : MusicRetriever.getAlbums()) {
+            view.add(MusicRetriever.getSongsByAlbum(album));
+        }
+        for (String query : new String[] { "lo", "night", "the", "river 1", "ctiy" }) {
+            view.add(sortedIds(MusicRetriever.search(query, SIZE * 2)));
+        }
+        return view;
+    }
+
+    /** Applies the changes, and checks the result against a full rebuild. */
+    void syncAndCompare(LibrarySync.Changes changes) {
+        assertTrue(MusicRetriever.applyChanges(changes));
+        assertMatchesRebuild();
+    }
+
+    void assertMatchesRebuild() {
+        // each title in the title list belongs to the track at its position
+        List<String> titles = MusicRetriever.getOrdSongs();
+        List<Item> sorted = MusicRetriever.getOrderedSongs();
+        assertEquals(sorted.size(), titles.size());
+        for (int i = 0; i < titles.size(); i++) {
+            assertEquals("position " + i, sorted.get(i).getTitle(), titles.get(i));
+        }
+
+        List<Object> synced = view();
+        SyntheticLibrary.load(mResolver);
+        List<Object> rebuilt = view();
+        assertEquals(rebuilt.size(), synced.size());
+        for (int i = 0; i < rebuilt.size(); i++) {
+            assertEquals("part " + i, rebuilt.get(i), synced.get(i));
+        }
+    }
+
+    @Test
+    public void queriesOnlyWhatIsPastTheWatermark() {
+        touch(100).mTitle = "Retitled";
+        long added = add("New Artist", "New Song", "New Album").mId;
+        LibrarySync.Changes changes = query();
+
+        // and the last track read, which is modified in the same second as the watermark
+        assertEquals(Arrays.asList(100L, (long) SIZE, added), updatedIds(changes));
+        assertEquals(0, changes.mDeletionCount);
+    }
+
+    @Test
+    public void anUnchangedLibrarySyncsToNothing() {
+        LibrarySync.Changes changes = query();
+        assertEquals(Arrays.asList((long) SIZE), updatedIds(changes));
+        List<Object> before = view();
+        assertFalse(MusicRetriever.applyChanges(changes));
+        assertFalse(MusicRetriever.applyChanges(null));
+        assertEquals(before, view());
+    }
+
+    @Test
+    public void deletionsAreFoundByDiffingIds() {
+        long[] deleted = { 1, 555, SIZE };
+        for (long id : deleted) mResolver.delete(id);
+        LibrarySync.Changes changes = query();
+        assertEquals(deleted.length, changes.mDeletionCount);
+        long[] found = LibraryStore.copyOf(changes.mDeletedIds, changes.mDeletionCount);
+        Arrays.sort(found);
+        assertTrue(Arrays.toString(found), Arrays.equals(deleted, found));
+        syncAndCompare(changes);
+    }
+
+    @Test
+    public void editsToOtherFieldsThanTheTitle() {
+        touch(10).mArtist = "Somebody Else";
+        MemoryContentResolver.Track track = touch(20);
+        track.mAlbum = mResolver.find(1500).mAlbum;
+        track.mAlbumId = mResolver.find(1500).mAlbumId;
+        touch(30).mDuration = 1;
+        syncAndCompare(query());
+    }
+
+    @Test
+    public void retitlesMoveTracksKeepingTheCurrentOne() {
+        Item current = MusicRetriever.getGivenItem(700);
+        touch(current.getId()).mTitle = "Zzz Last";
+        touch(3).mTitle = "Aaa First";
+        touch(4).mTitle = mResolver.find(5).mTitle;
+        assertTrue(MusicRetriever.applyChanges(query()));
+
+        Item now = MusicRetriever.getQueue().get(MusicRetriever.getState().getPosition());
+        assertEquals(current.getId(), now.getId());
+        assertEquals("Zzz Last", now.getTitle());
+        assertMatchesRebuild();
+    }
+
+    @Test
+    public void aDeleteAndAnAddOfTheSameSize() {
+        MemoryContentResolver.Track gone = mResolver.find(1000);
+        mResolver.delete(gone.mId);
+        add(gone.mArtist, gone.mTitle + " (Live)", gone.mAlbum);
+        touch(1001).mArtist = gone.mArtist + " Band";
+        syncAndCompare(query());
+        assertEquals(SIZE, MusicRetriever.getItems().size());
+    }
+
+    @Test
+    public void onlyTheArtOfChangedAlbumsIsDecodedAgain() {
+        MusicRetriever.setArtworkDecoder(new ArtworkDecoder(null, null) {
+            @Override
+            public Bitmap decode(long albumId, int size) {
+                return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            }
+        });
+        MemoryContentResolver.Track changed = mResolver.find(10);
+        MemoryContentResolver.Track other = mResolver.find(1500);
+        assertTrue(changed.mAlbumId != other.mAlbumId);
+        ArtworkCache cache = MusicRetriever.getArtworkCache();
+        Bitmap before = cache.get(changed.mAlbumId, ArtworkDecoder.LIST_SIZE);
+        Bitmap kept = cache.get(other.mAlbumId, ArtworkDecoder.LIST_SIZE);
+
+        // the overlap with the last sync alone changes nothing
+        assertFalse(MusicRetriever.applyChanges(query()));
+        assertSame(before, cache.get(changed.mAlbumId, ArtworkDecoder.LIST_SIZE));
+
+        touch(changed.mId).mTitle = "Retitled";
+        assertTrue(MusicRetriever.applyChanges(query()));
+        assertNull(cache.peek(changed.mAlbumId, ArtworkDecoder.LIST_SIZE));
+        assertSame(kept, cache.get(other.mAlbumId, ArtworkDecoder.LIST_SIZE));
+        assertNotSame(before, cache.get(changed.mAlbumId, ArtworkDecoder.LIST_SIZE));
+    }
+
+    @Test
+    public void theWeightedSamplerIsRebuiltForThePatchedList() {
+        TrackList base = MusicRetriever.getQueue().getBase();
+        MusicRetriever.getGivenItem(1500);
+        MusicRetriever.recordSkip();
+        MusicRetriever.recordSkip();
+        WeightedSampler before = MusicRetriever.getSampler(base);
+
+        // a delete and an add keep the size, but move every index after the deleted track
+        mResolver.delete(mResolver.find(MusicRetriever.mSongList.get(10).getId()).mId);
+        add("Somebody", "Aaaa", "Something");
+        assertTrue(MusicRetriever.applyChanges(query()));
+        WeightedSampler after = MusicRetriever.getSampler(base);
+        assertNotSame(before, after);
+        for (int i = 0; i < base.size(); i++) {
+            assertEquals(MusicRetriever.mStats.weight(base.getRow(i)), after.getWeight(i), 0);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.MediaStore.MediaColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A media store of music tracks kept in memory. It answers the queries {@link MusicRetriever}
+ * and {@link LibrarySync} make, with any projection of the track columns, and understands the
+ * one selection argument pattern LibrarySync uses (id above the first argument, or modified at
+ * or after the second).
+ */
+public class MemoryContentResolver extends ContentResolver {
+    /** A row of the audio table. */
+    public static class Track {
+        public long mId;
+        public String mArtist;
+        public String mTitle;
+        public String mAlbum;
+        public long mDuration;
+        public long mAlbumId;
+        public long mDateModified;
+
+        Object get(String column) {
+            if (MediaStore.Audio.Media._ID.equals(column)) return mId;
+            if (MediaStore.Audio.Media.ARTIST.equals(column)) return mArtist;
+            if (MediaStore.Audio.Media.TITLE.equals(column)) return mTitle;
+            if (MediaStore.Audio.Media.ALBUM.equals(column)) return mAlbum;
+            if (MediaStore.Audio.Media.DURATION.equals(column)) return mDuration;
+            if (MediaStore.Audio.Media.ALBUM_ID.equals(column)) return mAlbumId;
+            if (MediaColumns.DATE_MODIFIED.equals(column)) return mDateModified;
+            if (MediaStore.Audio.Media.IS_MUSIC.equals(column)) return 1;
+            throw new IllegalArgumentException("no column " + column);
+        }
+    }
+
+    final List<Track> mTracks = new ArrayList<Track>();
+    int mQueryCount;
+
+    public synchronized Track add(long id, String artist, String title, String album,
+            long duration, long albumId, long dateModified) {
+        Track track = new Track();
+        track.mId = id;
+        track.mArtist = artist;
+        track.mTitle = title;
+        track.mAlbum = album;
+        track.mDuration = duration;
+        track.mAlbumId = albumId;
+        track.mDateModified = dateModified;
+        mTracks.add(track);
+        return track;
+    }
+
+    /** Returns the track with the id, or null. */
+    public synchronized Track find(long id) {
+        for (Track track : mTracks) {
+            if (track.mId == id) return track;
+        }
+        return null;
+    }
+
+    public synchronized boolean delete(long id) {
+        return mTracks.remove(find(id));
+    }
+
+    public synchronized List<Track> getTracks() {
+        return new ArrayList<Track>(mTracks);
+    }
+
+    public synchronized int size() {
+        return mTracks.size();
+    }
+
+    /** Returns how many queries were made. */
+    public synchronized int getQueryCount() {
+        return mQueryCount;
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        mQueryCount++;
+        if (!MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.equals(uri)) return null;
+        long minId = Long.MIN_VALUE;
+        long minDateModified = Long.MIN_VALUE;
+        if (selectionArgs != null && selectionArgs.length == 2) {
+            minId = Long.parseLong(selectionArgs[0]);
+            minDateModified = Long.parseLong(selectionArgs[1]);
+        }
+        MemoryCursor cursor = new MemoryCursor(projection);
+        for (Track track : mTracks) {
+            if (selectionArgs != null && track.mId <= minId
+                    && track.mDateModified < minDateModified) {
+                continue;
+            }
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) values[i] = track.get(projection[i]);
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+}
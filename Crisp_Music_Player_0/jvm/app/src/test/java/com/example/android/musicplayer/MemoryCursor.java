@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A cursor over rows kept in memory, the way a content provider would return them. */
+public class MemoryCursor implements Cursor {
+    final String[] mColumns;
+    final List<Object[]> mRows = new ArrayList<Object[]>();
+    int mPosition = -1;
+    boolean mClosed;
+
+    public MemoryCursor(String[] columns) {
+        mColumns = columns;
+    }
+
+    /** Appends a row, with a value for each column. */
+    public void addRow(Object[] values) {
+        if (values.length != mColumns.length) {
+            throw new IllegalArgumentException(values.length + " values for "
+                    + mColumns.length + " columns");
+        }
+        mRows.add(values);
+    }
+
+    public int getCount() {
+        return mRows.size();
+    }
+
+    public boolean moveToFirst() {
+        mPosition = 0;
+        return !mRows.isEmpty();
+    }
+
+    public boolean moveToNext() {
+        if (mPosition < mRows.size()) mPosition++;
+        return mPosition < mRows.size();
+    }
+
+    public boolean isAfterLast() {
+        return mPosition >= mRows.size();
+    }
+
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equals(columnName)) return i;
+        }
+        return -1;
+    }
+
+    public String getString(int columnIndex) {
+        Object value = get(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    public long getLong(int columnIndex) {
+        Object value = get(columnIndex);
+        if (value == null) return 0;
+        if (value instanceof Number) return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+    public void close() {
+        mClosed = true;
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    Object get(int columnIndex) {
+        if (mClosed) throw new IllegalStateException("cursor is closed");
+        if (mPosition < 0 || mPosition >= mRows.size()) {
+            throw new IndexOutOfBoundsException("position " + mPosition + " of "
+                    + mRows.size());
+        }
+        return mRows.get(mPosition)[columnIndex];
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class MusicRetrieverTest {
+    static final int SIZE = 10000;
+
+    MemoryContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = SyntheticLibrary.create(SIZE, 42);
+        SyntheticLibrary.load(mResolver);
+    }
+
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    @Test
+    public void syntheticLibraryHasRealisticCardinalities() {
+        Set<String> artists = new HashSet<String>();
+        Set<String> albums = new HashSet<String>();
+        for (MemoryContentResolver.Track track : mResolver.getTracks()) {
+            artists.add(track.mArtist);
+            albums.add(track.mAlbum);
+        }
+        assertEquals(SIZE, mResolver.size());
+        assertTrue(albums.size() > SIZE / 15 && albums.size() < SIZE / 7);
+        assertTrue(artists.size() > SIZE / 60 && artists.size() < SIZE / 15);
+    }
+
+    @Test
+    public void loadsEveryTrackAndSortsIt() {
+        assertEquals(SIZE, MusicRetriever.getItems().size());
+        List<String> titles = MusicRetriever.getOrdSongs();
+        assertEquals(SIZE, titles.size());
+        for (int i = 1; i < titles.size(); i++) {
+            assertTrue(MusicRetriever.mCollator.compare(titles.get(i - 1), titles.get(i)) <= 0);
+        }
+        Set<String> artists = new HashSet<String>();
+        for (MemoryContentResolver.Track track : mResolver.getTracks()) {
+            artists.add(track.mArtist);
+        }
+        assertEquals(artists.size(), MusicRetriever.getArtists().size());
+    }
+
+    @Test
+    public void getSongsByArtistReturnsTheArtistsTracks() {
+        String artist = MusicRetriever.getArtists().get(MusicRetriever.getArtists().size() / 2);
+        int expected = 0;
+        for (MemoryContentResolver.Track track : mResolver.getTracks()) {
+            if (track.mArtist.equals(artist)) expected++;
+        }
+        List<String> songs = MusicRetriever.getSongsByArtist(artist);
+        assertEquals(expected, songs.size());
+        for (Item item : MusicRetriever.tempPlaylist) assertEquals(artist, item.getArtist());
+    }
+
+    @Test
+    public void getCurrentPlaylistFollowsTheSelectedList() {
+        assertEquals(MusicRetriever.getOrdSongs(), MusicRetriever.getCurrentPlaylist());
+        MusicRetriever.selectList(false, false, false);
+        assertEquals(MusicRetriever.getSongs(), MusicRetriever.getCurrentPlaylist());
+    }
+
+    @Test
+    public void shuffleKeepsTheCurrentTrack() {
+        Item current = MusicRetriever.getGivenItem(1234);
+        MusicRetriever.toggleShuffle();
+        assertEquals(current, currentItem());
+        MusicRetriever.setSmartShuffle(true);
+        assertEquals(current, currentItem());
+        MusicRetriever.toggleShuffle();
+        assertEquals(current, currentItem());
+        assertEquals(1234, MusicRetriever.getState().getPosition());
+    }
+
+    @Test
+    public void getGivenItemLeavesTheStateAloneWhenThereIsNoSuchTrack() {
+        Item current = MusicRetriever.getGivenItem(42);
+        PlaybackState state = MusicRetriever.getState();
+        assertNull(MusicRetriever.getGivenItem(SIZE));
+        assertNull(MusicRetriever.getGivenItem(-1));
+        assertSame(state, MusicRetriever.getState());
+        assertEquals(current, currentItem());
+    }
+
+    @Test
+    public void theCurrentSongOfAnEmptyListFailsRightAway() {
+        Item current = MusicRetriever.getGivenItem(42);
+        assertEquals(current, MusicRetriever.getCurrentSong());
+
+        // nothing fills the playlist later, so there is nothing to wait for
+        MusicRetriever.selectList(true, false, false);
+        long start = System.nanoTime();
+        try {
+            MusicRetriever.getCurrentSong();
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // no track at the start of an empty playlist
+        }
+        assertTrue((System.nanoTime() - start) / 1000000 < 100);
+    }
+
+    static Item currentItem() {
+        return MusicRetriever.getQueue().get(MusicRetriever.getState().getPosition());
+    }
+}
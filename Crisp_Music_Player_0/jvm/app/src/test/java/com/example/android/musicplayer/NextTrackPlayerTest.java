@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class NextTrackPlayerTest {
+    static final int PREPARE_MS = 200;
+    static final int DURATION_MS = 10000;
+
+    VirtualClock mClock;
+    FakePlayerFactory mFactory;
+    final List<PlayerBackend> mCompleted = new ArrayList<PlayerBackend>();
+
+    // completes into the test; the service has its own listener
+    final PlayerBackend.Listener mListener = new PlayerBackend.Listener() {
+        public void onPrepared(PlayerBackend player) {
+        }
+
+        public void onCompletion(PlayerBackend player) {
+            mCompleted.add(player);
+        }
+
+        public boolean onError(PlayerBackend player, int what, int extra) {
+            return false;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    MusicService mService;
+
+    @Before
+    public void setUp() {
+        SyntheticLibrary.resetRetriever();
+        mClock = new VirtualClock(1000000);
+        mFactory = new FakePlayerFactory(new FakePlayerFactory.Script() {
+            public FakePlayerFactory.Track scriptFor(String source) {
+                FakePlayerFactory.Track track = new FakePlayerFactory.Track();
+                track.mPrepareMs = PREPARE_MS;
+                track.mDurationMs = DURATION_MS;
+                return track;
+            }
+        }, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (mService != null) mService.onDestroy();
+        mClock.release();
+        SyntheticLibrary.resetRetriever();
+    }
+
+    static MusicRetriever.Item item(long id) {
+        return new MusicRetriever.Item(id, "Artist", "Title " + id, "Album", DURATION_MS, 1);
+    }
+
+    /** Returns a player that is playing the item. */
+    FakePlayer playing(MusicRetriever.Item item) throws Exception {
+        FakePlayer player = mFactory.create(null);
+        player.setListener(mListener);
+        player.setDataSource(null, item.getURI());
+        player.prepareAsync();
+        mClock.advance(PREPARE_MS);
+        player.start();
+        return player;
+    }
+
+    @Test
+    public void preparesChainsSwapsAndRecycles() throws Exception {
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+
+        next.prepare(current, item(2), 2);
+        assertFalse(next.isPreparedFor(2));
+        mClock.advance(PREPARE_MS);
+        assertTrue(next.isPreparedFor(2));
+        assertFalse(next.isPreparedFor(3));
+        assertTrue(next.isChained());
+        FakePlayer prepared = current.getNext();
+        assertEquals(item(2).getURI().toString(), prepared.getSource());
+
+        // the platform starts the chained player the moment the current one ends
+        mClock.advance(DURATION_MS);
+        assertEquals(FakePlayer.State.COMPLETED, current.getState());
+        assertEquals(FakePlayer.State.STARTED, prepared.getState());
+        assertEquals(1, mCompleted.size());
+        assertSame(current, mCompleted.get(0));
+        assertEquals(1, mFactory.getGaps().getCount());
+        assertEquals(0, mFactory.getGaps().getMax());
+
+        // the roles swap: the prepared player goes on playing, the finished one comes back
+        assertSame(prepared, next.take());
+        assertNull(next.getItem());
+        next.recycle(current);
+        assertEquals(FakePlayer.State.IDLE, current.getState());
+        next.prepare(prepared, item(3), 3);
+        mClock.advance(PREPARE_MS);
+        assertTrue(next.isChained());
+        assertSame(current, prepared.getNext());
+        assertEquals(item(3).getURI().toString(), current.getSource());
+        assertEquals(2, mFactory.getPlayers().size());
+        assertEquals(0, mFactory.getIllegalCallCount());
+    }
+
+    @Test
+    public void cancelUnchainsTheDroppedTrack() throws Exception {
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+        next.prepare(current, item(2), 2);
+        mClock.advance(PREPARE_MS);
+        FakePlayer prepared = current.getNext();
+
+        next.cancel();
+        assertNull(current.getNext());
+        assertEquals(FakePlayer.State.IDLE, prepared.getState());
+        assertFalse(next.isPreparedFor(2));
+        mClock.advance(DURATION_MS);
+        assertEquals(FakePlayer.State.IDLE, prepared.getState());
+        assertEquals(0, mFactory.getIllegalCallCount());
+    }
+
+    @Test
+    public void preparingAgainDropsTheFirstTrack() throws Exception {
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+        next.prepare(current, item(2), 2);
+        mClock.advance(PREPARE_MS / 2);
+        next.prepare(current, item(5), 5);
+        mClock.advance(PREPARE_MS);
+
+        assertFalse(next.isPreparedFor(2));
+        assertTrue(next.isPreparedFor(5));
+        assertEquals(item(5).getURI().toString(), current.getNext().getSource());
+        assertEquals(2, mFactory.getPlayers().size());
+    }
+
+    @Test
+    public void withoutChainingThePreparedPlayerIsLeftToTheCaller() throws Exception {
+        mFactory.setCanChain(false);
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+        next.prepare(current, item(2), 2);
+        mClock.advance(PREPARE_MS);
+
+        assertTrue(next.isPreparedFor(2));
+        assertFalse(next.isChained());
+        mClock.advance(DURATION_MS);
+        FakePlayer prepared = (FakePlayer) next.take();
+        assertEquals(FakePlayer.State.PREPARED, prepared.getState());
+    }
+
+    @Test
+    public void aCurrentPlayerReleasedMeanwhileIsNotChainedTo() throws Exception {
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+        next.prepare(current, item(2), 2);
+        current.release();
+        mClock.advance(PREPARE_MS);
+
+        assertTrue(next.isPreparedFor(2));
+        assertFalse(next.isChained());
+    }
+
+    @Test
+    public void recycleReleasesAPlayerThatIsntNeeded() throws Exception {
+        NextTrackPlayer next = new NextTrackPlayer(null, mFactory, mListener);
+        FakePlayer current = playing(item(1));
+        next.prepare(current, item(2), 2);
+        mClock.advance(PREPARE_MS);
+
+        FakePlayer other = playing(item(3));
+        next.recycle(other);
+        assertEquals(FakePlayer.State.END, other.getState());
+        assertTrue(next.isPreparedFor(2));
+    }
+
+    /** Starts the service on a synthetic library, playing from the top of the list. */
+    void startService() {
+        mService = new PlaybackSimulation.SimulatedService(SyntheticLibrary.create(200, 1),
+                mFolder.getRoot()).start(mFactory, mClock);
+        send(new Intent(MusicService.ACTION_PLAY));
+    }
+
+    void send(Intent intent) {
+        mService.onStartCommand(intent, 0, 0);
+        mClock.runDue();
+    }
+
+    /** Checks that the track after the current one in the queue is prepared and chained. */
+    void assertNextIsPrepared() {
+        int position = MusicRetriever.peekNextPosition();
+        assertTrue(mService.mNextTrack.isPreparedFor(position));
+        FakePlayer prepared = (FakePlayer) mService.mNextTrack.mPlayer;
+        assertEquals(MusicRetriever.mQueue.get(position).getURI().toString(),
+                prepared.getSource());
+        assertSame(prepared, ((FakePlayer) mService.mPlayer).getNext());
+    }
+
+    void assertPlayingTheQueuedTrack() {
+        int position = MusicRetriever.getState().getPosition();
+        FakePlayer player = (FakePlayer) mService.mPlayer;
+        assertEquals(MusicService.State.Playing, mService.mState);
+        assertTrue(player.isPlaying());
+        assertEquals(MusicRetriever.mQueue.get(position).getURI().toString(),
+                player.getSource());
+    }
+
+    @Test
+    public void shufflePreparesTheNewNextTrack() {
+        startService();
+        mClock.advance(2 * PREPARE_MS);
+        assertNextIsPrepared();
+        String before = ((FakePlayer) mService.mNextTrack.mPlayer).getSource();
+
+        send(new Intent(MusicService.ACTION_SHUFFLE));
+        mClock.advance(PREPARE_MS);
+        assertNextIsPrepared();
+        assertFalse(before.equals(((FakePlayer) mService.mNextTrack.mPlayer).getSource()));
+
+        mClock.advance(DURATION_MS);
+        assertPlayingTheQueuedTrack();
+        assertEquals(0, mFactory.getIllegalCallCount());
+    }
+
+    @Test
+    public void skipPreparesTheTrackAfterTheNewOne() {
+        startService();
+        mClock.advance(2 * PREPARE_MS);
+        for (int i = 0; i < 5; i++) {
+            send(new Intent(MusicService.ACTION_SKIP));
+            mClock.advance(2 * PREPARE_MS);
+            assertPlayingTheQueuedTrack();
+            assertNextIsPrepared();
+        }
+        mClock.advance(DURATION_MS);
+        assertPlayingTheQueuedTrack();
+        assertTrue(mFactory.getLivePlayers().size() <= 2);
+        assertEquals(0, mFactory.getIllegalCallCount());
+    }
+
+    @Test
+    public void anErrorOnTheFadingOutPlayerKeepsTheNextTrack() {
+        startService();
+        Intent crossfade = new Intent(MusicService.ACTION_CROSSFADE);
+        crossfade.putExtra("Crossfade", 2);
+        send(crossfade);
+        mClock.advance(2 * PREPARE_MS);
+        mClock.advance(DURATION_MS - 2000);
+        assertTrue(mService.mCrossfade.isFading());
+        PlayerBackend outgoing = mService.mCrossfade.mOutgoing;
+        mClock.advance(PREPARE_MS);
+        int next = MusicRetriever.peekNextPosition();
+        assertTrue(mService.mNextTrack.isPreparedFor(next));
+
+        // the track fading out fails: the one fading in plays on, and the one after it too
+        mService.onError(outgoing, 1, 0);
+        mClock.runDue();
+        assertFalse(mService.mCrossfade.isFading());
+        assertPlayingTheQueuedTrack();
+        assertEquals(1f, ((FakePlayer) mService.mPlayer).getVolume(), 0);
+        assertTrue(mService.mNextTrack.isPreparedFor(next));
+    }
+
+    /** Plays through the given number of tracks and returns the gaps between them. */
+    LatencyHistogram playThrough(int tracks) {
+        startService();
+        mClock.advance((long) tracks * (DURATION_MS + PREPARE_MS) + PREPARE_MS);
+        assertEquals(0, mFactory.getIllegalCallCount());
+        return mFactory.getGaps();
+    }
+
+    static String describe(String label, LatencyHistogram gaps) {
+        return String.format(Locale.US, "%s: %d gaps, p50=%d ms max=%d ms", label,
+                gaps.getCount(), gaps.getPercentile(0.5) / 1000, gaps.getMax() / 1000);
+    }
+
+    @Test
+    public void gaplessTrackChangesLeaveNoGap() {
+        LatencyHistogram gaps = playThrough(10);
+        String described = describe("gapless, chained", gaps);
+        assertTrue(described, gaps.getCount() >= 9);
+        assertEquals(described, 0, gaps.getMax());
+    }
+
+    @Test
+    public void withoutChainingTheNextTrackStartsOnCompletion() {
+        mFactory.setCanChain(false);
+        LatencyHistogram gaps = playThrough(10);
+        String described = describe("gapless, started by hand", gaps);
+        assertTrue(described, gaps.getCount() >= 9);
+        assertEquals(described, 0, gaps.getMax());
+    }
+
+    @Test
+    public void withoutGaplessTheGapIsThePrepareTime() {
+        startService();
+        Intent gapless = new Intent(MusicService.ACTION_GAPLESS);
+        gapless.putExtra("Gapless", false);
+        send(gapless);
+        mClock.advance(10L * (DURATION_MS + PREPARE_MS));
+        LatencyHistogram gaps = mFactory.getGaps();
+        String described = describe("not gapless", gaps);
+        assertTrue(described, gaps.getCount() >= 9);
+        assertTrue(described, gaps.getPercentile(0.5) >= PREPARE_MS * 1000L * 9 / 10);
+        assertTrue(described, gaps.getMax() < 2 * PREPARE_MS * 1000L);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.app.Notification;
+import android.app.Service;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the controller on the main looper, driven by a {@link VirtualClock}, against the
+ * stand-in Service and NotificationManager, which keep what is posted to them.
+ */
+public class NotificationControllerTest {
+    static final int ID = 1;
+
+    VirtualClock mClock;
+    Service mService;
+    NotificationController mController;
+    final Bitmap mArt = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+
+    @Before
+    public void setUp() {
+        mClock = new VirtualClock(1000);
+        mService = new Service() {
+            @Override
+            public IBinder onBind(Intent intent) {
+                return null;
+            }
+        };
+        mController = new NotificationController(mService, new Handler(Looper.getMainLooper()),
+                ID, 0, null);
+    }
+
+    @After
+    public void tearDown() {
+        mClock.release();
+    }
+
+    Notification shown() {
+        Notification notification = mController.mManager.getNotification(ID);
+        return notification != null ? notification : mService.getForegroundNotification();
+    }
+
+    void assertShows(String title, String text, Bitmap art) {
+        Notification notification = shown();
+        assertNotNull(notification);
+        assertEquals(title, notification.getContentTitle());
+        assertEquals(text, notification.getContentText());
+        assertSame(art, notification.largeIcon);
+    }
+
+    int notifies() {
+        return mController.mManager.getNotifyCount();
+    }
+
+    @Test
+    public void changesWithinTheDelayArePostedTogether() {
+        mController.show("One", "Loading", null);
+        assertEquals(1, mService.getStartForegroundCount());
+        assertShows("One", "Loading", null);
+        assertEquals("Loading", shown().tickerText);
+
+        mController.setText("Playing");
+        mController.setLargeIcon(mArt);
+        mClock.advance(NotificationController.COALESCE_MS - 1);
+        assertEquals(0, notifies());
+        mClock.advance(1);
+        assertEquals(1, notifies());
+        assertShows("One", "Playing", mArt);
+        // the ticker only scrolls by again when it changes
+        assertNull(shown().tickerText);
+        assertEquals(1, mService.getStartForegroundCount());
+    }
+
+    @Test
+    public void unchangedContentIsNotPostedAgain() {
+        mController.show("One", "Playing", mArt);
+        mController.setText("Playing");
+        mController.setLargeIcon(mArt);
+        mClock.advance(NotificationController.COALESCE_MS);
+        mController.show("One", "Playing", mArt);
+        mClock.advance(NotificationController.COALESCE_MS);
+
+        assertEquals(1, mService.getStartForegroundCount());
+        assertEquals(0, notifies());
+        assertEquals("Notification: 4 updates requested, 1 posted, 3 suppressed",
+                mController.getStats());
+    }
+
+    @Test
+    public void takingTheNotificationDownWaitsForTheNextTrack() {
+        mController.show("One", "Playing", null);
+
+        // a track change lets go of the foreground and takes it again right away
+        mController.hide(false);
+        mClock.advance(NotificationController.COALESCE_MS / 2);
+        mController.show("Two", "Loading", null);
+        mClock.advance(NotificationController.COALESCE_MS);
+        assertEquals(0, mService.getStopForegroundCount());
+        assertEquals(1, mService.getStartForegroundCount());
+        assertEquals(1, notifies());
+        assertShows("Two", "Loading", null);
+
+        // with no next track it does come down, after the delay
+        mController.hide(false);
+        mClock.advance(NotificationController.COALESCE_MS - 1);
+        assertEquals(0, mService.getStopForegroundCount());
+        mClock.advance(1);
+        assertEquals(1, mService.getStopForegroundCount());
+        assertNull(mService.getForegroundNotification());
+
+        // and right away when asked to, say on stop
+        mController.show("Three", "Playing", null);
+        assertEquals(2, mService.getStartForegroundCount());
+        mController.hide(true);
+        assertEquals(2, mService.getStopForegroundCount());
+        assertEquals(0, mClock.advance(NotificationController.COALESCE_MS));
+    }
+
+    @Test
+    public void skippingThroughTenTracksPostsAHandful() {
+        for (int i = 0; i < 10; i++) {
+            Bitmap art = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+            mController.show("Title " + i, "Loading", null);
+            mController.setText("Playing");
+            mController.setLargeIcon(art);
+            mClock.advance(100);
+        }
+        mClock.advance(NotificationController.COALESCE_MS);
+
+        // the first track right away, then once per delay: at 250, 550, 850 and 1150 ms
+        assertEquals(1, mService.getStartForegroundCount());
+        assertEquals(4, notifies());
+        assertEquals("Notification: 30 updates requested, 5 posted, 25 suppressed",
+                mController.getStats());
+        assertEquals("Title 9", shown().getContentTitle());
+        assertEquals("Playing", shown().getContentText());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ParallelSortTest {
+    static long[] randomValues(int count, Random random) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) values[i] = random.nextLong();
+        return values;
+    }
+
+    @Test
+    public void sortsInAnyNumberOfParts() {
+        Random random = new Random(1);
+        // an odd number of runs leaves one without a partner in a merge round
+        for (int parts : new int[] { 1, 2, 3, 4, 5, 7, 8 }) {
+            for (int count : new int[] { 0, 1, 2, 6, 1000, 100003 }) {
+                long[] values = randomValues(count, random);
+                long[] expected = values.clone();
+                Arrays.sort(expected);
+                ParallelSort.sort(values, parts);
+                assertArrayEquals(parts + " parts of " + count, expected, values);
+            }
+        }
+    }
+
+    @Test
+    public void sortByKeyKeepsTheOrderOfEqualKeys() {
+        Random random = new Random(2);
+        int count = 3 * ParallelSort.MIN_PART_SIZE + 5;
+        int[] values = new int[count];
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = count - 1 - i;
+            keys[i] = random.nextInt(20);
+        }
+        int[] sorted = ParallelSort.sortByKey(values, keys);
+        assertEquals(count, sorted.length);
+        for (int i = 1; i < count; i++) {
+            int previous = sorted[i - 1];
+            int value = sorted[i];
+            assertTrue(keys[previous] < keys[value]
+                    || (keys[previous] == keys[value] && previous > value));
+        }
+    }
+}
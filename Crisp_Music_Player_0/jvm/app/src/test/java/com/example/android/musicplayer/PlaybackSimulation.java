@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives the real {@link MusicService} through random sequences of what a user, the system and
+ * the media store can throw at it, on {@link FakePlayer}s and a {@link VirtualClock}, and
+ * checks after every step that it plays what it says it plays:
+ * <ul>
+ * <li>while playing, preparing or paused, the play position is inside the queue;</li>
+ * <li>while playing, the current player plays the queue's track at that position;</li>
+ * <li>outside a crossfade, no player but the current one can be heard;</li>
+ * <li>no more than three players are alive at once, and none once the service is gone.</li>
+ * </ul>
+ * Exceptions thrown out of the service, and calls a MediaPlayer would refuse, count as
+ * violations too. The report has the violations (the sequence seed and step reproduce each
+ * one), the track change latencies in virtual time, the gaps between tracks, and what a step
+ * costs in real time.
+ */
+public class PlaybackSimulation {
+    final static String TAG = "PlaybackSimulation";
+
+    static final int MAX_LIVE_PLAYERS = 3;
+    static final String STREAM_URL = "http://example.com/stream.mp3";
+
+    /** A MusicService on the in-memory media store, with its files in a directory of its own. */
+    static class SimulatedService extends MusicService {
+        final MemoryContentResolver mResolver;
+        final File mDir;
+
+        SimulatedService(MemoryContentResolver resolver, File dir) {
+            mResolver = resolver;
+            mDir = dir;
+        }
+
+        /**
+         * Starts the service on the players and the clock the way a new process would: from the
+         * top of the sorted list, in order, with nothing played yet.
+         */
+        SimulatedService start(PlayerBackend.Factory players, VirtualClock clock) {
+            MusicService.startingup = true;
+            MusicRetriever.mState.set(PlaybackState.INITIAL);
+            MusicRetriever.mQueue.unshuffle();
+            mPlayerFactory = players;
+            mClock = clock;
+            onCreate();
+            clock.runDue();
+            return this;
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mResolver;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return mDir;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return mDir;
+        }
+    }
+
+    /** What a simulation run found. */
+    public static class Report {
+        static final int MAX_LISTED = 20;
+
+        int mSequences;
+        int mSteps;
+        int mViolationCount;
+        final List<String> mViolations = new ArrayList<String>();
+        final LatencyHistogram mStepTime = new LatencyHistogram("step");
+        long mElapsedNanos;
+        long mTransitionsFinished;
+        long mTransitionsFailed;
+        long mTransitionP50;
+        long mTransitionP99;
+        long mTransitionMax;
+        long mGapCount;
+        long mGapP50;
+        long mGapMax;
+
+        void violation(long seed, int step, String what) {
+            mViolationCount++;
+            if (mViolations.size() < MAX_LISTED) {
+                mViolations.add("sequence " + seed + ", step " + step + ": " + what);
+            }
+        }
+
+        public int getViolationCount() {
+            return mViolationCount;
+        }
+
+        public List<String> getViolations() {
+            return mViolations;
+        }
+
+        public long getTransitionsFinished() {
+            return mTransitionsFinished;
+        }
+
+        public long getGapCount() {
+            return mGapCount;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%d sequences, %d steps in %d ms (%.0f steps/s),"
+                    + " step p50=%d us p99=%d us max=%d us%n", mSequences, mSteps,
+                    mElapsedNanos / 1000000, mSteps * 1e9 / Math.max(1, mElapsedNanos),
+                    mStepTime.getPercentile(0.5), mStepTime.getPercentile(0.99),
+                    mStepTime.getMax()));
+            sb.append(String.format(Locale.US, "track changes: %d finished, %d failed;"
+                    + " latency p50=%d ms p99=%d ms max=%d ms (virtual time)%n",
+                    mTransitionsFinished, mTransitionsFailed, mTransitionP50 / 1000,
+                    mTransitionP99 / 1000, mTransitionMax / 1000));
+            sb.append(String.format(Locale.US, "gaps after a track ended: %d, p50=%d ms"
+                    + " max=%d ms%n", mGapCount, mGapP50 / 1000, mGapMax / 1000));
+            sb.append(mViolationCount).append(" violations");
+            for (String violation : mViolations) sb.append(String.format("%n  ")).append(violation);
+            return sb.toString();
+        }
+    }
+
+    final MemoryContentResolver mResolver;
+    final FakePlayerFactory mPlayers;
+    final VirtualClock mClock = new VirtualClock(1000000);
+    final File mDir;
+    // chances, in percent, that a source can't be opened and that it fails to prepare
+    int mSourceFailurePercent = 1;
+    int mPrepareFailurePercent = 2;
+    long mNextTrackId;
+
+    public PlaybackSimulation(int librarySize, long seed) {
+        mResolver = SyntheticLibrary.create(librarySize, seed);
+        mNextTrackId = librarySize + 1;
+        final Random scriptRandom = new Random(seed);
+        mPlayers = new FakePlayerFactory(new FakePlayerFactory.Script() {
+            public FakePlayerFactory.Track scriptFor(String source) {
+                FakePlayerFactory.Track track = new FakePlayerFactory.Track();
+                track.mPrepareMs = 5 + scriptRandom.nextInt(200);
+                track.mDurationMs = 5000 + scriptRandom.nextInt(40000);
+                track.mSourceFails = scriptRandom.nextInt(100) < mSourceFailurePercent;
+                if (scriptRandom.nextInt(100) < mPrepareFailurePercent) track.mPrepareError = 1;
+                return track;
+            }
+        }, true);
+        try {
+            mDir = File.createTempFile("simulation-" + seed + "-", "");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+
+    public FakePlayerFactory getPlayers() {
+        return mPlayers;
+    }
+
+    /**
+     * Runs the sequences, each on a new service, one after the other: the first one finds the
+     * library still to be read, the others find it in memory, like a service started again.
+     */
+    public Report run(int sequences, int steps, long seed) {
+        Report report = new Report();
+        SyntheticLibrary.resetRetriever();
+        Metrics.reset();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < sequences; i++) {
+                runSequence(seed + i, steps, report);
+                report.mSequences++;
+            }
+        } finally {
+            mClock.release();
+            delete(mDir);
+        }
+        report.mElapsedNanos = System.nanoTime() - start;
+        report.mTransitionsFinished = Metrics.TRANSITIONS_FINISHED.get();
+        report.mTransitionsFailed = Metrics.TRANSITIONS_FAILED.get();
+        report.mTransitionP50 = Metrics.TRANSITION.getPercentile(0.5);
+        report.mTransitionP99 = Metrics.TRANSITION.getPercentile(0.99);
+        report.mTransitionMax = Metrics.TRANSITION.getMax();
+        LatencyHistogram gaps = mPlayers.getGaps();
+        report.mGapCount = gaps.getCount();
+        report.mGapP50 = gaps.getPercentile(0.5);
+        report.mGapMax = gaps.getMax();
+        return report;
+    }
+
+    void runSequence(long seed, int steps, Report report) {
+        Random random = new Random(seed);
+        mPlayers.clearEnded();
+        SimulatedService service = new SimulatedService(mResolver, mDir);
+        int step = 0;
+        try {
+            service.start(mPlayers, mClock);
+            service.onStartCommand(new Intent(MusicService.ACTION_PLAY), 0, 0);
+            mClock.runDue();
+            for (step = 1; step <= steps; step++) {
+                long stepStart = System.nanoTime();
+                step(random, service);
+                mClock.runDue();
+                report.mStepTime.recordNanos(System.nanoTime() - stepStart);
+                report.mSteps++;
+                check(service, seed, step, report);
+            }
+            service.onDestroy();
+            mClock.advance(1000);
+        } catch (RuntimeException e) {
+            report.violation(seed, step, "threw " + e);
+            // leave nothing behind for the next sequence
+            try {
+                service.onDestroy();
+            } catch (RuntimeException ignored) {
+            }
+            mClock.advance(1000);
+            for (FakePlayer player : mPlayers.getLivePlayers()) player.release();
+            return;
+        }
+        int live = mPlayers.getLivePlayers().size();
+        if (live > 0) {
+            report.violation(seed, step, live + " players alive after the service was destroyed");
+            for (FakePlayer player : mPlayers.getLivePlayers()) player.release();
+        }
+    }
+
+    /** Does one random thing to the service: an intent, time passing, or a system event. */
+    void step(Random random, MusicService service) {
+        int what = random.nextInt(25);
+        // only count the gaps playback leaves by itself, not the ones the user asks for
+        if (what > 4) mPlayers.clearEnded();
+        switch (what) {
+        case 0:
+        case 1:
+        case 2:
+            mClock.advance(random.nextInt(2000));
+            break;
+        case 3:
+        case 4:
+            // long enough for tracks to end
+            mClock.advance(random.nextInt(45000));
+            break;
+        case 5:
+            send(service, MusicService.ACTION_PLAY);
+            break;
+        case 6:
+            send(service, MusicService.ACTION_PAUSE);
+            break;
+        case 7:
+            send(service, MusicService.ACTION_TOGGLE_PLAYBACK);
+            break;
+        case 8:
+        case 9:
+            send(service, MusicService.ACTION_SKIP);
+            break;
+        case 10:
+            send(service, MusicService.ACTION_REWIND);
+            break;
+        case 11:
+            send(service, MusicService.ACTION_STOP);
+            break;
+        case 12: {
+            // a track picked in the list, or now and then one that isn't there anymore
+            int size = MusicRetriever.getItems().size();
+            Intent intent = new Intent(MusicService.ACTION_URI);
+            intent.putExtra("Position", random.nextInt(size + 4) - 2);
+            service.onStartCommand(intent, 0, 0);
+            break;
+        }
+        case 13:
+            send(service, MusicService.ACTION_SHUFFLE);
+            break;
+        case 14: {
+            Intent intent = new Intent(MusicService.ACTION_SHUFFLE);
+            intent.putExtra("SmartShuffle", random.nextBoolean());
+            service.onStartCommand(intent, 0, 0);
+            break;
+        }
+        case 15: {
+            Intent intent = new Intent(MusicService.ACTION_SHUFFLE);
+            intent.putExtra("WeightedRandom", random.nextInt(3) == 0);
+            service.onStartCommand(intent, 0, 0);
+            break;
+        }
+        case 16:
+            send(service, MusicService.ACTION_REPEAT);
+            break;
+        case 17:
+            send(service, MusicService.ACTION_FORWARD);
+            break;
+        case 18:
+            send(service, MusicService.ACTION_BACK);
+            break;
+        case 19:
+            send(service, MusicService.ACTION_GAPLESS);
+            break;
+        case 20: {
+            Intent intent = new Intent(MusicService.ACTION_CROSSFADE);
+            intent.putExtra("Crossfade", random.nextInt(7));
+            service.onStartCommand(intent, 0, 0);
+            break;
+        }
+        case 21:
+            if (random.nextBoolean()) {
+                service.onLostAudioFocus(random.nextBoolean());
+            } else {
+                service.onGainedAudioFocus();
+            }
+            break;
+        case 22:
+            changeLibrary(random, service);
+            break;
+        case 23: {
+            Intent intent = new Intent(MusicService.ACTION_URL);
+            intent.setData(Uri.parse(STREAM_URL));
+            service.onStartCommand(intent, 0, 0);
+            break;
+        }
+        default:
+            send(service, MusicService.ACTION_READY);
+            break;
+        }
+    }
+
+    void send(MusicService service, String action) {
+        service.onStartCommand(new Intent(action), 0, 0);
+    }
+
+    /**
+     * Adds a track to the media store or renames one, and lets the service's observer know,
+     * the way the media scanner would. The sync runs once the observer's delay is over.
+     */
+    void changeLibrary(Random random, MusicService service) {
+        if (random.nextBoolean()) {
+            long id = mNextTrackId++;
+            mResolver.add(id, "New Artist " + id % 7, "New Track " + id, "New Album " + id % 3,
+                    180000, 100000 + id % 3, 1400000000L + id);
+        } else {
+            List<MemoryContentResolver.Track> tracks = mResolver.getTracks();
+            MemoryContentResolver.Track track = tracks.get(random.nextInt(tracks.size()));
+            track.mTitle = track.mTitle + " (remastered)";
+            track.mDateModified = 1500000000L + random.nextInt(1000000);
+        }
+        if (service.mLibraryObserver != null) service.mLibraryObserver.onChange(false);
+    }
+
+    void check(MusicService service, long seed, int step, Report report) {
+        MusicService.State state = service.mState;
+        boolean local = !service.mIsStreaming;
+        PlayQueue queue = MusicRetriever.mQueue;
+        int position = MusicRetriever.getState().getPosition();
+        if (local && (state == MusicService.State.Playing || state == MusicService.State.Paused
+                || state == MusicService.State.Preparing)) {
+            if (position < 0 || position >= queue.size()) {
+                report.violation(seed, step, state + " at position " + position + " of a queue of "
+                        + queue.size());
+                return;
+            }
+        }
+        if (local && state == MusicService.State.Playing) {
+            FakePlayer player = (FakePlayer) service.mPlayer;
+            String expected = queue.get(position).getURI().toString();
+            if (player == null || !expected.equals(player.getSource())) {
+                report.violation(seed, step, "playing " + (player == null ? "nothing"
+                        : player.getSource()) + " instead of " + expected + " at " + position);
+            } else if (service.mAudioFocus != MusicService.AudioFocus.NoFocusNoDuck
+                    && !player.isPlaying()) {
+                report.violation(seed, step, "Playing, but " + player + " is "
+                        + player.getState());
+            }
+        }
+        // a fade can only start on this thread, so once it isn't fading it stays that way
+        if (!service.mCrossfade.isFading()) {
+            for (FakePlayer player : mPlayers.getAudiblePlayers()) {
+                if (player != service.mPlayer) {
+                    report.violation(seed, step, player + " can be heard playing "
+                            + player.getSource() + " besides the current player");
+                }
+            }
+        }
+        int live = mPlayers.getLivePlayers().size();
+        if (live > MAX_LIVE_PLAYERS) {
+            report.violation(seed, step, live + " players alive");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PlaybackSimulationTest {
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    @Test
+    public void randomSequencesKeepPlayingTheRightTrack() {
+        PlaybackSimulation simulation = new PlaybackSimulation(500, 1);
+        PlaybackSimulation.Report report = simulation.run(2000, 40, 1);
+        assertEquals(report.toString(), 0, report.getViolationCount());
+        assertTrue(report.toString(), report.getTransitionsFinished() > 2000);
+        assertTrue(report.toString(), report.getGapCount() > 0);
+    }
+}
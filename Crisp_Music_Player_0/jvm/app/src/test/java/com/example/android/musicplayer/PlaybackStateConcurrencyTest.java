@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Skips, shuffles and picks tracks from several threads at once, the way the service, the
+ * activity and the remote controls do, while other threads read the state without locking.
+ * Each change is checked under the MusicRetriever.class lock, which the retriever's own
+ * methods take again, so nothing else can move the position between the call and the check.
+ */
+public class PlaybackStateConcurrencyTest {
+    static final int SIZE = 5000;
+    static final int WRITERS = 4;
+    static final int READERS = 2;
+    static final int OPERATIONS = 3000;
+
+    final ConcurrentLinkedQueue<Throwable> mFailures = new ConcurrentLinkedQueue<Throwable>();
+    final AtomicInteger mShuffleToggles = new AtomicInteger();
+    final AtomicInteger mRepeatToggles = new AtomicInteger();
+    final AtomicInteger mListenerCalls = new AtomicInteger();
+    final AtomicBoolean mDone = new AtomicBoolean();
+    final CountDownLatch mStart = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        SyntheticLibrary.load(SyntheticLibrary.create(SIZE, 42));
+        MusicRetriever.setShuffleSeed(1);
+        MusicRetriever.setQueueListener(new Runnable() {
+            public void run() {
+                // what the service does when it's told: look up the next track
+                mListenerCalls.incrementAndGet();
+                MusicRetriever.peekNextPosition();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    static Item currentItem() {
+        return MusicRetriever.getQueue().get(MusicRetriever.getState().getPosition());
+    }
+
+    /**
+     * One random change. Repeat and weighted random are changed without the lock, as the
+     * retriever allows, racing the others' position updates; the rest is checked while still
+     * holding the lock.
+     */
+    void change(Random random) {
+        int operation = random.nextInt(10);
+        if (operation == 8) {
+            MusicRetriever.toggleRepeat();
+            mRepeatToggles.incrementAndGet();
+            return;
+        } else if (operation == 9) {
+            MusicRetriever.setWeightedRandom(random.nextInt(4) == 0);
+            return;
+        }
+        synchronized (MusicRetriever.class) {
+            int size = MusicRetriever.getQueue().size();
+            Item before = currentItem();
+            Item item;
+            switch (operation) {
+                case 0:
+                case 1:
+                    item = MusicRetriever.getNextItem();
+                    if (item == null) {
+                        assertEquals(MusicRetriever.QUEUE_END_POSITION,
+                                MusicRetriever.getState().getPosition());
+                    } else {
+                        assertEquals(item, currentItem());
+                    }
+                    break;
+                case 2:
+                    item = MusicRetriever.getPreviousItem();
+                    if (item != null) assertEquals(item, currentItem());
+                    break;
+                case 3:
+                    int position = random.nextInt(size);
+                    item = MusicRetriever.getGivenItem(position);
+                    assertEquals(position, MusicRetriever.getState().getPosition());
+                    assertEquals(item, currentItem());
+                    break;
+                case 4:
+                    MusicRetriever.toggleShuffle();
+                    mShuffleToggles.incrementAndGet();
+                    assertEquals(before, currentItem());
+                    break;
+                case 5:
+                    MusicRetriever.setSmartShuffle(random.nextBoolean());
+                    assertEquals(before, currentItem());
+                    break;
+                default:
+                    if (random.nextBoolean()) {
+                        MusicRetriever.recordSkip();
+                    } else {
+                        MusicRetriever.recordCompletion();
+                    }
+                    break;
+            }
+            assertTrue(MusicRetriever.getQueue().isOrderValid());
+        }
+    }
+
+    /** Reads without the lock, as the UI does: a state is always whole and in range. */
+    void read() throws InterruptedException {
+        PlaybackState state = MusicRetriever.getState();
+        assertNotNull(state);
+        assertTrue(state.toString(), state.getPosition() >= 0 && state.getPosition() < SIZE);
+        int next = MusicRetriever.peekNextPosition();
+        assertTrue("next " + next, next >= -1 && next < SIZE);
+        assertNotNull(MusicRetriever.getCurrentSong());
+    }
+
+    Thread start(final boolean writer, final long seed) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Random random = new Random(seed);
+                try {
+                    mStart.await();
+                    if (writer) {
+                        for (int i = 0; i < OPERATIONS; i++) change(random);
+                    } else {
+                        while (!mDone.get()) read();
+                    }
+                } catch (Throwable t) {
+                    mFailures.add(t);
+                }
+            }
+        }, (writer ? "writer-" : "reader-") + seed);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void concurrentSkipsShufflesAndPicksKeepTheStateWhole() throws Throwable {
+        Thread[] writers = new Thread[WRITERS];
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < WRITERS; i++) writers[i] = start(true, i);
+        for (int i = 0; i < READERS; i++) readers[i] = start(false, 100 + i);
+        mStart.countDown();
+        for (Thread writer : writers) writer.join(60000);
+        mDone.set(true);
+        for (Thread reader : readers) reader.join(10000);
+        for (Thread thread : writers) assertFalse("stuck: " + thread.getName(), thread.isAlive());
+        for (Thread thread : readers) assertFalse("stuck: " + thread.getName(), thread.isAlive());
+        if (!mFailures.isEmpty()) throw mFailures.peek();
+
+        // every toggle took effect: none was lost to another thread's update
+        PlaybackState state = MusicRetriever.getState();
+        assertEquals(mShuffleToggles.get() % 2 == 1, state.isShuffle());
+        assertEquals(mRepeatToggles.get() % 2 == 1, state.isRepeat());
+        assertTrue(mListenerCalls.get() >= mShuffleToggles.get() + mRepeatToggles.get());
+
+        // and the queue is still a play order over the whole list
+        PlayQueue queue = MusicRetriever.getQueue();
+        assertEquals(SIZE, queue.size());
+        boolean[] seen = new boolean[SIZE];
+        for (int position = 0; position < SIZE; position++) {
+            int index = queue.indexAt(position);
+            assertFalse("played twice: " + index, seen[index]);
+            seen[index] = true;
+            assertEquals(position, queue.positionOf(index));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.PendingIntent;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.media.RemoteControlClient;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Runs on the stand-in RemoteControlClient, whose editors record what is put and applied. The
+ * stand-ins report SDK level 13, so every call goes through the reflection path.
+ */
+public class RemoteControlClientCompatTest {
+    static final int TITLE = MediaMetadataRetriever.METADATA_KEY_TITLE;
+    static final int ARTIST = MediaMetadataRetriever.METADATA_KEY_ARTIST;
+    static final int DURATION = MediaMetadataRetriever.METADATA_KEY_DURATION;
+    static final int ARTWORK = RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK;
+
+    RemoteControlClientCompat mCompat;
+    RemoteControlClient mClient;
+    final Bitmap mArt = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+
+    @Before
+    public void setUp() {
+        assertTrue(Build.VERSION.SDK_INT < 14);
+        mCompat = new RemoteControlClientCompat(new PendingIntent());
+        mClient = (RemoteControlClient) mCompat.getActualRemoteControlClientObject();
+    }
+
+    /** Applies a full track's metadata, the way the service does, with a new editor. */
+    void applyTrack(String title, String artist, long duration, Bitmap art) {
+        mCompat.editMetadata(true)
+                .putString(TITLE, title)
+                .putString(ARTIST, artist)
+                .putLong(DURATION, duration)
+                .putBitmap(ARTWORK, art)
+                .apply();
+    }
+
+    void assertShows(String title, String artist, Long duration, Bitmap art) {
+        Map<Integer, Object> metadata = mClient.getMetadata();
+        assertEquals(title, metadata.get(TITLE));
+        assertEquals(artist, metadata.get(ARTIST));
+        assertEquals(duration, metadata.get(DURATION));
+        assertSame(art, metadata.get(ARTWORK));
+    }
+
+    @Test
+    public void theFirstApplyWritesEveryKey() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        assertShows("Title", "Artist", 1000L, mArt);
+        assertEquals(1, mClient.getEditorCount());
+        assertEquals(1, mClient.getApplyCount());
+        assertEquals(4, mClient.getPutCount());
+    }
+
+    @Test
+    public void applyingTheSameMetadataAgainIsSkipped() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        applyTrack("Title", "Artist", 1000, mArt);
+        mCompat.editMetadata(false).apply();
+
+        assertEquals(1, mClient.getEditorCount());
+        assertEquals(1, mClient.getApplyCount());
+        assertTrue(mCompat.getStats(), mCompat.getStats().contains("2 skipped as unchanged"));
+    }
+
+    @Test
+    public void onlyTheChangedKeysAreWritten() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        // every key that was applied is put again, so the empty editor isn't needed
+        applyTrack("Other", "Artist", 1000, mArt);
+
+        assertShows("Other", "Artist", 1000L, mArt);
+        assertEquals(2, mClient.getApplyCount());
+        assertEquals(4 + 1, mClient.getPutCount());
+        assertTrue(mCompat.getStats(), mCompat.getStats().contains("5 keys written, 3 unchanged"));
+    }
+
+    @Test
+    public void startingEmptyWithoutAKeyClearsIt() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        mCompat.editMetadata(true)
+                .putString(TITLE, "Title")
+                .putString(ARTIST, "Artist")
+                .putLong(DURATION, 1000)
+                .apply();
+
+        // a real empty editor is needed to drop the art, so every key is written into it
+        assertShows("Title", "Artist", 1000L, null);
+        assertFalse(mClient.getMetadata().containsKey(ARTWORK));
+        assertEquals(2, mClient.getApplyCount());
+        assertEquals(4 + 3, mClient.getPutCount());
+
+        // and then the art is new again
+        applyTrack("Title", "Artist", 1000, mArt);
+        assertShows("Title", "Artist", 1000L, mArt);
+        assertEquals(4 + 3 + 1, mClient.getPutCount());
+    }
+
+    @Test
+    public void anEditorThatKeepsTheMetadataOnlyChangesWhatItPuts() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        mCompat.editMetadata(false).putLong(DURATION, 2000).apply();
+
+        assertShows("Title", "Artist", 2000L, mArt);
+        assertEquals(4 + 1, mClient.getPutCount());
+
+        // a key left out of a later editor that starts empty is cleared, with the others kept
+        mCompat.editMetadata(true)
+                .putString(TITLE, "Title")
+                .putLong(DURATION, 2000)
+                .putBitmap(ARTWORK, mArt)
+                .apply();
+        assertShows("Title", null, 2000L, mArt);
+        assertFalse(mClient.getMetadata().containsKey(ARTIST));
+    }
+
+    @Test
+    public void nullStringsAndOtherBitmapsAreChanges() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        applyTrack(null, "Artist", 1000, mArt);
+        assertEquals(2, mClient.getApplyCount());
+        assertTrue(mClient.getMetadata().containsKey(TITLE));
+        assertNull(mClient.getMetadata().get(TITLE));
+
+        applyTrack(null, "Artist", 1000, mArt);
+        assertEquals(2, mClient.getApplyCount());
+
+        // bitmaps are compared by identity, so the same art as another object is sent again
+        Bitmap sameArt = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        applyTrack(null, "Artist", 1000, sameArt);
+        assertEquals(3, mClient.getApplyCount());
+        assertShows(null, "Artist", 1000L, sameArt);
+    }
+
+    @Test
+    public void clearForgetsWhatWasPut() {
+        applyTrack("Title", "Artist", 1000, mArt);
+        RemoteControlClientCompat.MetadataEditorCompat editor = mCompat.editMetadata(false);
+        editor.putString(TITLE, "Other");
+        editor.clear();
+        editor.putLong(DURATION, 3000);
+        editor.apply();
+
+        assertShows("Title", "Artist", 3000L, mArt);
+    }
+
+    @Test
+    public void unchangedPlaybackStateAndFlagsAreNotSentAgain() {
+        mCompat.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
+        mCompat.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
+        assertEquals(RemoteControlClient.PLAYSTATE_PLAYING, mClient.getPlaybackState());
+        mCompat.setPlaybackState(RemoteControlClient.PLAYSTATE_PAUSED);
+        assertEquals(RemoteControlClient.PLAYSTATE_PAUSED, mClient.getPlaybackState());
+
+        int flags = RemoteControlClient.FLAG_KEY_MEDIA_PLAY
+                | RemoteControlClient.FLAG_KEY_MEDIA_NEXT;
+        mCompat.setTransportControlFlags(flags);
+        mCompat.setTransportControlFlags(flags);
+        assertTrue(mCompat.getStats(),
+                mCompat.getStats().contains("2 state and flag calls skipped"));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks searches against a plain scan of every track, which scores each of the track's title,
+ * artist and album the way the index is documented to, and sorts by score and then by title.
+ */
+public class SearchIndexTest {
+    LibraryStore mStore;
+    SortOrders mOrders;
+
+    SearchIndex build(String[][] tracks) {
+        mStore = new LibraryStore();
+        TrackList items = new TrackList(mStore);
+        for (int i = 0; i < tracks.length; i++) {
+            items.addRow(mStore.add(i + 1, tracks[i][0], tracks[i][1], tracks[i][2], 1000,
+                    i + 1, 1));
+        }
+        mOrders = SortOrders.build(mStore, items, new LibraryCollator());
+        return SearchIndex.build(mStore, mOrders);
+    }
+
+    SearchIndex buildSynthetic(int size) {
+        List<MemoryContentResolver.Track> tracks = SyntheticLibrary.create(size, 9).getTracks();
+        String[][] values = new String[tracks.size()][];
+        for (int i = 0; i < values.length; i++) {
+            MemoryContentResolver.Track track = tracks.get(i);
+            values[i] = new String[] { track.mArtist, track.mTitle, track.mAlbum };
+        }
+        return build(values);
+    }
+
+    /** What a field scores for the query: match kind times the field's weight, or 0. */
+    static int score(String field, String query, int weight) {
+        String text = SearchIndex.fold(field);
+        if (text.startsWith(query)) return SearchIndex.MATCH_PREFIX * weight;
+        boolean everyToken = true;
+        for (String token : query.split(" ")) {
+            boolean found = false;
+            for (String word : text.split(" ")) found |= word.startsWith(token);
+            everyToken &= found;
+        }
+        if (everyToken) return SearchIndex.MATCH_WORD_PREFIX * weight;
+        if (query.length() >= 3 && text.contains(query)) {
+            return SearchIndex.MATCH_SUBSTRING * weight;
+        }
+        return 0;
+    }
+
+    int[] scan(String query, int limit) {
+        String q = SearchIndex.fold(query);
+        int[] order = mOrders.getSongOrder();
+        List<int[]> found = new ArrayList<int[]>();
+        for (int p = 0; p < order.length; p++) {
+            int row = order[p];
+            int best = Math.max(score(mStore.getTitle(row), q, 3),
+                    Math.max(score(mStore.getArtist(row), q, 2),
+                            score(mStore.getAlbum(row), q, 1)));
+            if (best > 0) found.add(new int[] { best, row });
+        }
+        // a stable sort, so tracks with the same score stay in title order
+        int[][] sorted = found.toArray(new int[found.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return b[0] - a[0];
+            }
+        });
+        int[] rows = new int[Math.min(limit, sorted.length)];
+        for (int i = 0; i < rows.length; i++) rows[i] = sorted[i][1];
+        return rows;
+    }
+
+    String[] titles(int[] rows) {
+        String[] titles = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) titles[i] = mStore.getTitle(rows[i]);
+        return titles;
+    }
+
+    @Test
+    public void everyTokenMustStartAWordOfTheSameField() {
+        SearchIndex index = build(new String[][] {
+                { "Night Owls", "Blue Moon", "Love Songs" },
+                { "Blue Night", "Love Me", "Other" },
+                { "Someone", "Night of Love", "Things" },
+                { "Lovely", "Nightly", "Album" },
+        });
+        // "Night Owls" has night, "Love Songs" has love, but no one field has both
+        assertArrayEquals(new String[] { "Night of Love" },
+                titles(index.search("lov nig", 10)));
+        assertArrayEquals(new String[] { "Blue Moon", "Love Me" },
+                titles(index.search("blu", 10)));
+        assertArrayEquals(new String[0], titles(index.search("blue owls", 10)));
+        assertArrayEquals(new String[0], titles(index.search("  ", 10)));
+    }
+
+    @Test
+    public void substringsMatchFromThreeChars() {
+        SearchIndex index = build(new String[][] {
+                { "A", "Midnight", "X" },
+                { "B", "Knights", "Y" },
+                { "C", "Ignition", "Z" },
+        });
+        // "ig" starts a word of "Ignition" only; "igh" is inside the other two
+        assertArrayEquals(new String[] { "Ignition" }, titles(index.search("ig", 10)));
+        assertArrayEquals(new String[] { "Knights", "Midnight" },
+                titles(index.search("igh", 10)));
+        assertArrayEquals(new String[] { "Midnight" }, titles(index.search("dni", 10)));
+        assertArrayEquals(new String[0], titles(index.search("xyz", 10)));
+    }
+
+    @Test
+    public void ranksByFieldThenMatchKindThenTitle() {
+        SearchIndex index = build(new String[][] {
+                { "Rain Band", "Zed", "Other" },
+                { "Other", "Brain", "Other" },
+                { "Other", "Rainy Day", "Other" },
+                { "Other", "A Rain Song", "Other" },
+                { "Other", "Cold", "Rain Album" },
+                { "Other", "Alpha", "Rainfall" },
+        });
+        // title prefix 9, title word prefix 6, artist prefix 6, title substring 3, album
+        // prefix 3; equal scores in title order
+        assertArrayEquals(new String[] { "Rainy Day", "A Rain Song", "Zed", "Alpha", "Brain",
+                "Cold" }, titles(index.search("rain", 10)));
+        assertArrayEquals(titles(scan("rain", 10)), titles(index.search("rain", 10)));
+    }
+
+    @Test
+    public void matchesAPlainScan() {
+        SearchIndex index = buildSynthetic(3000);
+        Random random = new Random(4);
+        List<String> queries = new ArrayList<String>();
+        for (String word : SyntheticLibrary.WORDS) {
+            String folded = SearchIndex.fold(word);
+            queries.add(folded.substring(0, 1 + random.nextInt(folded.length())));
+            queries.add(folded.substring(random.nextInt(folded.length())));
+            queries.add(folded + " " + SyntheticLibrary.WORDS[random.nextInt(5)].substring(0, 2));
+        }
+        queries.add("the");
+        queries.add("12");
+        queries.add("river 1");
+        for (String query : queries) {
+            int[] all = scan(query, Integer.MAX_VALUE);
+            for (int limit : new int[] { 1, 7, 50, Integer.MAX_VALUE }) {
+                int[] expected = Arrays.copyOf(all, Math.min(limit, all.length));
+                assertArrayEquals(query + " limit " + limit, expected, index.search(query, limit));
+            }
+        }
+    }
+
+    @Test
+    public void theLimitKeepsTheBestMatches() {
+        SearchIndex index = buildSynthetic(3000);
+        int[] all = index.search("lo", 10000);
+        assertTrue(all.length > 100);
+        for (int limit : new int[] { 0, 1, 10, 100 }) {
+            int[] limited = index.search("lo", limit);
+            assertEquals(limit, limited.length);
+            assertArrayEquals(Arrays.copyOf(all, limit), limited);
+        }
+    }
+
+    @Test
+    public void stampsStartOverWhenTheyWrapAround() {
+        SearchIndex index = buildSynthetic(1000);
+        int[] expected = index.search("night", 100);
+        int[] fuzzy = index.searchFuzzy("nihgt", 100);
+
+        // stale stamps equal to the ones the next queries get, if they weren't cleared
+        Arrays.fill(index.mEntryStamps, 1);
+        Arrays.fill(index.mTrackStamps, 2);
+        index.mStamp = -1;
+        assertArrayEquals(expected, index.search("night", 100));
+        assertTrue("stamp " + index.mStamp, index.mStamp > 0 && index.mStamp < 10);
+        Arrays.fill(index.mEntryStamps, 1);
+        Arrays.fill(index.mTrackStamps, 2);
+        index.mStamp = -1;
+        assertArrayEquals(fuzzy, index.searchFuzzy("nihgt", 100));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SmartShuffleTest {
+    @After
+    public void tearDown() {
+        SyntheticLibrary.resetRetriever();
+    }
+
+    static TrackList load(int size) {
+        SyntheticLibrary.load(SyntheticLibrary.create(size, 42));
+        return MusicRetriever.mItems;
+    }
+
+    /** Returns the most tracks any one artist has in the list. */
+    static int largestArtist(TrackList list) {
+        LibraryStore store = list.getStore();
+        int[] counts = new int[store.getArtistPool().size()];
+        int max = 0;
+        for (int i = 0; i < list.size(); i++) {
+            max = Math.max(max, ++counts[store.getArtistCode(list.getRow(i))]);
+        }
+        return max;
+    }
+
+    static int[] plainShuffle(int size, Random random) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    @Test
+    public void playsEveryTrackOnceStartingWithThePinnedOne() {
+        TrackList list = load(5000);
+        for (int first : new int[] { -1, 0, 1234, list.size() - 1 }) {
+            int[] order = SmartShuffle.shuffle(list, first, new Random(first));
+            boolean[] seen = new boolean[list.size()];
+            for (int index : order) {
+                assertTrue("played twice: " + index, !seen[index]);
+                seen[index] = true;
+            }
+            assertEquals(list.size(), order.length);
+            if (first >= 0) assertEquals(first, order[0]);
+        }
+        assertEquals(0, SmartShuffle.shuffle(new TrackList(list.getStore()), 0,
+                new Random(1)).length);
+    }
+
+    @Test
+    public void theSameSeedGivesTheSameOrder() {
+        TrackList list = load(5000);
+        assertArrayEquals(SmartShuffle.shuffle(list, 7, new Random(3)),
+                SmartShuffle.shuffle(list, 7, new Random(3)));
+    }
+
+    @Test
+    public void keepsAnArtistsTracksApart() {
+        TrackList list = load(100000);
+        // an artist with k of the n tracks is n / k apart when evenly spread; the jitter and
+        // the other artists' tracks may take some of that
+        int even = list.size() / largestArtist(list);
+        Random random = new Random(11);
+        int worst = Integer.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            int[] order = SmartShuffle.shuffle(list, random.nextInt(list.size()), random);
+            worst = Math.min(worst, SmartShuffle.minArtistDistance(list, order));
+        }
+        int plain = SmartShuffle.minArtistDistance(list, plainShuffle(list.size(), random));
+        assertTrue(worst + " apart, evenly " + even, worst >= even / 2);
+        assertEquals("plain shuffle", 1, plain);
+    }
+
+    /**
+     * Counts the times an artist with more than one album follows one of its tracks with
+     * another from the same album, looking at the artist's tracks alone.
+     */
+    static int sameAlbumRepeats(TrackList list, LibraryIndex index, int[] order) {
+        LibraryStore store = list.getStore();
+        int[] lastAlbum = new int[store.getArtistPool().size()];
+        Arrays.fill(lastAlbum, -1);
+        int repeats = 0;
+        for (int position : order) {
+            int row = list.getRow(position);
+            int artist = store.getArtistCode(row);
+            int album = store.getAlbumCode(row);
+            if (album == lastAlbum[artist] && index.getArtistAlbumCount(artist) > 1) repeats++;
+            lastAlbum[artist] = album;
+        }
+        return repeats;
+    }
+
+    @Test
+    public void spreadsAnArtistsAlbumsOverTheirTracks() {
+        TrackList list = load(100000);
+        LibraryIndex index = LibraryIndex.build(list.getStore(), list);
+        Random random = new Random(5);
+        int smart = sameAlbumRepeats(list, index, SmartShuffle.shuffle(list, -1, random));
+        int plain = sameAlbumRepeats(list, index, plainShuffle(list.size(), random));
+        // only the jitter lets an album come up again before the artist's other albums
+        assertTrue(smart + " against " + plain, smart * 4 < plain);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StripedCounterTest {
+    @Test
+    public void sumsWhatEveryThreadAdds() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter("test");
+        final int perThread = 200000;
+        // more threads than stripes, so some share one
+        Thread[] threads = new Thread[StripedCounter.STRIPES * 2 + 1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) counter.increment();
+                    counter.add(-perThread / 2);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals((long) threads.length * perThread / 2, counter.get());
+
+        counter.reset();
+        assertEquals(0, counter.get());
+        counter.add(3);
+        assertEquals(3, counter.get());
+    }
+}
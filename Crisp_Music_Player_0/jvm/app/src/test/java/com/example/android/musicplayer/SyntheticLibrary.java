@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import java.io.FileNotFoundException;
+import java.util.Random;
+
+/**
+ * Builds made-up music libraries of any size, shaped like real ones: albums of 8 to 14
+ * tracks, artists with one to six albums (a few with many more), so there are about a tenth as
+ * many albums and a thirtieth as many artists as tracks. Names repeat words, differ in case and
+ * accents, and some artists start with "The", so sorting and searching do the work they do on
+ * a device. The same size and seed always give the same library.
+ *
+ * It also loads a library into {@link MusicRetriever}, whose state is static, after putting
+ * that state back the way a fresh process has it.
+ */
+public class SyntheticLibrary {
+    static final String[] WORDS = {
+            "love", "night", "blue", "fire", "heart", "river", "road", "rain", "gold", "dream",
+            "light", "dance", "ghost", "summer", "stone", "shadow", "wild", "city", "echo",
+            "\u00e9t\u00e9", "caf\u00e9", "north", "glass", "ocean", "silver", "storm",
+            "midnight", "paper", "electric", "velvet", "Sound", "Song", "Home", "Time", "Way",
+            "Ballad", "Blues", "Radio", "Star", "Moon", "Sun", "Girl", "Boy", "Train", "Band"
+    };
+
+    /** Returns a media store with size tracks, numbered from id 1 in scan order. */
+    public static MemoryContentResolver create(int size, long seed) {
+        Random random = new Random(seed);
+        MemoryContentResolver resolver = new MemoryContentResolver();
+        int artist = 0;
+        int album = 0;
+        int albumsLeft = 0;
+        String artistName = null;
+        while (resolver.size() < size) {
+            if (albumsLeft == 0) {
+                artist++;
+                artistName = artistName(random, artist);
+                // most artists have an album or two, a few have a long discography
+                albumsLeft = random.nextInt(10) == 0 ? 6 + random.nextInt(20)
+                        : 1 + random.nextInt(3);
+            }
+            album++;
+            albumsLeft--;
+            String albumName = phrase(random, 1 + random.nextInt(3)) + " " + album;
+            int tracks = 8 + random.nextInt(7);
+            for (int t = 0; t < tracks && resolver.size() < size; t++) {
+                long id = resolver.size() + 1;
+                resolver.add(id, artistName, phrase(random, 1 + random.nextInt(4)), albumName,
+                        120000 + random.nextInt(300000), album, 1300000000L + id);
+            }
+        }
+        return resolver;
+    }
+
+    static String artistName(Random random, int artist) {
+        String name = phrase(random, 1 + random.nextInt(2)) + " " + artist;
+        return random.nextInt(5) == 0 ? "The " + name : name;
+    }
+
+    static String phrase(Random random, int words) {
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (i == 0) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            if (i > 0) phrase.append(' ');
+            phrase.append(word);
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * Puts MusicRetriever's static state back the way a fresh process has it: no tracks, no
+     * lists, the initial playback state, nothing waiting.
+     */
+    public static synchronized void resetRetriever() {
+        synchronized (MusicRetriever.class) {
+            MusicRetriever.mLibrary.clear();
+            for (TrackList list : new TrackList[] { MusicRetriever.mItems,
+                    MusicRetriever.mSongList, MusicRetriever.playlist,
+                    MusicRetriever.tempPlaylist, MusicRetriever.generatedPlaylist }) {
+                list.clear();
+            }
+            MusicRetriever.songs.clear();
+            MusicRetriever.Orderedsongs.clear();
+            MusicRetriever.artists.clear();
+            MusicRetriever.albums.clear();
+            MusicRetriever.mPublishedRows = 0;
+            MusicRetriever.mPrepared = false;
+            MusicRetriever.mPopulated = false;
+            MusicRetriever.mRestoredFromSnapshot = false;
+            MusicRetriever.mPendingOrders = null;
+            MusicRetriever.mIndex = null;
+            MusicRetriever.mOrders = null;
+            MusicRetriever.mSearchIndex = null;
+            MusicRetriever.mSampler = null;
+            MusicRetriever.mSamplerBase = null;
+            MusicRetriever.mQueueListener = null;
+            MusicRetriever.tempItem = null;
+            MusicRetriever.mState.set(PlaybackState.INITIAL);
+            MusicRetriever.mQueue.setBase(MusicRetriever.mItems);
+            MusicRetriever.mQueue.unshuffle();
+            MusicRetriever.mArtworkCache.clear();
+            MusicRetriever.setArtworkDecoder(null);
+        }
+    }
+
+    /**
+     * Resets MusicRetriever and loads the media store into it the way the service does: all of
+     * prepare(), then populate().
+     */
+    public static MusicRetriever load(MemoryContentResolver resolver) {
+        resetRetriever();
+        MusicRetriever retriever = new MusicRetriever(resolver);
+        retriever.prepare();
+        try {
+            retriever.populate();
+        } catch (FileNotFoundException e) {
+            throw new AssertionError(e);
+        }
+        return retriever;
+    }
+
+    /** Undoes populate(), so that it can run again over the same library. */
+    public static synchronized void unpopulate() {
+        synchronized (MusicRetriever.class) {
+            MusicRetriever.mSongList.clear();
+            MusicRetriever.songs.clear();
+            MusicRetriever.Orderedsongs.clear();
+            MusicRetriever.artists.clear();
+            MusicRetriever.albums.clear();
+            MusicRetriever.mIndex = null;
+            MusicRetriever.mOrders = null;
+            MusicRetriever.mSearchIndex = null;
+            MusicRetriever.mPopulated = false;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import com.example.android.musicplayer.TrackTransition.Cause;
+import com.example.android.musicplayer.TrackTransition.Stage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TrackTransitionTest {
+    static final long MS = 1000000;
+    static final int PREPARE_MS = 200;
+    static final int DURATION_MS = 10000;
+
+    /** A clock that moves only when told to. */
+    static class ManualClock implements Clock {
+        long mNanos = 1000 * MS;
+
+        public long nanoTime() {
+            return mNanos;
+        }
+
+        void advance(long millis) {
+            mNanos += millis * MS;
+        }
+    }
+
+    final ManualClock mManualClock = new ManualClock();
+
+    @Test
+    public void eachStageLastsUntilTheNextOne() {
+        TrackTransition transition = new TrackTransition(Cause.SKIP, mManualClock);
+        assertNull(transition.getStage());
+        mManualClock.advance(1);
+        transition.enter(Stage.RESOLVE_ITEM);
+        mManualClock.advance(2);
+        transition.enter(Stage.ACQUIRE_PLAYER);
+        mManualClock.advance(3);
+        transition.enter(Stage.SET_SOURCE);
+        mManualClock.advance(4);
+        transition.enter(Stage.PREPARE);
+        mManualClock.advance(150);
+        transition.enter(Stage.START);
+
+        // under way, the last stage has no length yet
+        assertFalse(transition.isEnded());
+        assertEquals(Stage.START, transition.getStage());
+        assertEquals(150 * MS, transition.getStageNanos(Stage.PREPARE));
+        assertEquals(-1, transition.getStageNanos(Stage.START));
+        assertEquals(-1, transition.getTotalNanos());
+        assertTrue(transition.toString(), transition.toString().endsWith("under way in START"));
+
+        mManualClock.advance(5);
+        transition.finish();
+        assertTrue(transition.isFinished());
+        assertEquals(2 * MS, transition.getStageNanos(Stage.RESOLVE_ITEM));
+        assertEquals(3 * MS, transition.getStageNanos(Stage.ACQUIRE_PLAYER));
+        assertEquals(4 * MS, transition.getStageNanos(Stage.SET_SOURCE));
+        assertEquals(5 * MS, transition.getStageNanos(Stage.START));
+        assertEquals(165 * MS, transition.getTotalNanos());
+        assertEquals("skip: resolve_item 2.0 ms, acquire_player 3.0 ms, set_source 4.0 ms,"
+                + " prepare 150.0 ms, start 5.0 ms, 165.0 ms to audio", transition.toString());
+    }
+
+    @Test
+    public void skippedStagesHaveNoLength() {
+        // a track prepared ahead goes straight from taking the player to starting it
+        TrackTransition transition = new TrackTransition(Cause.PREPARED, mManualClock);
+        transition.enter(Stage.RESOLVE_ITEM);
+        transition.enter(Stage.ACQUIRE_PLAYER);
+        mManualClock.advance(1);
+        transition.enter(Stage.START);
+        transition.finish();
+
+        assertEquals(1 * MS, transition.getStageNanos(Stage.ACQUIRE_PLAYER));
+        assertEquals(-1, transition.getStageNanos(Stage.SET_SOURCE));
+        assertEquals(-1, transition.getStageNanos(Stage.PREPARE));
+        assertEquals(0, transition.getStageNanos(Stage.START));
+        assertEquals("prepared: resolve_item 0.0 ms, acquire_player 1.0 ms, start 0.0 ms,"
+                + " 1.0 ms to audio", transition.toString());
+    }
+
+    @Test
+    public void aFailureEndsTheTransitionInItsStage() {
+        TrackTransition transition = new TrackTransition(Cause.GIVEN, mManualClock);
+        transition.enter(Stage.RESOLVE_ITEM);
+        transition.enter(Stage.ACQUIRE_PLAYER);
+        transition.enter(Stage.SET_SOURCE);
+        mManualClock.advance(7);
+        transition.fail("java.io.IOException");
+
+        assertTrue(transition.isEnded());
+        assertFalse(transition.isFinished());
+        assertEquals(Stage.SET_SOURCE, transition.getStage());
+        assertEquals(7 * MS, transition.getStageNanos(Stage.SET_SOURCE));
+        assertTrue(transition.toString(), transition.toString()
+                .endsWith("failed in SET_SOURCE after 7.0 ms: java.io.IOException"));
+
+        // an ended transition stays the way it ended
+        mManualClock.advance(10);
+        transition.enter(Stage.PREPARE);
+        transition.finish();
+        transition.fail("again");
+        assertFalse(transition.isFinished());
+        assertEquals(Stage.SET_SOURCE, transition.getStage());
+        assertEquals(7 * MS, transition.getTotalNanos());
+
+        TrackTransition unexplained = new TrackTransition(Cause.NEXT, mManualClock);
+        unexplained.fail(null);
+        assertTrue(unexplained.toString().endsWith("unknown error"));
+    }
+
+    @Test
+    public void metricsCountFailuresAndTimeFinishedStages() {
+        long finished = Metrics.TRANSITIONS_FINISHED.get();
+        long failed = Metrics.TRANSITIONS_FAILED.get();
+        long prepares = Metrics.TRANSITION_STAGES[Stage.PREPARE.ordinal()].getCount();
+
+        TrackTransition transition = new TrackTransition(Cause.NEXT, mManualClock);
+        transition.enter(Stage.PREPARE);
+        transition.fail("error");
+        Metrics.recordTransition(transition);
+        assertEquals(failed + 1, Metrics.TRANSITIONS_FAILED.get());
+        assertEquals(prepares, Metrics.TRANSITION_STAGES[Stage.PREPARE.ordinal()].getCount());
+
+        transition = new TrackTransition(Cause.NEXT, mManualClock);
+        transition.enter(Stage.PREPARE);
+        mManualClock.advance(PREPARE_MS);
+        transition.enter(Stage.START);
+        transition.finish();
+        Metrics.recordTransition(transition);
+        assertEquals(finished + 1, Metrics.TRANSITIONS_FINISHED.get());
+        assertEquals(prepares + 1,
+                Metrics.TRANSITION_STAGES[Stage.PREPARE.ordinal()].getCount());
+    }
+
+    // The service's transitions, on a virtual clock, with the tracks scripted.
+
+    VirtualClock mClock;
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    FakePlayerFactory mFactory;
+    MusicService mService;
+    final List<TrackTransition> mReported = new ArrayList<TrackTransition>();
+    // sources whose next prepare fails
+    final List<String> mFailNext = new ArrayList<String>();
+
+    @After
+    public void tearDown() {
+        if (mService != null) mService.onDestroy();
+        if (mClock != null) mClock.release();
+        SyntheticLibrary.resetRetriever();
+    }
+
+    /** Starts the service playing from the top of the list, gapless unless told otherwise. */
+    void startService(boolean gapless) {
+        SyntheticLibrary.resetRetriever();
+        mClock = new VirtualClock(1000000);
+        mFactory = new FakePlayerFactory(new FakePlayerFactory.Script() {
+            public FakePlayerFactory.Track scriptFor(String source) {
+                FakePlayerFactory.Track track = new FakePlayerFactory.Track();
+                track.mPrepareMs = PREPARE_MS;
+                track.mDurationMs = DURATION_MS;
+                if (mFailNext.remove(source)) track.mPrepareError = 1;
+                return track;
+            }
+        }, true);
+        mService = new PlaybackSimulation.SimulatedService(SyntheticLibrary.create(50, 1),
+                mFolder.getRoot()) {
+            @Override
+            void reportTransition(TrackTransition transition) {
+                mReported.add(transition);
+                super.reportTransition(transition);
+            }
+        }.start(mFactory, mClock);
+        if (!gapless) {
+            Intent intent = new Intent(MusicService.ACTION_GAPLESS);
+            intent.putExtra("Gapless", false);
+            send(intent);
+        }
+        send(new Intent(MusicService.ACTION_PLAY));
+    }
+
+    void send(Intent intent) {
+        mService.onStartCommand(intent, 0, 0);
+        mClock.runDue();
+    }
+
+    TrackTransition last() {
+        return mReported.get(mReported.size() - 1);
+    }
+
+    @Test
+    public void theFirstTrackGoesThroughEveryStage() {
+        startService(true);
+        mClock.advance(PREPARE_MS);
+
+        assertEquals(1, mReported.size());
+        TrackTransition transition = last();
+        assertEquals(Cause.NEXT, transition.getCause());
+        assertTrue(transition.toString(), transition.isFinished());
+        for (Stage stage : TrackTransition.STAGES) {
+            assertTrue(stage.name(), transition.getStageNanos(stage) >= 0);
+        }
+        assertEquals(PREPARE_MS * MS, transition.getStageNanos(Stage.PREPARE));
+        assertEquals(PREPARE_MS * MS, transition.getTotalNanos());
+    }
+
+    @Test
+    public void pickingATrackWhilePreparingSupersedesTheTrackChange() {
+        startService(true);
+        mClock.advance(PREPARE_MS / 2);
+        Intent pick = new Intent(MusicService.ACTION_URI);
+        pick.putExtra("Position", 7);
+        send(pick);
+        mClock.advance(PREPARE_MS);
+
+        assertEquals(2, mReported.size());
+        TrackTransition superseded = mReported.get(0);
+        assertFalse(superseded.isFinished());
+        assertEquals(Stage.PREPARE, superseded.getStage());
+        assertTrue(superseded.toString(), superseded.toString().endsWith("superseded by GIVEN"));
+        assertEquals(Cause.GIVEN, last().getCause());
+        assertTrue(last().isFinished());
+        assertEquals(PREPARE_MS * MS, last().getTotalNanos());
+        assertEquals(7, MusicRetriever.getState().getPosition());
+    }
+
+    @Test
+    public void aSkipIsTimedFromTheRequest() {
+        startService(true);
+        mClock.advance(PREPARE_MS + DURATION_MS / 2);
+        send(new Intent(MusicService.ACTION_SKIP));
+        mClock.advance(PREPARE_MS);
+
+        TrackTransition transition = last();
+        assertEquals(Cause.SKIP, transition.getCause());
+        assertTrue(transition.isFinished());
+        assertEquals(PREPARE_MS * MS, transition.getTotalNanos());
+    }
+
+    @Test
+    public void aTrackPreparedAheadSkipsSettingTheSourceAndPreparing() {
+        startService(true);
+        mClock.advance(PREPARE_MS + DURATION_MS);
+
+        TrackTransition transition = last();
+        assertEquals(Cause.PREPARED, transition.getCause());
+        assertTrue(transition.isFinished());
+        assertEquals(-1, transition.getStageNanos(Stage.SET_SOURCE));
+        assertEquals(-1, transition.getStageNanos(Stage.PREPARE));
+        assertEquals(0, transition.getTotalNanos());
+    }
+
+    @Test
+    public void withoutGaplessTheNextTrackIsPreparedWhenTheLastEnds() {
+        startService(false);
+        mClock.advance(PREPARE_MS + DURATION_MS + PREPARE_MS);
+
+        TrackTransition transition = last();
+        assertEquals(Cause.NEXT, transition.getCause());
+        assertTrue(transition.isFinished());
+        assertEquals(PREPARE_MS * MS, transition.getStageNanos(Stage.PREPARE));
+    }
+
+    @Test
+    public void aFailedPrepareIsRetriedOnce() {
+        // the second track fails to prepare the first time it's opened
+        startService(false);
+        mFailNext.add(MusicRetriever.mQueue.get(MusicRetriever.peekNextPosition()).getURI()
+                .toString());
+        mClock.advance(PREPARE_MS + DURATION_MS + 2 * PREPARE_MS);
+
+        int count = mReported.size();
+        TrackTransition failed = mReported.get(count - 2);
+        assertEquals(Cause.NEXT, failed.getCause());
+        assertFalse(failed.isFinished());
+        assertEquals(Stage.PREPARE, failed.getStage());
+        assertTrue(failed.toString(), failed.toString().contains("MediaPlayer error"));
+        assertEquals(Cause.RETRY, last().getCause());
+        assertTrue(last().isFinished());
+    }
+}
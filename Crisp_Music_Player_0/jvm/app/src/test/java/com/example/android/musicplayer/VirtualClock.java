@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * A clock that only moves when told to. It sets {@link SystemClock}'s time too, and runs the
+ * main looper's messages as their time comes, so handlers, players and the playback code all
+ * see the same time. Call {@link #release()} to give SystemClock back the real time.
+ */
+public class VirtualClock implements Clock {
+    final Looper mLooper = Looper.getMainLooper();
+    volatile long mNowMillis;
+
+    public VirtualClock(long startMillis) {
+        set(startMillis);
+    }
+
+    public long nanoTime() {
+        return mNowMillis * 1000000L;
+    }
+
+    public long millis() {
+        return mNowMillis;
+    }
+
+    void set(long millis) {
+        mNowMillis = millis;
+        SystemClock.setFixedTime(millis);
+    }
+
+    /** Runs the messages due now, and returns how many ran. */
+    public int runDue() {
+        return mLooper.runDue();
+    }
+
+    /**
+     * Moves the time forward, stopping at each message due on the way to run it at its time.
+     * Returns how many messages ran.
+     */
+    public int advance(long millis) {
+        long target = mNowMillis + millis;
+        int count = runDue();
+        while (true) {
+            long next = mLooper.getNextDueTime();
+            if (next > target) break;
+            if (next > mNowMillis) set(next);
+            count += runDue();
+        }
+        set(target);
+        return count + runDue();
+    }
+
+    /** Drops the messages still queued and lets SystemClock read the real time again. */
+    public void release() {
+        mLooper.clear();
+        SystemClock.setFixedTime(-1);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the draws against their weights with a chi-square test. The seeds are fixed, so the
+ * tests either always pass or always fail; the limit is the 99.9th percentile of the
+ * chi-square distribution, so a correct sampler fails for one seed in a thousand.
+ */
+public class WeightedSamplerTest {
+    static final int DRAWS = 200000;
+
+    /** The 99.9th percentile of chi-square with df degrees of freedom (Wilson-Hilferty). */
+    static double limit(int df) {
+        double a = 2.0 / (9 * df);
+        return df * Math.pow(1 - a + 3.09 * Math.sqrt(a), 3);
+    }
+
+    static double[] weights(int size, Random random) {
+        double[] weights = new double[size];
+        for (int i = 0; i < size; i++) weights[i] = 0.1 + random.nextDouble() * random.nextDouble();
+        return weights;
+    }
+
+    /**
+     * Draws from a sampler and keeps the counts of the indexes drawn, next to the counts the
+     * weights lead to expect, with the indexes that were left out of a draw left out of its
+     * expectation. Without a window this is the plain chi-square test; with one, the expected
+     * counts add up each draw's own probabilities, which the counts follow just the same.
+     */
+    static class Draws {
+        final WeightedSampler mSampler;
+        final int[] mRecent;
+        int mRecentSize = 0;
+        int mDraws = 0;
+        final boolean[] mExcluded;
+        final double[] mExpected;
+        final int[] mCounts;
+
+        Draws(WeightedSampler sampler, int window) {
+            mSampler = sampler;
+            mRecent = new int[window];
+            mExcluded = new boolean[sampler.size()];
+            mExpected = new double[sampler.size()];
+            mCounts = new int[sampler.size()];
+        }
+
+        void draw(int draws, Random random) {
+            int size = mSampler.size();
+            for (int d = 0; d < draws; d++) {
+                double total = 0;
+                for (int i = 0; i < size; i++) if (!mExcluded[i]) total += mSampler.getWeight(i);
+                for (int i = 0; i < size; i++) {
+                    if (!mExcluded[i]) mExpected[i] += mSampler.getWeight(i) / total;
+                }
+
+                int index = mSampler.next(random);
+                assertFalse("drawn again within the window: " + index, mExcluded[index]);
+                mCounts[index]++;
+                if (mRecent.length > 0) {
+                    int slot = mDraws++ % mRecent.length;
+                    if (mRecentSize == mRecent.length) mExcluded[mRecent[slot]] = false;
+                    else mRecentSize++;
+                    mRecent[slot] = index;
+                    mExcluded[index] = true;
+                }
+            }
+        }
+
+        /**
+         * Returns the statistic over the draws since the last call and starts over. Indexes
+         * with nothing expected must not have been drawn, and don't count.
+         */
+        double chiSquare() {
+            double chiSquare = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mExpected[i] == 0) {
+                    assertEquals("weight zero but drawn: " + i, 0, mCounts[i]);
+                    continue;
+                }
+                double diff = mCounts[i] - mExpected[i];
+                chiSquare += diff * diff / mExpected[i];
+                mCounts[i] = 0;
+                mExpected[i] = 0;
+            }
+            return chiSquare;
+        }
+    }
+
+    @Test
+    public void drawsFollowTheWeights() {
+        Random random = new Random(1);
+        Draws draws = new Draws(new WeightedSampler(weights(100, random), 0), 0);
+        draws.draw(DRAWS, random);
+        double chiSquare = draws.chiSquare();
+        assertTrue(chiSquare + " > " + limit(99), chiSquare < limit(99));
+    }
+
+    @Test
+    public void drawsFollowTheWeightsWithTheRecentOnesLeftOut() {
+        Random random = new Random(2);
+        // a window that is a good part of the indexes, so leaving them out skews the draws
+        Draws draws = new Draws(new WeightedSampler(weights(100, random), 30), 30);
+        draws.draw(DRAWS, random);
+        double chiSquare = draws.chiSquare();
+        assertTrue(chiSquare + " > " + limit(99), chiSquare < limit(99));
+    }
+
+    @Test
+    public void ignoringTheWindowWouldFailTheTest() {
+        // the test has to tell: drawing with the window, but expecting plain weighted draws
+        Random random = new Random(3);
+        WeightedSampler sampler = new WeightedSampler(weights(100, random), 30);
+        int[] counts = new int[100];
+        for (int d = 0; d < DRAWS; d++) counts[sampler.next(random)]++;
+        double total = 0;
+        for (int i = 0; i < 100; i++) total += sampler.getWeight(i);
+        double chiSquare = 0;
+        for (int i = 0; i < 100; i++) {
+            double expected = DRAWS * sampler.getWeight(i) / total;
+            chiSquare += (counts[i] - expected) * (counts[i] - expected) / expected;
+        }
+        assertTrue(chiSquare + " <= " + limit(99), chiSquare > limit(99));
+    }
+
+    @Test
+    public void drawsFollowChangedWeights() {
+        Random random = new Random(4);
+        double[] weights = weights(100, random);
+        WeightedSampler sampler = new WeightedSampler(weights, 10);
+        Draws draws = new Draws(sampler, 10);
+        // lowered weights are drawn by rejection from the table built for the old ones
+        for (int i = 0; i < 50; i++) sampler.setWeight(i, weights[i] / 4);
+        sampler.setWeight(50, 0);
+        draws.draw(DRAWS / 2, random);
+        double chiSquare = draws.chiSquare();
+        assertTrue(chiSquare + " > " + limit(98), chiSquare < limit(98));
+
+        // raised weights are drawn from the Fenwick tree until the table is rebuilt
+        for (int i = 60; i < 70; i++) sampler.setWeight(i, weights[i] * 5);
+        assertFalse(sampler.mAliasValid);
+        draws.draw(DRAWS / 2, random);
+        chiSquare = draws.chiSquare();
+        assertTrue(chiSquare + " > " + limit(98), chiSquare < limit(98));
+        assertTrue(sampler.mAliasValid);
+    }
+
+    @Test
+    public void zeroWeightsAreNeverDrawn() {
+        Random random = new Random(5);
+        WeightedSampler sampler = new WeightedSampler(new double[] { 0, 1, 0, 2, 0 }, 0);
+        for (int d = 0; d < 10000; d++) {
+            int index = sampler.next(random);
+            assertTrue(index == 1 || index == 3);
+        }
+        sampler.setWeight(1, 0);
+        sampler.setWeight(3, 0);
+        assertEquals(-1, sampler.next(random));
+        assertEquals(-1, new WeightedSampler(new double[0], 5).next(random));
+    }
+
+    @Test
+    public void aWindowAsBigAsTheListLeavesOneIndexToDraw() {
+        Random random = new Random(6);
+        WeightedSampler sampler = new WeightedSampler(new double[] { 1, 1, 1 }, 50);
+        int[] order = new int[30];
+        for (int d = 0; d < order.length; d++) order[d] = sampler.next(random);
+        // the window shrinks to two, so after the first draws the order repeats
+        for (int d = 3; d < order.length; d++) assertEquals(order[d - 3], order[d]);
+    }
+
+    @Test
+    public void weightsThatOnlyShrinkGetANewTable() {
+        Random random = new Random(7);
+        double[] weights = weights(1000, random);
+        WeightedSampler sampler = new WeightedSampler(weights, 0);
+        // nearly every draw from the old table is now rejected, and falls back to the tree
+        for (int i = 0; i < weights.length; i++) sampler.setWeight(i, weights[i] / 100);
+        assertTrue(sampler.mAliasValid);
+        for (int d = 0; d < 100; d++) sampler.next(random);
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 100, sampler.mSnapshot[i], 0);
+        }
+        assertTrue(sampler.mFallbackCost < weights.length);
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a crossfade costs, on fake players: the CPU time of one volume step, and how evenly
+ * the timer thread spaces the steps of a real one-second fade, with the CPU idle or with
+ * other threads keeping every core busy.
+ */
+@Fork(1)
+public class CrossfadeBenchmark {
+    static final Clock REAL_TIME = new Clock() {
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    static final CrossfadeEngine.Listener NO_LISTENER = new CrossfadeEngine.Listener() {
+        public void onFadeOutDone(PlayerBackend outgoing) {
+        }
+    };
+
+    // players that prepare at once, so nothing but the fade takes real time
+    static final FakePlayerFactory.Script INSTANT = new FakePlayerFactory.Script() {
+        public FakePlayerFactory.Track scriptFor(String source) {
+            FakePlayerFactory.Track track = new FakePlayerFactory.Track();
+            track.mPrepareMs = 0;
+            return track;
+        }
+    };
+
+    static FakePlayer playing(FakePlayerFactory factory, String source) throws Exception {
+        FakePlayer player = factory.create(null);
+        player.setDataSource(source);
+        player.prepareAsync();
+        Looper.getMainLooper().runDue();
+        player.start();
+        return player;
+    }
+
+    /** A fade that never ends by itself, stepped by the benchmark instead of the timer. */
+    @State(Scope.Thread)
+    public static class Stepped {
+        CrossfadeEngine mEngine;
+
+        @Setup(Level.Trial)
+        public void startFade() throws Exception {
+            FakePlayerFactory factory = new FakePlayerFactory(INSTANT, true);
+            mEngine = new CrossfadeEngine(new Handler(Looper.getMainLooper()), REAL_TIME,
+                    NO_LISTENER);
+            mEngine.start(playing(factory, "a"), playing(factory, "b"),
+                    TimeUnit.HOURS.toMillis(1), 1f);
+            synchronized (mEngine) {
+                mEngine.mTick.cancel(false);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void cancel() {
+            mEngine.cancel();
+            Looper.getMainLooper().clear();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public void step(Stepped stepped) {
+        stepped.mEngine.tick();
+    }
+
+    /**
+     * How the steps of the measured fades went, alongside their wall time. JMH adds these up
+     * over the measured fades, so they are totals: lateUs / steps is the mean lateness of a
+     * step, and timerCpuUs / steps its CPU time on the timer thread, wakeup included.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Timing {
+        public long steps;
+        public long lateUs;
+        public long timerCpuUs;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            steps = 0;
+            lateUs = 0;
+            timerCpuUs = 0;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Load {
+        // threads spinning alongside the fade, per available core
+        @Param({ "0", "1" })
+        int busyPerCore;
+
+        volatile boolean mRunning;
+        Thread[] mThreads;
+        // where the busy threads leave what they counted, so the loop isn't optimized away
+        volatile long mSink;
+
+        @Setup(Level.Trial)
+        public void startLoad() {
+            mRunning = true;
+            mThreads = new Thread[busyPerCore * Runtime.getRuntime().availableProcessors()];
+            for (int i = 0; i < mThreads.length; i++) {
+                mThreads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        long x = 0;
+                        while (mRunning) x += System.nanoTime() & 1;
+                        mSink = x;
+                    }
+                }, "Busy-" + i);
+                mThreads[i].setDaemon(true);
+                mThreads[i].start();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void stopLoad() throws InterruptedException {
+            mRunning = false;
+            for (Thread thread : mThreads) thread.join();
+        }
+    }
+
+    static long timerCpuNanos(ThreadMXBean threads) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("Crossfade".equals(thread.getName())) {
+                return threads.getThreadCpuTime(thread.getId());
+            }
+        }
+        return 0;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void fade(Load load, Timing timing) throws Exception {
+        FakePlayerFactory factory = new FakePlayerFactory(INSTANT, true);
+        CrossfadeEngine engine = new CrossfadeEngine(new Handler(Looper.getMainLooper()),
+                REAL_TIME, NO_LISTENER);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuBefore = timerCpuNanos(threads);
+        engine.start(playing(factory, "a"), playing(factory, "b"), 1000, 1f);
+        while (engine.isFading()) Thread.sleep(1);
+        long cpu = timerCpuNanos(threads) - cpuBefore;
+        Looper.getMainLooper().clear();
+
+        synchronized (engine) {
+            timing.steps = engine.mTicks;
+            timing.lateUs = engine.mTotalLatenessNanos / 1000;
+            timing.timerCpuUs = cpu / 1000;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the UI and the transport controls ask of a loaded library: an artist's songs, the
+ * titles of the list being played, switching shuffle and smart shuffle, moving to the next
+ * track, and search as you type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryBrowseBenchmark {
+    static final String[] QUERIES = { "lo", "love", "night dr", "the blu", "caf", "sumer" };
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+    List<String> mArtists;
+    final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void loadLibrary() {
+        SyntheticLibrary.load(SyntheticLibrary.create(size, 42));
+        MusicRetriever.setShuffleSeed(42);
+        mArtists = new ArrayList<String>(MusicRetriever.getArtists());
+        MusicRetriever.getSearchIndex();
+    }
+
+    @Benchmark
+    public List<String> getSongsByArtist() {
+        return MusicRetriever.getSongsByArtist(mArtists.get(mRandom.nextInt(mArtists.size())));
+    }
+
+    @Benchmark
+    public List<String> getCurrentPlaylist() {
+        return MusicRetriever.getCurrentPlaylist();
+    }
+
+    /** Shuffle on, from the current track, and off again. */
+    @Benchmark
+    public PlaybackState toggleShuffle() {
+        MusicRetriever.toggleShuffle();
+        MusicRetriever.toggleShuffle();
+        return MusicRetriever.getState();
+    }
+
+    /** Reshuffles a shuffled queue as a smart shuffle and back as a plain one. */
+    @Benchmark
+    public PlaybackState setSmartShuffle() {
+        if (!MusicRetriever.getState().isShuffle()) MusicRetriever.toggleShuffle();
+        MusicRetriever.setSmartShuffle(true);
+        MusicRetriever.setSmartShuffle(false);
+        return MusicRetriever.getState();
+    }
+
+    @Benchmark
+    public MusicRetriever.Item getNextItem() {
+        MusicRetriever.Item item = MusicRetriever.getNextItem();
+        return item != null ? item : MusicRetriever.getGivenItem(0);
+    }
+
+    @Benchmark
+    public TrackList search() {
+        return MusicRetriever.search(QUERIES[mRandom.nextInt(QUERIES.length)], 50);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Browsing by artist and album through the {@link LibraryIndex}, next to the scan over every
+ * track the browse calls did before there was an index, and what building the index costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryIndexBenchmark {
+    @Param({ "10000", "100000", "1000000" })
+    int size;
+
+    LibraryStore mStore;
+    TrackList mItems;
+    List<String> mArtists;
+    List<String> mAlbums;
+    final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void loadLibrary() {
+        SyntheticLibrary.load(SyntheticLibrary.create(size, 42));
+        mStore = MusicRetriever.mLibrary;
+        mItems = MusicRetriever.mItems;
+        mArtists = new ArrayList<String>(MusicRetriever.getArtists());
+        mAlbums = new ArrayList<String>(MusicRetriever.getAlbums());
+        MusicRetriever.getIndex();
+    }
+
+    String randomArtist() {
+        return mArtists.get(mRandom.nextInt(mArtists.size()));
+    }
+
+    @Benchmark
+    public LibraryIndex build() {
+        return LibraryIndex.build(mStore, mItems);
+    }
+
+    @Benchmark
+    public List<String> getSongsByArtist() {
+        return MusicRetriever.getSongsByArtist(randomArtist());
+    }
+
+    @Benchmark
+    public List<String> getAlbumsByArtist() {
+        return MusicRetriever.getAlbumsByArtist(randomArtist());
+    }
+
+    @Benchmark
+    public List<String> getSongsByAlbum() {
+        return MusicRetriever.getSongsByAlbum(mAlbums.get(mRandom.nextInt(mAlbums.size())));
+    }
+
+    /** getSongsByArtist() as it was, comparing every track's artist. */
+    @Benchmark
+    public List<String> scanSongsByArtist() {
+        String artist = randomArtist();
+        List<String> songs = new ArrayList<String>();
+        for (int i = 0; i < mItems.size(); i++) {
+            int row = mItems.getRow(i);
+            if (mStore.getArtist(row).equals(artist)) songs.add(mStore.getTitle(row));
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a library the way the service does at startup: prepare() over a cursor with every
+ * track, then populate(), which sorts it and builds the artist, album and search indexes. Or,
+ * on a cold start with a saved snapshot, restore(), which stands for both.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryLoadBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+    MemoryContentResolver mResolver;
+    LibrarySnapshot mSnapshot;
+
+    @Setup(Level.Trial)
+    public void createLibrary() throws IOException {
+        mResolver = SyntheticLibrary.create(size, 42);
+        SyntheticLibrary.load(mResolver);
+        File file = File.createTempFile("library", ".snapshot");
+        file.deleteOnExit();
+        mSnapshot = new LibrarySnapshot(file);
+        mSnapshot.write(MusicRetriever.captureSnapshot());
+    }
+
+    @Setup(Level.Invocation)
+    public void unpopulate() {
+        SyntheticLibrary.unpopulate();
+    }
+
+    @Benchmark
+    public int prepare() {
+        SyntheticLibrary.resetRetriever();
+        new MusicRetriever(mResolver).prepare();
+        return MusicRetriever.getItems().size();
+    }
+
+    @Benchmark
+    public int populate() throws FileNotFoundException {
+        new MusicRetriever(mResolver).populate();
+        return MusicRetriever.getOrdSongs().size();
+    }
+
+    @Benchmark
+    public int restore() {
+        SyntheticLibrary.resetRetriever();
+        MusicRetriever retriever = new MusicRetriever(mResolver);
+        retriever.setSnapshot(mSnapshot);
+        retriever.prepare();
+        return MusicRetriever.getOrdSongs().size();
+    }
+}
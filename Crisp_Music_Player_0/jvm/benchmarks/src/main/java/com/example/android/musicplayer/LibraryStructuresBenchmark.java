@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The structures behind the library one at a time, over the same synthetic library: filling
+ * the store and its string pools, ranking and sorting, the indexes, and the play orders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LibraryStructuresBenchmark {
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int size;
+
+    List<MemoryContentResolver.Track> mTracks;
+    LibraryStore mStore;
+    TrackList mItems;
+    SortOrders mOrders;
+    SearchIndex mSearchIndex;
+    int[] mRows;
+    int[] mTitleRanks;
+    double[] mWeights;
+    WeightedSampler mSampler;
+    PlayQueue mQueue;
+    final LibraryCollator mCollator = new LibraryCollator();
+    final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void createLibrary() {
+        mTracks = SyntheticLibrary.create(size, 42).getTracks();
+        mStore = fill(new LibraryStore());
+        mItems = new TrackList(mStore);
+        for (int row = 0; row < mStore.size(); row++) mItems.addRow(row);
+        mRows = mItems.toRowArray();
+        mTitleRanks = mCollator.rank(mStore.getTitlePool());
+        mOrders = SortOrders.build(mStore, mItems, mCollator);
+        mSearchIndex = SearchIndex.build(mStore, mOrders);
+        mWeights = new double[size];
+        for (int i = 0; i < size; i++) mWeights[i] = 0.05 + mRandom.nextDouble();
+        mSampler = new WeightedSampler(mWeights, MusicRetriever.RECENT_WINDOW);
+        mQueue = new PlayQueue(new Random(42));
+        mQueue.setBase(mItems);
+    }
+
+    LibraryStore fill(LibraryStore store) {
+        for (MemoryContentResolver.Track t : mTracks) {
+            store.add(t.mId, t.mArtist, t.mTitle, t.mAlbum, t.mDuration, t.mAlbumId,
+                    t.mDateModified);
+        }
+        return store;
+    }
+
+    /** LibraryStore.add() for every track, which interns its strings in the pools. */
+    @Benchmark
+    public LibraryStore fillStore() {
+        return fill(new LibraryStore());
+    }
+
+    @Benchmark
+    public StringPool internTitles() {
+        StringPool pool = new StringPool();
+        for (MemoryContentResolver.Track t : mTracks) pool.intern(t.mTitle);
+        return pool;
+    }
+
+    @Benchmark
+    public int iterateTrackList() {
+        int sum = 0;
+        for (int i = 0; i < mItems.size(); i++) sum += mItems.getRow(i);
+        return sum;
+    }
+
+    @Benchmark
+    public TrackList copyAndShuffleTrackList() {
+        TrackList list = new TrackList(mStore);
+        list.setRows(mItems);
+        list.shuffleRows(mRandom);
+        return list;
+    }
+
+    @Benchmark
+    public int[] rankTitles() {
+        return mCollator.rank(mStore.getTitlePool());
+    }
+
+    @Benchmark
+    public int[] sortByKey() {
+        return ParallelSort.sortByKey(mRows, rowKeys());
+    }
+
+    int[] rowKeys() {
+        int[] keys = new int[mStore.size()];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = mTitleRanks[mStore.getTitleCode(row)];
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public SortOrders buildSortOrders() {
+        return SortOrders.build(mStore, mItems, mCollator);
+    }
+
+    @Benchmark
+    public LibraryIndex buildLibraryIndex() {
+        return LibraryIndex.build(mStore, mItems);
+    }
+
+    @Benchmark
+    public SearchIndex buildSearchIndex() {
+        return SearchIndex.build(mStore, mOrders);
+    }
+
+    @Benchmark
+    public int[] searchPrefix() {
+        return mSearchIndex.search("night", 50);
+    }
+
+    @Benchmark
+    public int[] searchFuzzy() {
+        return mSearchIndex.searchFuzzy("nihgt", 50);
+    }
+
+    /** A word too short for the bigram filter, so compared with every word of a close length. */
+    @Benchmark
+    public int[] searchFuzzyShort() {
+        return mSearchIndex.searchFuzzy("bnad", 50);
+    }
+
+    /** Shuffles from a track and walks the first hundred positions of the order. */
+    @Benchmark
+    public int shufflePlayQueue() {
+        mQueue.setSmart(false);
+        mQueue.shuffle(mRandom.nextInt(size));
+        return walk(mQueue);
+    }
+
+    @Benchmark
+    public int smartShufflePlayQueue() {
+        mQueue.setSmart(true);
+        mQueue.shuffle(mRandom.nextInt(size));
+        return walk(mQueue);
+    }
+
+    static int walk(PlayQueue queue) {
+        int sum = 0;
+        for (int position = 0; position < Math.min(100, queue.size()); position++) {
+            sum += queue.indexAt(position);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int[] smartShuffle() {
+        return SmartShuffle.shuffle(mItems, 0, mRandom);
+    }
+
+    @Benchmark
+    public WeightedSampler buildWeightedSampler() {
+        return new WeightedSampler(mWeights, MusicRetriever.RECENT_WINDOW);
+    }
+
+    /** A draw, which also leaves the track out of the next RECENT_WINDOW draws. */
+    @Benchmark
+    public int sampleWeighted() {
+        return mSampler.next(mRandom);
+    }
+
+    @Benchmark
+    public int setWeight() {
+        int index = mRandom.nextInt(size);
+        mSampler.setWeight(index, 0.05 + mRandom.nextDouble());
+        return index;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What recording a metric costs on the playback paths: a histogram value and a counter bump,
+ * from one thread and from four at once into the same metric, next to a plain shared
+ * AtomicLong for the counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    final LatencyHistogram mHistogram = new LatencyHistogram("benchmark");
+    final StripedCounter mCounter = new StripedCounter("benchmark");
+    final AtomicLong mAtomic = new AtomicLong();
+
+    /** Each thread's own run of values, spread over the histogram's buckets. */
+    @State(Scope.Thread)
+    public static class Values {
+        final long[] mValues = new long[1024];
+        int mNext;
+
+        public Values() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < mValues.length; i++) {
+                mValues[i] = (long) Math.pow(10, random.nextDouble() * 7);
+            }
+        }
+
+        long next() {
+            return mValues[mNext++ & (mValues.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public void record(Values values) {
+        mHistogram.record(values.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended(Values values) {
+        mHistogram.record(values.next());
+    }
+
+    /** What timing a call adds: two clock reads and the record. */
+    @Benchmark
+    public void recordSince() {
+        mHistogram.recordSince(System.nanoTime());
+    }
+
+    /** The clock read alone, which recordSince() does twice. */
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void increment() {
+        mCounter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void incrementContended() {
+        mCounter.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long atomicIncrementContended() {
+        return mAtomic.incrementAndGet();
+    }
+}
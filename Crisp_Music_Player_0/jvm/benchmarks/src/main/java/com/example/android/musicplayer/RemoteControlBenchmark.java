@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import android.app.PendingIntent;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.media.RemoteControlClient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a track's metadata update costs through RemoteControlClientCompat, when nothing, one key
+ * or every key changed, next to the same editor calls made on the client directly. The sdk
+ * parameter picks the path: reflection below 14, direct calls from 14 up. Each parameter runs
+ * in a JVM of its own, which is what lets the stand-in Build report a different level.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RemoteControlBenchmark {
+    static final int TITLE = MediaMetadataRetriever.METADATA_KEY_TITLE;
+    static final int ARTIST = MediaMetadataRetriever.METADATA_KEY_ARTIST;
+    static final int ALBUM = MediaMetadataRetriever.METADATA_KEY_ALBUM;
+    static final int DURATION = MediaMetadataRetriever.METADATA_KEY_DURATION;
+    static final int ARTWORK = RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK;
+
+    @Param({ "13", "14" })
+    String sdk;
+
+    RemoteControlClientCompat mCompat;
+    RemoteControlClient mClient;
+    final Bitmap mArt = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+    final Bitmap mOtherArt = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+    int mCount;
+
+    @Setup(Level.Trial)
+    public void createClient() {
+        // before anything reads Build.VERSION
+        System.setProperty("android.sdk", sdk);
+        mCompat = new RemoteControlClientCompat(new PendingIntent());
+        mClient = (RemoteControlClient) mCompat.getActualRemoteControlClientObject();
+    }
+
+    void applyTrack(String title, long duration, Bitmap art) {
+        mCompat.editMetadata(true)
+                .putString(ARTIST, "Artist")
+                .putString(ALBUM, "Album")
+                .putString(TITLE, title)
+                .putLong(DURATION, duration)
+                .putBitmap(ARTWORK, art)
+                .apply();
+    }
+
+    @Benchmark
+    public void applyUnchanged() {
+        applyTrack("Title", 1000, mArt);
+    }
+
+    @Benchmark
+    public void applyOneChanged() {
+        applyTrack("Title", mCount++ & 1, mArt);
+    }
+
+    @Benchmark
+    public void applyAllChanged() {
+        boolean odd = (mCount++ & 1) != 0;
+        mCompat.editMetadata(true)
+                .putString(ARTIST, odd ? "Artist" : "Other artist")
+                .putString(ALBUM, odd ? "Album" : "Other album")
+                .putString(TITLE, odd ? "Title" : "Other title")
+                .putLong(DURATION, mCount & 1)
+                .putBitmap(ARTWORK, odd ? mArt : mOtherArt)
+                .apply();
+    }
+
+    /** The same puts and apply, straight on the client, with no diffing or reflection. */
+    @Benchmark
+    public void applyOnClient() {
+        boolean odd = (mCount++ & 1) != 0;
+        mClient.editMetadata(true)
+                .putString(ARTIST, odd ? "Artist" : "Other artist")
+                .putString(ALBUM, odd ? "Album" : "Other album")
+                .putString(TITLE, odd ? "Title" : "Other title")
+                .putLong(DURATION, mCount & 1)
+                .putBitmap(ARTWORK, odd ? mArt : mOtherArt)
+                .apply();
+    }
+
+    @Benchmark
+    public void setPlaybackState() {
+        mCompat.setPlaybackState((mCount++ & 1) != 0 ? RemoteControlClient.PLAYSTATE_PLAYING
+                : RemoteControlClient.PLAYSTATE_PAUSED);
+    }
+
+    @Benchmark
+    public void setPlaybackStateUnchanged() {
+        mCompat.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
+    }
+}
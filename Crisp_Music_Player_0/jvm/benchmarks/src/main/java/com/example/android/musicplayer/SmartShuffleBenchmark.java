@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.musicplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a smart shuffle costs next to the plain Fisher-Yates one, and what measuring its
+ * spread (the closest two tracks by one artist) adds to the shuffle, which logs it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmartShuffleBenchmark {
+    @Param({ "10000", "100000" })
+    int size;
+
+    TrackList mItems;
+    PlayQueue mQueue;
+    int[] mOrder;
+    final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void loadLibrary() {
+        SyntheticLibrary.load(SyntheticLibrary.create(size, 42));
+        mItems = MusicRetriever.mItems;
+        mQueue = new PlayQueue(new Random(42));
+        mQueue.setBase(mItems);
+        mOrder = SmartShuffle.shuffle(mItems, 0, mRandom);
+    }
+
+    @Benchmark
+    public int[] smartShuffle() {
+        return SmartShuffle.shuffle(mItems, mRandom.nextInt(size), mRandom);
+    }
+
+    @Benchmark
+    public int plainShuffle() {
+        mQueue.shuffleNow(mRandom.nextInt(size));
+        return mQueue.indexAt(size - 1);
+    }
+
+    @Benchmark
+    public int minArtistDistance() {
+        return SmartShuffle.minArtistDistance(mItems, mOrder);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Decoded album art, by album ID and size, kept least recently used first within a budget of
+ * bytes.
+ * Albums without art are remembered too, so they aren't looked up again every time.
+ *
+ * Decoding happens outside the cache's lock, so loading one album doesn't hold up lookups of
+ * others; threads asking for an album that is being decoded wait for that decode instead of
+ * starting their own. A decode that was under way when the cache was cleared is handed to
+ * whoever asked for it, but not kept.
+ */
+public class ArtworkCache {
+    /** Decodes the art of an album at a size, or returns null if it has none. */
+    public interface Loader {
+        Bitmap load(long albumId, int size);
+    }
+
+    // what a remembered album without art counts for against the budget
+    static final int MISSING_ENTRY_BYTES = 64;
+
+    static final class Key {
+        final long mAlbumId;
+        final int mSize;
+
+        Key(long albumId, int size) {
+            mAlbumId = albumId;
+            mSize = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return mAlbumId == other.mAlbumId && mSize == other.mSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mAlbumId ^ (mAlbumId >>> 32)) * 31 + mSize;
+        }
+    }
+
+    static class Entry {
+        final Bitmap mBitmap;
+        final int mBytes;
+
+        Entry(Bitmap bitmap) {
+            mBitmap = bitmap;
+            mBytes = bitmap == null ? MISSING_ENTRY_BYTES : bitmap.getRowBytes()
+                    * bitmap.getHeight();
+        }
+    }
+
+    /** A decode in progress, which other threads asking for the same album wait for. */
+    static class Loading {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        Bitmap mBitmap;
+        // set by invalidate(), so the decode isn't kept
+        boolean mStale;
+    }
+
+    final Loader mLoader;
+    final long mMaxBytes;
+
+    // in access order, so the first entry is the least recently used
+    final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(32, 0.75f, true);
+    final Map<Key, Loading> mLoading = new HashMap<Key, Loading>();
+    long mBytes = 0;
+
+    // bumped by clear(), so decodes started before it don't put old art back
+    int mGeneration;
+
+    // counters, see getStats()
+    long mHits;
+    long mMissingHits;
+    long mMisses;
+    long mSharedLoads;
+    long mEvictions;
+
+    public ArtworkCache(Loader loader, long maxBytes) {
+        mLoader = loader;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the art of an album at a size, or null if it has none, decoding it if it isn't
+     * cached.
+     */
+    public Bitmap get(long albumId, int size) {
+        Key key = new Key(albumId, size);
+        Loading loading;
+        boolean owner = false;
+        int generation;
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (entry.mBitmap != null) {
+                    mHits++;
+                } else {
+                    mMissingHits++;
+                }
+                return entry.mBitmap;
+            }
+            loading = mLoading.get(key);
+            if (loading == null) {
+                loading = new Loading();
+                mLoading.put(key, loading);
+                mMisses++;
+                owner = true;
+            } else {
+                mSharedLoads++;
+            }
+            generation = mGeneration;
+        }
+
+        if (!owner) {
+            try {
+                loading.mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return loading.mBitmap;
+        }
+
+        Bitmap bitmap = null;
+        boolean loaded = false;
+        try {
+            bitmap = mLoader.load(albumId, size);
+            loaded = true;
+        } finally {
+            synchronized (this) {
+                mLoading.remove(key);
+                // a loader that failed may do better next time, so only remember answers
+                if (loaded && generation == mGeneration && !loading.mStale) {
+                    put(key, new Entry(bitmap));
+                }
+            }
+            loading.mBitmap = bitmap;
+            loading.mDone.countDown();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the cached entry of an album at a size, whose bitmap is null if the album has no
+     * art, or null if it isn't cached. Never decodes.
+     */
+    synchronized Entry peek(long albumId, int size) {
+        Entry entry = mEntries.get(new Key(albumId, size));
+        if (entry != null) {
+            if (entry.mBitmap != null) {
+                mHits++;
+            } else {
+                mMissingHits++;
+            }
+        }
+        return entry;
+    }
+
+    void put(Key key, Entry entry) {
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) mBytes -= previous.mBytes;
+        mBytes += entry.mBytes;
+        Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            // an entry bigger than the whole budget is dropped right away
+            eldest.remove();
+            mBytes -= evicted.mBytes;
+            mEvictions++;
+        }
+    }
+
+    /** Forgets everything, for instance when the library changed and album art may have too. */
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+        mGeneration++;
+    }
+
+    /**
+     * Forgets the art of an album at every size, for instance when its files changed. A decode
+     * of it that is under way isn't kept either.
+     */
+    public synchronized void invalidate(long albumId) {
+        Iterator<Map.Entry<Key, Entry>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Entry> entry = entries.next();
+            if (entry.getKey().mAlbumId != albumId) continue;
+            mBytes -= entry.getValue().mBytes;
+            entries.remove();
+        }
+        for (Map.Entry<Key, Loading> loading : mLoading.entrySet()) {
+            if (loading.getKey().mAlbumId == albumId) loading.getValue().mStale = true;
+        }
+    }
+
+    /** Returns the share of lookups answered from the cache, album art or not. */
+    public synchronized float getHitRate() {
+        long lookups = mHits + mMissingHits + mMisses + mSharedLoads;
+        return lookups == 0 ? 0 : (float) (mHits + mMissingHits) / lookups;
+    }
+
+    public synchronized String getStats() {
+        return "ArtworkCache: " + mEntries.size() + " images, " + mBytes / 1024 + " of "
+                + mMaxBytes / 1024 + " KB; " + mHits + " hits, " + mMissingHits
+                + " hits without art, " + mMisses + " decodes, " + mSharedLoads
+                + " waits on another decode, " + mEvictions + " evictions, hit rate "
+                + getHitRate();
+    }
+}
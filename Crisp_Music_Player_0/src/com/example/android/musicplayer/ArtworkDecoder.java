@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Decodes album art at the size it is shown at. Album art is often a thousand pixels or more
+ * across, while the notification shows it at a hundred, so the decoder reads the image's bounds
+ * first and then decodes it subsampled by the largest power of two that still leaves it at least
+ * as big as asked, scaling the rest of the way.
+ *
+ * Art decoded at one of the standard sizes is also saved as a small JPEG thumbnail in a
+ * directory (the app's cache directory, which the system may clear when space runs low), so
+ * decoding the same album again, even after a restart, is a read of a few KB. Thumbnails of
+ * albums whose art may have changed are left alone from {@link #invalidate} on, and deleted by
+ * {@link #deleteStale()} off the main thread.
+ */
+public class ArtworkDecoder {
+    final static String TAG = "ArtworkDecoder";
+
+    /** Longest edge, in pixels, of the art in the notification. */
+    public static final int NOTIFICATION_SIZE = 100;
+    /** Longest edge, in pixels, of the art on the lock screen. */
+    public static final int LOCK_SCREEN_SIZE = 320;
+    /** Longest edge, in pixels, of the art in lists. */
+    public static final int LIST_SIZE = 64;
+
+    // the sizes that get thumbnails on disk
+    static final int[] SIZES = { NOTIFICATION_SIZE, LOCK_SCREEN_SIZE, LIST_SIZE };
+
+    static final Uri ARTWORK_URI = Uri.parse("content://media/external/audio/albumart");
+    static final int THUMBNAIL_QUALITY = 85;
+
+    final ContentResolver mResolver;
+    // where thumbnails are kept, or null to always decode from the content provider
+    final File mDir;
+    // albums whose thumbnails are out of date and not deleted yet
+    final LongIntMap mStale = new LongIntMap();
+
+    public ArtworkDecoder(ContentResolver resolver, File dir) {
+        mResolver = resolver;
+        mDir = dir;
+    }
+
+    /**
+     * Returns the album's art with its longest edge size pixels long (or less, if the art is
+     * smaller), or null if the album has no art.
+     */
+    public Bitmap decode(long albumId, int size) {
+        File thumbnail = isStale(albumId) ? null : getThumbnail(albumId, size);
+        if (thumbnail != null && thumbnail.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(thumbnail.getPath(), null);
+            if (bitmap != null) return bitmap;
+            Log.w(TAG, "Unreadable thumbnail " + thumbnail + ", decoding the album art again");
+            thumbnail.delete();
+        }
+        Bitmap bitmap = decodeSource(albumId, size);
+        if (bitmap != null && thumbnail != null) writeThumbnail(bitmap, thumbnail);
+        return bitmap;
+    }
+
+    Bitmap decodeSource(long albumId, int size) {
+        Uri uri = ContentUris.withAppendedId(ARTWORK_URI, albumId);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, size);
+        options.inPurgeable = true;
+        options.inInputShareable = true;
+        Bitmap bitmap = decodeStream(uri, options);
+        if (bitmap == null) return null;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int longest = Math.max(width, height);
+        if (longest <= size) return bitmap;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, scaleEdge(width, longest, size),
+                scaleEdge(height, longest, size), true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    /** Decodes the image at uri with the given options, or returns null if there is none. */
+    Bitmap decodeStream(Uri uri, BitmapFactory.Options options) {
+        InputStream in = null;
+        try {
+            in = mResolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(in, null, options);
+        } catch (FileNotFoundException e) {
+            // the album has no art
+            return null;
+        } catch (Exception e) {
+            Log.w(TAG, "Can't decode " + uri + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the largest power of two to subsample a width by height image with, that leaves
+     * its longest edge at least size pixels long.
+     */
+    static int computeSampleSize(int width, int height, int size) {
+        int longest = Math.max(width, height);
+        int sample = 1;
+        while (longest / (sample * 2) >= size) sample *= 2;
+        return sample;
+    }
+
+    /** Returns the length of an edge once the longest edge is scaled down to size pixels. */
+    static int scaleEdge(int edge, int longest, int size) {
+        return Math.max(1, edge * size / longest);
+    }
+
+    File getThumbnail(long albumId, int size) {
+        if (mDir == null) return null;
+        for (int standard : SIZES) {
+            if (standard == size) return new File(mDir, albumId + "_" + size + ".jpg");
+        }
+        return null;
+    }
+
+    /** Saves a thumbnail through a temporary file, so a crash never leaves a truncated one. */
+    void writeThumbnail(Bitmap bitmap, File thumbnail) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Can't create " + mDir);
+            return;
+        }
+        File temp = new File(thumbnail.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp), 8 * 1024);
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out)) {
+                throw new IOException("Could not compress the thumbnail");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(thumbnail)) {
+                throw new IOException("Could not rename " + temp + " to " + thumbnail);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail " + thumbnail, e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops using the album's thumbnails, for when its art may have changed. Only marks them,
+     * so it can be called on the main thread; {@link #deleteStale()} deletes them.
+     */
+    public synchronized void invalidate(long albumId) {
+        mStale.put(albumId, 0);
+    }
+
+    synchronized boolean isStale(long albumId) {
+        return mStale.get(albumId, -1) >= 0;
+    }
+
+    /**
+     * Deletes the thumbnails of the albums passed to {@link #invalidate}. Does file I/O, so
+     * call it off the main thread.
+     */
+    public void deleteStale() {
+        long[] albums;
+        synchronized (this) {
+            albums = mStale.keys();
+        }
+        for (long albumId : albums) {
+            for (int size : SIZES) {
+                File thumbnail = getThumbnail(albumId, size);
+                if (thumbnail != null) thumbnail.delete();
+            }
+        }
+        // only now, so nothing reads a thumbnail that is about to go
+        synchronized (this) {
+            for (long albumId : albums) mStale.remove(albumId);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads album art in the background, so starting a track never waits on image I/O. Art that is
+ * already in the {@link ArtworkCache} comes back right away from {@link #load}; anything else is
+ * decoded on the loader's own thread and handed to the callback on the handler's thread.
+ *
+ * Requests for the same album at the same size while one is queued or decoding share that
+ * decode. A request whose tickets were all cancelled, say because the user skipped past the
+ * track, is not decoded at all. The queue is bounded: when it is full the oldest request is
+ * dropped, since it belongs to a track that has most likely been skipped already. Its tickets
+ * are done without art, as if the album had none.
+ */
+public class ArtworkLoader {
+    final static String TAG = "ArtworkLoader";
+
+    // requests that can wait for the loader thread before the oldest is dropped
+    static final int QUEUE_CAPACITY = 8;
+
+    /** Told on the handler's thread when art that wasn't cached has been loaded. */
+    public interface Callback {
+        void onArtworkLoaded(Bitmap bitmap);
+    }
+
+    /** One caller's interest in a request, which it can cancel. */
+    public static final class Ticket {
+        final Request mRequest;
+        final Callback mCallback;
+        Bitmap mBitmap;
+        boolean mDone;
+        boolean mCancelled;
+
+        Ticket(Request request, Callback callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        /** Returns whether the art has been loaded (or found not to exist). */
+        public boolean isDone() {
+            return mDone;
+        }
+
+        /** Returns the art once it is loaded, or null if it isn't yet or the album has none. */
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+    }
+
+    final class Request implements Runnable {
+        final ArtworkCache.Key mKey;
+        final List<Ticket> mTickets = new ArrayList<Ticket>();
+        boolean mStarted;
+
+        Request(ArtworkCache.Key key) {
+            mKey = key;
+        }
+
+        public void run() {
+            synchronized (ArtworkLoader.this) {
+                if (mTickets.isEmpty()) return; // everyone lost interest while it was queued
+                mStarted = true;
+            }
+            final Bitmap bitmap = mCache.get(mKey.mAlbumId, mKey.mSize);
+            final List<Ticket> tickets;
+            synchronized (ArtworkLoader.this) {
+                mPending.remove(mKey);
+                tickets = new ArrayList<Ticket>(mTickets);
+            }
+            mHandler.post(new Runnable() {
+                public void run() {
+                    deliver(tickets, bitmap);
+                }
+            });
+        }
+    }
+
+    final ArtworkCache mCache;
+    final Handler mHandler;
+    final ThreadPoolExecutor mExecutor;
+
+    // requests queued or decoding, by album and size
+    final Map<ArtworkCache.Key, Request> mPending = new HashMap<ArtworkCache.Key, Request>();
+
+    // counters, see getStats()
+    long mImmediate;
+    long mQueued;
+    long mCoalesced;
+    long mCancelled;
+    long mDropped;
+
+    public ArtworkLoader(ArtworkCache cache, Handler handler) {
+        mCache = cache;
+        mHandler = handler;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "ArtworkLoader");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) return;
+                        Runnable oldest = executor.getQueue().poll();
+                        if (oldest != null) drop((Request) oldest);
+                        executor.execute(r);
+                    }
+                });
+    }
+
+    /**
+     * Loads the art of an album at a size. If it is cached, the returned ticket is done and
+     * holds it, and the callback isn't called. Otherwise the callback gets it later on the
+     * handler's thread, unless the ticket is cancelled first. An album ID below 0 stands for no
+     * album, and gives a done ticket without art.
+     */
+    public Ticket load(long albumId, int size, Callback callback) {
+        ArtworkCache.Entry entry = albumId < 0 ? null : mCache.peek(albumId, size);
+        if (albumId < 0 || entry != null) {
+            Ticket ticket = new Ticket(null, callback);
+            ticket.mBitmap = entry == null ? null : entry.mBitmap;
+            ticket.mDone = true;
+            synchronized (this) {
+                mImmediate++;
+            }
+            return ticket;
+        }
+
+        ArtworkCache.Key key = new ArtworkCache.Key(albumId, size);
+        Request request;
+        Ticket ticket;
+        boolean submit = false;
+        synchronized (this) {
+            request = mPending.get(key);
+            if (request == null) {
+                request = new Request(key);
+                mPending.put(key, request);
+                mQueued++;
+                submit = true;
+            } else {
+                mCoalesced++;
+            }
+            ticket = new Ticket(request, callback);
+            request.mTickets.add(ticket);
+        }
+        if (submit) mExecutor.execute(request);
+        return ticket;
+    }
+
+    /**
+     * Cancels a ticket: its callback won't be called. A request nobody else is waiting for is
+     * taken off the queue. Call this on the handler's thread; a null ticket is ignored.
+     */
+    public void cancel(Ticket ticket) {
+        if (ticket == null || ticket.mDone || ticket.mCancelled) return;
+        ticket.mCancelled = true;
+        Request request = ticket.mRequest;
+        boolean unqueue = false;
+        synchronized (this) {
+            mCancelled++;
+            request.mTickets.remove(ticket);
+            if (request.mTickets.isEmpty() && !request.mStarted) {
+                mPending.remove(request.mKey);
+                unqueue = true;
+            }
+        }
+        if (unqueue) mExecutor.remove(request);
+    }
+
+    /**
+     * Forgets a request the full queue pushed out. Its tickets are done without art, and their
+     * callbacks are called on the handler's thread like for any other request.
+     */
+    void drop(Request request) {
+        final List<Ticket> tickets;
+        synchronized (this) {
+            mPending.remove(request.mKey);
+            tickets = new ArrayList<Ticket>(request.mTickets);
+            request.mTickets.clear();
+            mDropped++;
+        }
+        mHandler.post(new Runnable() {
+            public void run() {
+                deliver(tickets, null);
+            }
+        });
+    }
+
+    void deliver(List<Ticket> tickets, Bitmap bitmap) {
+        for (Ticket ticket : tickets) {
+            if (ticket.mCancelled) continue;
+            ticket.mBitmap = bitmap;
+            ticket.mDone = true;
+            ticket.mCallback.onArtworkLoaded(bitmap);
+        }
+    }
+
+    /** Stops the loader thread; requests still queued are dropped. */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public synchronized String getStats() {
+        return "ArtworkLoader: " + mImmediate + " from memory, " + mQueued + " loaded, "
+                + mCoalesced + " joined a pending load, " + mCancelled + " cancelled, "
+                + mDropped + " dropped from a full queue";
+    }
+}
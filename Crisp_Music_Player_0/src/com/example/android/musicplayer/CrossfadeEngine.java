@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fades one track out while the next fades in. Both players play at once while the engine
+ * ramps their volumes, equal-power (cosine out, sine in), so the loudness stays even through
+ * the fade.
+ *
+ * The ramp runs on its own timer thread at audio priority, at a fixed rate, so the steps stay
+ * evenly spaced however busy the main thread is. The fade can be paused (pausing the outgoing
+ * player; the caller pauses the incoming one, which is the current player), and the volume it
+ * ramps to can change mid-fade, which is how ducking for audio focus applies.
+ *
+ * When a fade ends, the outgoing player is handed to the listener on the handler's thread.
+ * {@link #cancel()} ends a fade right away and returns the outgoing player to the caller
+ * instead.
+ */
+public class CrossfadeEngine {
+    final static String TAG = "CrossfadeEngine";
+
+    /** The longest crossfade that can be set. */
+    public static final int MAX_CROSSFADE_MS = 12000;
+
+    // time between two volume steps
+    static final long TICK_MS = 20;
+
+    /** Told when a fade is over, on the handler's thread. */
+    public interface Listener {
+        void onFadeOutDone(PlayerBackend outgoing);
+    }
+
+    static ScheduledExecutorService sTimer;
+
+    static synchronized ScheduledExecutorService getTimer() {
+        if (sTimer == null) {
+            sTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                            r.run();
+                        }
+                    }, "Crossfade");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+
+    final Handler mHandler;
+    final Clock mClock;
+    final Listener mListener;
+
+    // the fade in progress: null players when there is none
+    PlayerBackend mOutgoing;
+    PlayerBackend mIncoming;
+    long mDurationNanos;
+    float mMaxVolume;
+    ScheduledFuture<?> mTick;
+
+    // time faded so far, not counting pauses, and when the fade was last resumed (0 if paused)
+    long mElapsedNanos;
+    long mResumedAt;
+
+    // how late ticks ran, for the log line at the end of a fade
+    long mNextTickAt;
+    long mMaxLatenessNanos;
+    long mTotalLatenessNanos;
+    int mTicks;
+
+    public CrossfadeEngine(Handler handler, Clock clock, Listener listener) {
+        mHandler = handler;
+        mClock = clock;
+        mListener = listener;
+    }
+
+    final Runnable mTickRunnable = new Runnable() {
+        public void run() {
+            tick();
+        }
+    };
+
+    /**
+     * Starts fading the outgoing player out and the incoming one in, over durationMs, up to
+     * maxVolume. Both players must be playing; the incoming one should start at volume 0. A
+     * fade in progress is ended first, handing its outgoing player to the listener.
+     */
+    public synchronized void start(PlayerBackend outgoing, PlayerBackend incoming, long durationMs,
+            float maxVolume) {
+        endFade(true);
+        mOutgoing = outgoing;
+        mIncoming = incoming;
+        mDurationNanos = Math.max(1, durationMs) * 1000000L;
+        mMaxVolume = maxVolume;
+        mElapsedNanos = 0;
+        mMaxLatenessNanos = 0;
+        mTotalLatenessNanos = 0;
+        mTicks = 0;
+        resumeLocked();
+    }
+
+    public synchronized boolean isFading() {
+        return mOutgoing != null;
+    }
+
+    /** Returns whether the player is the one the fade in progress fades out. */
+    public synchronized boolean isFadingOut(PlayerBackend player) {
+        return player != null && player == mOutgoing;
+    }
+
+    /** Changes the volume the fade ramps to, for instance to duck. */
+    public synchronized void setMaxVolume(float maxVolume) {
+        mMaxVolume = maxVolume;
+        if (mOutgoing != null) applyVolumes(progress(mClock.nanoTime()));
+    }
+
+    /** Pauses the fade and the outgoing player. */
+    public synchronized void pause() {
+        if (mOutgoing == null || mResumedAt == 0) return;
+        mElapsedNanos += mClock.nanoTime() - mResumedAt;
+        mResumedAt = 0;
+        mTick.cancel(false);
+        mTick = null;
+        if (mOutgoing.isPlaying()) mOutgoing.pause();
+    }
+
+    /** Resumes a paused fade and its outgoing player. */
+    public synchronized void resume() {
+        if (mOutgoing == null || mResumedAt != 0) return;
+        mOutgoing.start();
+        resumeLocked();
+    }
+
+    void resumeLocked() {
+        long now = mClock.nanoTime();
+        mResumedAt = now;
+        mNextTickAt = now;
+        applyVolumes(progress(now));
+        mTick = getTimer().scheduleAtFixedRate(mTickRunnable, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ends the fade right away: the incoming player goes to full volume and the outgoing one
+     * stops. Returns the outgoing player for the caller to reuse or release, or null if there
+     * was no fade.
+     */
+    public synchronized PlayerBackend cancel() {
+        return endFade(false);
+    }
+
+    synchronized void tick() {
+        if (mOutgoing == null || mResumedAt == 0) return;
+        long now = mClock.nanoTime();
+        long lateness = now - mNextTickAt;
+        mNextTickAt += TICK_MS * 1000000L;
+        if (lateness > 0) {
+            mMaxLatenessNanos = Math.max(mMaxLatenessNanos, lateness);
+            mTotalLatenessNanos += lateness;
+        }
+        mTicks++;
+        float progress = progress(now);
+        if (progress >= 1) {
+            endFade(true);
+        } else {
+            applyVolumes(progress);
+        }
+    }
+
+    /** Returns how far the fade is, from 0 to 1. */
+    float progress(long now) {
+        long elapsed = mElapsedNanos + (mResumedAt == 0 ? 0 : now - mResumedAt);
+        return Math.min(1f, (float) elapsed / mDurationNanos);
+    }
+
+    void applyVolumes(float progress) {
+        double angle = progress * Math.PI / 2;
+        float out = (float) Math.cos(angle) * mMaxVolume;
+        float in = (float) Math.sin(angle) * mMaxVolume;
+        try {
+            mOutgoing.setVolume(out, out);
+            mIncoming.setVolume(in, in);
+        } catch (IllegalStateException e) {
+            // a player was reset under us; the fade is being cancelled
+        }
+    }
+
+    /**
+     * Ends the fade, if any: brings the incoming player to full volume and stops the outgoing
+     * one, then gives the outgoing player to the listener (if notify is set) or returns it.
+     */
+    PlayerBackend endFade(boolean notify) {
+        final PlayerBackend outgoing = mOutgoing;
+        if (outgoing == null) return null;
+        if (mTick != null) {
+            mTick.cancel(false);
+            mTick = null;
+        }
+        try {
+            mIncoming.setVolume(mMaxVolume, mMaxVolume);
+            if (outgoing.isPlaying()) outgoing.stop();
+        } catch (IllegalStateException e) {
+            // already reset or released
+        }
+        if (mTicks > 0) {
+            Log.d(TAG, "Crossfade of " + mDurationNanos / 1000000 + " ms: " + mTicks
+                    + " steps, " + mTotalLatenessNanos / mTicks / 1000 + " us late on average, "
+                    + mMaxLatenessNanos / 1000 + " us at most");
+        }
+        mOutgoing = null;
+        mIncoming = null;
+        mResumedAt = 0;
+        if (!notify) return outgoing;
+        mHandler.post(new Runnable() {
+            public void run() {
+                mListener.onFadeOutDone(outgoing);
+            }
+        });
+        return null;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Arrays;
+
+/**
+ * Finds the words of a dictionary that are within a few typos of a query word. A typo is an
+ * inserted, deleted or substituted char, or two swapped neighbouring chars (the "optimal string
+ * alignment" edit distance).
+ *
+ * Computing the distance to every word would be too slow for big libraries, so candidates are
+ * filtered first by the bigrams (pairs of consecutive chars) they share with the query: an
+ * insertion, deletion or substitution breaks at most two of the query's bigrams and a swap at
+ * most three ("abcd" to "acbd" breaks ab, bc and cd), so a word within k typos still contains
+ * all but 3k of them. Each bigram maps to the words containing it, and only the words reaching
+ * that count get the full distance computation, which also gives up as soon as a row of its
+ * table is over the limit. A query too short to keep a bigram after 3k are broken is compared
+ * with every word of a length that could be close enough instead.
+ *
+ * Words are expected to be folded with {@link SearchIndex#fold(String)} and sorted.
+ */
+public class FuzzyMatcher {
+    // at most this many typos are tolerated per word, however long
+    static final int MAX_EDITS = 2;
+
+    final String[] mWords;
+
+    // bigram -> words containing it
+    final LongIntMap mBigramIds;
+    final int[] mBigramStart;
+    final int[] mBigramWords;
+
+    // the words by length: those of length n are mByLength[mLengthStart[n]] up to
+    // mByLength[mLengthStart[n + 1]]
+    final int[] mLengthStart;
+    final int[] mByLength;
+
+    // scratch space for queries
+    int mStamp = 0;
+    final int[] mStamps;
+    final int[] mCounts;
+    int[] mRows = new int[3 * 32];
+
+    public FuzzyMatcher(String[] words) {
+        mWords = words;
+        mBigramIds = new LongIntMap();
+        SearchIndex.PairList pairs = new SearchIndex.PairList();
+        for (int w = 0; w < words.length; w++) {
+            String word = words[w];
+            for (int i = 0; i + 2 <= word.length(); i++) {
+                long key = bigram(word, i);
+                int id = mBigramIds.get(key, -1);
+                if (id < 0) {
+                    id = mBigramIds.size();
+                    mBigramIds.put(key, id);
+                }
+                pairs.add(id, w);
+            }
+        }
+        mBigramStart = new int[mBigramIds.size() + 1];
+        mBigramWords = pairs.group(mBigramStart);
+        mStamps = new int[words.length];
+        mCounts = new int[words.length];
+
+        int maxLength = 0;
+        for (String word : words) maxLength = Math.max(maxLength, word.length());
+        mLengthStart = new int[maxLength + 2];
+        for (String word : words) mLengthStart[word.length() + 1]++;
+        for (int n = 0; n <= maxLength; n++) mLengthStart[n + 1] += mLengthStart[n];
+        mByLength = new int[words.length];
+        int[] next = LibraryStore.copyOf(mLengthStart, maxLength + 1);
+        for (int w = 0; w < words.length; w++) mByLength[next[words[w].length()]++] = w;
+    }
+
+    static long bigram(String text, int i) {
+        return ((long) text.charAt(i) << 16) | text.charAt(i + 1);
+    }
+
+    /** Returns how many typos to tolerate in a query word: none in very short words. */
+    public static int maxEdits(String token) {
+        if (token.length() < 3) return 0;
+        if (token.length() < 5) return 1;
+        return MAX_EDITS;
+    }
+
+    /** Words found by {@link #match}, with their distance to the query word. */
+    public static class Matches {
+        int[] mWords = new int[16];
+        int[] mDistances = new int[16];
+        int mSize = 0;
+
+        void add(int word, int distance) {
+            if (mSize == mWords.length) {
+                mWords = LibraryStore.copyOf(mWords, mSize * 2);
+                mDistances = LibraryStore.copyOf(mDistances, mSize * 2);
+            }
+            mWords[mSize] = word;
+            mDistances[mSize] = distance;
+            mSize++;
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        /** Returns the index in the dictionary of the i-th word found. */
+        public int getWord(int i) {
+            return mWords[i];
+        }
+
+        public int getDistance(int i) {
+            return mDistances[i];
+        }
+    }
+
+    /**
+     * Finds the words within maxEdits typos of the token. With prefix set, the token only has to
+     * be close to the start of a word, which suits the word being typed.
+     */
+    public synchronized Matches match(String token, int maxEdits, boolean prefix) {
+        Matches matches = new Matches();
+
+        // the distinct bigrams of the token, as ids (-1 if no word has them)
+        int bigramCount = 0;
+        int[] bigrams = new int[Math.max(0, token.length() - 1)];
+        long[] seen = new long[bigrams.length];
+        for (int i = 0; i + 2 <= token.length(); i++) {
+            long key = bigram(token, i);
+            boolean duplicate = false;
+            for (int j = 0; j < i; j++) duplicate |= seen[j] == key;
+            seen[i] = key;
+            if (!duplicate) bigrams[bigramCount++] = mBigramIds.get(key, -1);
+        }
+
+        int edits = maxEdits;
+        if (edits <= 0) {
+            matchExactly(token, prefix, matches);
+            return matches;
+        }
+        // the filter needs at least one bigram left after the typos
+        if (edits > (bigramCount - 1) / 3) {
+            matchByLength(token, edits, prefix, matches);
+            return matches;
+        }
+        int threshold = bigramCount - 3 * edits;
+
+        int stamp = ++mStamp;
+        if (stamp == 0) {
+            Arrays.fill(mStamps, 0);
+            stamp = mStamp = 1;
+        }
+        SearchIndex.IntList candidates = new SearchIndex.IntList();
+        for (int b = 0; b < bigramCount; b++) {
+            int id = bigrams[b];
+            if (id < 0) continue;
+            for (int i = mBigramStart[id]; i < mBigramStart[id + 1]; i++) {
+                int w = mBigramWords[i];
+                if (mStamps[w] != stamp) {
+                    mStamps[w] = stamp;
+                    mCounts[w] = 0;
+                    candidates.add(w);
+                }
+                mCounts[w]++;
+            }
+        }
+
+        for (int i = 0; i < candidates.mSize; i++) {
+            int w = candidates.mValues[i];
+            if (mCounts[w] < threshold) continue;
+            String word = mWords[w];
+            if (prefix ? word.length() < token.length() - edits
+                    : Math.abs(word.length() - token.length()) > edits) {
+                continue;
+            }
+            int distance = distance(token, word, edits, prefix);
+            if (distance <= edits) matches.add(w, distance);
+        }
+        return matches;
+    }
+
+    /**
+     * Adds the words within edits typos of the token, comparing it with every word whose length
+     * allows that.
+     */
+    void matchByLength(String token, int edits, boolean prefix, Matches matches) {
+        int longest = mLengthStart.length - 2;
+        int min = Math.max(0, token.length() - edits);
+        int max = prefix ? longest : Math.min(longest, token.length() + edits);
+        if (min > max) return;
+        for (int i = mLengthStart[min]; i < mLengthStart[max + 1]; i++) {
+            int w = mByLength[i];
+            int distance = distance(token, mWords[w], edits, prefix);
+            if (distance <= edits) matches.add(w, distance);
+        }
+    }
+
+    /** Adds the words equal to the token, or starting with it if prefix is set. */
+    void matchExactly(String token, boolean prefix, Matches matches) {
+        int first = Arrays.binarySearch(mWords, token);
+        if (first < 0) first = -first - 1;
+        for (int w = first; w < mWords.length; w++) {
+            if (prefix ? !mWords[w].startsWith(token) : !mWords[w].equals(token)) break;
+            matches.add(w, 0);
+        }
+    }
+
+    /**
+     * Returns the optimal string alignment distance between the token and the word (or the
+     * closest prefix of the word, with prefix set), or max + 1 if it is over max.
+     */
+    int distance(String token, String word, int max, boolean prefix) {
+        int n = token.length();
+        int m = prefix ? Math.min(word.length(), n + max) : word.length();
+        if (mRows.length < 3 * (m + 1)) mRows = new int[3 * (m + 1)];
+        int[] rows = mRows;
+        // three rows of the table, for i - 2, i - 1 and i, at offsets rotating through rows
+        int width = m + 1;
+        int before = 0;
+        int previous = width;
+        int current = 2 * width;
+        for (int j = 0; j <= m; j++) rows[previous + j] = j;
+
+        for (int i = 1; i <= n; i++) {
+            char c = token.charAt(i - 1);
+            rows[current] = i;
+            int best = i;
+            for (int j = 1; j <= m; j++) {
+                char d = word.charAt(j - 1);
+                int cost = c == d ? 0 : 1;
+                int value = Math.min(Math.min(rows[previous + j] + 1, rows[current + j - 1] + 1),
+                        rows[previous + j - 1] + cost);
+                if (i > 1 && j > 1 && c == word.charAt(j - 2) && token.charAt(i - 2) == d) {
+                    value = Math.min(value, rows[before + j - 2] + 1);
+                }
+                rows[current + j] = value;
+                best = Math.min(best, value);
+            }
+            if (best > max) return max + 1;
+            int recycled = before;
+            before = previous;
+            previous = current;
+            current = recycled;
+        }
+
+        int distance = rows[previous + m];
+        if (prefix) {
+            for (int j = 0; j < m; j++) distance = Math.min(distance, rows[previous + j]);
+        }
+        return Math.min(distance, max + 1);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in microseconds, with fixed log-linear buckets: every power of two
+ * is split into {@link #SUB_BUCKETS} equal buckets, so a percentile read off it is within about
+ * 12% of the true value from 1 us up to over an hour. Recording is a handful of atomic adds and
+ * never allocates or locks, so it can sit on the playback paths of any thread.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // durations are clamped to just under 2^32 us, about 71 minutes
+    static final int MAX_BITS = 32;
+    static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    static final int BUCKET_COUNT = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    final String mName;
+    final Clock mClock;
+    final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    final AtomicLong mSum = new AtomicLong();
+    final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this(name, Clock.SYSTEM);
+    }
+
+    /** Makes a histogram that {@link #recordSince} reads the time from clock for. */
+    public LatencyHistogram(String name, Clock clock) {
+        mName = name;
+        mClock = clock;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        else if (micros > MAX_VALUE) micros = MAX_VALUE;
+        mCounts.incrementAndGet(bucketOf(micros));
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) max = mMax.get();
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /** Records the time since startNanos, a value read from the histogram's clock. */
+    public void recordSince(long startNanos) {
+        record((mClock.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Returns the bucket of a value: values below SUB_BUCKETS have a bucket each, and each
+     * power of two above that has SUB_BUCKETS buckets of equal width.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** Returns the largest value that falls in a bucket. */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) count += mCounts.get(i);
+        return count;
+    }
+
+    /** Returns the mean in microseconds, or 0 if nothing was recorded. */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the value, in microseconds, that the given fraction (0 to 1) of the recorded values
+     * are at or below, to within the width of its bucket; 0 if nothing was recorded. Recording
+     * may go on meanwhile, which can put the answer off by the values recorded during the call.
+     */
+    public long getPercentile(double fraction) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highestValueIn(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) mCounts.set(i, 0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Orders titles, artists and albums the way people expect to find them in a music library:
+ * following the rules of the current locale, ignoring case and accents, and ignoring a leading
+ * "The", "A" or "An" ("The Beatles" sorts with the B's). Null sorts as the empty string.
+ *
+ * Comparing two strings with {@link #compare(String, String)} is relatively expensive. To sort
+ * many rows, use {@link #rank(StringPool)} once to turn every distinct string of a pool into an
+ * int whose order is the collation order, and sort by those ints instead.
+ */
+public class LibraryCollator implements Comparator<String> {
+    static final String[] ARTICLES = { "the ", "a ", "an " };
+
+    final Collator mCollator;
+
+    public LibraryCollator() {
+        mCollator = Collator.getInstance();
+        mCollator.setStrength(Collator.PRIMARY);
+    }
+
+    /** Returns the part of the string that is used for sorting. */
+    public static String normalize(String value) {
+        if (value == null) return "";
+        String trimmed = value.trim();
+        for (String article : ARTICLES) {
+            if (trimmed.length() > article.length()
+                    && trimmed.regionMatches(true, 0, article, 0, article.length())) {
+                return trimmed.substring(article.length()).trim();
+            }
+        }
+        return trimmed;
+    }
+
+    public int compare(String a, String b) {
+        String left = normalize(a);
+        String right = normalize(b);
+        // Collator instances are not thread safe
+        synchronized (mCollator) {
+            return mCollator.compare(left, right);
+        }
+    }
+
+    /**
+     * Returns the collation rank of every string in the pool, indexed by code. Strings that
+     * collate equally get the same rank. Collation keys are computed once per distinct string,
+     * split over the {@link ParallelSort} worker threads.
+     */
+    public int[] rank(StringPool pool) {
+        final int count = pool.size();
+        final String[] values = new String[count];
+        for (int code = 0; code < count; code++) values[code] = pool.get(code);
+
+        final CollationKey[] keys = new CollationKey[count];
+        int parts = ParallelSort.partsFor(count);
+        int step = (count + parts - 1) / Math.max(parts, 1);
+        Future<?>[] futures = new Future<?>[parts];
+        for (int p = 0; p < parts; p++) {
+            final int from = p * step;
+            final int to = Math.min(count, from + step);
+            final Collator collator;
+            synchronized (mCollator) {
+                collator = (Collator) mCollator.clone();
+            }
+            futures[p] = ParallelSort.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int code = from; code < to; code++) {
+                        keys[code] = collator.getCollationKey(normalize(values[code]));
+                    }
+                    return null;
+                }
+            });
+        }
+        ParallelSort.await(futures);
+
+        Integer[] byKey = new Integer[count];
+        for (int code = 0; code < count; code++) byKey[code] = code;
+        Arrays.sort(byKey, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return keys[a].compareTo(keys[b]);
+            }
+        });
+
+        int[] ranks = new int[count];
+        int rank = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && keys[byKey[i]].compareTo(keys[byKey[i - 1]]) != 0) rank++;
+            ranks[byKey[i]] = rank;
+        }
+        return ranks;
+    }
+
+    /** Unwraps the cause of a failed background task. */
+    static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return new RuntimeException(cause);
+    }
+}
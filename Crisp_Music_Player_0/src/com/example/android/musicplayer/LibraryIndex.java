@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Arrays;
+
+/**
+ * Lookup tables from artists and albums to their tracks, keyed by the artist and album codes of
+ * the {@link LibraryStore} string pools. Each table is stored as a pair of int arrays: one with
+ * the values for every key laid out back to back, and one with the offset at which each key's
+ * values start. That way looking up an artist or album costs as much as the result, and the
+ * whole index is a handful of arrays no matter how big the library is.
+ *
+ * An index is built for a fixed list of tracks and never changes; build a new one when the
+ * list changes.
+ */
+public class LibraryIndex {
+    // artist code -> rows of the artist's tracks
+    final int[] mArtistTrackStart;
+    final int[] mArtistTracks;
+
+    // album code -> rows of the album's tracks
+    final int[] mAlbumTrackStart;
+    final int[] mAlbumTracks;
+
+    // artist code -> codes of the artist's albums, without duplicates
+    final int[] mArtistAlbumStart;
+    final int[] mArtistAlbums;
+
+    LibraryIndex(int[] artistTrackStart, int[] artistTracks, int[] albumTrackStart,
+            int[] albumTracks, int[] artistAlbumStart, int[] artistAlbums) {
+        mArtistTrackStart = artistTrackStart;
+        mArtistTracks = artistTracks;
+        mAlbumTrackStart = albumTrackStart;
+        mAlbumTracks = albumTracks;
+        mArtistAlbumStart = artistAlbumStart;
+        mArtistAlbums = artistAlbums;
+    }
+
+    /**
+     * Builds the index for the given tracks. Tracks and albums are listed in the order they
+     * appear in the list.
+     */
+    public static LibraryIndex build(LibraryStore store, TrackList tracks) {
+        int size = tracks.size();
+        int[] rows = tracks.toRowArray();
+        int[] artistCodes = new int[size];
+        int[] albumCodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            artistCodes[i] = store.getArtistCode(rows[i]);
+            albumCodes[i] = store.getAlbumCode(rows[i]);
+        }
+        int artistCount = store.getArtistPool().size();
+        int albumCount = store.getAlbumPool().size();
+
+        int[] artistTrackStart = new int[artistCount + 1];
+        int[] artistTracks = group(rows, artistCodes, artistTrackStart);
+        int[] albumTrackStart = new int[albumCount + 1];
+        int[] albumTracks = group(rows, albumCodes, albumTrackStart);
+
+        // An artist's albums are the distinct albums of its tracks. albumSeenBy remembers the
+        // last artist an album was listed for, which is enough to skip duplicates since each
+        // artist's tracks are visited together.
+        int[] albumSeenBy = new int[albumCount];
+        Arrays.fill(albumSeenBy, -1);
+        int[] artistAlbumStart = new int[artistCount + 1];
+        int[] artistAlbums = new int[size];
+        int count = 0;
+        for (int artist = 0; artist < artistCount; artist++) {
+            artistAlbumStart[artist] = count;
+            for (int i = artistTrackStart[artist]; i < artistTrackStart[artist + 1]; i++) {
+                int album = store.getAlbumCode(artistTracks[i]);
+                if (albumSeenBy[album] != artist) {
+                    albumSeenBy[album] = artist;
+                    artistAlbums[count++] = album;
+                }
+            }
+        }
+        artistAlbumStart[artistCount] = count;
+
+        return new LibraryIndex(artistTrackStart, artistTracks, albumTrackStart, albumTracks,
+                artistAlbumStart, LibraryStore.copyOf(artistAlbums, count));
+    }
+
+    /**
+     * Counting sort of the rows by key. Fills start with the offset of each key's rows in the
+     * returned array (start must have one more slot than there are keys).
+     */
+    static int[] group(int[] rows, int[] keys, int[] start) {
+        for (int key : keys) start[key + 1]++;
+        for (int key = 1; key < start.length; key++) start[key] += start[key - 1];
+        int[] next = LibraryStore.copyOf(start, start.length - 1);
+        int[] grouped = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            grouped[next[keys[i]]++] = rows[i];
+        }
+        return grouped;
+    }
+
+    public int getArtistTrackCount(int artistCode) {
+        return count(mArtistTrackStart, artistCode);
+    }
+
+    /** Returns the row of the i-th track by the given artist. */
+    public int getArtistTrack(int artistCode, int i) {
+        return mArtistTracks[mArtistTrackStart[artistCode] + i];
+    }
+
+    public int getAlbumTrackCount(int albumCode) {
+        return count(mAlbumTrackStart, albumCode);
+    }
+
+    /** Returns the row of the i-th track on the given album. */
+    public int getAlbumTrack(int albumCode, int i) {
+        return mAlbumTracks[mAlbumTrackStart[albumCode] + i];
+    }
+
+    public int getArtistAlbumCount(int artistCode) {
+        return count(mArtistAlbumStart, artistCode);
+    }
+
+    /** Returns the code of the i-th album by the given artist. */
+    public int getArtistAlbum(int artistCode, int i) {
+        return mArtistAlbums[mArtistAlbumStart[artistCode] + i];
+    }
+
+    static int count(int[] start, int key) {
+        // codes added to the pools after the index was built have no tracks in it
+        if (key < 0 || key >= start.length - 1) return 0;
+        return start[key + 1] - start[key];
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Binary copy of the library store and of the sorted lists built by
+ * {@link MusicRetriever#populate()}, kept in app storage so that the next cold start can serve
+ * the library without waiting for MediaStore. The file is opened through a
+ * {@link MappedByteBuffer} and its columns are bulk-copied into the store; MediaStore is then
+ * reconciled in the background with an incremental {@link LibrarySync}, starting from the
+ * watermark saved in the snapshot.
+ *
+ * The file starts with a magic number and a format version. A snapshot written by a different
+ * version is ignored (and deleted), so the format can change freely between releases. All
+ * values are big-endian; strings are stored as a char count (-1 for null) followed by UTF-16
+ * chars. Deleted rows are left out, so rows are renumbered on the way out.
+ */
+public class LibrarySnapshot {
+    final static String TAG = "LibrarySnapshot";
+
+    static final int MAGIC = 0x434d504c; // "CMPL"
+    static final int VERSION = 1;
+
+    final File mFile;
+
+    public LibrarySnapshot(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Everything a snapshot holds, copied out of the store and track lists so it can be written
+     * from a background thread while the lists keep changing.
+     */
+    public static class Image {
+        int mSize;
+        long mMaxId;
+        long mMaxDateModified;
+        long[] mIds;
+        long[] mDurations;
+        long[] mAlbumIds;
+        int[] mArtists;
+        int[] mAlbums;
+        int[] mTitles;
+        String[] mArtistPool;
+        String[] mAlbumPool;
+        String[] mTitlePool;
+
+        // Sorted views, or null if populate() hadn't run: rows of the song list in title order,
+        // and the artist and album codes in the order of MusicRetriever's artist and album lists.
+        int[] mSongOrder;
+        int[] mArtistOrder;
+        int[] mAlbumOrder;
+    }
+
+    /**
+     * Copies the store and the sorted lists into a new Image. This must be called on the same
+     * thread that changes the track lists.
+     */
+    public static Image capture(LibraryStore store, TrackList songList, List<String> artists,
+            List<String> albums, boolean populated) {
+        Image image = new Image();
+        synchronized (store) {
+            int size = store.size();
+            int[] newRows = new int[size];
+            int live = 0;
+            for (int row = 0; row < size; row++) {
+                newRows[row] = store.isDeleted(row) ? -1 : live++;
+            }
+
+            image.mSize = live;
+            image.mMaxId = store.getMaxId();
+            image.mMaxDateModified = store.getMaxDateModified();
+            image.mIds = new long[live];
+            image.mDurations = new long[live];
+            image.mAlbumIds = new long[live];
+            image.mArtists = new int[live];
+            image.mAlbums = new int[live];
+            image.mTitles = new int[live];
+            for (int row = 0; row < size; row++) {
+                int i = newRows[row];
+                if (i < 0) continue;
+                image.mIds[i] = store.mIds[row];
+                image.mDurations[i] = store.mDurations[row];
+                image.mAlbumIds[i] = store.mAlbumIds[row];
+                image.mArtists[i] = store.mArtists[row];
+                image.mAlbums[i] = store.mAlbums[row];
+                image.mTitles[i] = store.mTitles[row];
+            }
+            image.mArtistPool = toArray(store.getArtistPool());
+            image.mAlbumPool = toArray(store.getAlbumPool());
+            image.mTitlePool = toArray(store.getTitlePool());
+
+            if (populated) {
+                image.mSongOrder = new int[songList.size()];
+                for (int i = 0; i < image.mSongOrder.length; i++) {
+                    image.mSongOrder[i] = newRows[songList.getRow(i)];
+                }
+                image.mArtistOrder = toCodes(store.getArtistPool(), artists);
+                image.mAlbumOrder = toCodes(store.getAlbumPool(), albums);
+            }
+        }
+        return image;
+    }
+
+    static String[] toArray(StringPool pool) {
+        String[] values = new String[pool.size()];
+        for (int code = 0; code < values.length; code++) {
+            values[code] = pool.get(code);
+        }
+        return values;
+    }
+
+    static int[] toCodes(StringPool pool, List<String> values) {
+        int[] codes = new int[values.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = pool.find(values.get(i));
+        }
+        return codes;
+    }
+
+    // Snapshots may be saved from several threads; only one of them writes at a time.
+    static final Object sWriteLock = new Object();
+
+    /**
+     * Writes the image to the snapshot file. The data goes to a temporary file first, which then
+     * replaces the snapshot, so a crash halfway through never leaves a truncated snapshot.
+     */
+    public void write(Image image) {
+        synchronized (sWriteLock) {
+            writeLocked(image);
+        }
+    }
+
+    void writeLocked(Image image) {
+        long start = Metrics.now();
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp),
+                    64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(image.mSize);
+            out.writeLong(image.mMaxId);
+            out.writeLong(image.mMaxDateModified);
+            writeLongs(out, image.mIds);
+            writeLongs(out, image.mDurations);
+            writeLongs(out, image.mAlbumIds);
+            writeInts(out, image.mArtists);
+            writeInts(out, image.mAlbums);
+            writeInts(out, image.mTitles);
+            writeStrings(out, image.mArtistPool);
+            writeStrings(out, image.mAlbumPool);
+            writeStrings(out, image.mTitlePool);
+            out.writeBoolean(image.mSongOrder != null);
+            if (image.mSongOrder != null) {
+                out.writeInt(image.mSongOrder.length);
+                writeInts(out, image.mSongOrder);
+                out.writeInt(image.mArtistOrder.length);
+                writeInts(out, image.mArtistOrder);
+                out.writeInt(image.mAlbumOrder.length);
+                writeInts(out, image.mAlbumOrder);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Could not rename " + temp + " to " + mFile);
+            }
+            Log.i(TAG, "Wrote snapshot of " + image.mSize + " tracks ("
+                    + (mFile.length() / 1024) + " KB) in "
+                    + (Metrics.now() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write library snapshot", e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        for (long value : values) out.writeLong(value);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) out.writeInt(value);
+    }
+
+    static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(value.length());
+                out.writeChars(value);
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot file. Returns null if there is no snapshot, or if it can't be used
+     * because it was written by another version or is corrupt.
+     */
+    public Image read() {
+        if (!mFile.exists()) return null;
+        long start = Metrics.now();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Log.w(TAG, "Ignoring snapshot with a different format");
+                mFile.delete();
+                return null;
+            }
+            Image image = new Image();
+            int size = buffer.getInt();
+            image.mSize = size;
+            image.mMaxId = buffer.getLong();
+            image.mMaxDateModified = buffer.getLong();
+            image.mIds = readLongs(buffer, size);
+            image.mDurations = readLongs(buffer, size);
+            image.mAlbumIds = readLongs(buffer, size);
+            image.mArtists = readInts(buffer, size);
+            image.mAlbums = readInts(buffer, size);
+            image.mTitles = readInts(buffer, size);
+            image.mArtistPool = readStrings(buffer);
+            image.mAlbumPool = readStrings(buffer);
+            image.mTitlePool = readStrings(buffer);
+            if (buffer.get() != 0) {
+                image.mSongOrder = readInts(buffer, buffer.getInt());
+                image.mArtistOrder = readInts(buffer, buffer.getInt());
+                image.mAlbumOrder = readInts(buffer, buffer.getInt());
+            }
+            Log.i(TAG, "Read snapshot of " + size + " tracks in "
+                    + (Metrics.now() - start) / 1000000 + " ms");
+            return image;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read library snapshot", e);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, NegativeArraySizeException... the file is corrupt
+            Log.e(TAG, "Ignoring corrupt library snapshot", e);
+            mFile.delete();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        return null;
+    }
+
+    static long[] readLongs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    static String[] readStrings(ByteBuffer buffer) {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            int length = buffer.getInt();
+            if (length < 0) continue;
+            CharBuffer chars = buffer.asCharBuffer();
+            chars.limit(length);
+            values[i] = chars.toString();
+            buffer.position(buffer.position() + length * 2);
+        }
+        return values;
+    }
+
+    public void delete() {
+        mFile.delete();
+    }
+}
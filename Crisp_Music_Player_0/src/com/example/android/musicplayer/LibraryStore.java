@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+/**
+ * Column-oriented storage for every track found by {@link MusicRetriever}. Instead of keeping one
+ * {@link Item} object per track, each attribute lives in its own primitive array and tracks are
+ * identified by their row index. Artist, album and title strings are stored once in a
+ * {@link StringPool} and referenced from the rows by their int code. Lists of tracks (see
+ * {@link TrackList}) only hold row indexes, and Item objects are created on demand when a track
+ * has to be handed out.
+ */
+public class LibraryStore {
+    static final int INITIAL_CAPACITY = 256;
+
+    long[] mIds = new long[INITIAL_CAPACITY];
+    long[] mDurations = new long[INITIAL_CAPACITY];
+    long[] mAlbumIds = new long[INITIAL_CAPACITY];
+    int[] mArtists = new int[INITIAL_CAPACITY];
+    int[] mAlbums = new int[INITIAL_CAPACITY];
+    int[] mTitles = new int[INITIAL_CAPACITY];
+    boolean[] mDeleted = new boolean[INITIAL_CAPACITY];
+    // Rows are written by the thread loading the library while other threads read them, so the
+    // size is only advanced (and published) once a row is complete.
+    volatile int mSize = 0;
+
+    final StringPool mArtistPool = new StringPool();
+    final StringPool mAlbumPool = new StringPool();
+    final StringPool mTitlePool = new StringPool();
+
+    // row of each live track, keyed by MediaStore id
+    final LongIntMap mRowsById = new LongIntMap();
+
+    // number of live tracks for each artist and album code
+    int[] mArtistTracks = new int[16];
+    int[] mAlbumTracks = new int[16];
+    int mDeletedCount = 0;
+
+    // Highest MediaStore id and DATE_MODIFIED (in seconds) seen so far. Anything newer than these
+    // has not been read into the store yet.
+    long mMaxId = -1;
+    long mMaxDateModified = -1;
+
+    /** Appends a track to the store and returns its row index. */
+    public synchronized int add(long id, String artist, String title, String album, long duration,
+            long albumID, long dateModified) {
+        ensureCapacity(mSize + 1);
+        int row = mSize;
+        mIds[row] = id;
+        mArtists[row] = mArtistPool.intern(artist);
+        mTitles[row] = mTitlePool.intern(title);
+        mAlbums[row] = mAlbumPool.intern(album);
+        mDurations[row] = duration;
+        mAlbumIds[row] = albumID;
+        mDeleted[row] = false;
+        mRowsById.put(id, row);
+        countRow(row, 1);
+        advanceWatermark(id, dateModified);
+        mSize = row + 1;
+        return row;
+    }
+
+    /**
+     * Replaces the values of an existing row, keeping its row index so every list referring to
+     * it stays valid.
+     */
+    public synchronized void update(int row, String artist, String title, String album,
+            long duration, long albumID, long dateModified) {
+        checkRow(row);
+        countRow(row, -1);
+        mArtists[row] = mArtistPool.intern(artist);
+        mTitles[row] = mTitlePool.intern(title);
+        mAlbums[row] = mAlbumPool.intern(album);
+        mDurations[row] = duration;
+        mAlbumIds[row] = albumID;
+        countRow(row, 1);
+        advanceWatermark(mIds[row], dateModified);
+    }
+
+    /**
+     * Marks a row as deleted. Rows are never reused, so lists that still hold the row can be
+     * patched afterwards; a deleted row can no longer be found through {@link #findRow(long)}.
+     */
+    public synchronized void delete(int row) {
+        checkRow(row);
+        if (mDeleted[row]) return;
+        mDeleted[row] = true;
+        mDeletedCount++;
+        mRowsById.remove(mIds[row]);
+        countRow(row, -1);
+    }
+
+    public boolean isDeleted(int row) {
+        return mDeleted[checkRow(row)];
+    }
+
+    /** Returns the number of rows that have not been deleted. */
+    public int liveCount() {
+        return mSize - mDeletedCount;
+    }
+
+    /** Returns the row of the live track with the given MediaStore id, or -1 if there is none. */
+    public synchronized int findRow(long id) {
+        return mRowsById.get(id, -1);
+    }
+
+    /** Returns the number of live tracks by the artist with the given code. */
+    public synchronized int getArtistTrackCount(int artistCode) {
+        return artistCode < mArtistTracks.length ? mArtistTracks[artistCode] : 0;
+    }
+
+    /** Returns the number of live tracks on the album with the given code. */
+    public synchronized int getAlbumTrackCount(int albumCode) {
+        return albumCode < mAlbumTracks.length ? mAlbumTracks[albumCode] : 0;
+    }
+
+    void countRow(int row, int delta) {
+        int artist = mArtists[row];
+        int album = mAlbums[row];
+        if (artist >= mArtistTracks.length) {
+            mArtistTracks = copyOf(mArtistTracks, Math.max(artist + 1, mArtistTracks.length * 2));
+        }
+        if (album >= mAlbumTracks.length) {
+            mAlbumTracks = copyOf(mAlbumTracks, Math.max(album + 1, mAlbumTracks.length * 2));
+        }
+        mArtistTracks[artist] += delta;
+        mAlbumTracks[album] += delta;
+    }
+
+    void advanceWatermark(long id, long dateModified) {
+        if (id > mMaxId) mMaxId = id;
+        if (dateModified > mMaxDateModified) mMaxDateModified = dateModified;
+    }
+
+    public synchronized long getMaxId() {
+        return mMaxId;
+    }
+
+    public synchronized long getMaxDateModified() {
+        return mMaxDateModified;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) return;
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = copyOf(mIds, newCapacity);
+        mDurations = copyOf(mDurations, newCapacity);
+        mAlbumIds = copyOf(mAlbumIds, newCapacity);
+        mArtists = copyOf(mArtists, newCapacity);
+        mAlbums = copyOf(mAlbums, newCapacity);
+        mTitles = copyOf(mTitles, newCapacity);
+        boolean[] deleted = new boolean[newCapacity];
+        System.arraycopy(mDeleted, 0, deleted, 0, mSize);
+        mDeleted = deleted;
+    }
+
+    // Arrays.copyOf is not available before SDK level 9
+    static long[] copyOf(long[] array, int length) {
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    /** Returns the number of tracks in the store. */
+    public int size() {
+        return mSize;
+    }
+
+    public synchronized void clear() {
+        mSize = 0;
+        mDeletedCount = 0;
+        mMaxId = -1;
+        mMaxDateModified = -1;
+        mRowsById.clear();
+        mArtistTracks = new int[16];
+        mAlbumTracks = new int[16];
+        mArtistPool.clear();
+        mAlbumPool.clear();
+        mTitlePool.clear();
+    }
+
+    /**
+     * Replaces the contents of the store with the rows of a snapshot. Pool strings are interned
+     * in the order they were saved in, so the codes in the snapshot stay valid.
+     */
+    public synchronized void load(LibrarySnapshot.Image image) {
+        clear();
+        internAll(mArtistPool, image.mArtistPool);
+        internAll(mAlbumPool, image.mAlbumPool);
+        internAll(mTitlePool, image.mTitlePool);
+
+        int size = image.mSize;
+        ensureCapacity(size);
+        System.arraycopy(image.mIds, 0, mIds, 0, size);
+        System.arraycopy(image.mDurations, 0, mDurations, 0, size);
+        System.arraycopy(image.mAlbumIds, 0, mAlbumIds, 0, size);
+        System.arraycopy(image.mArtists, 0, mArtists, 0, size);
+        System.arraycopy(image.mAlbums, 0, mAlbums, 0, size);
+        System.arraycopy(image.mTitles, 0, mTitles, 0, size);
+        for (int row = 0; row < size; row++) {
+            mDeleted[row] = false;
+            mRowsById.put(mIds[row], row);
+            countRow(row, 1);
+        }
+        mMaxId = image.mMaxId;
+        mMaxDateModified = image.mMaxDateModified;
+        mSize = size;
+    }
+
+    static void internAll(StringPool pool, String[] values) {
+        for (String value : values) pool.intern(value);
+    }
+
+    public long getId(int row) {
+        return mIds[checkRow(row)];
+    }
+
+    public long getDuration(int row) {
+        return mDurations[checkRow(row)];
+    }
+
+    public long getAlbumID(int row) {
+        return mAlbumIds[checkRow(row)];
+    }
+
+    public int getArtistCode(int row) {
+        return mArtists[checkRow(row)];
+    }
+
+    public int getAlbumCode(int row) {
+        return mAlbums[checkRow(row)];
+    }
+
+    public int getTitleCode(int row) {
+        return mTitles[checkRow(row)];
+    }
+
+    public String getArtist(int row) {
+        return mArtistPool.get(getArtistCode(row));
+    }
+
+    public String getAlbum(int row) {
+        return mAlbumPool.get(getAlbumCode(row));
+    }
+
+    public String getTitle(int row) {
+        return mTitlePool.get(getTitleCode(row));
+    }
+
+    public StringPool getArtistPool() {
+        return mArtistPool;
+    }
+
+    public StringPool getAlbumPool() {
+        return mAlbumPool;
+    }
+
+    public StringPool getTitlePool() {
+        return mTitlePool;
+    }
+
+    /**
+     * Returns a new Item holding the values of the given row. Items are short-lived views meant
+     * to be handed out to callers; the store itself never keeps them around.
+     */
+    public Item getItem(int row) {
+        checkRow(row);
+        return new Item(row, mIds[row], mArtistPool.get(mArtists[row]),
+                mTitlePool.get(mTitles[row]), mAlbumPool.get(mAlbums[row]), mDurations[row],
+                mAlbumIds[row]);
+    }
+
+    int checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + mSize);
+        }
+        return row;
+    }
+
+    /**
+     * Returns a human readable report comparing the memory used by this store against the
+     * previous layout, where every track was a separate Item holding its own three Strings and
+     * was referenced from several ArrayLists. Figures are estimates based on Dalvik object sizes
+     * (8 byte object header, 4 byte references, 8 byte alignment).
+     *
+     * @param listCount the number of track lists that would have held a reference to each Item
+     */
+    public String describeMemory(int listCount) {
+        int size = mSize;
+
+        // Columnar layout: the six columns (at their current capacity) plus one copy of each
+        // distinct string and its pool bookkeeping.
+        long columns = 3L * arrayBytes(mIds.length, 8) + 3L * arrayBytes(mIds.length, 4)
+                + arrayBytes(mIds.length, 1) + arrayBytes(mRowsById.mKeys.length, 12);
+        long pools = poolBytes(mArtistPool) + poolBytes(mAlbumPool) + poolBytes(mTitlePool);
+        long rowLists = (long) listCount * arrayBytes(size, 4);
+        long columnar = columns + pools + rowLists;
+
+        // Object layout: one Item per track (header, three longs, three references) and three
+        // Strings per Item, since the cursor hands out a new String for every row.
+        long itemBytes = align(8 + 3 * 8 + 3 * 4);
+        long objects = size * itemBytes;
+        for (int row = 0; row < size; row++) {
+            objects += stringBytes(getArtist(row)) + stringBytes(getTitle(row))
+                    + stringBytes(getAlbum(row));
+        }
+        objects += (long) listCount * arrayBytes(size, 4);
+
+        return "Library memory for " + size + " tracks (" + mArtistPool.size() + " artists, "
+                + mAlbumPool.size() + " albums, " + mTitlePool.size() + " titles): columnar "
+                + (columnar / 1024) + " KB in 9 arrays, object layout " + (objects / 1024)
+                + " KB in " + (size * 4L) + " objects, " + listCount + " lists each";
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    static long arrayBytes(int length, int elementSize) {
+        return align(12 + (long) length * elementSize);
+    }
+
+    static long stringBytes(String value) {
+        if (value == null) return 0;
+        // String object (header, value reference, offset, count, hash) plus its char array
+        return align(8 + 4 + 3 * 4) + arrayBytes(value.length(), 2);
+    }
+
+    static long poolBytes(StringPool pool) {
+        int count = pool.size();
+        // each distinct string, its HashMap entry and boxed code, and the list slot
+        long entries = count * (align(8 + 4 * 4) + align(8 + 4) + 4L);
+        long chars = count * (align(8 + 4 + 3 * 4) + align(12)) + 2 * pool.charCount();
+        return entries + chars + arrayBytes(count * 2, 4);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.provider.MediaStore.MediaColumns;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Finds out what changed in MediaStore since the library store was last read, without reading
+ * the whole library again. New and modified tracks are found by querying only the rows whose id
+ * or DATE_MODIFIED is past the store's watermark; deleted tracks are found by diffing the store
+ * against the list of ids MediaStore still has, which is a single-column query.
+ *
+ * {@link #query()} only reads from the store, so it can run in the background. The resulting
+ * {@link Changes} are applied with {@link MusicRetriever#applyChanges(Changes)}.
+ */
+public class LibrarySync {
+    final static String TAG = "LibrarySync";
+
+    static final String[] ID_PROJECTION = { MediaStore.Audio.Media._ID };
+
+    ContentResolver mContentResolver;
+    LibraryStore mStore;
+
+    public LibrarySync(ContentResolver cr, LibraryStore store) {
+        mContentResolver = cr;
+        mStore = store;
+    }
+
+    /**
+     * Queries MediaStore for everything that changed since the store's watermark. This method
+     * may take a while on big libraries, so call it off the main thread. Returns null if
+     * MediaStore couldn't be queried.
+     */
+    public Changes query() {
+        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        Changes changes = new Changes();
+
+        // DATE_MODIFIED has a resolution of one second, so rows changed within the same second as
+        // the watermark are read again; applying them twice is harmless.
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " = 1 AND ("
+                + MediaStore.Audio.Media._ID + " > ? OR " + MediaColumns.DATE_MODIFIED + " >= ?)";
+        String[] args = {
+                String.valueOf(mStore.getMaxId()),
+                String.valueOf(mStore.getMaxDateModified())
+        };
+        long start = Metrics.now();
+        Cursor cur = mContentResolver.query(uri, MusicRetriever.PROJECTION, selection, args, null);
+        Metrics.MEDIASTORE_QUERY.recordSince(start);
+        if (cur == null) {
+            Log.e(TAG, "Failed to query changed music: cursor is null");
+            return null;
+        }
+        try {
+            while (cur.moveToNext()) {
+                changes.addUpdate(
+                        cur.getLong(MusicRetriever.COLUMN_ID),
+                        cur.getString(MusicRetriever.COLUMN_ARTIST),
+                        cur.getString(MusicRetriever.COLUMN_TITLE),
+                        cur.getString(MusicRetriever.COLUMN_ALBUM),
+                        cur.getLong(MusicRetriever.COLUMN_DURATION),
+                        cur.getLong(MusicRetriever.COLUMN_ALBUM_ID),
+                        cur.getLong(MusicRetriever.COLUMN_DATE_MODIFIED));
+            }
+        } finally {
+            cur.close();
+        }
+
+        long[] liveIds = queryLiveIds(uri);
+        if (liveIds == null) return null;
+        int size = mStore.size();
+        for (int row = 0; row < size; row++) {
+            if (!mStore.isDeleted(row)
+                    && Arrays.binarySearch(liveIds, mStore.getId(row)) < 0) {
+                changes.addDeletion(mStore.getId(row));
+            }
+        }
+
+        Log.i(TAG, "Sync found " + changes.mUpdateCount + " new or modified and "
+                + changes.mDeletionCount + " deleted tracks");
+        return changes;
+    }
+
+    /** Returns the sorted ids of every track MediaStore currently has. */
+    long[] queryLiveIds(Uri uri) {
+        long start = Metrics.now();
+        Cursor cur = mContentResolver.query(uri, ID_PROJECTION,
+                MediaStore.Audio.Media.IS_MUSIC + " = 1", null, null);
+        Metrics.MEDIASTORE_QUERY.recordSince(start);
+        if (cur == null) {
+            Log.e(TAG, "Failed to query music ids: cursor is null");
+            return null;
+        }
+        try {
+            long[] ids = new long[cur.getCount()];
+            int count = 0;
+            while (cur.moveToNext() && count < ids.length) {
+                ids[count++] = cur.getLong(0);
+            }
+            Arrays.sort(ids, 0, count);
+            return count == ids.length ? ids : LibraryStore.copyOf(ids, count);
+        } finally {
+            cur.close();
+        }
+    }
+
+    /**
+     * Tracks that were added, modified or deleted in MediaStore. New and modified tracks are
+     * kept in parallel arrays; whether a track is new is only decided when the changes are
+     * applied to the store.
+     */
+    public static class Changes {
+        int mUpdateCount = 0;
+        long[] mIds = new long[16];
+        String[] mArtists = new String[16];
+        String[] mTitles = new String[16];
+        String[] mAlbums = new String[16];
+        long[] mDurations = new long[16];
+        long[] mAlbumIds = new long[16];
+        long[] mDateModified = new long[16];
+
+        int mDeletionCount = 0;
+        long[] mDeletedIds = new long[16];
+
+        void addUpdate(long id, String artist, String title, String album, long duration,
+                long albumID, long dateModified) {
+            if (mUpdateCount == mIds.length) {
+                int capacity = mIds.length * 2;
+                mIds = LibraryStore.copyOf(mIds, capacity);
+                mArtists = copyOf(mArtists, capacity);
+                mTitles = copyOf(mTitles, capacity);
+                mAlbums = copyOf(mAlbums, capacity);
+                mDurations = LibraryStore.copyOf(mDurations, capacity);
+                mAlbumIds = LibraryStore.copyOf(mAlbumIds, capacity);
+                mDateModified = LibraryStore.copyOf(mDateModified, capacity);
+            }
+            int i = mUpdateCount++;
+            mIds[i] = id;
+            mArtists[i] = artist;
+            mTitles[i] = title;
+            mAlbums[i] = album;
+            mDurations[i] = duration;
+            mAlbumIds[i] = albumID;
+            mDateModified[i] = dateModified;
+        }
+
+        void addDeletion(long id) {
+            if (mDeletionCount == mDeletedIds.length) {
+                mDeletedIds = LibraryStore.copyOf(mDeletedIds, mDeletedIds.length * 2);
+            }
+            mDeletedIds[mDeletionCount++] = id;
+        }
+
+        static String[] copyOf(String[] array, int length) {
+            String[] copy = new String[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        public boolean isEmpty() {
+            return mUpdateCount == 0 && mDeletionCount == 0;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to int values, used to find library rows by their
+ * MediaStore id without boxing every key and value like a {@code HashMap<Long, Integer>} would.
+ */
+public class LongIntMap {
+    static final long EMPTY = Long.MIN_VALUE;
+
+    long[] mKeys;
+    int[] mValues;
+    int mSize = 0;
+
+    public LongIntMap() {
+        allocate(16);
+    }
+
+    void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    int slot(long key) {
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mKeys[i] != EMPTY && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /** Returns the value for the given key, or defaultValue if there is none. */
+    public int get(long key, int defaultValue) {
+        int i = slot(key);
+        return mKeys[i] == EMPTY ? defaultValue : mValues[i];
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) throw new IllegalArgumentException("Reserved key: " + key);
+        if ((mSize + 1) * 4 > mKeys.length * 3) {
+            long[] keys = mKeys;
+            int[] values = mValues;
+            allocate(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    int j = slot(keys[i]);
+                    mKeys[j] = keys[i];
+                    mValues[j] = values[i];
+                }
+            }
+        }
+        int i = slot(key);
+        if (mKeys[i] == EMPTY) mSize++;
+        mKeys[i] = key;
+        mValues[i] = value;
+    }
+
+    public void remove(long key) {
+        int i = slot(key);
+        if (mKeys[i] == EMPTY) return;
+        mKeys[i] = EMPTY;
+        mSize--;
+
+        // re-insert the rest of the probe run so later lookups don't stop at the hole
+        int mask = mKeys.length - 1;
+        for (int j = (i + 1) & mask; mKeys[j] != EMPTY; j = (j + 1) & mask) {
+            long k = mKeys[j];
+            int v = mValues[j];
+            mKeys[j] = EMPTY;
+            int target = slot(k);
+            mKeys[target] = k;
+            mValues[target] = v;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Returns the keys, in no particular order. */
+    public long[] keys() {
+        long[] keys = new long[mSize];
+        int n = 0;
+        for (long key : mKeys) {
+            if (key != EMPTY) keys[n++] = key;
+        }
+        return keys;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+}
@@ -23,6 +23,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -44,6 +45,8 @@ import com.example.android.musicplayer.R;
  * Intents to our {@link MusicService}.
  * */
 public class MainActivity extends Activity implements OnClickListener {
+    final static String TAG = "MainActivity";
+
     /**
      * The URL we suggest as default when adding by URL. This is just so that the user doesn't
      * have to find an URL to test this sample.
@@ -88,7 +91,7 @@ public class MainActivity extends Activity implements OnClickListener {
 		/*
 		 * if (extras != null) {
 			SongInfoStoreUri = extras.getParcelable(SongInfoStoreContentProvider.CONTENT_ITEM_TYPE);
-			System.out.println(SongInfoStoreUri);
+			Log.d(TAG, "Song info: " + SongInfoStoreUri);
 		}
 		*/
 		//Intent checkIntent = new Intent();
@@ -198,7 +201,7 @@ public class MainActivity extends Activity implements OnClickListener {
 	}
 	
 	public boolean onCreateOptionsMenu(Menu menu) {
-		System.out.println("Menu Created");
+		Log.d(TAG, "Menu created");
 	    MenuInflater inflater = getMenuInflater();
 	    inflater.inflate(R.layout.main, menu);
 	    return true;
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.net.Uri;
+import android.os.PowerManager;
+
+import java.io.IOException;
+
+/** A {@link PlayerBackend} that plays through the platform's MediaPlayer. */
+public class MediaPlayerBackend implements PlayerBackend, OnPreparedListener,
+        OnCompletionListener, OnErrorListener {
+    public static final Factory FACTORY = new Factory() {
+        public PlayerBackend create(Context context) {
+            return new MediaPlayerBackend(context);
+        }
+    };
+
+    final MediaPlayer mPlayer = new MediaPlayer();
+    Listener mListener;
+
+    public MediaPlayerBackend(Context context) {
+        // Make sure the media player will acquire a wake-lock while playing. If we don't do
+        // that, the CPU might go to sleep while the song is playing, causing playback to stop.
+        //
+        // Remember that to use this, we have to declare the android.permission.WAKE_LOCK
+        // permission in AndroidManifest.xml.
+        mPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        mPlayer.setOnPreparedListener(this);
+        mPlayer.setOnCompletionListener(this);
+        mPlayer.setOnErrorListener(this);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void onPrepared(MediaPlayer mp) {
+        if (mListener != null) mListener.onPrepared(this);
+    }
+
+    public void onCompletion(MediaPlayer mp) {
+        if (mListener != null) mListener.onCompletion(this);
+    }
+
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        return mListener != null && mListener.onError(this, what, extra);
+    }
+
+    public void setAudioStreamType(int streamType) {
+        mPlayer.setAudioStreamType(streamType);
+    }
+
+    public void setDataSource(Context context, Uri uri) throws IOException {
+        mPlayer.setDataSource(context, uri);
+    }
+
+    public void setDataSource(String path) throws IOException {
+        mPlayer.setDataSource(path);
+    }
+
+    public void prepareAsync() {
+        mPlayer.prepareAsync();
+    }
+
+    public void start() {
+        mPlayer.start();
+    }
+
+    public void pause() {
+        mPlayer.pause();
+    }
+
+    public void stop() {
+        mPlayer.stop();
+    }
+
+    public void reset() {
+        mPlayer.reset();
+    }
+
+    public void release() {
+        mPlayer.release();
+    }
+
+    public void seekTo(int msec) {
+        mPlayer.seekTo(msec);
+    }
+
+    public boolean isPlaying() {
+        return mPlayer.isPlaying();
+    }
+
+    public int getCurrentPosition() {
+        return mPlayer.getCurrentPosition();
+    }
+
+    public int getDuration() {
+        return mPlayer.getDuration();
+    }
+
+    public void setVolume(float leftVolume, float rightVolume) {
+        mPlayer.setVolume(leftVolume, rightVolume);
+    }
+
+    public boolean setNextPlayer(PlayerBackend next) {
+        if (android.os.Build.VERSION.SDK_INT < 16) return false;
+        mPlayer.setNextMediaPlayer(next == null ? null : ((MediaPlayerBackend) next).mPlayer);
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The app's latency histograms and event counters, registered once when the class loads so that
+ * recording into them never allocates. {@link MusicService} prints them for
+ * <code>adb shell dumpsys activity service com.example.android.musicplayer/.MusicService</code>
+ * and, in debuggable builds, writes them to a file when it is destroyed. Pass "reset" to the
+ * dumpsys command to start over.
+ */
+public class Metrics {
+    // what the timings are read from; a simulation sets its own clock with setClock()
+    static volatile Clock sClock = Clock.SYSTEM;
+    static final Clock CLOCK = new Clock() {
+        public long nanoTime() {
+            return sClock.nanoTime();
+        }
+    };
+
+    static final List<LatencyHistogram> sHistograms = new ArrayList<LatencyHistogram>();
+    static final List<StripedCounter> sCounters = new ArrayList<StripedCounter>();
+
+    // track changes, from the intent (or the end of a track) until the new track is audible
+    public static final LatencyHistogram TRANSITION = histogram("transition.total");
+    static final LatencyHistogram[] TRANSITION_STAGES =
+            new LatencyHistogram[TrackTransition.STAGES.length];
+    static {
+        for (TrackTransition.Stage stage : TrackTransition.STAGES) {
+            TRANSITION_STAGES[stage.ordinal()] =
+                    histogram("transition." + stage.name().toLowerCase(Locale.US));
+        }
+    }
+
+    /** Handling a skip, until the next track is set up and preparing. */
+    public static final LatencyHistogram SKIP = histogram("skip.handle");
+    /** Decoding an album's art, from a thumbnail or from MediaStore, on a cache miss. */
+    public static final LatencyHistogram ARTWORK_DECODE = histogram("artwork.decode");
+    /** A MediaStore query, until the cursor is returned. */
+    public static final LatencyHistogram MEDIASTORE_QUERY = histogram("mediastore.query");
+    /** Reading the whole library from MediaStore. */
+    public static final LatencyHistogram LIBRARY_SCAN = histogram("library.scan");
+    /** Reading the whole library from its snapshot instead, on a cold start. */
+    public static final LatencyHistogram LIBRARY_RESTORE = histogram("library.restore");
+
+    public static final StripedCounter TRANSITIONS_FINISHED = counter("transitions.finished");
+    public static final StripedCounter TRANSITIONS_FAILED = counter("transitions.failed");
+    public static final StripedCounter SKIPS = counter("skips");
+    public static final StripedCounter PLAYER_ERRORS = counter("player.errors");
+    public static final StripedCounter ARTWORK_DECODES = counter("artwork.decodes");
+
+    /** Makes the histograms' recordSince() and {@link #now()} read the time from clock. */
+    public static void setClock(Clock clock) {
+        sClock = clock;
+    }
+
+    /** Returns the time to start timing something from, for recordSince(). */
+    public static long now() {
+        return sClock.nanoTime();
+    }
+
+    static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram(name, CLOCK);
+        sHistograms.add(histogram);
+        return histogram;
+    }
+
+    static StripedCounter counter(String name) {
+        StripedCounter counter = new StripedCounter(name);
+        sCounters.add(counter);
+        return counter;
+    }
+
+    /** Records a track change that ended, its stages too if the track started. */
+    public static void recordTransition(TrackTransition transition) {
+        if (!transition.isFinished()) {
+            TRANSITIONS_FAILED.increment();
+            return;
+        }
+        TRANSITIONS_FINISHED.increment();
+        TRANSITION.recordNanos(transition.getTotalNanos());
+        for (int i = 0; i < TRANSITION_STAGES.length; i++) {
+            long nanos = transition.getStageNanos(TrackTransition.STAGES[i]);
+            if (nanos >= 0) TRANSITION_STAGES[i].recordNanos(nanos);
+        }
+    }
+
+    /**
+     * Prints every counter, and every histogram that has values as its count, mean, 50th, 90th
+     * and 99th percentiles and maximum, in milliseconds.
+     */
+    public static void dump(PrintWriter pw) {
+        pw.println("Counters:");
+        for (StripedCounter counter : sCounters) {
+            pw.print("  ");
+            pw.print(counter.getName());
+            pw.print(": ");
+            pw.println(counter.get());
+        }
+        pw.println("Latencies (ms):");
+        for (LatencyHistogram histogram : sHistograms) {
+            long count = histogram.getCount();
+            if (count == 0) continue;
+            pw.println(String.format(Locale.US,
+                    "  %s: n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                    histogram.getName(), count, histogram.getMean() / 1000f,
+                    histogram.getPercentile(0.5) / 1000f, histogram.getPercentile(0.9) / 1000f,
+                    histogram.getPercentile(0.99) / 1000f, histogram.getMax() / 1000f));
+        }
+    }
+
+    public static void reset() {
+        for (StripedCounter counter : sCounters) counter.reset();
+        for (LatencyHistogram histogram : sHistograms) histogram.reset();
+    }
+}
@@ -20,6 +20,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Process;
 import android.provider.MediaStore;
 import android.util.Log;
 import java.util.ArrayList;
@@ -27,15 +28,13 @@ import java.util.List;
 import java.util.Random;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.provider.BaseColumns;
 import android.provider.MediaStore.Audio.AudioColumns;
 import android.provider.MediaStore.MediaColumns;
 
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.example.android.musicplayer.MusicRetriever.Item;
 
@@ -51,16 +50,41 @@ public class MusicRetriever {
 	static ContentResolver mContentResolver;
 	// the items (songs) we have queried
 	
-	static List<Item> mItems = new ArrayList<Item>();
-	static List<Item> mSongList = new ArrayList<Item>();
-	static List<Item> playlist = new ArrayList<Item>();
-	static List<Item> tempPlaylist = new ArrayList<Item>();
-	public static List<Item> generatedPlaylist = new ArrayList<Item>();
-	
-	static List<Item> ShuffledmItems = new ArrayList<Item>();
-	static List<Item> ShuffledmSongList = new ArrayList<Item>();
-	static List<Item> Shuffledplaylist = new ArrayList<Item>();
-	static List<Item> ShuffledgeneratedPlaylist = new ArrayList<Item>();
+	// every track lives once in the library store; the lists below only hold store rows
+	static final LibraryStore mLibrary = new LibraryStore();
+
+	static TrackList mItems = new TrackList(mLibrary);
+	static TrackList mSongList = new TrackList(mLibrary);
+	static TrackList playlist = new TrackList(mLibrary);
+	static TrackList tempPlaylist = new TrackList(mLibrary);
+	public static TrackList generatedPlaylist = new TrackList(mLibrary);
+
+	// number of store rows that have been added to mItems
+	static int mPublishedRows = 0;
+	// whether prepare() has read the whole library, and whether populate() has run
+	static boolean mPrepared = false;
+	static boolean mPopulated = false;
+	// whether the library was restored from a snapshot (and still has to be synced), and the
+	// snapshot's sorted lists waiting to be published
+	static boolean mRestoredFromSnapshot = false;
+	static LibrarySnapshot.Image mPendingOrders;
+
+	// where the library is saved between runs, or null to always read MediaStore
+	LibrarySnapshot mSnapshot;
+
+	// artist and album lookups over mItems; null when it has to be rebuilt
+	static LibraryIndex mIndex;
+
+	// how titles, artists and albums are sorted, and the sorted views of mItems (null when they
+	// have to be rebuilt)
+	static final LibraryCollator mCollator = new LibraryCollator();
+	static SortOrders mOrders;
+
+	// search over the titles, artists and albums of mItems; null when it has to be rebuilt
+	static SearchIndex mSearchIndex;
+
+	// number of track lists above that would each hold a reference per Item with a List<Item>
+	static final int TRACK_LIST_COUNT = 5;
 	
 	static List<String> songs = new ArrayList<String>();
 	static List<String> Orderedsongs = new ArrayList<String>();
@@ -69,33 +93,133 @@ public class MusicRetriever {
 	
 	static Item tempItem;
 	
-	Random mRandom = new Random();
-	static int mposition = 0;
-	
-	static boolean usingPlaylist = false;
-	static boolean mainSongList = true;
-	public static boolean usingGenPlaylist = false;
+	static Random mShuffleRandom = new Random();
+	// play order over the list the playback state picks
+	static final PlayQueue mQueue = new PlayQueue(mShuffleRandom);
+
+	// position and modes, replaced as a whole (see PlaybackState); read it without locking,
+	// change it with update(). The queue is only changed holding the MusicRetriever.class lock.
+	static final AtomicReference<PlaybackState> mState =
+			new AtomicReference<PlaybackState>(PlaybackState.INITIAL);
+
+	// Where getNextItem() and getPreviousItem() leave the position when they run off an end of
+	// the queue. Nothing plays from there: the caller goes on to the first or last track with
+	// getGivenItem() (see MusicService.resolveItem()), or stops. So the position only has to
+	// be one a fresh queue could start from, and that is INITIAL's.
+	static final int QUEUE_END_POSITION = PlaybackState.INITIAL.getPosition();
+
+	// told when what plays next changes other than by moving on to another track
+	static Runnable mQueueListener;
 
-	static boolean shuffle = false;
-	static boolean repeat = false;
+	// listening history, and the sampler for weighted random play over the list it was built for
+	static final int RECENT_WINDOW = 50;
+	static final PlayStats mStats = new PlayStats();
+	static WeightedSampler mSampler;
+	static TrackList mSamplerBase;
+
+	// decoded album art, within an eighth of the heap, and what decodes it (null until
+	// setArtworkDecoder() or the first decode)
+	static final ArtworkCache mArtworkCache = new ArtworkCache(new ArtworkCache.Loader() {
+		public Bitmap load(long albumId, int size) {
+			long start = Metrics.now();
+			try {
+				return getArtworkDecoder().decode(albumId, size);
+			} finally {
+				Metrics.ARTWORK_DECODES.increment();
+				Metrics.ARTWORK_DECODE.recordSince(start);
+			}
+		}
+	}, Runtime.getRuntime().maxMemory() / 8);
+	static ArtworkDecoder mArtworkDecoder;
 
     public MusicRetriever(ContentResolver cr) {
         mContentResolver = cr;
     }
 
+    /**
+     * Sets the decoder album art is decoded with, usually one that keeps thumbnails on disk.
+     * Without one, art is decoded from MediaStore every time it isn't in memory.
+     */
+    public static synchronized void setArtworkDecoder(ArtworkDecoder decoder) {
+        mArtworkDecoder = decoder;
+    }
+
+    static synchronized ArtworkDecoder getArtworkDecoder() {
+        if (mArtworkDecoder == null) mArtworkDecoder = new ArtworkDecoder(mContentResolver, null);
+        return mArtworkDecoder;
+    }
+
+    /** Sets the snapshot that {@link #prepare(BatchListener)} tries before querying MediaStore. */
+    public void setSnapshot(LibrarySnapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    // Only the columns we actually store, in the order of the COLUMN_* indexes below.
+    static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.ALBUM,
+            MediaStore.Audio.Media.DURATION,
+            AudioColumns.ALBUM_ID,
+            MediaColumns.DATE_MODIFIED
+    };
+    static final int COLUMN_ID = 0;
+    static final int COLUMN_ARTIST = 1;
+    static final int COLUMN_TITLE = 2;
+    static final int COLUMN_ALBUM = 3;
+    static final int COLUMN_DURATION = 4;
+    static final int COLUMN_ALBUM_ID = 5;
+    static final int COLUMN_DATE_MODIFIED = 6;
+
+    // How many cursor rows we read into the library store before reporting progress.
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Receives progress while {@link MusicRetriever#prepare(BatchListener)} is reading the
+     * library. Called on the thread running prepare().
+     */
+    public interface BatchListener {
+        /**
+         * Signals that another batch of tracks has been written to the library store. Rows
+         * [0, trackCount) of the store are complete; rows that are not yet in {@link #getItems()}
+         * can be added with {@link MusicRetriever#publishRows(int)}.
+         */
+        public void onBatchRead(int trackCount);
+    }
+
     /**
      * Loads music data. This method may take long, so be sure to call it asynchronously without
      * blocking the main thread.
      */
     public void prepare() {
+        prepare(null);
+        publishRows(mLibrary.size());
+    }
+
+    /**
+     * Loads music data, reporting each batch of {@link #BATCH_SIZE} tracks to the given listener
+     * (which may be null) as soon as it is in the library store. This method may take long, so be
+     * sure to call it asynchronously without blocking the main thread.
+     */
+    public void prepare(BatchListener listener) {
+        if (mSnapshot != null && mLibrary.size() == 0 && restoreSnapshot()) {
+            // The whole library is there at once; MediaStore is reconciled afterwards with a
+            // LibrarySync, see isRestoredFromSnapshot().
+            if (listener != null) listener.onBatchRead(mLibrary.size());
+            return;
+        }
+
         Uri uri = android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
         Log.i(TAG, "Querying media...");
         Log.i(TAG, "URI: " + uri.toString());
 
         // Perform a query on the content resolver. The URI we're passing specifies that we
         // want to query for all audio media on external storage (e.g. SD card)
-        Cursor cur = mContentResolver.query(uri, null,
+        long start = Metrics.now();
+        Cursor cur = mContentResolver.query(uri, PROJECTION,
                 MediaStore.Audio.Media.IS_MUSIC + " = 1", null, null);
+        Metrics.MEDIASTORE_QUERY.recordSince(start);
         Log.i(TAG, "Query finished. " + (cur == null ? "Returned NULL." : "Returned a cursor."));
 
         if (cur == null) {
@@ -103,39 +227,492 @@ public class MusicRetriever {
             Log.e(TAG, "Failed to retrieve music: cursor is null :-(");
             return;
         }
-        if (!cur.moveToFirst()) {
-            // Nothing to query. There is no music on the device. How boring.
-            Log.e(TAG, "Failed to move cursor to first row (no query results).");
-            return;
-        }
+        try {
+            if (!cur.moveToFirst()) {
+                // Nothing to query. There is no music on the device. How boring.
+                Log.e(TAG, "Failed to move cursor to first row (no query results).");
+                return;
+            }
+
+            Log.i(TAG, "Listing...");
 
-        Log.i(TAG, "Listing...");
-
-        // retrieve the indices of the columns where the ID, title, etc. of the song are
-        int artistColumn = cur.getColumnIndex(MediaStore.Audio.Media.ARTIST);
-        int titleColumn = cur.getColumnIndex(MediaStore.Audio.Media.TITLE);
-        int albumColumn = cur.getColumnIndex(MediaStore.Audio.Media.ALBUM);
-        int durationColumn = cur.getColumnIndex(MediaStore.Audio.Media.DURATION);
-        int idColumn = cur.getColumnIndex(MediaStore.Audio.Media._ID);
-        int albumID = cur.getColumnIndex(AudioColumns.ALBUM_ID);
-
-        Log.i(TAG, "Title column index: " + String.valueOf(titleColumn));
-        Log.i(TAG, "ID column index: " + String.valueOf(titleColumn));
-
-        // add each song to mItems
-        do {
-            Log.i(TAG, "ID: " + cur.getString(idColumn) + " Title: " + cur.getString(titleColumn));
-            mItems.add(new Item(
-                    cur.getLong(idColumn),
-                    cur.getString(artistColumn),
-                    cur.getString(titleColumn),
-                    cur.getString(albumColumn),
-                    cur.getLong(durationColumn),
-                    cur.getLong(albumID)
-                    ));
-        } while (cur.moveToNext());
+            // add each song to the library store, one batch at a time
+            boolean more = true;
+            while (more) {
+                int read = 0;
+                do {
+                    mLibrary.add(
+                            cur.getLong(COLUMN_ID),
+                            cur.getString(COLUMN_ARTIST),
+                            cur.getString(COLUMN_TITLE),
+                            cur.getString(COLUMN_ALBUM),
+                            cur.getLong(COLUMN_DURATION),
+                            cur.getLong(COLUMN_ALBUM_ID),
+                            cur.getLong(COLUMN_DATE_MODIFIED));
+                    more = cur.moveToNext();
+                } while (more && ++read < BATCH_SIZE);
 
+                Log.d(TAG, "Read " + mLibrary.size() + " tracks");
+                if (listener != null) listener.onBatchRead(mLibrary.size());
+            }
+        } finally {
+            cur.close();
+        }
+
+        mPrepared = true;
+        Metrics.LIBRARY_SCAN.recordSince(start);
         Log.i(TAG, "Done querying media. MusicRetriever is ready.");
+        Log.i(TAG, mLibrary.describeMemory(TRACK_LIST_COUNT));
+    }
+
+    /**
+     * Appends the library rows that are not yet in the item list, up to (but excluding)
+     * trackCount. This must be called on the same thread that reads the track lists.
+     *
+     * @return the number of rows that were added
+     */
+    public static int publishRows(int trackCount) {
+        int added = 0;
+        for (int row = mPublishedRows; row < trackCount; row++) {
+            mItems.addRow(row);
+            added++;
+        }
+        mPublishedRows = Math.max(mPublishedRows, trackCount);
+        if (added > 0) {
+            mIndex = null;
+            mOrders = null;
+            mSearchIndex = null;
+        }
+        if (mPendingOrders != null && mPublishedRows >= mPendingOrders.mSize) {
+            publishOrders(mPendingOrders);
+            mPendingOrders = null;
+        }
+        return added;
+    }
+
+    boolean restoreSnapshot() {
+        long start = Metrics.now();
+        LibrarySnapshot.Image image = mSnapshot.read();
+        if (image == null) return false;
+        mLibrary.load(image);
+        Metrics.LIBRARY_RESTORE.recordSince(start);
+        if (image.mSongOrder != null) mPendingOrders = image;
+        mRestoredFromSnapshot = true;
+        mPrepared = true;
+        Log.i(TAG, "Restored " + mLibrary.size() + " tracks from snapshot.");
+        return true;
+    }
+
+    /** Puts the sorted lists saved in a snapshot in place of what populate() would build. */
+    static void publishOrders(LibrarySnapshot.Image image) {
+        mSongList.clear();
+        Orderedsongs.clear();
+        for (int row : image.mSongOrder) {
+            mSongList.addRow(row);
+            Orderedsongs.add(mLibrary.getTitle(row));
+        }
+        songs.clear();
+        for (int i = 0; i < mItems.size(); i++) {
+            songs.add(mLibrary.getTitle(mItems.getRow(i)));
+        }
+        artists.clear();
+        for (int code : image.mArtistOrder) {
+            artists.add(mLibrary.getArtistPool().get(code));
+        }
+        albums.clear();
+        for (int code : image.mAlbumOrder) {
+            albums.add(mLibrary.getAlbumPool().get(code));
+        }
+        mPopulated = true;
+    }
+
+    /**
+     * Returns whether the library came from a snapshot rather than from MediaStore, in which
+     * case it should be brought up to date with a {@link LibrarySync}.
+     */
+    public static boolean isRestoredFromSnapshot() {
+        return mRestoredFromSnapshot;
+    }
+
+    /**
+     * Copies the library and its sorted lists for {@link LibrarySnapshot#write}. This must be
+     * called on the same thread that changes the track lists.
+     */
+    public static synchronized LibrarySnapshot.Image captureSnapshot() {
+        return LibrarySnapshot.capture(mLibrary, mSongList, artists, albums, mPopulated);
+    }
+
+    /** Returns whether the whole library has been read into the store at least once. */
+    public static boolean isPrepared() {
+        return mPrepared;
+    }
+
+    /**
+     * Applies the result of an incremental {@link LibrarySync} to the library store and patches
+     * the track lists in place: deleted tracks are taken out of every list, new tracks are
+     * appended to the item list and inserted at their sorted position in the song list, and
+     * tracks whose title changed are moved. The current track keeps playing from its new
+     * position. This must be called on the same thread that reads the track lists.
+     *
+     * @return whether anything in the library changed
+     */
+    public static synchronized boolean applyChanges(LibrarySync.Changes changes) {
+        if (changes == null || changes.isEmpty()) return false;
+
+        PlayQueue queue = getQueue();
+        int position = getState().getPosition();
+        int currentRow = (position >= 0 && position < queue.size()) ? queue.getRow(position) : -1;
+
+        // rows to take out of every list, and rows to take out of the sorted song list only
+        boolean[] deleted = new boolean[mLibrary.size() + changes.mUpdateCount];
+        boolean[] moved = new boolean[deleted.length];
+        TrackList added = new TrackList(mLibrary);
+        TrackList inserted = new TrackList(mLibrary);
+        TrackList changed = new TrackList(mLibrary);
+        List<String> oldTitles = new ArrayList<String>();
+        List<String> oldArtists = new ArrayList<String>();
+        List<String> oldAlbums = new ArrayList<String>();
+        // albums whose art may have changed along with their files
+        LongIntMap staleArt = new LongIntMap();
+
+        for (int i = 0; i < changes.mDeletionCount; i++) {
+            int row = mLibrary.findRow(changes.mDeletedIds[i]);
+            if (row < 0) continue;
+            oldTitles.add(mLibrary.getTitle(row));
+            oldArtists.add(mLibrary.getArtist(row));
+            oldAlbums.add(mLibrary.getAlbum(row));
+            staleArt.put(mLibrary.getAlbumID(row), 0);
+            mLibrary.delete(row);
+            deleted[row] = true;
+        }
+
+        for (int i = 0; i < changes.mUpdateCount; i++) {
+            int row = mLibrary.findRow(changes.mIds[i]);
+            if (row < 0) {
+                staleArt.put(changes.mAlbumIds[i], 0);
+                row = mLibrary.add(changes.mIds[i], changes.mArtists[i], changes.mTitles[i],
+                        changes.mAlbums[i], changes.mDurations[i], changes.mAlbumIds[i],
+                        changes.mDateModified[i]);
+                added.addRow(row);
+                inserted.addRow(row);
+                changed.addRow(row);
+                continue;
+            }
+            String title = mLibrary.getTitle(row);
+            String artist = mLibrary.getArtist(row);
+            String album = mLibrary.getAlbum(row);
+            if (equal(title, changes.mTitles[i]) && equal(artist, changes.mArtists[i])
+                    && equal(album, changes.mAlbums[i])
+                    && mLibrary.getDuration(row) == changes.mDurations[i]
+                    && mLibrary.getAlbumID(row) == changes.mAlbumIds[i]) {
+                continue; // seen again because of the DATE_MODIFIED overlap; nothing to do
+            }
+            staleArt.put(mLibrary.getAlbumID(row), 0);
+            staleArt.put(changes.mAlbumIds[i], 0);
+            oldArtists.add(artist);
+            oldAlbums.add(album);
+            mLibrary.update(row, changes.mArtists[i], changes.mTitles[i], changes.mAlbums[i],
+                    changes.mDurations[i], changes.mAlbumIds[i], changes.mDateModified[i]);
+            changed.addRow(row);
+            // only a new title moves the track in the sorted lists; the title taken out of
+            // Orderedsongs here is put back for it below
+            if (!equal(title, changes.mTitles[i])) {
+                oldTitles.add(title);
+                moved[row] = true;
+                inserted.addRow(row);
+            }
+        }
+        if (oldTitles.isEmpty() && changed.isEmpty()) return false;
+
+        // patch the track lists
+        TrackList[] lists = { mItems, playlist, tempPlaylist, generatedPlaylist };
+        for (TrackList list : lists) {
+            list.removeRows(deleted);
+        }
+        for (int i = 0; i < added.size(); i++) {
+            mItems.addRow(added.getRow(i));
+        }
+        mPublishedRows = mLibrary.size();
+        // The index, the ranks and the search index are built whole for a list and can't be
+        // patched; they are built again the first time a browse or search needs them.
+        mIndex = null;
+        mOrders = null;
+        mSearchIndex = null;
+        // the sampler's weights and recent draws are by index, which the patch has moved
+        mSampler = null;
+        // changed files may come with changed album art; only those albums are decoded again,
+        // and their thumbnails are deleted in the background, as this runs on the UI thread
+        final ArtworkDecoder decoder = getArtworkDecoder();
+        for (long albumID : staleArt.keys()) {
+            mArtworkCache.invalidate(albumID);
+            decoder.invalidate(albumID);
+        }
+        new Thread("ArtworkInvalidate") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                decoder.deleteStale();
+            }
+        }.start();
+        if (mPopulated) {
+            mSongList.removeRows(deleted);
+            mSongList.removeRows(moved);
+            for (int i = 0; i < inserted.size(); i++) {
+                insertByTitle(mSongList, inserted.getRow(i));
+            }
+
+            // and the lists of names built by populate()
+            for (String title : oldTitles) removeSorted(Orderedsongs, title);
+            for (String artist : oldArtists) {
+                int code = mLibrary.getArtistPool().find(artist);
+                if (code < 0 || mLibrary.getArtistTrackCount(code) == 0) {
+                    removeSorted(artists, artist);
+                }
+            }
+            for (String album : oldAlbums) {
+                int code = mLibrary.getAlbumPool().find(album);
+                if (code < 0 || mLibrary.getAlbumTrackCount(code) == 0) {
+                    removeSorted(albums, album);
+                }
+            }
+            for (int i = 0; i < changed.size(); i++) {
+                insertSortedIfMissing(artists, mLibrary.getArtist(changed.getRow(i)));
+                insertSortedIfMissing(albums, mLibrary.getAlbum(changed.getRow(i)));
+            }
+            songs.clear();
+            for (int i = 0; i < mItems.size(); i++) {
+                songs.add(mLibrary.getTitle(mItems.getRow(i)));
+            }
+            for (int i = 0; i < inserted.size(); i++) {
+                insertSorted(Orderedsongs, mLibrary.getTitle(inserted.getRow(i)));
+            }
+        }
+
+        // keep playing from wherever the current track ended up; a shuffled order no longer
+        // matches the patched list, so shuffle again from the current track
+        queue = getQueue();
+        int index = currentRow >= 0 ? queue.getBase().indexOfRow(currentRow) : -1;
+        if (getState().isShuffle()) {
+            queue.shuffle(index);
+            setPosition(0);
+        } else if (index >= 0) {
+            setPosition(index);
+        } else if (getState().getPosition() >= queue.size()) {
+            setPosition(queue.size() - 1);
+        }
+        notifyQueueChanged();
+        return true;
+    }
+
+    /** Returns the current playback state. Never blocks. */
+    public static PlaybackState getState() {
+        return mState.get();
+    }
+
+    /**
+     * Replaces the playback state with the transition's result, and returns it. If another
+     * thread replaces the state in the meantime, the transition is applied again to the new
+     * state, so no change is ever lost. Transitions must have no side effects.
+     */
+    public static PlaybackState update(PlaybackState.Transition transition) {
+        while (true) {
+            PlaybackState current = mState.get();
+            PlaybackState next = transition.apply(current);
+            if (next == current || mState.compareAndSet(current, next)) return next;
+        }
+    }
+
+    static void setPosition(final int position) {
+        update(new PlaybackState.Transition() {
+            public PlaybackState apply(PlaybackState state) {
+                return state.withPosition(position);
+            }
+        });
+    }
+
+    /** Turns repeat on or off, and returns whether it is now on. */
+    public static boolean toggleRepeat() {
+        boolean repeat = update(new PlaybackState.Transition() {
+            public PlaybackState apply(PlaybackState state) {
+                return state.withRepeat(!state.isRepeat());
+            }
+        }).isRepeat();
+        notifyQueueChanged();
+        return repeat;
+    }
+
+    /**
+     * Sets the listener told when what plays next changes other than by moving on to another
+     * track: when the list, shuffle, repeat or the library changes. It may be called on any
+     * thread.
+     */
+    public static void setQueueListener(Runnable listener) {
+        mQueueListener = listener;
+    }
+
+    static void notifyQueueChanged() {
+        Runnable listener = mQueueListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Returns the play position of the track {@link #getNextItem()} would return, without
+     * moving to it, or -1 if there is none or it can't be known (weighted random play draws it
+     * when it's time).
+     */
+    public static synchronized int peekNextPosition() {
+        PlaybackState state = getState();
+        if (state.isWeightedRandom()) return -1;
+        PlayQueue queue = getQueue();
+        int position = state.getPosition() + 1;
+        if (position >= 0 && position < queue.size()) return position;
+        return state.isRepeat() && queue.size() > 0 ? 0 : -1;
+    }
+
+    /**
+     * Switches to playing from another list: the generated playlist, the sorted song list, the
+     * playlist or else the item list, in that order of precedence. Starts from the first track.
+     */
+    public static synchronized void selectList(final boolean usingPlaylist,
+            final boolean mainSongList, final boolean usingGenPlaylist) {
+        update(new PlaybackState.Transition() {
+            public PlaybackState apply(PlaybackState state) {
+                return state.withList(usingPlaylist, mainSongList, usingGenPlaylist, 0);
+            }
+        });
+        getQueue();
+        notifyQueueChanged();
+    }
+
+    /**
+     * Returns the list the state says to play from. Until populate() has sorted the library
+     * the sorted song list is empty, and the unsorted item list is played instead.
+     */
+    static TrackList getBaseList(PlaybackState state) {
+        if (state.isUsingGenPlaylist()) return generatedPlaylist;
+        if (state.isMainSongList()) return mSongList.isEmpty() ? mItems : mSongList;
+        if (state.isUsingPlaylist()) return playlist;
+        return mItems;
+    }
+
+    /**
+     * Returns the play queue over the current list, reshuffled if shuffle is on and the list
+     * changed size since it was shuffled.
+     */
+    static synchronized PlayQueue getQueue() {
+        PlaybackState state = getState();
+        mQueue.setBase(getBaseList(state));
+        mQueue.setSmart(state.isSmartShuffle());
+        if (!state.isShuffle()) {
+            mQueue.unshuffle();
+        } else if (!mQueue.isShuffled() || !mQueue.isOrderValid()) {
+            mQueue.shuffle(-1);
+        }
+        return mQueue;
+    }
+
+    /** Seeds the random shuffles, so that the shuffles that follow can be reproduced. */
+    public static synchronized void setShuffleSeed(long seed) {
+        mShuffleRandom.setSeed(seed);
+    }
+
+    /**
+     * Picks between a plain random shuffle and a smart shuffle that keeps tracks by the same
+     * artist apart (see {@link SmartShuffle}). A shuffled queue is reshuffled in the new mode,
+     * keeping the current track.
+     */
+    public static synchronized void setSmartShuffle(final boolean smart) {
+        if (smart == getState().isSmartShuffle()) return;
+        PlaybackState state = update(new PlaybackState.Transition() {
+            public PlaybackState apply(PlaybackState state) {
+                return state.withSmartShuffle(smart);
+            }
+        });
+        PlayQueue queue = getQueue();
+        int position = state.getPosition();
+        if (state.isShuffle() && position >= 0 && position < queue.size()) {
+            queue.shuffle(queue.indexAt(position));
+            setPosition(0);
+        }
+        notifyQueueChanged();
+    }
+
+    /**
+     * Turns shuffle on or off and keeps the current track playing. Turning shuffle on shuffles
+     * the queue with the current track first (in constant time for big lists, see
+     * {@link PlayQueue}); turning it off finds the current track in the list it was shuffled
+     * from with one lookup.
+     */
+    public static synchronized void toggleShuffle() {
+        PlayQueue queue = getQueue();
+        int position = getState().getPosition();
+        boolean valid = position >= 0 && position < queue.size();
+        if (!getState().isShuffle()) {
+            queue.shuffle(valid ? queue.indexAt(position) : -1);
+            setShuffle(true, 0);
+        } else {
+            int index = valid ? queue.indexAt(position) : 0;
+            queue.unshuffle();
+            setShuffle(false, index);
+        }
+        notifyQueueChanged();
+    }
+
+    static void setShuffle(final boolean shuffle, final int position) {
+        update(new PlaybackState.Transition() {
+            public PlaybackState apply(PlaybackState state) {
+                return state.withShuffle(shuffle, position);
+            }
+        });
+    }
+
+    static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** Inserts a row into a list sorted by title, the way {@link #populate()} sorts it. */
+    static void insertByTitle(TrackList list, int row) {
+        String title = mLibrary.getTitle(row);
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mCollator.compare(mLibrary.getTitle(list.getRow(mid)), title) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        list.addRow(low, row);
+    }
+
+    static void insertSorted(List<String> list, String value) {
+        int index = Collections.binarySearch(list, value, mCollator);
+        list.add(index < 0 ? -index - 1 : index, value);
+    }
+
+    static void insertSortedIfMissing(List<String> list, String value) {
+        if (findSorted(list, value) < 0) insertSorted(list, value);
+    }
+
+    static void removeSorted(List<String> list, String value) {
+        int index = findSorted(list, value);
+        if (index >= 0) list.remove(index);
+    }
+
+    /** Finds the exact value in a list sorted with {@link #mCollator}, or returns -1. */
+    static int findSorted(List<String> list, String value) {
+        if (value == null) return list.indexOf(null);
+        int index = Collections.binarySearch(list, value, mCollator);
+        if (index < 0) return -1;
+        // other strings may collate equally (differ in case, accents or a leading article), so
+        // look around the match
+        int first = index;
+        while (first > 0 && mCollator.compare(list.get(first - 1), value) == 0) first--;
+        for (int i = first; i < list.size() && mCollator.compare(list.get(i), value) == 0; i++) {
+            if (list.get(i).equals(value)) return i;
+        }
+        return -1;
     }
 
     public ContentResolver getContentResolver() {
@@ -150,246 +727,151 @@ public class MusicRetriever {
     }
     */
     
-    /** Returns a random Item */
-	public synchronized Item getRandomItem() {
-		int Temp = 0;
-			if (usingGenPlaylist){
-				Temp = mRandom.nextInt(generatedPlaylist.size() - 1);
-				mposition = Temp++;
-				return generatedPlaylist.get(Temp);
-			}
-			if (mainSongList) {
-				Temp = mRandom.nextInt(mSongList.size() - 1);
-				mposition = Temp++;
-				return mSongList.get(Temp);
-			}
-			if (usingPlaylist) {
-				Temp = mRandom.nextInt(playlist.size()  - 1);
-				mposition = Temp++;
-				return playlist.get(Temp);
-			} else {
-				Temp = mRandom.nextInt(mItems.size() - 1);
-				mposition = Temp++;
-				return mItems.get(Temp);
-			}
-
-	}
-	/** Returns the next Item. If there are no items available, returns null. */
-	public synchronized Item getNextItem() {
-		
-		try {
-			if (++mposition == mItems.size() - 1) {
-				mposition = 1;
-				return null;
-			}
-			if (shuffle){
-				if (usingGenPlaylist){
-					return ShuffledgeneratedPlaylist.get(mposition + 1);
-				}
-				if (mainSongList) {
-					return ShuffledmSongList.get(mposition + 1);
-				}
-				if (usingPlaylist) {
-					return Shuffledplaylist.get(mposition + 1);
-				} else {
-					return ShuffledmItems.get(mposition + 1);
-				}
-			}
-			
-			if (usingGenPlaylist){
-				return generatedPlaylist.get(mposition + 1);
-			}
-			if (mainSongList) {
-				return mSongList.get(mposition + 1);
-			}
-			if (usingPlaylist) {
-				return playlist.get(mposition + 1);
-			} else {
-				return mItems.get(mposition + 1);
-			}
-		} catch (IndexOutOfBoundsException e) {
-			mposition = 1;
-			return null;
+    /**
+     * Returns a random Item from the queue, or null if it's empty. With weighted random on,
+     * tracks are drawn by their {@link PlayStats} weight, leaving out the last
+     * {@link #RECENT_WINDOW} tracks drawn.
+     */
+	public static synchronized Item getRandomItem() {
+		PlayQueue queue = getQueue();
+		if (queue.size() == 0) return null;
+		int position = -1;
+		if (getState().isWeightedRandom()) {
+			int index = getSampler(queue.getBase()).next(mShuffleRandom);
+			if (index >= 0) position = queue.positionOf(index);
 		}
+		if (position < 0) position = mShuffleRandom.nextInt(queue.size());
+		setPosition(position);
+		return queue.get(position);
 	}
 
-	public synchronized Item getGivenItem(int i) {
-		System.out.println(usingGenPlaylist);
-		mposition = i - 1;
-		if (shuffle){
-			if (usingGenPlaylist){
-				return ShuffledgeneratedPlaylist.get(i);
-			}
-			if (mainSongList) {
-				try {
-				return ShuffledmSongList.get(i);
-				} catch (Exception e) {
-				}
-			}
-			if (usingPlaylist) {
-				return Shuffledplaylist.get(i);
-			} else {
-				return ShuffledmItems.get(i);
-			}
+	/** Returns the weighted sampler over the list, building it if the list changed. */
+	static synchronized WeightedSampler getSampler(TrackList base) {
+		if (mSampler == null || mSamplerBase != base || mSampler.size() != base.size()) {
+			double[] weights = new double[base.size()];
+			for (int i = 0; i < weights.length; i++) weights[i] = mStats.weight(base.getRow(i));
+			mSampler = new WeightedSampler(weights, RECENT_WINDOW);
+			mSamplerBase = base;
 		}
-		
-		if (mainSongList) {
-			try {
-				return mSongList.get(i);
-			} catch (Exception e) {
+		return mSampler;
+	}
+
+	/** Turns weighted random play on or off: when on, every next track is a weighted draw. */
+	public static void setWeightedRandom(final boolean weighted) {
+		update(new PlaybackState.Transition() {
+			public PlaybackState apply(PlaybackState state) {
+				return state.withWeightedRandom(weighted);
 			}
+		});
+		notifyQueueChanged();
+	}
+
+	/** Counts the current track as played to the end. */
+	public static synchronized void recordCompletion() {
+		recordPlay(false);
+	}
+
+	/** Counts the current track as skipped. */
+	public static synchronized void recordSkip() {
+		recordPlay(true);
+	}
+
+	static void recordPlay(boolean skipped) {
+		PlayQueue queue = getQueue();
+		int position = getState().getPosition();
+		if (position < 0 || position >= queue.size()) return;
+		int index = queue.indexAt(position);
+		int row = queue.getBase().getRow(index);
+		if (skipped) {
+			mStats.recordSkip(row);
+		} else {
+			mStats.recordCompletion(row);
 		}
-		if (usingGenPlaylist){
-			return generatedPlaylist.get(i);
+		if (mSampler != null && mSamplerBase == queue.getBase() && index < mSampler.size()) {
+			mSampler.setWeight(index, mStats.weight(row));
 		}
-		if (usingPlaylist) {
-			return playlist.get(i);
-			
-		} else {
-			try {
-			return mItems.get(i);
-			} catch (Exception e){
-				return null;
-			}
+	}
+
+	/** Returns the next Item. If there are no items available, returns null. */
+	public static synchronized Item getNextItem() {
+		if (getState().isWeightedRandom()) return getRandomItem();
+		PlayQueue queue = getQueue();
+		int position = getState().getPosition() + 1;
+		if (position >= queue.size()) {
+			setPosition(QUEUE_END_POSITION);
+			return null;
 		}
+		setPosition(position);
+		return queue.get(position);
+	}
+
+	/**
+	 * Moves to the track at the given play position and returns it. Returns null, and leaves
+	 * the position as it was, if there is no track there.
+	 */
+	public static synchronized Item getGivenItem(int i) {
+		PlayQueue queue = getQueue();
+		if (i < 0 || i >= queue.size()) return null;
+		setPosition(i);
+		return queue.get(i);
 	}
 
-	public synchronized static Item getCurrentSong() throws InterruptedException {
-		
+	/**
+	 * Returns the current Item. Throws IndexOutOfBoundsException if the list being played
+	 * doesn't have it, except when shuffling or playing the generated playlist, which give the
+	 * last current Item back instead.
+	 */
+	public static synchronized Item getCurrentSong() {
+		PlaybackState state = getState();
 		try {
-			
-			if (shuffle){
-				if (usingGenPlaylist){
-					return ShuffledgeneratedPlaylist.get(mposition + 1);
-				}
-				if (mainSongList) {
-					return ShuffledmSongList.get(mposition + 1);
-				}
-				if (usingPlaylist) {
-					return Shuffledplaylist.get(mposition + 1);
-				} else {
-					return ShuffledmItems.get(mposition + 1);
-				}
-			}	
-		
-		if (usingGenPlaylist){
-			tempItem = generatedPlaylist.get(mposition + 1);
-			return generatedPlaylist.get(mposition + 1);
-		}
-		} catch (Exception e){
+			tempItem = getQueue().get(state.getPosition());
 			return tempItem;
-		}
-		
-		if (mainSongList) {
-			return mSongList.get(mposition + 1);
-		}
-		if (usingPlaylist) {
-			try {
-			return playlist.get(mposition + 1);
-			} catch (IndexOutOfBoundsException e){
-				Thread.sleep(1000);
-				return playlist.get(mposition + 1);
-			}
-			
-		} else {
-			return mItems.get(mposition + 1);
+		} catch (IndexOutOfBoundsException e) {
+			if (state.isShuffle() || state.isUsingGenPlaylist()) return tempItem;
+			throw e;
 		}
 	}
 
 	/**
 	 * Returns the previous Item. If there are no items available, returns null.
 	 */
-	public Item getPreviousItem() {
-		try {
-			if (--mposition < -1) {
-				mposition = 1;
-				return null;
-			}
-			if (shuffle){
-				if (usingGenPlaylist){
-					return ShuffledgeneratedPlaylist.get(mposition + 1);
-				}
-				if (mainSongList) {
-					return ShuffledmSongList.get(mposition + 1);
-				}
-				if (usingPlaylist) {
-					return Shuffledplaylist.get(mposition + 1);
-				} else {
-					return ShuffledmItems.get(mposition + 1);
-				}
-			}
-			if (usingGenPlaylist){
-				return generatedPlaylist.get(mposition + 1);
-			}
-			if (mainSongList) {
-				return mSongList.get(mposition + 1);
-			}
-			if (usingPlaylist) {
-				return playlist.get(mposition + 1);
-			} else {
-				return mItems.get(mposition + 1);
-			}
-		} catch (IndexOutOfBoundsException e) {
-			mposition = 1;
+	public static synchronized Item getPreviousItem() {
+		PlayQueue queue = getQueue();
+		int position = getState().getPosition() - 1;
+		if (position < 0 || position >= queue.size()) {
+			setPosition(QUEUE_END_POSITION);
 			return null;
 		}
+		setPosition(position);
+		return queue.get(position);
 	}
 
 	/** Fills in the songlist with every title in the song arraylist */
-	@SuppressWarnings("unused")
 	public void populate() throws FileNotFoundException {
-		int i = 0;
+		// already built, or restored from a snapshot; syncs keep these lists up to date
+		if (mPopulated) return;
 		try {
 
-			for (Item item : mItems) {
-				songs.add(mItems.get(i).getTitle());
-
-				if (!(artists.contains(mItems.get(i).getArtist()))) {
-					artists.add(mItems.get(i).getArtist());
-				}
-				if (!(albums.contains(mItems.get(i).getAlbum()))) {
-					albums.add(mItems.get(i).getAlbum());
-					//albumsart.add(getArtwork(mItems.get(i).albumID));
-				}
-				i++;
+			for (int i = 0; i < mItems.size(); i++) {
+				songs.add(mLibrary.getTitle(mItems.getRow(i)));
 			}
-			mSongList.addAll(mItems);
-			Collections.sort(mSongList, new Comparator<Object>() {
-
-				public int compare(Object o1, Object o2) {
-					Item i1 = (Item) o1;
-					Item i2 = (Item) o2;
-					return i1.getTitle().compareToIgnoreCase(i2.getTitle());
-				}
-			});
-			Orderedsongs.addAll(songs);
-			Collections.sort(Orderedsongs, new Comparator<Object>() {
-
-				public int compare(Object o1, Object o2) {
-					String i1 = (String) o1;
-					String i2 = (String) o2;
-					return i1.compareToIgnoreCase(i2);
-				}
-			});
-			Collections.sort(albums, new Comparator<Object>() {
-
-				public int compare(Object o1, Object o2) {
-					String i1 = (String) o1;
-					String i2 = (String) o2;
-					return i1.compareToIgnoreCase(i2);
-				}
-			});
-			Collections.sort(artists, new Comparator<Object>() {
-
-				public int compare(Object o1, Object o2) {
-					String i1 = (String) o1;
-					String i2 = (String) o2;
-					return i1.compareToIgnoreCase(i2);
-				}
-			});
-			
-			
-			
+			mIndex = LibraryIndex.build(mLibrary, mItems);
+
+			// every string is ranked once, then the views are sorted by rank
+			SortOrders orders = getOrders();
+			mSongList.clear();
+			for (int row : orders.getSongOrder()) {
+				mSongList.addRow(row);
+				Orderedsongs.add(mLibrary.getTitle(row));
+			}
+			for (int code : orders.getArtistOrder()) {
+				artists.add(mLibrary.getArtistPool().get(code));
+			}
+			for (int code : orders.getAlbumOrder()) {
+				albums.add(mLibrary.getAlbumPool().get(code));
+			}
+			getSearchIndex();
+			mPopulated = true;
 		} catch (IndexOutOfBoundsException e) {
 		}
 	}
@@ -411,40 +893,28 @@ public class MusicRetriever {
 	}
 
 	public static List<Item> getItemsForDisplay() {
-		if (usingPlaylist) {
+		if (getState().isUsingPlaylist()) {
 			return playlist;
 		} else {
 			return mItems;
 		}
 	}
 
-	public synchronized static Bitmap getArtForDisplay() throws FileNotFoundException {
-		
-		if (shuffle){
-			if (usingGenPlaylist){
-				return getArtwork(ShuffledgeneratedPlaylist.get(mposition + 1).getAlbumID());
-			}
-			if (mainSongList) {
-				return getArtwork(ShuffledmSongList.get(mposition + 1).getAlbumID());
-			}
-			if (usingPlaylist) {
-				return getArtwork(Shuffledplaylist.get(mposition + 1).getAlbumID());
-			} else {
-				return getArtwork(ShuffledmItems.get(mposition + 1).getAlbumID());
-			}
-		}
-		
-		if (usingGenPlaylist){
-			return getArtwork(generatedPlaylist.get(mposition + 1).getAlbumID());
-		}
-		if (mainSongList) {
-			return getArtwork(mSongList.get(mposition + 1).getAlbumID());
-		}
-		if (usingPlaylist) {
-			return getArtwork(playlist.get(mposition + 1).getAlbumID());
-		} else {
-			return getArtwork(mItems.get(mposition + 1).getAlbumID());
+	/** Returns the current track's album art at a size from {@link ArtworkDecoder}. */
+	public static Bitmap getArtForDisplay(int size) throws FileNotFoundException {
+		long albumID;
+		synchronized (MusicRetriever.class) {
+			albumID = getQueue().get(getState().getPosition()).getAlbumID();
 		}
+		return getArtwork(albumID, size);
+	}
+
+	/** Returns the album ID of the current track, or -1 if there is no current track. */
+	public static synchronized long getCurrentAlbumID() {
+		PlayQueue queue = getQueue();
+		int position = getState().getPosition();
+		if (position < 0 || position >= queue.size()) return -1;
+		return queue.get(position).getAlbumID();
 	}
 	
 
@@ -465,89 +935,35 @@ public class MusicRetriever {
 	}
 	
 	
-	public static List<Item> ShufflemItems(int i) {
-		i++;
-		ShuffledmItems.clear();
-		Item temp = mItems.get(i);
-		mItems.remove(i);
-		ShuffledmItems.addAll(mItems);
-		mItems.add(i, temp);
-		Collections.shuffle(ShuffledmItems);
-		ShuffledmItems.add(0 ,temp);
-		return ShuffledmItems;
-	}
-
-	public static List<Item> ShufflePlaylist(int i) {
-		i++;
-		Shuffledplaylist.clear();
-		Item temp = playlist.get(i);
-		playlist.remove(i);
-		Shuffledplaylist.addAll(playlist);
-		playlist.add(i, temp);
-		Collections.shuffle(Shuffledplaylist);
-		Shuffledplaylist.add(0 ,temp);
-		return Shuffledplaylist;
-	}
-	
-	public static List<Item> ShuffleGeneratedPlaylist(int i) {
-		i++;
-		ShuffledgeneratedPlaylist.clear();
-		Item temp = generatedPlaylist.get(i);
-		generatedPlaylist.remove(i);
-		ShuffledgeneratedPlaylist.addAll(generatedPlaylist);
-		generatedPlaylist.add(i, temp);
-		Collections.shuffle(ShuffledgeneratedPlaylist);
-		ShuffledgeneratedPlaylist.add(0, temp);
-		return ShuffledgeneratedPlaylist;
-	}
-
-	public static List<Item> ShuffleOrderedSongs(int i) {
-		i++;
-		ShuffledmSongList.clear();
-		Item temp = mSongList.get(i);
-		mSongList.remove(i);
-		ShuffledmSongList.addAll(mSongList);
-		mSongList.add(i, temp);
-		Collections.shuffle(ShuffledmSongList);
-		ShuffledmSongList.add(0 ,temp);
-		return ShuffledmSongList;
+	/**
+	 * Returns the album's art with its longest edge size pixels long, or null if it has none.
+	 * Art is decoded once and then served from {@link #getArtworkCache()}.
+	 */
+	public static Bitmap getArtwork(long albumID, int size) {
+		return mArtworkCache.get(albumID, size);
 	}
-	
-
-	public synchronized static Bitmap getArtwork(long albumID) {
-
-		try {
-			Uri sArtworkUri = Uri
-					.parse("content://media/external/audio/albumart");
-			Uri uri = ContentUris.withAppendedId(sArtworkUri, albumID);
-			InputStream in = mContentResolver.openInputStream(uri);
-			BitmapFactory.Options options=new BitmapFactory.Options();
-			options.inPurgeable = true;
-			Bitmap artwork = BitmapFactory.decodeStream(in, null, options);
-			return artwork;
-		} catch (Exception e) {
-			Bitmap artwork = null;
-			return artwork;
-		}
 
+	public static ArtworkCache getArtworkCache() {
+		return mArtworkCache;
 	}
 	
 	public static List<String> getCurrentPlaylist(){
 		List<String> CurrentPlaylist = new ArrayList<String>();
-		if (usingGenPlaylist){
+		PlaybackState state = getState();
+		if (state.isUsingGenPlaylist()){
 			for (Item item : generatedPlaylist) {
 				CurrentPlaylist.add(item.getTitle());
 			}
 			return CurrentPlaylist;
 		}
-		if (mainSongList) {
+		if (state.isMainSongList()) {
 			for (Item item : mSongList) {
 				CurrentPlaylist.add(item.getTitle());
 			}
 			return CurrentPlaylist;
 			
 		}
-		if (usingPlaylist) {
+		if (state.isUsingPlaylist()) {
 				for (Item item : playlist) {
 					CurrentPlaylist.add(item.getTitle());
 					
@@ -562,13 +978,51 @@ public class MusicRetriever {
 		}
 	}
 
+	/**
+	 * Returns the index used to browse the library by artist and album, building it first if
+	 * the library changed since it was last built.
+	 */
+	static synchronized LibraryIndex getIndex() {
+		if (mIndex == null) mIndex = LibraryIndex.build(mLibrary, mItems);
+		return mIndex;
+	}
+
+	/** Returns the sorted views of mItems. */
+	static synchronized SortOrders getOrders() {
+		if (mOrders == null) mOrders = SortOrders.build(mLibrary, mItems, mCollator);
+		return mOrders;
+	}
+
+	static synchronized SearchIndex getSearchIndex() {
+		if (mSearchIndex == null) mSearchIndex = SearchIndex.build(mLibrary, getOrders());
+		return mSearchIndex;
+	}
+
+	/**
+	 * Returns the tracks whose title, artist or album matches the query, best matches first and
+	 * at most limit of them. If nothing matches exactly, the query is taken to be misspelled
+	 * and tracks within a couple of typos are returned instead. Meant to be called on every
+	 * keystroke.
+	 */
+	public static TrackList search(String query, int limit) {
+		SearchIndex index = getSearchIndex();
+		int[] rows = index.search(query, limit);
+		if (rows.length == 0) rows = index.searchFuzzy(query, limit);
+		TrackList results = new TrackList(mLibrary);
+		for (int row : rows) {
+			results.addRow(row);
+		}
+		return results;
+	}
+
 	public static List<String> getAlbumsByArtist(String artist) {
 		List<String> AlbumsByArtist = new ArrayList<String>();
-		for (Item item : mItems) {
-			if (item.getArtist().equals(artist)) {
-				if (!(AlbumsByArtist.contains(item.getAlbum()))) {
-					AlbumsByArtist.add(item.getAlbum());
-				}
+		int artistCode = mLibrary.getArtistPool().find(artist);
+		if (artistCode >= 0) {
+			LibraryIndex index = getIndex();
+			int count = index.getArtistAlbumCount(artistCode);
+			for (int i = 0; i < count; i++) {
+				AlbumsByArtist.add(mLibrary.getAlbumPool().get(index.getArtistAlbum(artistCode, i)));
 			}
 		}
 		AlbumsByArtist.add("All Songs");
@@ -578,10 +1032,14 @@ public class MusicRetriever {
 	public static List<String> getSongsByAlbum(String album) {
 		tempPlaylist.clear();
 		List<String> SongsByAlbum = new ArrayList<String>();
-		for (Item item : mItems) {
-			if (item.getAlbum().equals(album)) {
-				SongsByAlbum.add(item.getTitle());
-				tempPlaylist.add(item);
+		int albumCode = mLibrary.getAlbumPool().find(album);
+		if (albumCode >= 0) {
+			LibraryIndex index = getIndex();
+			int count = index.getAlbumTrackCount(albumCode);
+			for (int i = 0; i < count; i++) {
+				int row = index.getAlbumTrack(albumCode, i);
+				SongsByAlbum.add(mLibrary.getTitle(row));
+				tempPlaylist.addRow(row);
 			}
 		}
 		return SongsByAlbum;
@@ -592,11 +1050,14 @@ public class MusicRetriever {
 
 		tempPlaylist.clear();
 		List<String> SongsByArtist = new ArrayList<String>();
-		for (Item item : mItems) {
-			if (item.getArtist().equals(artist)) {
-				System.out.println(item.getTitle());
-				SongsByArtist.add(item.getTitle());
-				tempPlaylist.add(item);
+		int artistCode = mLibrary.getArtistPool().find(artist);
+		if (artistCode >= 0) {
+			LibraryIndex index = getIndex();
+			int count = index.getArtistTrackCount(artistCode);
+			for (int i = 0; i < count; i++) {
+				int row = index.getArtistTrack(artistCode, i);
+				SongsByArtist.add(mLibrary.getTitle(row));
+				tempPlaylist.addRow(row);
 			}
 		}
 
@@ -604,6 +1065,8 @@ public class MusicRetriever {
 	}
 	
     public static class Item {
+        // row of this track in the library store, or -1 for tracks that are not in the library
+        final int row;
         long id;
         String artist;
         String title;
@@ -612,6 +1075,12 @@ public class MusicRetriever {
         long albumID;
 
         public Item(long id, String artist, String title, String album, long duration, long albumID) {
+            this(-1, id, artist, title, album, duration, albumID);
+        }
+
+        Item(int row, long id, String artist, String title, String album, long duration,
+                long albumID) {
+            this.row = row;
             this.id = id;
             this.artist = artist;
             this.title = title;
@@ -643,15 +1112,34 @@ public class MusicRetriever {
         public long getAlbumID() {
         	return albumID;
         }
+
+        /** Returns the library store row of this track, or -1 if it isn't in the library. */
+        public int getRow() {
+            return row;
+        }
+
+        // Items are created on demand for each lookup, so two Items are the same track when they
+        // point at the same store row.
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Item) || row < 0) return false;
+            return row == ((Item) o).row;
+        }
+
+        @Override
+        public int hashCode() {
+            return row < 0 ? System.identityHashCode(this) : row;
+        }
+
         public Uri getURI() {
-            /*return ContentUris.withAppendedId(
-                    android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id);*/
-            System.out.println(ContentUris.withAppendedId(android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,id).toString());
-			if (ContentUris.withAppendedId(android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,id) == null){
-				return ContentUris.withAppendedId(android.provider.MediaStore.Audio.Media.INTERNAL_CONTENT_URI,id);
-			}
-			return ContentUris.withAppendedId(android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,id);
-		
+            Uri uri = ContentUris.withAppendedId(
+                    android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id);
+            if (uri == null) {
+                return ContentUris.withAppendedId(
+                        android.provider.MediaStore.Audio.Media.INTERNAL_CONTENT_URI, id);
+            }
+            return uri;
         }
     }
     public static String getSongs(int i) {
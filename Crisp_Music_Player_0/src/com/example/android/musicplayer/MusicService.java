@@ -18,35 +18,35 @@ package com.example.android.musicplayer;
 
 import java.io.IOException;
 
-import android.app.Notification;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.database.ContentObserver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.AudioManager;
 import android.media.MediaMetadataRetriever;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
-import android.media.MediaPlayer.OnErrorListener;
-import android.media.MediaPlayer.OnPreparedListener;
 import android.media.RemoteControlClient;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.WifiLock;
+import android.os.Handler;
 import android.os.IBinder;
-import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import com.example.android.musicplayer.R;
-import com.example.android.musicplayer.MusicRetriever.Item;
 
 
 /**
@@ -56,9 +56,9 @@ import com.example.android.musicplayer.MusicRetriever.Item;
  * {@link MainActivity}, which signal the service to perform specific operations: Play, Pause,
  * Rewind, Skip, etc.
  */
-public class MusicService extends Service implements OnCompletionListener, OnPreparedListener,
-                OnErrorListener, MusicFocusable,
-                PrepareMusicRetrieverTask.MusicRetrieverPreparedListener {
+public class MusicService extends Service implements PlayerBackend.Listener, MusicFocusable,
+                PrepareMusicRetrieverTask.MusicRetrieverPreparedListener,
+                SyncMusicRetrieverTask.LibrarySyncedListener {
 
     // The tag we put on debug messages
     final static String TAG = "RandomMusicPlayer";
@@ -86,19 +86,54 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 	public static final String ACTION_REPEAT = "com.example.android.musicplayer.action.REPEAT";
 	public static final String ACTION_FORWARD = "com.example.android.musicplayer.action.FORWARD";
 	public static final String ACTION_BACK = "com.example.android.musicplayer.action.BACK";
-	
-	MusicRetriever.Item playingItem;
+	public static final String ACTION_GAPLESS = "com.example.android.musicplayer.action.GAPLESS";
+	public static final String ACTION_CROSSFADE =
+			"com.example.android.musicplayer.action.CROSSFADE";
 	
     // The volume we set the media player to when we lose audio focus, but are allowed to reduce
     // the volume instead of stopping playback.
     public static final float DUCK_VOLUME = 0.1f;
 
+    // Where media players come from and what time it is: MediaPlayer and the system clock,
+    // unless a simulation swaps in its own before onCreate().
+    PlayerBackend.Factory mPlayerFactory = MediaPlayerBackend.FACTORY;
+    Clock mClock = Clock.SYSTEM;
+
     // our media player
-    static MediaPlayer mPlayer = null;
+    PlayerBackend mPlayer = null;
+
+    // With gapless playback on, the next track is prepared on a second media player while the
+    // current one plays, and starts as soon as the current one ends.
+    boolean mGapless = true;
+    NextTrackPlayer mNextTrack;
+
+    final Runnable mPrepareNextRunnable = new Runnable() {
+        public void run() {
+            prepareNextTrack();
+        }
+    };
+
+    // With a crossfade set, the next track starts this long before the current one ends, and
+    // the two overlap while the engine fades one out and the other in.
+    int mCrossfadeMs = 0;
+    CrossfadeEngine mCrossfade;
+
+    // how much later than planned a crossfade may still start
+    static final long CROSSFADE_SLACK_MS = 250;
+
+    final Runnable mCrossfadeRunnable = new Runnable() {
+        public void run() {
+            startCrossfade();
+        }
+    };
 
 	static boolean startingup = true;
-	
-	static boolean constructingPlaylist = false;
+
+	// the track change under way or done last, and how many tracks in a row failed to start
+	// (see onTransitionFailed())
+	TrackTransition mTransition;
+	int mFailures = 0;
+	static final int MAX_FAILURES = 5;
 
     // our AudioFocusHelper object, if it's available (it's available on SDK level >= 8)
     // If not available, this will be null. Always check for null before using!
@@ -162,6 +197,41 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
     // providing titles and URIs as we need.
     static MusicRetriever mRetriever;
 
+    // How long we wait after MediaStore reports a change before syncing the library, so that a
+    // burst of changes (e.g. the media scanner going through a new album) is synced only once.
+    static final long LIBRARY_SYNC_DELAY_MS = 2000;
+
+    // Watches MediaStore for changes to the audio library once it has been prepared.
+    ContentObserver mLibraryObserver;
+
+    // The sync task currently running, if any, and whether another sync was requested while it
+    // was running.
+    SyncMusicRetrieverTask mSyncTask;
+    boolean mSyncAgain = false;
+
+    Handler mHandler = new Handler();
+
+    // The file, in our private storage, where the library is saved between runs.
+    static final String LIBRARY_SNAPSHOT_FILE = "library.snapshot";
+
+    // The directory, in our cache, where album art thumbnails are kept.
+    static final String ARTWORK_CACHE_DIR = "artwork";
+
+    // The file, in our cache, where debuggable builds write the metrics (see exportMetrics()).
+    static final String METRICS_FILE = "metrics.txt";
+
+    // When the service was created, and whether we already logged how long it took until the
+    // first track could be played and until it was actually audible.
+    long mCreatedAt;
+    boolean mFirstTrackLogged = false;
+    boolean mFirstAudioLogged = false;
+
+    final Runnable mSyncRunnable = new Runnable() {
+        public void run() {
+            startLibrarySync();
+        }
+    };
+
     // our RemoteControlClient object, which will use remote control APIs available in
     // SDK level >= 14, if they're available.
     RemoteControlClientCompat mRemoteControlClientCompat;
@@ -169,14 +239,36 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
     // Dummy album art we will pass to the remote control (if the APIs are available).
     Bitmap mDummyAlbumArt;
 
+    // loads album art off the main thread, and the current track's art being loaded for the
+    // notification and the remote controls
+    ArtworkLoader mArtworkLoader;
+    ArtworkLoader.Ticket mNotificationArt;
+    ArtworkLoader.Ticket mLockScreenArt;
+
+    final ArtworkLoader.Callback mNotificationArtCallback = new ArtworkLoader.Callback() {
+        public void onArtworkLoaded(Bitmap bitmap) {
+            if (mState == State.Stopped) return;
+            mNotifications.setLargeIcon(bitmap);
+        }
+    };
+
+    final ArtworkLoader.Callback mLockScreenArtCallback = new ArtworkLoader.Callback() {
+        public void onArtworkLoaded(Bitmap bitmap) {
+            if (mState == State.Stopped || mRemoteControlClientCompat == null) return;
+            mRemoteControlClientCompat.editMetadata(false)
+                    .putBitmap(RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
+                            bitmap).apply();
+        }
+    };
+
     // The component name of MusicIntentReceiver, for use with media button and remote control
     // APIs
     ComponentName mMediaButtonReceiverComponent;
 
     AudioManager mAudioManager;
-    NotificationManager mNotificationManager;
 
-    Notification mNotification = null;
+    // posts the notification, leaving out updates that change nothing or come right after another
+    NotificationController mNotifications;
 
     /**
      * Makes sure the media player exists and has been reset. This will create the media player
@@ -184,20 +276,12 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
      */
     void createMediaPlayerIfNeeded() {
         if (mPlayer == null) {
-            mPlayer = new MediaPlayer();
-
-            // Make sure the media player will acquire a wake-lock while playing. If we don't do
-            // that, the CPU might go to sleep while the song is playing, causing playback to stop.
-            //
-            // Remember that to use this, we have to declare the android.permission.WAKE_LOCK
-            // permission in AndroidManifest.xml.
-            mPlayer.setWakeMode(getApplicationContext(), PowerManager.PARTIAL_WAKE_LOCK);
+            // the player holds a wake lock while playing, see MediaPlayerBackend
+            mPlayer = mPlayerFactory.create(getApplicationContext());
 
             // we want the media player to notify us when it's ready preparing, and when it's done
             // playing:
-            mPlayer.setOnPreparedListener(this);
-            mPlayer.setOnCompletionListener(this);
-            mPlayer.setOnErrorListener(this);
+            mPlayer.setListener(this);
         }
         else
             mPlayer.reset();
@@ -206,17 +290,54 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
     @Override
     public void onCreate() {
         Log.i(TAG, "debug: Creating service");
+        mCreatedAt = SystemClock.elapsedRealtime();
+        Metrics.setClock(mClock);
 
         // Create the Wifi lock (this does not acquire the lock, this just creates it)
         mWifiLock = ((WifiManager) getSystemService(Context.WIFI_SERVICE))
                         .createWifiLock(WifiManager.WIFI_MODE_FULL, "mylock");
 
-        mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        mNotifications = new NotificationController(this, mHandler, NOTIFICATION_ID,
+                R.drawable.ic_media_play, PendingIntent.getActivity(getApplicationContext(), 0,
+                        new Intent(getApplicationContext(), MainActivity.class),
+                        PendingIntent.FLAG_UPDATE_CURRENT));
         mAudioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
 
-        // Create the retriever and start an asynchronous task that will prepare it.
+        // Create the retriever and start an asynchronous task that will prepare it. If the
+        // library is still in memory from an earlier run of the service, we only need to sync
+        // whatever changed since then.
+        mNextTrack = new NextTrackPlayer(getApplicationContext(), mPlayerFactory, this);
+        mCrossfade = new CrossfadeEngine(mHandler, mClock, new CrossfadeEngine.Listener() {
+            public void onFadeOutDone(PlayerBackend outgoing) {
+                // a fade that ended just before playback stopped is handed over after the
+                // players were released, and nothing would release this one
+                if (mState == State.Stopped) {
+                    outgoing.release();
+                } else {
+                    mNextTrack.recycle(outgoing);
+                }
+            }
+        });
+        // what plays next can change on any thread; prepare it again on ours
+        MusicRetriever.setQueueListener(new Runnable() {
+            public void run() {
+                mHandler.post(mPrepareNextRunnable);
+            }
+        });
+
         mRetriever = new MusicRetriever(getContentResolver());
-        (new PrepareMusicRetrieverTask(mRetriever,this)).execute();
+        mRetriever.setSnapshot(new LibrarySnapshot(new File(getFilesDir(),
+                LIBRARY_SNAPSHOT_FILE)));
+        MusicRetriever.setArtworkDecoder(new ArtworkDecoder(getContentResolver(),
+                new File(getCacheDir(), ARTWORK_CACHE_DIR)));
+        mArtworkLoader = new ArtworkLoader(MusicRetriever.getArtworkCache(), mHandler);
+        if (MusicRetriever.isPrepared()) {
+            mState = State.Stopped;
+            registerLibraryObserver();
+            startLibrarySync();
+        } else {
+            (new PrepareMusicRetrieverTask(mRetriever,this)).execute();
+        }
 
         // create the Audio Focus Helper, if the Audio Focus feature is available (SDK 8 or above)
         if (android.os.Build.VERSION.SDK_INT >= 8)
@@ -256,13 +377,17 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 		else if (action.equals(ACTION_URI))
 			processURIRequest(intent);
 		else if (action.equals(ACTION_SHUFFLE))
-			processShuffleRequest();
+			processShuffleRequest(intent);
 		else if (action.equals(ACTION_REPEAT))
 			processRepeatRequest();
 		else if (action.equals(ACTION_FORWARD))
 			processFastForwardRequest();
 		else if (action.equals(ACTION_BACK))
 			processGoBackRequest();
+		else if (action.equals(ACTION_GAPLESS))
+			processGaplessRequest(intent);
+		else if (action.equals(ACTION_CROSSFADE))
+			processCrossfadeRequest(intent);
 
         return START_NOT_STICKY; // Means we started the service, but don't want it to
                                  // restart in case it's killed.
@@ -305,6 +430,7 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
             mState = State.Playing;
             setUpAsForeground(mSongTitle + " (playing)");
             configAndStartMediaPlayer();
+            scheduleCrossfade();
         }
 
         // Tell any remote controls that our playback state is 'playing'.
@@ -325,7 +451,9 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
         if (mState == State.Playing) {
             // Pause media player and cancel the 'foreground service' state.
             mState = State.Paused;
-            mPlayer.pause();
+            // without audio focus, the player may never have been started
+            if (mPlayer.isPlaying()) mPlayer.pause();
+            mCrossfade.pause();
             relaxResources(false); // while paused, we always retain the MediaPlayer
             // do not give up audio focus
         }
@@ -359,8 +487,6 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 		} else if (mState == State.Playing || mState == State.Paused
 				|| mState == State.Stopped) {
 			Log.i(TAG, "Playing from URL/path: " + intent.getData().toString());
-			System.out.println("Process Add Request "
-					+ intent.getData().toString());
 			tryToGetAudioFocus();
 			playNextSong(intent.getData().toString());
 		}
@@ -373,135 +499,81 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 		createMediaPlayerIfNeeded();
 		mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 		try {
+			// the UI lists the tracks in list order, which isn't the play order when shuffled
+			PlayQueue queue = MusicRetriever.getQueue();
+			if (p >= 0 && p < queue.size()) p = queue.positionOf(p);
 			playGivenSong(p);
 		} catch (Exception e) {
-			e.printStackTrace();
+			Log.e(TAG, "Can't play the track at " + p, e);
 		}
 	}
 	
 
-	private void processShuffleRequest(){
-		Item tempItem = null;
-		try {
-			tempItem = MusicRetriever.getCurrentSong();
-		} catch (InterruptedException e1) {
+	private void processShuffleRequest(Intent intent){
+		// "SmartShuffle" picks the mode and "WeightedRandom" turns weighted random play on or
+		// off; without either, the request turns shuffle on or off
+		Bundle extras = intent.getExtras();
+		if (extras != null && extras.containsKey("WeightedRandom")) {
+			MusicRetriever.setWeightedRandom(extras.getBoolean("WeightedRandom"));
+			return;
 		}
-		System.out.println(MusicRetriever.mposition);
-			MusicRetriever.shuffle = !MusicRetriever.shuffle;
-			if (MusicRetriever.shuffle){
-				if (MusicRetriever.usingGenPlaylist){
-					MusicRetriever.ShuffleGeneratedPlaylist(MusicRetriever.mposition);
-					MusicRetriever.mposition = -1;
-					return;
-				}
-				if (MusicRetriever.mainSongList) {
-					MusicRetriever.ShuffleOrderedSongs(MusicRetriever.mposition);
-					MusicRetriever.mposition = -1;
-					return;
-				}
-				if (MusicRetriever.usingPlaylist) {
-					MusicRetriever.ShufflePlaylist(MusicRetriever.mposition);
-					MusicRetriever.mposition = -1;
-					return;
-				} else {
-					MusicRetriever.ShufflemItems(MusicRetriever.mposition);
-					MusicRetriever.mposition = -1;
-					return;
-				}
-			} else {
-				if (MusicRetriever.usingGenPlaylist){
-					int index = 0;
-					try {
-						for (Item item : MusicRetriever.getGeneratedPlaylist()){
-							System.out.println(index + " " + item.getTitle() + " " + MusicRetriever.getCurrentSong().getTitle());
-							if (item.equals(tempItem)){
-								break;
-							}
-							index++;
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					MusicRetriever.mposition = index - 1;
-					return;
-				}
-				if (MusicRetriever.mainSongList) {
-					int index = 0;
-					try {
-						for (Item item : MusicRetriever.getOrderedSongs()){
-							System.out.println(index + " " + item.getTitle() + " " + MusicRetriever.getCurrentSong().getTitle());
-							if (item.equals(tempItem)){
-								break;
-							}
-							index++;
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					MusicRetriever.mposition = index - 1;
-					return;
-				}
-				if (MusicRetriever.usingPlaylist) {
-					int index = 0;
-					try {
-						for (Item item : MusicRetriever.getPlaylist()){
-							System.out.println(index + " " + item.getTitle() + " " + MusicRetriever.getCurrentSong().getTitle());
-							if (item.equals(tempItem)){
-								break;
-							}
-							index++;
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					MusicRetriever.mposition = index - 1;
-					return;
-				} else {
-					int index = 0;
-					try {
-						for (Item item : MusicRetriever.getItems()){
-							System.out.println(index + " " + item.getTitle() + " " + MusicRetriever.getCurrentSong().getTitle());
-							if (item.equals(tempItem)){
-								break;
-							}
-							index++;
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					MusicRetriever.mposition = index - 1;
-					return;
-				}
-			}
+		if (extras != null && extras.containsKey("SmartShuffle")) {
+			MusicRetriever.setSmartShuffle(extras.getBoolean("SmartShuffle"));
+			if (!MusicRetriever.getState().isShuffle()) MusicRetriever.toggleShuffle();
+			return;
+		}
+		MusicRetriever.toggleShuffle();
 	}
 	
 	private void processRepeatRequest(){
-		if (MusicRetriever.repeat){
-			MusicRetriever.repeat = false;	
-		}
-		else{
-			MusicRetriever.repeat = true;
-			
+		MusicRetriever.toggleRepeat();
+	}
+
+	private void processGaplessRequest(Intent intent) {
+		// "Gapless" turns gapless playback on or off; without it, the request toggles it
+		Bundle extras = intent.getExtras();
+		if (extras != null && extras.containsKey("Gapless")) {
+			mGapless = extras.getBoolean("Gapless");
+		} else {
+			mGapless = !mGapless;
 		}
-		
+		prepareNextTrack();
+	}
+
+	private void processCrossfadeRequest(Intent intent) {
+		// "Crossfade" is the length of the crossfade in seconds, 0 to turn it off
+		Bundle extras = intent.getExtras();
+		int seconds = extras == null ? 0 : extras.getInt("Crossfade");
+		mCrossfadeMs = Math.max(0, Math.min(CrossfadeEngine.MAX_CROSSFADE_MS, seconds * 1000));
+		// a chained next track would start without a fade, so prepare it again
+		prepareNextTrack();
+		scheduleCrossfade();
 	}
 	
 	private void processFastForwardRequest(){
+		// only a prepared player can seek
+		if (mState != State.Playing && mState != State.Paused) return;
 		mPlayer.seekTo(mPlayer.getCurrentPosition() + 3000);
+		scheduleCrossfade();
 	}
 	
 	private void processGoBackRequest(){
-		System.out.println("Going back");
+		if (mState != State.Playing && mState != State.Paused) return;
 		mPlayer.seekTo(mPlayer.getCurrentPosition() - 4000);
+		scheduleCrossfade();
 	}
 	
     void processSkipRequest() {
         if (mState == State.Playing || mState == State.Paused) {
+            long start = Metrics.now();
+            Metrics.SKIPS.increment();
+            MusicRetriever.recordSkip();
             tryToGetAudioFocus();
         	try {
-				playNextSong(null);
+				startTrack(TrackTransition.Cause.SKIP, null, -1);
 			} catch (IndexOutOfBoundsException e) {
 			}
+            Metrics.SKIP.recordSince(start);
         }
     }
 
@@ -516,6 +588,7 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
             // let go of all resources...
             relaxResources(true);
             giveUpAudioFocus();
+            cancelArtwork();
 
             // Tell any remote controls that our playback state is 'paused'.
             if (mRemoteControlClientCompat != null) {
@@ -535,10 +608,14 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
      * @param releaseMediaPlayer Indicates whether the Media Player should also be released or not
      */
     void relaxResources(boolean releaseMediaPlayer) {
-        // stop being a foreground service
-        stopForeground(true);
+        // stop being a foreground service; between tracks, only if no track follows shortly
+        mNotifications.hide(releaseMediaPlayer);
 
         // stop and release the Media Player, if it's available
+        if (releaseMediaPlayer && mNextTrack != null) {
+            stopCrossfade();
+            mNextTrack.release();
+        }
         if (releaseMediaPlayer && mPlayer != null) {
             mPlayer.reset();
             mPlayer.release();
@@ -570,20 +647,31 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
             // is State.Playing. But we stay in the Playing state so that we know we have to resume
             // playback once we get the focus back.
             if (mPlayer.isPlaying()) mPlayer.pause();
+            mCrossfade.pause();
             return;
         }
-        else if (mAudioFocus == AudioFocus.NoFocusCanDuck)
-            mPlayer.setVolume(DUCK_VOLUME, DUCK_VOLUME);  // we'll be relatively quiet
-        else
-            mPlayer.setVolume(1.0f, 1.0f); // we can be loud
+        // we'll be relatively quiet if we have to duck, otherwise we can be loud; mid-fade, the
+        // crossfade ramps up to that volume
+        float volume = mAudioFocus == AudioFocus.NoFocusCanDuck ? DUCK_VOLUME : 1.0f;
+        if (mCrossfade.isFading()) {
+            mCrossfade.setMaxVolume(volume);
+        } else {
+            mPlayer.setVolume(volume, volume);
+        }
 
         if (!mPlayer.isPlaying()) mPlayer.start();
+        mCrossfade.resume();
+        finishTransition();
     }
 
     void tryToGetAudioFocus() {
         if (mAudioFocus != AudioFocus.Focused && mAudioFocusHelper != null
-                        && mAudioFocusHelper.requestFocus())
+                        && mAudioFocusHelper.requestFocus()) {
             mAudioFocus = AudioFocus.Focused;
+            // a granted request isn't followed by onGainedAudioFocus(), so a player held back
+            // for want of focus has to be started here
+            if (mState == State.Playing) configAndStartMediaPlayer();
+        }
     }
 
     /**
@@ -593,196 +681,176 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
      * next.
      */
     public synchronized void playNextSong(String manualUrl) {
+        startTrack(manualUrl == null ? TrackTransition.Cause.NEXT : TrackTransition.Cause.URL,
+                manualUrl, -1);
+    }
+
+    /**
+	 * Starts playing the a given song. It takes an int provided in an intent's
+	 * extras
+	 */
+	public synchronized void playGivenSong(int p) {
+		startTrack(TrackTransition.Cause.GIVEN, null, p);
+	}
+
+	public synchronized void playPreviousSong(String manualUrl) {
+		startTrack(manualUrl == null ? TrackTransition.Cause.PREVIOUS
+				: TrackTransition.Cause.URL, manualUrl, -1);
+	}
+
+	/**
+	 * Starts a track. This is the one pipeline every track change that needs a prepare goes
+	 * through: it resolves the item to play, gets the media player ready, sets its source and
+	 * starts preparing it, after which onPrepared() starts it. Each stage is timed in
+	 * mTransition, and a failure in any of them ends up in onTransitionFailed().
+	 *
+	 * @param position the play position to start, for TrackTransition.Cause.GIVEN
+	 */
+	synchronized void startTrack(TrackTransition.Cause cause, String manualUrl, int position) {
+		TrackTransition transition = beginTransition(cause);
 		mState = State.Stopped;
+		stopCrossfade();
+		mNextTrack.cancel();
 		relaxResources(false); // release everything except MediaPlayer
 
+		transition.enter(TrackTransition.Stage.RESOLVE_ITEM);
+		MusicRetriever.Item item;
+		if (manualUrl != null) {
+			mIsStreaming = manualUrl.startsWith("http:") || manualUrl.startsWith("https:");
+			item = new MusicRetriever.Item(0, null, manualUrl, null, 0, 0);
+		} else {
+			mIsStreaming = false; // playing a locally available song
+			item = resolveItem(transition, position);
+			if (item == null) return;
+		}
+
+		transition.enter(TrackTransition.Stage.ACQUIRE_PLAYER);
+		createMediaPlayerIfNeeded();
+
+		transition.enter(TrackTransition.Stage.SET_SOURCE);
 		try {
-			MusicRetriever.Item playingItem = null;
+			mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 			if (manualUrl != null) {
-				// set the source of the media player to a manual URL or path
-				createMediaPlayerIfNeeded();
-				mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 				mPlayer.setDataSource(manualUrl);
-				mIsStreaming = manualUrl.startsWith("http:")
-						|| manualUrl.startsWith("https:");
-
-				playingItem = new MusicRetriever.Item(0, null, manualUrl, null,
-						0, 0);
 			} else {
-				mIsStreaming = false; // playing a locally available song
-				try {
-					if (startingup){
-						playingItem = MusicRetriever.getCurrentSong();
-						startingup = false;
-					}
-					else {
-							playingItem = mRetriever.getNextItem();
-					}
-				} catch (Exception e) {
-					playGivenSong(0);
-					return;
-				}
-				
-				// Here we are looping back to the start of the playlist
-				
-				if (playingItem == null) {
-					if (MusicRetriever.repeat){
-					playingItem = mRetriever.getGivenItem(0);
-					}
-					else {
-						playingItem = mRetriever.getGivenItem(0);
-						mPlayer.seekTo(0);
-						mPlayer.stop();
-						return;
-					}
-				}
+				mPlayer.setDataSource(getApplicationContext(), item.getURI());
+			}
+		} catch (Exception e) {
+			// an IOException, or one of the runtime exceptions setDataSource() throws for
+			// sources it can't use
+			onTransitionFailed(transition, e.toString());
+			return;
+		}
+
+		mSongTitle = item.getTitle();
+		mArtistTitle = item.getArtist();
+		mState = State.Preparing;
+		setUpAsForeground(mSongTitle + " (loading)");
+		updateRemoteControls(item);
+
+		// Until the media player is prepared, we *cannot* call start() on it! When it's done,
+		// it calls our OnPreparedListener, that is onPrepared().
+		transition.enter(TrackTransition.Stage.PREPARE);
+		try {
+			mPlayer.prepareAsync();
+		} catch (IllegalStateException e) {
+			onTransitionFailed(transition, e.toString());
+			return;
+		}
 
-				// set the source of the media player a a content URI
-				createMediaPlayerIfNeeded();
-				mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-				try {
-					mPlayer.setDataSource(getApplicationContext(),
-							playingItem.getURI());
-				} catch (IllegalStateException e) {
-					System.out.println("Exception caught");
+		// If we are streaming from the internet, we want to hold a Wifi lock, which prevents
+		// the Wifi radio from going to sleep while the song is playing. If, on the other hand,
+		// we are *not* streaming, we want to release the lock if we were holding it before.
+		if (mIsStreaming)
+			mWifiLock.acquire();
+		else if (mWifiLock.isHeld())
+			mWifiLock.release();
+	}
+
+	/**
+	 * Returns the item a transition is to play, with the queue moved to it. Returns null, with
+	 * the transition ended, if there is nothing to play.
+	 */
+	MusicRetriever.Item resolveItem(TrackTransition transition, int position) {
+		MusicRetriever.Item item;
+		switch (transition.getCause()) {
+		case NEXT:
+		case SKIP:
+			try {
+				if (startingup) {
+					item = MusicRetriever.getCurrentSong();
+					startingup = false;
+				} else {
+					item = MusicRetriever.getNextItem();
 				}
-				;
+			} catch (Exception e) {
+				return resolveGivenItem(transition, 0);
 			}
-			mSongTitle = playingItem.getTitle();
-			mArtistTitle = playingItem.getArtist();
-
-			mState = State.Preparing;
-			setUpAsForeground(mSongTitle);
-
-			// Use the media button APIs (if available) to register ourselves
-			// for media button
-			// events
-
-			MediaButtonHelper.registerMediaButtonEventReceiverCompat(
-					mAudioManager, mMediaButtonReceiverComponent);
-
-			// Use the remote control APIs (if available) to set the playback
-			// state
-
-			if (mRemoteControlClientCompat == null) {
-				Intent intent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-				intent.setComponent(mMediaButtonReceiverComponent);
-				mRemoteControlClientCompat = new RemoteControlClientCompat(
-						PendingIntent.getBroadcast(this /* context */, 0 /*
-																		 * requestCode
-																		 * ,
-																		 * ignored
-																		 */,
-								intent /* intent */, 0 /* flags */));
-				RemoteControlHelper.registerRemoteControlClient(mAudioManager,
-						mRemoteControlClientCompat);
+			if (item != null) return item;
+
+			// Here we are looping back to the start of the queue, and stopping there unless
+			// repeat is on
+			if (MusicRetriever.getState().isRepeat()) return resolveGivenItem(transition, 0);
+			try {
+				MusicRetriever.getGivenItem(0);
+				if (mPlayer != null) mPlayer.stop();
+			} catch (RuntimeException e) {
+				// an empty queue, or a player that wasn't playing
 			}
+			transition.fail("end of the queue");
+			reportTransition(transition);
+			return null;
 
-			mRemoteControlClientCompat
-					.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
-
-			mRemoteControlClientCompat
-					.setTransportControlFlags(RemoteControlClient.FLAG_KEY_MEDIA_PLAY
-							| RemoteControlClient.FLAG_KEY_MEDIA_PAUSE
-							| RemoteControlClient.FLAG_KEY_MEDIA_NEXT
-							| RemoteControlClient.FLAG_KEY_MEDIA_STOP);
-
-			// Update the remote controls
-			mRemoteControlClientCompat
-					.editMetadata(true)
-					.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST,
-							playingItem.getArtist())
-					.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM,
-							playingItem.getAlbum())
-					.putString(MediaMetadataRetriever.METADATA_KEY_TITLE,
-							playingItem.getTitle())
-					.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION,
-							playingItem.getDuration())
-					.putBitmap(
-							RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
-							MusicRetriever.getArtForDisplay()).apply();
-
-			// starts preparing the media player in the background. When it's
-			// done, it will call
-			// our OnPreparedListener (that is, the onPrepared() method on this
-			// class, since we set
-			// the listener to 'this').
-			//
-			// Until the media player is prepared, we *cannot* call start() on
-			// it!
-			mPlayer.prepareAsync();
+		case PREVIOUS:
+			item = MusicRetriever.getPreviousItem();
+			if (item != null) return item;
+			// wrap around to the last track of the queue
+			return resolveGivenItem(transition, MusicRetriever.getQueue().size() - 1);
 
-			// If we are streaming from the internet, we want to hold a Wifi
-			// lock, which prevents
-			// the Wifi radio from going to sleep while the song is playing. If,
-			// on the other hand,
-			// we are *not* streaming, we want to release the lock if we were
-			// holding it before.
-			if (mIsStreaming)
-				mWifiLock.acquire();
-			else if (mWifiLock.isHeld())
-				mWifiLock.release();
-		} catch (IOException ex) {
-			Log.e("MusicService",
-					"IOException playing next song: " + ex.getMessage());
-			ex.printStackTrace();
-		}
-    }
+		case RETRY:
+			return MusicRetriever.getCurrentSong();
 
-    /**
-	 * Starts playing the a given song. It takes an int provided in an intent's
-	 * extras
-	 */
-	public synchronized void playGivenSong(int p) {
-		mState = State.Stopped;
-		relaxResources(false); // release everything except MediaPlayer
-		MusicRetriever.Item playingItem = null;
-		mIsStreaming = false; // playing a locally available song
-		try {
-			playingItem = mRetriever.getGivenItem(p);
-			mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-		} catch (Exception e) {
-			mRetriever.getGivenItem(0);
+		default:
+			return resolveGivenItem(transition, position);
 		}
+	}
+
+	MusicRetriever.Item resolveGivenItem(TrackTransition transition, int position) {
+		MusicRetriever.Item item = null;
 		try {
-			mPlayer.setDataSource(getApplicationContext(), playingItem.getURI());
-		} catch (Exception e) {
-			
+			item = MusicRetriever.getGivenItem(position);
+		} catch (IndexOutOfBoundsException e) {
+			// no such track
 		}
-
-		if (playingItem == null) {
+		if (item == null) {
 			Toast.makeText(
 					this,
 					"No available music to play. Place some music on your external storage "
 							+ "device (e.g. your SD card) and try again.",
 					Toast.LENGTH_LONG).show();
+			transition.fail("no track at position " + position);
+			reportTransition(transition);
 			processStopRequest(true); // stop everything!
-			return;
 		}
+		return item;
+	}
 
-		mSongTitle = playingItem.getTitle();
-		mArtistTitle = playingItem.getArtist();
-
-		mState = State.Preparing;
-		setUpAsForeground(mSongTitle + " (loading)");
-
-		// Use the media button APIs (if available) to register ourselves for
-		// media button
+	/**
+	 * Makes sure the media button receiver and the remote control client are registered, and
+	 * shows the item on the remote controls.
+	 */
+	void updateRemoteControls(MusicRetriever.Item item) {
+		// Use the media button APIs (if available) to register ourselves for media button
 		// events
-
 		MediaButtonHelper.registerMediaButtonEventReceiverCompat(mAudioManager,
 				mMediaButtonReceiverComponent);
 
 		// Use the remote control APIs (if available) to set the playback state
-
 		if (mRemoteControlClientCompat == null) {
 			Intent intent = new Intent(Intent.ACTION_MEDIA_BUTTON);
 			intent.setComponent(mMediaButtonReceiverComponent);
 			mRemoteControlClientCompat = new RemoteControlClientCompat(
-					PendingIntent.getBroadcast(this /* context */, 0 /*
-																	 * requestCode,
-																	 * ignored
-																	 */,
+					PendingIntent.getBroadcast(this /* context */, 0 /* requestCode, ignored */,
 							intent /* intent */, 0 /* flags */));
 			RemoteControlHelper.registerRemoteControlClient(mAudioManager,
 					mRemoteControlClientCompat);
@@ -798,181 +866,204 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 						| RemoteControlClient.FLAG_KEY_MEDIA_STOP);
 
 		// Update the remote controls
-		try {
-			mRemoteControlClientCompat
-					.editMetadata(true)
-					.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST,
-							playingItem.getArtist())
-					.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM,
-							playingItem.getAlbum())
-					.putString(MediaMetadataRetriever.METADATA_KEY_TITLE,
-							playingItem.getTitle())
-					.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION,
-							playingItem.getDuration())
-					// TODO: fetch real item artwork
-					.putBitmap(
-							RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
-							MusicRetriever.getArtForDisplay()).apply();
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		updateRemoteControlMetadata(item);
+	}
+
+	/** Starts timing a track change, ending the one before if it was still under way. */
+	TrackTransition beginTransition(TrackTransition.Cause cause) {
+		if (mTransition != null && !mTransition.isEnded()) {
+			mTransition.fail("superseded by " + cause);
+			reportTransition(mTransition);
 		}
+		mTransition = new TrackTransition(cause, mClock);
+		return mTransition;
+	}
 
-		// starts preparing the media player in the background. When it's done,
-		// it will call
-		// our OnPreparedListener (that is, the onPrepared() method on this
-		// class, since we set
-		// the listener to 'this').
-		//
-		// Until the media player is prepared, we *cannot* call start() on it!
-		try {
-			mPlayer.prepareAsync();
-		} catch (Exception e) {
+	/** Ends the track change under way, if any, now that its track is audible. */
+	void finishTransition() {
+		if (mTransition == null || mTransition.isEnded()) return;
+		mTransition.finish();
+		mFailures = 0;
+		reportTransition(mTransition);
+	}
+
+	/**
+	 * Ends a track change that failed, and moves on to the next track, unless too many tracks
+	 * in a row failed, which stops playback.
+	 */
+	void onTransitionFailed(TrackTransition transition, String reason) {
+		transition.fail(reason);
+		reportTransition(transition);
+		if (++mFailures >= MAX_FAILURES) {
+			Log.e(TAG, mFailures + " tracks in a row failed to play, stopping");
+			mFailures = 0;
+			processStopRequest(true);
+			return;
 		}
-		// createMediaPlayerIfNeeded();
-		// If we are streaming from the internet, we want to hold a Wifi lock,
-		// which prevents
-		// the Wifi radio from going to sleep while the song is playing. If, on
-		// the other hand,
-		// we are *not* streaming, we want to release the lock if we were
-		// holding it before.
-		if (mIsStreaming)
-			mWifiLock.acquire();
-		else if (mWifiLock.isHeld())
-			mWifiLock.release();
+		// posted, so a run of tracks that fail doesn't recurse
+		mHandler.post(mPlayNext);
 	}
 
-	public synchronized void playPreviousSong(String manualUrl) {
-		mState = State.Stopped;
-		relaxResources(false); // release everything except MediaPlayer
+	/** Logs a track change that ended, and adds it to the metrics. */
+	void reportTransition(TrackTransition transition) {
+		Log.i(TAG, "Track change " + transition);
+		Metrics.recordTransition(transition);
+	}
 
-		try {
-			MusicRetriever.Item playingItem = null;
-			if (manualUrl != null) {
-				// set the source of the media player to a manual URL or path
-				createMediaPlayerIfNeeded();
-				mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-				mPlayer.setDataSource(manualUrl);
-				mIsStreaming = manualUrl.startsWith("http:")
-						|| manualUrl.startsWith("https:");
+    /** Called when media player is done playing current song. */
+	public synchronized void onCompletion(PlayerBackend player) {
+		if (player != mPlayer) return;
+		MusicRetriever.recordCompletion();
+		// The media player finished playing the current song, so we go ahead
+		// and start the next.
+		if (mNextTrack.isPreparedFor(MusicRetriever.peekNextPosition())) {
+			playPreparedNextSong();
+		} else {
+			playNextAfterCompletion();
+		}
+	}
 
-				playingItem = new MusicRetriever.Item(0, null, manualUrl, null,
-						0, 0);
-			} else {
-				mIsStreaming = false; // playing a locally available song
-					playingItem = mRetriever.getPreviousItem();
-				if (playingItem == null) {
-						if (!MusicRetriever.shuffle){
-							System.out.println("Playing item is null");
-							if (MusicRetriever.usingGenPlaylist){
-								playingItem = mRetriever.getGivenItem(MusicRetriever.generatedPlaylist.size() - 1);
-							}
-							else if (MusicRetriever.usingPlaylist){
-								playingItem = mRetriever.getGivenItem(MusicRetriever.playlist.size() - 1);
-							}
-							else if (MusicRetriever.usingGenPlaylist){
-									playingItem = mRetriever.getGivenItem(MusicRetriever.generatedPlaylist.size() - 1);
-								}
-							else{
-									playingItem = mRetriever.getGivenItem(MusicRetriever.songs.size() - 1);
-								}
-							
-						    } else {
-							if (MusicRetriever.usingGenPlaylist){
-								playingItem = mRetriever.getGivenItem(MusicRetriever.ShuffledgeneratedPlaylist.size() - 1);
-								}
-							else if (MusicRetriever.usingPlaylist){
-								playingItem = mRetriever.getGivenItem(MusicRetriever.Shuffledplaylist.size() - 1);
-								}
-							else if (MusicRetriever.usingGenPlaylist){
-								playingItem = mRetriever.getGivenItem(MusicRetriever.ShuffledgeneratedPlaylist.size() - 1);
-								}
-							else{
-								playingItem = mRetriever.getGivenItem(MusicRetriever.ShuffledmSongList.size() - 1);
-								}
-						    }
-						} 
-
-				// set the source of the media player a a content URI
-				createMediaPlayerIfNeeded();
-				mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-				mPlayer.setDataSource(getApplicationContext(),
-						playingItem.getURI());
-			}
+	final Runnable mPlayNext = new Runnable() {
+		public void run() {
+			playNextAfterCompletion();
+		}
+	};
 
-			mSongTitle = playingItem.getTitle();
-			mArtistTitle = playingItem.getArtist();
-
-			mState = State.Preparing;
-			setUpAsForeground(mSongTitle);
-
-			MediaButtonHelper.registerMediaButtonEventReceiverCompat(
-					mAudioManager, mMediaButtonReceiverComponent);
-
-			if (mRemoteControlClientCompat == null) {
-				Intent intent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-				intent.setComponent(mMediaButtonReceiverComponent);
-				mRemoteControlClientCompat = new RemoteControlClientCompat(
-						PendingIntent.getBroadcast(this /* context */, 0 /*
-																		 * requestCode
-																		 * ,
-																		 * ignored
-																		 */,
-								intent /* intent */, 0 /* flags */));
-				RemoteControlHelper.registerRemoteControlClient(mAudioManager,
-						mRemoteControlClientCompat);
-			}
+	/**
+	 * Makes the prepared next track the current one. If it was chained to the track that just
+	 * ended, the platform has already started it; otherwise it is started now.
+	 */
+	synchronized void playPreparedNextSong() {
+		PlayerBackend finished = mPlayer;
+		takePreparedNextSong();
+		mNextTrack.recycle(finished);
+		configAndStartMediaPlayer();
+		prepareNextTrack();
+		scheduleCrossfade();
+	}
 
-			mRemoteControlClientCompat
-					.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
-
-			mRemoteControlClientCompat
-					.setTransportControlFlags(RemoteControlClient.FLAG_KEY_MEDIA_PLAY
-							| RemoteControlClient.FLAG_KEY_MEDIA_PAUSE
-							| RemoteControlClient.FLAG_KEY_MEDIA_NEXT
-							| RemoteControlClient.FLAG_KEY_MEDIA_STOP);
-
-			// Update the remote controls
-			mRemoteControlClientCompat
-					.editMetadata(true)
-					.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST,
-							playingItem.getArtist())
-					.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM,
-							playingItem.getAlbum())
-					.putString(MediaMetadataRetriever.METADATA_KEY_TITLE,
-							playingItem.getTitle())
-					.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION,
-							playingItem.getDuration())
-					// TODO: fetch real item artwork
-					.putBitmap(
-							RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
-							MusicRetriever.getArtForDisplay()).apply();
+	/** Moves the queue on to the prepared next track and makes its player the current one. */
+	void takePreparedNextSong() {
+		TrackTransition transition = beginTransition(TrackTransition.Cause.PREPARED);
+		transition.enter(TrackTransition.Stage.RESOLVE_ITEM);
+		MusicRetriever.Item item = mNextTrack.getItem();
+		MusicRetriever.getGivenItem(mNextTrack.getPosition());
+		transition.enter(TrackTransition.Stage.ACQUIRE_PLAYER);
+		mPlayer = mNextTrack.take();
+
+		mSongTitle = item.getTitle();
+		mArtistTitle = item.getArtist();
+		mState = State.Playing;
+		setUpAsForeground(mSongTitle + " (playing)");
+		updateRemoteControlMetadata(item);
+		transition.enter(TrackTransition.Stage.START);
+	}
 
-			mPlayer.prepareAsync();
-			if (mIsStreaming)
-				mWifiLock.acquire();
-			else if (mWifiLock.isHeld())
-				mWifiLock.release();
-		} catch (IOException ex) {
-			Log.e("MusicService",
-					"IOException playing next song: " + ex.getMessage());
-			ex.printStackTrace();
+	/**
+	 * Schedules the crossfade into the next track for when the current track is that close to
+	 * its end. The scheduled call checks the time again, so seeks and pauses only need this
+	 * called again when playback goes on.
+	 */
+	void scheduleCrossfade() {
+		mHandler.removeCallbacks(mCrossfadeRunnable);
+		if (mCrossfadeMs <= 0 || mPlayer == null || mState != State.Playing) return;
+		long left = mPlayer.getDuration() - mPlayer.getCurrentPosition();
+		mHandler.postDelayed(mCrossfadeRunnable, Math.max(0, left - mCrossfadeMs));
+	}
+
+	/**
+	 * Starts the next track, if it's prepared, at volume 0 over the end of the current one, and
+	 * hands both to the crossfade engine. The next track becomes the current one right away, so
+	 * skipping or pausing mid-fade acts on it.
+	 */
+	synchronized void startCrossfade() {
+		if (mCrossfadeMs <= 0 || mPlayer == null || mState != State.Playing
+				|| !mPlayer.isPlaying() || mCrossfade.isFading()) {
+			return;
 		}
+		long left = mPlayer.getDuration() - mPlayer.getCurrentPosition();
+		if (left > mCrossfadeMs + CROSSFADE_SLACK_MS) {
+			// the track was sought back or paused since this was scheduled
+			scheduleCrossfade();
+			return;
+		}
+		if (!mNextTrack.isPreparedFor(MusicRetriever.peekNextPosition())) return;
+
+		MusicRetriever.recordCompletion();
+		PlayerBackend outgoing = mPlayer;
+		takePreparedNextSong();
+		float volume = mAudioFocus == AudioFocus.NoFocusCanDuck ? DUCK_VOLUME : 1.0f;
+		mPlayer.setVolume(0f, 0f);
+		mPlayer.start();
+		finishTransition();
+		mCrossfade.start(outgoing, mPlayer, Math.max(0, left), volume);
+		prepareNextTrack();
+		scheduleCrossfade();
+	}
 
+	/** Ends a crossfade in progress at once, and takes back its outgoing player. */
+	void stopCrossfade() {
+		mHandler.removeCallbacks(mCrossfadeRunnable);
+		PlayerBackend outgoing = mCrossfade.cancel();
+		if (outgoing != null) mNextTrack.recycle(outgoing);
 	}
 
-    /** Called when media player is done playing current song. */
-	public synchronized void onCompletion(MediaPlayer player) {
-		while (constructingPlaylist){
-			//do nothing
-			try {
-				wait(1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+	/**
+	 * Starts preparing the track that plays next on the second media player, if gapless
+	 * playback is on and there is a current track. Drops whatever was prepared before, which
+	 * may not be next anymore.
+	 */
+	void prepareNextTrack() {
+		if (mNextTrack == null) return;
+		mNextTrack.cancel();
+		if ((!mGapless && mCrossfadeMs <= 0) || mPlayer == null || mIsStreaming
+				|| (mState != State.Playing && mState != State.Paused)) {
+			return;
 		}
-		// The media player finished playing the current song, so we go ahead
-		// and start the next.
+		int position = MusicRetriever.peekNextPosition();
+		if (position < 0) return;
+		try {
+			// with a crossfade, the next track is started by hand, not chained
+			mNextTrack.prepare(mCrossfadeMs > 0 ? null : mPlayer,
+					MusicRetriever.getQueue().get(position), position);
+		} catch (IndexOutOfBoundsException e) {
+			// the queue changed meanwhile; the queue listener will try again
+		}
+	}
+
+	void updateRemoteControlMetadata(MusicRetriever.Item item) {
+		if (mRemoteControlClientCompat == null) return;
+		mRemoteControlClientCompat
+				.editMetadata(true)
+				.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST, item.getArtist())
+				.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM, item.getAlbum())
+				.putString(MediaMetadataRetriever.METADATA_KEY_TITLE, item.getTitle())
+				.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION, item.getDuration())
+				.putBitmap(
+						RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
+						loadLockScreenArt()).apply();
+	}
+
+	/**
+	 * Starts loading the current track's art for the remote controls, and returns it if it's
+	 * already in memory. Otherwise it's put in the metadata once it's loaded.
+	 */
+	Bitmap loadLockScreenArt() {
+		mArtworkLoader.cancel(mLockScreenArt);
+		mLockScreenArt = mArtworkLoader.load(MusicRetriever.getCurrentAlbumID(),
+				ArtworkDecoder.LOCK_SCREEN_SIZE, mLockScreenArtCallback);
+		return mLockScreenArt.getBitmap();
+	}
+
+	/** Stops loading art for the track that was playing. */
+	void cancelArtwork() {
+		mArtworkLoader.cancel(mNotificationArt);
+		mArtworkLoader.cancel(mLockScreenArt);
+		mNotificationArt = null;
+		mLockScreenArt = null;
+	}
+
+	synchronized void playNextAfterCompletion() {
 		try {
 			playNextSong(null);
 		} catch (Exception e) {
@@ -981,20 +1072,25 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 	}
 
     /** Called when media player is done preparing. */
-    public void onPrepared(MediaPlayer player) {
+    public void onPrepared(PlayerBackend player) {
+        if (!mFirstAudioLogged) {
+            mFirstAudioLogged = true;
+            Log.i(TAG, "First track prepared after " + (SystemClock.elapsedRealtime() - mCreatedAt)
+                    + " ms");
+        }
+
         // The media player is done preparing. That means we can start playing!
+        if (mTransition != null) mTransition.enter(TrackTransition.Stage.START);
         mState = State.Playing;
         updateNotification(mSongTitle + " (playing)");
         configAndStartMediaPlayer();
+        prepareNextTrack();
+        scheduleCrossfade();
     }
 
     /** Updates the notification. */
     void updateNotification(String text) {
-        PendingIntent pi = PendingIntent.getActivity(getApplicationContext(), 0,
-                new Intent(getApplicationContext(), MainActivity.class),
-                PendingIntent.FLAG_UPDATE_CURRENT);
-        mNotification.setLatestEventInfo(getApplicationContext(), "RandomMusicPlayer", text, pi);
-        mNotificationManager.notify(NOTIFICATION_ID, mNotification);
+        mNotifications.setText(text);
     }
 
     /**
@@ -1009,112 +1105,48 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
 	 * we create the notification here.
 	 */
 	void setUpAsForeground(String text) {
-		Bitmap icon = null;
-		PendingIntent pi = PendingIntent.getActivity(getApplicationContext(),
-				0, new Intent(getApplicationContext(), MainActivity.class),
-				PendingIntent.FLAG_UPDATE_CURRENT);
-		mNotification = new Notification();
-		mNotification.tickerText = text;
-		mNotification.icon = R.drawable.ic_media_play;
-		try {
-			icon = MusicRetriever.getArtForDisplay();
-			Bitmap scaled = Bitmap.createScaledBitmap(icon, 100, 100, true);
-			mNotification.largeIcon = scaled;
-		} catch (Exception e) {
-			mNotification.largeIcon = null;
-		}
-		mNotification.flags |= Notification.FLAG_ONGOING_EVENT;
-		try {
-			mNotification.setLatestEventInfo(getApplicationContext(),
-					MusicRetriever.getCurrentSong().getArtist(), text, pi);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		startForeground(NOTIFICATION_ID, mNotification);
+		// the art that isn't in memory yet goes in once it's loaded
+		mArtworkLoader.cancel(mNotificationArt);
+		mNotificationArt = mArtworkLoader.load(MusicRetriever.getCurrentAlbumID(),
+				ArtworkDecoder.NOTIFICATION_SIZE, mNotificationArtCallback);
+		mNotifications.show(mArtistTitle, text, mNotificationArt.getBitmap());
 	}
 
     /**
      * Called when there's an error playing media. When this happens, the media player goes to
      * the Error state. We warn the user about the error and reset the media player.
      */
-    public boolean onError(MediaPlayer mp, int what, int extra) {
-    	try {
-			playingItem = MusicRetriever.getCurrentSong();
-		} catch (InterruptedException e2) {
-			e2.printStackTrace();
-		}
-		mPlayer.reset();
-		try {
-			mPlayer.setDataSource(getApplicationContext(), playingItem.getURI());
-		} catch (IllegalArgumentException e1) {
-			e1.printStackTrace();
-		} catch (SecurityException e1) {
-			e1.printStackTrace();
-		} catch (IllegalStateException e1) {
-			e1.printStackTrace();
-		} catch (Exception e1) {
-			e1.printStackTrace();
-		}
-
-
-		mSongTitle = playingItem.getTitle();
-
-		mState = State.Preparing;
-		setUpAsForeground(mSongTitle);
-
-		MediaButtonHelper.registerMediaButtonEventReceiverCompat(mAudioManager,
-				mMediaButtonReceiverComponent);
-
-		if (mRemoteControlClientCompat == null) {
-			Intent intent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-			intent.setComponent(mMediaButtonReceiverComponent);
-			mRemoteControlClientCompat = new RemoteControlClientCompat(
-					PendingIntent.getBroadcast(this, 0 , intent , 0 ));
-			RemoteControlHelper.registerRemoteControlClient(mAudioManager,
-					mRemoteControlClientCompat);
-		}
-
-		mRemoteControlClientCompat
-				.setPlaybackState(RemoteControlClient.PLAYSTATE_PLAYING);
-
-		mRemoteControlClientCompat
-				.setTransportControlFlags(RemoteControlClient.FLAG_KEY_MEDIA_PLAY
-						| RemoteControlClient.FLAG_KEY_MEDIA_PAUSE
-						| RemoteControlClient.FLAG_KEY_MEDIA_NEXT
-						| RemoteControlClient.FLAG_KEY_MEDIA_STOP);
-
-		try {
-			mRemoteControlClientCompat
-					.editMetadata(true)
-					.putString(MediaMetadataRetriever.METADATA_KEY_ARTIST,
-							playingItem.getArtist())
-					.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM,
-							playingItem.getAlbum())
-					.putString(MediaMetadataRetriever.METADATA_KEY_TITLE,
-							playingItem.getTitle())
-					.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION,
-							playingItem.getDuration())
-					.putBitmap(
-							RemoteControlClientCompat.MetadataEditorCompat.METADATA_KEY_ARTWORK,
-							MusicRetriever.getArtForDisplay()).apply();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-		try {
-		mPlayer.prepareAsync();
-		} catch (Exception e) {
-			playNextSong(null);
-		}
-		if (mIsStreaming)
-			mWifiLock.acquire();
-		else if (mWifiLock.isHeld())
-			mWifiLock.release();
-
-		Log.e(TAG,
-				"Error: what=" + String.valueOf(what) + ", extra="
-						+ String.valueOf(extra));
-
-		return true; // true indicates we handled the error
+    public boolean onError(PlayerBackend mp, int what, int extra) {
+        Metrics.PLAYER_ERRORS.increment();
+        if (mCrossfade.isFadingOut(mp)) {
+            // the track that was ending anyway; the one fading in goes on at full volume
+            Log.e(TAG, "Error in the track fading out: what=" + what + ", extra=" + extra);
+            stopCrossfade();
+            return true;
+        }
+        // an error on the next track's player only costs the gapless start
+        if (mp == mPlayer) stopCrossfade();
+        mNextTrack.cancel();
+        if (mp != mPlayer) {
+            Log.e(TAG, "Error preparing the next track: what=" + what + ", extra=" + extra);
+            return true;
+        }
+        String reason = "MediaPlayer error: what=" + what + ", extra=" + extra;
+        Log.e(TAG, reason);
+
+        // try the track once more, unless this already was that try
+        TrackTransition transition = mTransition;
+        if (transition != null && !transition.isEnded()
+                && transition.getCause() == TrackTransition.Cause.RETRY) {
+            onTransitionFailed(transition, reason);
+        } else {
+            if (transition != null && !transition.isEnded()) {
+                transition.fail(reason);
+                reportTransition(transition);
+            }
+            startTrack(TrackTransition.Cause.RETRY, null, -1);
+        }
+        return true; // true indicates we handled the error
     }
 
     public void onGainedAudioFocus() {
@@ -1131,13 +1163,41 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
             "no duck"), Toast.LENGTH_SHORT).show();
         mAudioFocus = canDuck ? AudioFocus.NoFocusCanDuck : AudioFocus.NoFocusNoDuck;
 
-        // start/restart/pause media player with new focus settings
-        if (mPlayer != null && mPlayer.isPlaying())
+        // start/restart/pause media player with new focus settings; one that was held back
+        // for want of focus may play ducked now
+        if (mState == State.Playing)
             configAndStartMediaPlayer();
     }
 
+    public void onMusicRetrieverBatch(int trackCount) {
+        if (!mFirstTrackLogged) {
+            mFirstTrackLogged = true;
+            Log.i(TAG, "First playable track after " + (SystemClock.elapsedRealtime() - mCreatedAt)
+                    + " ms (" + (MusicRetriever.isRestoredFromSnapshot() ? "from snapshot"
+                    : "from MediaStore") + ")");
+        }
+
+        // The first batch of tracks is enough to start playing; the rest of the library keeps
+        // loading in the background.
+        if (mState == State.Retrieving) onRetrieverReady();
+    }
+
     public void onMusicRetrieverPrepared() {
-        // Done retrieving!
+        // Done retrieving! If no batch was ever published (no music at all), we still have to
+        // leave the Retrieving state.
+        if (mState == State.Retrieving) onRetrieverReady();
+
+        // From now on, keep the library up to date with incremental syncs. A library restored
+        // from a snapshot may be out of date already, so reconcile it with MediaStore now.
+        registerLibraryObserver();
+        if (MusicRetriever.isRestoredFromSnapshot()) {
+            startLibrarySync();
+        } else {
+            saveLibrarySnapshot();
+        }
+    }
+
+    void onRetrieverReady() {
         mState = State.Stopped;
 
         // If the flag indicates we should start playing after retrieving, let's do that now.
@@ -1149,14 +1209,124 @@ public class MusicService extends Service implements OnCompletionListener, OnPre
     }
 
 
+    void registerLibraryObserver() {
+        if (mLibraryObserver != null) return;
+        mLibraryObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mHandler.removeCallbacks(mSyncRunnable);
+                mHandler.postDelayed(mSyncRunnable, LIBRARY_SYNC_DELAY_MS);
+            }
+        };
+        getContentResolver().registerContentObserver(
+                android.provider.MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                mLibraryObserver);
+    }
+
+    void unregisterLibraryObserver() {
+        mHandler.removeCallbacks(mSyncRunnable);
+        mSyncAgain = false;
+        if (mLibraryObserver == null) return;
+        getContentResolver().unregisterContentObserver(mLibraryObserver);
+        mLibraryObserver = null;
+    }
+
+    /** Starts an incremental sync of the library, or queues one if a sync is already running. */
+    void startLibrarySync() {
+        if (mSyncTask != null) {
+            mSyncAgain = true;
+            return;
+        }
+        mSyncTask = new SyncMusicRetrieverTask(
+                new LibrarySync(getContentResolver(), MusicRetriever.mLibrary), this);
+        mSyncTask.execute();
+    }
+
+    public void onLibrarySynced(boolean changed) {
+        Log.i(TAG, "Library sync finished, " + (changed ? "library changed" : "no changes"));
+        mSyncTask = null;
+        if (changed) saveLibrarySnapshot();
+        if (mSyncAgain) {
+            mSyncAgain = false;
+            startLibrarySync();
+        }
+    }
+
+    /**
+     * Saves the library for the next cold start. The library is copied here, on the main thread,
+     * and written to storage in the background.
+     */
+    void saveLibrarySnapshot() {
+        final LibrarySnapshot snapshot = new LibrarySnapshot(new File(getFilesDir(),
+                LIBRARY_SNAPSHOT_FILE));
+        final LibrarySnapshot.Image image = MusicRetriever.captureSnapshot();
+        new Thread("LibrarySnapshot") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                snapshot.write(image);
+            }
+        }.start();
+    }
+
     @Override
     public void onDestroy() {
         // Service is being killed, so make sure we release our resources
+        unregisterLibraryObserver();
+        MusicRetriever.setQueueListener(null);
+        cancelArtwork();
+        mArtworkLoader.shutdown();
+        Log.i(TAG, MusicRetriever.getArtworkCache().getStats());
+        Log.i(TAG, mArtworkLoader.getStats());
+        Log.i(TAG, mNotifications.getStats());
+        if (mRemoteControlClientCompat != null) {
+            Log.i(TAG, mRemoteControlClientCompat.getStats());
+        }
+        exportMetrics();
         mState = State.Stopped;
         relaxResources(true);
         giveUpAudioFocus();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            Metrics.reset();
+            pw.println("Metrics reset");
+            return;
+        }
+        dumpMetrics(pw);
+    }
+
+    void dumpMetrics(PrintWriter pw) {
+        Metrics.dump(pw);
+        pw.println(MusicRetriever.getArtworkCache().getStats());
+        pw.println(mArtworkLoader.getStats());
+        pw.println(mNotifications.getStats());
+        if (mRemoteControlClientCompat != null) {
+            pw.println(mRemoteControlClientCompat.getStats());
+        }
+    }
+
+    /**
+     * In debuggable builds, writes the metrics to a file in the cache directory, where
+     * <code>adb shell run-as com.example.android.musicplayer cat cache/metrics.txt</code> reads
+     * them after the service is gone.
+     */
+    void exportMetrics() {
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) return;
+        File file = new File(getCacheDir(), METRICS_FILE);
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(file));
+            dumpMetrics(pw);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        } finally {
+            if (pw != null) pw.close();
+        }
+    }
+
     @Override
     public IBinder onBind(Intent arg0) {
         return null;
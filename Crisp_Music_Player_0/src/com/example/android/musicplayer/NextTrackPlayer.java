@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.util.Log;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+/**
+ * A second player that gets the next track ready while the current one plays, for gapless
+ * playback. Once it is prepared, on SDK level 16 and up it is chained to the current player
+ * with {@link PlayerBackend#setNextPlayer}, so the platform starts it the moment the current
+ * track ends; below that, it can at least be started right away, without waiting for it to
+ * prepare.
+ *
+ * When the current track ends, {@link #take()} hands the prepared player over to become the
+ * current one, and {@link #recycle(PlayerBackend)} takes the finished player back to prepare the
+ * track after, so the two players swap roles on every track.
+ */
+public class NextTrackPlayer implements PlayerBackend.Listener {
+    final static String TAG = "NextTrackPlayer";
+
+    final Context mContext;
+    final PlayerBackend.Factory mFactory;
+
+    // the listener the player gets when it becomes the current one; it hears about the
+    // player's completion and errors before that too
+    final PlayerBackend.Listener mListener;
+
+    PlayerBackend mPlayer;
+
+    // what the player is getting ready, and the player it's chained to
+    Item mItem;
+    int mPosition = -1;
+    boolean mPrepared = false;
+    PlayerBackend mChainedTo;
+
+    public NextTrackPlayer(Context context, PlayerBackend.Factory factory,
+            PlayerBackend.Listener listener) {
+        mContext = context;
+        mFactory = factory;
+        mListener = listener;
+    }
+
+    /**
+     * Starts preparing the item, at the given play position, to follow the current player.
+     * Whatever was prepared before is dropped.
+     */
+    public void prepare(PlayerBackend current, Item item, int position) {
+        cancel();
+        if (mPlayer == null) mPlayer = newPlayer();
+        try {
+            mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+            mPlayer.setDataSource(mContext, item.getURI());
+            mPlayer.prepareAsync();
+        } catch (Exception e) {
+            Log.w(TAG, "Can't prepare the next track: " + e.getMessage());
+            mPlayer.reset();
+            return;
+        }
+        mItem = item;
+        mPosition = position;
+        mChainedTo = current;
+    }
+
+    PlayerBackend newPlayer() {
+        PlayerBackend player = mFactory.create(mContext);
+        player.setListener(this);
+        return player;
+    }
+
+    public void onPrepared(PlayerBackend player) {
+        if (player != mPlayer || mItem == null) return;
+        mPrepared = true;
+        if (mChainedTo != null) {
+            try {
+                if (!mChainedTo.setNextPlayer(mPlayer)) mChainedTo = null;
+            } catch (IllegalStateException e) {
+                // the current player was reset meanwhile; it will be started by hand
+                mChainedTo = null;
+            }
+        }
+    }
+
+    public void onCompletion(PlayerBackend player) {
+        mListener.onCompletion(player);
+    }
+
+    public boolean onError(PlayerBackend player, int what, int extra) {
+        return mListener.onError(player, what, extra);
+    }
+
+    /** Returns whether the item at the given play position is prepared. */
+    public boolean isPreparedFor(int position) {
+        return mPrepared && mPosition == position;
+    }
+
+    /** Returns whether the platform will start the prepared player by itself. */
+    public boolean isChained() {
+        return mPrepared && mChainedTo != null;
+    }
+
+    public Item getItem() {
+        return mItem;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * Drops the prepared track: unchains it, so the current track doesn't run into a track that
+     * is no longer next, and resets the player for the next {@link #prepare}.
+     */
+    public void cancel() {
+        if (mChainedTo != null && mPrepared) {
+            try {
+                mChainedTo.setNextPlayer(null);
+            } catch (IllegalStateException e) {
+                // already reset or released, so nothing is chained anymore
+            }
+        }
+        if (mPlayer != null && mItem != null) mPlayer.reset();
+        mItem = null;
+        mPosition = -1;
+        mPrepared = false;
+        mChainedTo = null;
+    }
+
+    /**
+     * Hands over the prepared player to become the current one, and forgets it. Call
+     * {@link #recycle(PlayerBackend)} with the player it replaces.
+     */
+    public PlayerBackend take() {
+        PlayerBackend player = mPlayer;
+        player.setListener(mListener);
+        mPlayer = null;
+        mItem = null;
+        mPosition = -1;
+        mPrepared = false;
+        mChainedTo = null;
+        return player;
+    }
+
+    /** Takes a finished player back, to prepare the following tracks with. */
+    public void recycle(PlayerBackend player) {
+        if (mPlayer != null) {
+            player.release();
+            return;
+        }
+        player.reset();
+        player.setListener(this);
+        mPlayer = player;
+    }
+
+    /** Drops the prepared track and releases the player. */
+    public void release() {
+        cancel();
+        if (mPlayer != null) {
+            mPlayer.release();
+            mPlayer = null;
+        }
+    }
+}
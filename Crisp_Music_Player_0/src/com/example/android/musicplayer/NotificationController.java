@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+
+/**
+ * Keeps the service's foreground notification in step with what is playing, without posting
+ * more than it has to. Callers say what the notification should show; the controller posts it
+ * at most once per {@link #COALESCE_MS}, and only if something differs from what it posted
+ * last. So skipping through ten tracks, each asking for a new title, art and state, posts a
+ * handful of notifications rather than thirty.
+ *
+ * Taking the notification down is deferred the same way, so a track change (which lets go of
+ * the foreground and takes it again right away) doesn't remove and re-add the notification.
+ * Everything runs on the handler's thread.
+ */
+public class NotificationController {
+    final static String TAG = "NotificationController";
+
+    // how long changes are collected before they are posted together
+    static final long COALESCE_MS = 250;
+
+    final Service mService;
+    final NotificationManager mManager;
+    final Handler mHandler;
+    final int mId;
+    final int mIcon;
+    final PendingIntent mContentIntent;
+
+    // what the notification should show, and whether it should be shown at all
+    boolean mForeground;
+    String mTitle;
+    String mText;
+    String mTicker;
+    Bitmap mLargeIcon;
+
+    // what was last posted; art is compared by identity, the cache hands out one bitmap per album
+    boolean mShown;
+    String mShownTitle;
+    String mShownText;
+    String mShownTicker;
+    Bitmap mShownLargeIcon;
+
+    boolean mFlushPending;
+
+    // counters, see getStats()
+    int mRequested;
+    int mPosted;
+
+    public NotificationController(Service service, Handler handler, int id, int icon,
+            PendingIntent contentIntent) {
+        mService = service;
+        mManager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+        mHandler = handler;
+        mId = id;
+        mIcon = icon;
+        mContentIntent = contentIntent;
+    }
+
+    final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            mFlushPending = false;
+            flush();
+        }
+    };
+
+    /**
+     * Shows the notification, making the service a foreground service, with the given title,
+     * text (which also scrolls by as the ticker) and art. If it isn't shown yet it is posted
+     * right away; otherwise the change is posted with any others that follow shortly.
+     */
+    public void show(String title, String text, Bitmap largeIcon) {
+        mForeground = true;
+        mTitle = title;
+        mText = text;
+        mTicker = text;
+        mLargeIcon = largeIcon;
+        request(!mShown);
+    }
+
+    /** Changes the text, say to tell that the track went from loading to playing. */
+    public void setText(String text) {
+        mText = text;
+        request(false);
+    }
+
+    public void setLargeIcon(Bitmap largeIcon) {
+        mLargeIcon = largeIcon;
+        request(false);
+    }
+
+    /**
+     * Takes the notification down and stops being a foreground service: right away if now is
+     * set, otherwise after the coalescing delay, unless the notification is shown again first.
+     */
+    public void hide(boolean now) {
+        mForeground = false;
+        request(now);
+    }
+
+    void request(boolean now) {
+        mRequested++;
+        if (now) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushPending = false;
+            flush();
+        } else if (!mFlushPending) {
+            mFlushPending = true;
+            mHandler.postDelayed(mFlushRunnable, COALESCE_MS);
+        }
+    }
+
+    void flush() {
+        if (!mForeground) {
+            if (mShown) {
+                mService.stopForeground(true);
+                mShown = false;
+                mPosted++;
+            }
+            return;
+        }
+        if (mShown && equal(mTitle, mShownTitle) && equal(mText, mShownText)
+                && equal(mTicker, mShownTicker) && mLargeIcon == mShownLargeIcon) {
+            return;
+        }
+
+        Notification notification = new Notification();
+        notification.icon = mIcon;
+        // the ticker only scrolls by again when it changed
+        if (!mShown || !equal(mTicker, mShownTicker)) notification.tickerText = mTicker;
+        notification.largeIcon = mLargeIcon;
+        notification.flags |= Notification.FLAG_ONGOING_EVENT;
+        notification.setLatestEventInfo(mService.getApplicationContext(), mTitle, mText,
+                mContentIntent);
+        if (mShown) {
+            mManager.notify(mId, notification);
+        } else {
+            mService.startForeground(mId, notification);
+            mShown = true;
+        }
+        mPosted++;
+        mShownTitle = mTitle;
+        mShownText = mText;
+        mShownTicker = mTicker;
+        mShownLargeIcon = mLargeIcon;
+    }
+
+    static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /** Returns how many updates were asked for, and how many of them were posted. */
+    public String getStats() {
+        return "Notification: " + mRequested + " updates requested, " + mPosted + " posted, "
+                + (mRequested - mPosted) + " suppressed";
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Sorts int arrays by an int key per value, splitting the work over one background thread per
+ * CPU core: the array is cut into parts that are sorted concurrently, and the sorted parts are
+ * then merged pairwise, each round of merges also running concurrently. Small arrays are sorted
+ * on the calling thread.
+ *
+ * Every value is packed with its key into a long (key in the high half, original position in
+ * the low half), so the parts are sorted with the primitive {@link Arrays#sort(long[])} and no
+ * comparator or boxing is involved. Because the position breaks ties, the sort is stable.
+ */
+public class ParallelSort {
+    // parts smaller than this aren't worth handing to another thread
+    static final int MIN_PART_SIZE = 8 * 1024;
+
+    static ExecutorService sExecutor;
+
+    static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ParallelSort");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return sExecutor;
+    }
+
+    /** Returns how many parts a job over count elements should be split into. */
+    static int partsFor(int count) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cores, count / MIN_PART_SIZE));
+    }
+
+    static <T> Future<T> submit(Callable<T> task) {
+        return getExecutor().submit(task);
+    }
+
+    /** Waits for all the tasks, rethrowing the first failure. */
+    static void await(Future<?>[] futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw LibraryCollator.unwrap(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the values sorted by keys[value]; values with equal keys keep their order. Keys
+     * must not be negative.
+     */
+    public static int[] sortByKey(int[] values, int[] keys) {
+        int count = values.length;
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            packed[i] = ((long) keys[values[i]] << 32) | i;
+        }
+        sort(packed);
+        int[] sorted = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = values[(int) packed[i]];
+        }
+        return sorted;
+    }
+
+    static void sort(long[] values) {
+        sort(values, partsFor(values.length));
+    }
+
+    /** Sorts the values in the given number of parts, then merges the sorted parts. */
+    static void sort(long[] values, int parts) {
+        int count = values.length;
+        if (parts == 1) {
+            Arrays.sort(values);
+            return;
+        }
+
+        // bounds[p] is where part p starts; the last entry is the end of the array
+        int[] bounds = new int[parts + 1];
+        for (int p = 0; p <= parts; p++) {
+            bounds[p] = (int) ((long) count * p / parts);
+        }
+        Future<?>[] futures = new Future<?>[parts];
+        for (int p = 0; p < parts; p++) {
+            futures[p] = submit(new SortTask(values, bounds[p], bounds[p + 1]));
+        }
+        await(futures);
+
+        long[] source = values;
+        long[] target = new long[count];
+        while (bounds.length > 2) {
+            int runs = bounds.length - 1;
+            int[] merged = new int[(runs + 1) / 2 + 1];
+            futures = new Future<?>[(runs + 1) / 2];
+            for (int r = 0; r < runs; r += 2) {
+                int end = r + 2 <= runs ? bounds[r + 2] : bounds[r + 1];
+                futures[r / 2] = submit(new MergeTask(source, target, bounds[r],
+                        bounds[Math.min(r + 1, runs)], end));
+                merged[r / 2] = bounds[r];
+            }
+            merged[merged.length - 1] = count;
+            await(futures);
+            bounds = merged;
+            long[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != values) System.arraycopy(source, 0, values, 0, count);
+    }
+
+    static class SortTask implements Callable<Void> {
+        final long[] mValues;
+        final int mFrom;
+        final int mTo;
+
+        SortTask(long[] values, int from, int to) {
+            mValues = values;
+            mFrom = from;
+            mTo = to;
+        }
+
+        public Void call() {
+            Arrays.sort(mValues, mFrom, mTo);
+            return null;
+        }
+    }
+
+    /** Merges the sorted runs [from, middle) and [middle, to) of source into target. */
+    static class MergeTask implements Callable<Void> {
+        final long[] mSource;
+        final long[] mTarget;
+        final int mFrom;
+        final int mMiddle;
+        final int mTo;
+
+        MergeTask(long[] source, long[] target, int from, int middle, int to) {
+            mSource = source;
+            mTarget = target;
+            mFrom = from;
+            mMiddle = middle;
+            mTo = to;
+        }
+
+        public Void call() {
+            int left = mFrom;
+            int right = mMiddle;
+            for (int i = mFrom; i < mTo; i++) {
+                if (right >= mTo || (left < mMiddle && mSource[left] <= mSource[right])) {
+                    mTarget[i] = mSource[left++];
+                } else {
+                    mTarget[i] = mSource[right++];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.util.Log;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+import java.util.Random;
+
+/**
+ * The order in which the tracks of a list are played. The list itself (the "base") is never
+ * copied: when shuffled, the queue only holds a permutation of the base's indexes and its
+ * inverse, so switching shuffle on costs one pass over an int array, and switching it off finds
+ * the current track's place in the base with a single lookup.
+ *
+ * Positions are places in the play order; indexes are places in the base list. Without shuffle
+ * they are the same.
+ *
+ * Big lists are shuffled lazily: instead of a permutation array, the queue keeps a seed, and
+ * works out the base index of a play position (and back) when it is asked for, with a
+ * {@link #feistel Feistel network} keyed by the seed. That is a bijection on a power-of-two
+ * range, restricted to the list by "cycle walking" (applying it again until the result falls
+ * in the list). Shuffling then takes constant time whatever the size of the list, the same seed
+ * always gives the same order, and going back to previous tracks works like in any other order.
+ */
+public class PlayQueue {
+    final static String TAG = "PlayQueue";
+
+    // lists at least this long are shuffled lazily
+    static final int LAZY_SHUFFLE_SIZE = 2048;
+    static final int FEISTEL_ROUNDS = 4;
+
+    TrackList mBase;
+
+    // play position -> base index, and base index -> play position; null when not shuffled or
+    // shuffled lazily
+    int[] mOrder;
+    int[] mInverse;
+
+    // lazy shuffle: the seed, the size of the list it was made for (-1 when not shuffled
+    // lazily), the bits of each half of the Feistel network's input, and the pinned track
+    long mSeed;
+    int mLazySize = -1;
+    int mHalfBits;
+    int mPinnedIndex = -1;
+    int mPinnedSwap;
+
+    // whether to shuffle with SmartShuffle, which keeps artists apart
+    boolean mSmart;
+
+    final Random mRandom;
+
+    public PlayQueue(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Sets the list to play from. Switching to another list drops the shuffled order, which
+     * belonged to the previous list.
+     */
+    public void setBase(TrackList base) {
+        if (base != mBase) {
+            mBase = base;
+            unshuffle();
+        }
+    }
+
+    public TrackList getBase() {
+        return mBase;
+    }
+
+    public int size() {
+        return mBase == null ? 0 : mBase.size();
+    }
+
+    public boolean isShuffled() {
+        return mOrder != null || mLazySize >= 0;
+    }
+
+    /**
+     * Picks a smart shuffle (see {@link SmartShuffle}) or a plain random one for the shuffles
+     * that follow.
+     */
+    public void setSmart(boolean smart) {
+        mSmart = smart;
+    }
+
+    public boolean isSmart() {
+        return mSmart;
+    }
+
+    /** Returns the seed of a lazy shuffle, which gives the same order again when reused. */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Returns whether the shuffled order still covers the base, which it stops doing when
+     * tracks are added to or removed from the base list.
+     */
+    public boolean isOrderValid() {
+        if (mLazySize >= 0) return mLazySize == size();
+        return mOrder == null || mOrder.length == size();
+    }
+
+    /** Returns the base index of the track at the given play position. */
+    public int indexAt(int position) {
+        if (position < 0 || position >= size()) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+        }
+        if (mLazySize >= 0) {
+            if (position == 0 && mPinnedIndex >= 0) return mPinnedIndex;
+            if (position == mPinnedSwap && mPinnedIndex >= 0) return permute(0);
+            return permute(position);
+        }
+        return mOrder == null ? position : mOrder[position];
+    }
+
+    /** Returns the play position of the track at the given base index. */
+    public int positionOf(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        if (mLazySize >= 0) {
+            if (index == mPinnedIndex) return 0;
+            if (mPinnedIndex >= 0 && index == permute(0)) return mPinnedSwap;
+            return unpermute(index);
+        }
+        return mInverse == null ? index : mInverse[index];
+    }
+
+    /** Returns the play position of the given store row, or -1 if it isn't queued. */
+    public int positionOfRow(int row) {
+        int index = mBase == null ? -1 : mBase.indexOfRow(row);
+        return index < 0 ? -1 : positionOf(index);
+    }
+
+    /** Returns the store row of the track at the given play position. */
+    public int getRow(int position) {
+        return mBase.getRow(indexAt(position));
+    }
+
+    /** Returns the track at the given play position. */
+    public Item get(int position) {
+        return mBase.get(indexAt(position));
+    }
+
+    /**
+     * Shuffles the play order. The track at base index first (if first is not negative) is
+     * moved to the front, so the track that was playing stays the current one; the others
+     * follow in random order. Big lists are shuffled lazily, unless the shuffle is smart.
+     */
+    public void shuffle(int first) {
+        if (mSmart) {
+            shuffleSmart(first);
+        } else if (size() >= LAZY_SHUFFLE_SIZE) {
+            shuffle(first, mRandom.nextLong());
+        } else {
+            shuffleNow(first);
+        }
+    }
+
+    /**
+     * Shuffles the play order lazily with the given seed, in constant time. Like
+     * {@link #shuffle(int)}, the track at base index first (if first is not negative) comes
+     * first.
+     */
+    public void shuffle(int first, long seed) {
+        int size = size();
+        mOrder = null;
+        mInverse = null;
+        mSeed = seed;
+        mLazySize = size;
+        mHalfBits = 1;
+        while (1L << (2 * mHalfBits) < size) mHalfBits++;
+        // Swap the pinned track with whatever the permutation puts first
+        if (first >= 0 && first < size) {
+            mPinnedIndex = first;
+            mPinnedSwap = unpermute(first);
+        } else {
+            mPinnedIndex = -1;
+        }
+    }
+
+    /** Shuffles the play order into a permutation array with Fisher-Yates. */
+    void shuffleNow(int first) {
+        mLazySize = -1;
+        int size = size();
+        if (mOrder == null || mOrder.length != size) {
+            mOrder = new int[size];
+            mInverse = new int[size];
+        }
+        int[] order = mOrder;
+        for (int i = 0; i < size; i++) order[i] = i;
+        int start = 0;
+        if (first >= 0 && first < size) {
+            order[0] = first;
+            order[first] = 0;
+            start = 1;
+        }
+        // Fisher-Yates over the positions after the pinned track
+        for (int i = size - 1; i > start; i--) {
+            int j = start + mRandom.nextInt(i - start + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int i = 0; i < size; i++) mInverse[order[i]] = i;
+    }
+
+    /** Shuffles the play order with {@link SmartShuffle}, logging its time and spread. */
+    void shuffleSmart(int first) {
+        long start = System.nanoTime();
+        int[] order = SmartShuffle.shuffle(mBase, first, mRandom);
+        long elapsed = System.nanoTime() - start;
+        mLazySize = -1;
+        mOrder = order;
+        mInverse = new int[order.length];
+        for (int i = 0; i < order.length; i++) mInverse[order[i]] = i;
+        Log.i(TAG, "Smart shuffle of " + order.length + " tracks took " + elapsed / 1000000
+                + " ms, same artist at least " + SmartShuffle.minArtistDistance(mBase, order)
+                + " tracks apart");
+    }
+
+    /** Goes back to playing the base list in order. */
+    public void unshuffle() {
+        mOrder = null;
+        mInverse = null;
+        mLazySize = -1;
+    }
+
+    /** Returns where the lazy shuffle puts position i (before pinning). */
+    int permute(int i) {
+        do {
+            i = feistel(i, false);
+        } while (i >= mLazySize);
+        return i;
+    }
+
+    /** Returns the position the lazy shuffle gives base index i (before pinning). */
+    int unpermute(int i) {
+        do {
+            i = feistel(i, true);
+        } while (i >= mLazySize);
+        return i;
+    }
+
+    /**
+     * A bijection on [0, 4^mHalfBits), or its inverse. The input is split into two halves, and
+     * each round replaces one half with itself xor a hash of the other half, which can always be
+     * undone by running the rounds backwards.
+     */
+    int feistel(int value, boolean inverse) {
+        int mask = (1 << mHalfBits) - 1;
+        int left = value >>> mHalfBits;
+        int right = value & mask;
+        if (!inverse) {
+            for (int round = 0; round < FEISTEL_ROUNDS; round++) {
+                int next = left ^ (roundHash(right, round) & mask);
+                left = right;
+                right = next;
+            }
+        } else {
+            for (int round = FEISTEL_ROUNDS - 1; round >= 0; round--) {
+                int previous = right ^ (roundHash(left, round) & mask);
+                right = left;
+                left = previous;
+            }
+        }
+        return (left << mHalfBits) | right;
+    }
+
+    int roundHash(int half, int round) {
+        long h = mSeed + (round + 1) * 0x9E3779B97F4A7C15L + half;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return (int) (h ^ (h >>> 33));
+    }
+}
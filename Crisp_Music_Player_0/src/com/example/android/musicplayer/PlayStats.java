@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+/**
+ * How often each track of a {@link LibraryStore} was played to the end and how often it was
+ * skipped, indexed by store row, and the weight that gives the track in weighted random play.
+ */
+public class PlayStats {
+    int[] mCompletions = new int[LibraryStore.INITIAL_CAPACITY];
+    int[] mSkips = new int[LibraryStore.INITIAL_CAPACITY];
+
+    public synchronized void recordCompletion(int row) {
+        ensureCapacity(row + 1);
+        mCompletions[row]++;
+    }
+
+    public synchronized void recordSkip(int row) {
+        ensureCapacity(row + 1);
+        mSkips[row]++;
+    }
+
+    /**
+     * Returns the weight of the track at the row: the share of its plays that went to the end,
+     * counting one extra completion and one extra skip so that a track never played weighs 1/2
+     * and a single skip doesn't rule a track out.
+     */
+    public synchronized double weight(int row) {
+        if (row >= mCompletions.length) return 0.5;
+        return (mCompletions[row] + 1.0) / (mCompletions[row] + mSkips[row] + 2.0);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity <= mCompletions.length) return;
+        int newCapacity = Math.max(capacity, mCompletions.length * 2);
+        mCompletions = LibraryStore.copyOf(mCompletions, newCapacity);
+        mSkips = LibraryStore.copyOf(mSkips, newCapacity);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+/**
+ * Where playback is in the queue and which modes are on, as one immutable snapshot. A state is
+ * never changed: the with* methods return a copy with one thing changed, and
+ * {@link MusicRetriever} publishes the copy in place of the old state atomically. So a reader
+ * that holds a state sees a position and modes that were all current at the same moment,
+ * without taking any lock.
+ */
+public final class PlaybackState {
+    /** The state before anything is played: in order, from the sorted song list. */
+    public static final PlaybackState INITIAL =
+            new PlaybackState(1, false, false, false, false, false, true, false);
+
+    /** Makes a new state out of the current one, for {@link MusicRetriever#update}. */
+    public interface Transition {
+        PlaybackState apply(PlaybackState state);
+    }
+
+    // play position of the current track in the queue
+    final int mPosition;
+
+    final boolean mShuffle;
+    final boolean mSmartShuffle;
+    final boolean mWeightedRandom;
+    final boolean mRepeat;
+
+    // which list to play from, see MusicRetriever.getBaseList()
+    final boolean mUsingPlaylist;
+    final boolean mMainSongList;
+    final boolean mUsingGenPlaylist;
+
+    PlaybackState(int position, boolean shuffle, boolean smartShuffle, boolean weightedRandom,
+            boolean repeat, boolean usingPlaylist, boolean mainSongList,
+            boolean usingGenPlaylist) {
+        mPosition = position;
+        mShuffle = shuffle;
+        mSmartShuffle = smartShuffle;
+        mWeightedRandom = weightedRandom;
+        mRepeat = repeat;
+        mUsingPlaylist = usingPlaylist;
+        mMainSongList = mainSongList;
+        mUsingGenPlaylist = usingGenPlaylist;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
+    public boolean isShuffle() {
+        return mShuffle;
+    }
+
+    public boolean isSmartShuffle() {
+        return mSmartShuffle;
+    }
+
+    public boolean isWeightedRandom() {
+        return mWeightedRandom;
+    }
+
+    public boolean isRepeat() {
+        return mRepeat;
+    }
+
+    public boolean isUsingPlaylist() {
+        return mUsingPlaylist;
+    }
+
+    public boolean isMainSongList() {
+        return mMainSongList;
+    }
+
+    public boolean isUsingGenPlaylist() {
+        return mUsingGenPlaylist;
+    }
+
+    public PlaybackState withPosition(int position) {
+        if (position == mPosition) return this;
+        return new PlaybackState(position, mShuffle, mSmartShuffle, mWeightedRandom, mRepeat,
+                mUsingPlaylist, mMainSongList, mUsingGenPlaylist);
+    }
+
+    /**
+     * Returns the state with shuffle turned on or off and the given position, which changes
+     * along with it since turning shuffle on or off moves the current track.
+     */
+    public PlaybackState withShuffle(boolean shuffle, int position) {
+        return new PlaybackState(position, shuffle, mSmartShuffle, mWeightedRandom, mRepeat,
+                mUsingPlaylist, mMainSongList, mUsingGenPlaylist);
+    }
+
+    public PlaybackState withSmartShuffle(boolean smartShuffle) {
+        return new PlaybackState(mPosition, mShuffle, smartShuffle, mWeightedRandom, mRepeat,
+                mUsingPlaylist, mMainSongList, mUsingGenPlaylist);
+    }
+
+    public PlaybackState withWeightedRandom(boolean weightedRandom) {
+        return new PlaybackState(mPosition, mShuffle, mSmartShuffle, weightedRandom, mRepeat,
+                mUsingPlaylist, mMainSongList, mUsingGenPlaylist);
+    }
+
+    public PlaybackState withRepeat(boolean repeat) {
+        return new PlaybackState(mPosition, mShuffle, mSmartShuffle, mWeightedRandom, repeat,
+                mUsingPlaylist, mMainSongList, mUsingGenPlaylist);
+    }
+
+    /** Returns the state playing from another list, starting at the given position. */
+    public PlaybackState withList(boolean usingPlaylist, boolean mainSongList,
+            boolean usingGenPlaylist, int position) {
+        return new PlaybackState(position, mShuffle, mSmartShuffle, mWeightedRandom, mRepeat,
+                usingPlaylist, mainSongList, usingGenPlaylist);
+    }
+
+    @Override
+    public String toString() {
+        return "PlaybackState[position=" + mPosition + ", shuffle=" + mShuffle + ", smart="
+                + mSmartShuffle + ", weighted=" + mWeightedRandom + ", repeat=" + mRepeat
+                + ", playlist=" + mUsingPlaylist + ", songs=" + mMainSongList + ", generated="
+                + mUsingGenPlaylist + "]";
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+
+/**
+ * The part of a media player the service plays tracks with. It follows MediaPlayer's methods
+ * and state rules, so {@link MediaPlayerBackend} only has to pass calls on; the service, the
+ * {@link NextTrackPlayer} and the {@link CrossfadeEngine} only see this interface, so they can
+ * be driven by a scripted player instead.
+ */
+public interface PlayerBackend {
+    /** Told about the player's progress, on the thread its events arrive on. */
+    interface Listener {
+        void onPrepared(PlayerBackend player);
+
+        void onCompletion(PlayerBackend player);
+
+        /** Returns whether the error was handled; if not, onCompletion() follows. */
+        boolean onError(PlayerBackend player, int what, int extra);
+    }
+
+    /** Creates players that hold a partial wake lock while playing. */
+    interface Factory {
+        PlayerBackend create(Context context);
+    }
+
+    void setListener(Listener listener);
+
+    void setAudioStreamType(int streamType);
+
+    void setDataSource(Context context, Uri uri) throws IOException;
+
+    void setDataSource(String path) throws IOException;
+
+    void prepareAsync();
+
+    void start();
+
+    void pause();
+
+    void stop();
+
+    void reset();
+
+    void release();
+
+    void seekTo(int msec);
+
+    boolean isPlaying();
+
+    int getCurrentPosition();
+
+    int getDuration();
+
+    void setVolume(float leftVolume, float rightVolume);
+
+    /**
+     * Chains a prepared player to start the moment this one's track ends, or unchains it if
+     * next is null. Returns false if the platform can't chain players.
+     */
+    boolean setNextPlayer(PlayerBackend next);
+}
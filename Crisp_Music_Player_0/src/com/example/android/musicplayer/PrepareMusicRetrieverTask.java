@@ -20,10 +20,14 @@ import android.os.AsyncTask;
 
 /**
  * Asynchronous task that prepares a MusicRetriever. This asynchronous task essentially calls
- * {@link MusicRetriever#prepare()} on a {@link MusicRetriever}, which may take some time to
- * run. Upon finishing, it notifies the indicated {@MusicRetrieverPreparedListener}.
+ * {@link MusicRetriever#prepare(MusicRetriever.BatchListener)} on a {@link MusicRetriever}, which
+ * may take some time to run. Each batch of tracks read is published to the UI thread, where it is
+ * added to the retriever's track list and reported to the indicated
+ * {@MusicRetrieverPreparedListener}, so playback can start before the whole library is read.
+ * Upon finishing, it notifies the listener once more.
  */
-public class PrepareMusicRetrieverTask extends AsyncTask<Void, Void, Void> {
+public class PrepareMusicRetrieverTask extends AsyncTask<Void, Integer, Void>
+        implements MusicRetriever.BatchListener {
     MusicRetriever mRetriever;
     MusicRetrieverPreparedListener mListener;
 
@@ -35,16 +39,36 @@ public class PrepareMusicRetrieverTask extends AsyncTask<Void, Void, Void> {
 
     @Override
     protected Void doInBackground(Void... arg0) {
-        mRetriever.prepare();
+        mRetriever.prepare(this);
         return null;
     }
 
+    public void onBatchRead(int trackCount) {
+        publishProgress(trackCount);
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... trackCounts) {
+        // progress updates may be coalesced, so only the latest count matters
+        int trackCount = trackCounts[trackCounts.length - 1];
+        if (MusicRetriever.publishRows(trackCount) > 0) {
+            mListener.onMusicRetrieverBatch(trackCount);
+        }
+    }
+
     @Override
     protected void onPostExecute(Void result) {
+        MusicRetriever.publishRows(MusicRetriever.mLibrary.size());
         mListener.onMusicRetrieverPrepared();
     }
 
     public interface MusicRetrieverPreparedListener {
+        /**
+         * Called on the UI thread whenever more tracks are available, before
+         * {@link #onMusicRetrieverPrepared()}. The retriever can serve tracks from this point on.
+         */
+        public void onMusicRetrieverBatch(int trackCount);
+
         public void onMusicRetrieverPrepared();
     }
 }
@@ -18,11 +18,14 @@ package com.example.android.musicplayer;
 
 import android.app.PendingIntent;
 import android.graphics.Bitmap;
+import android.media.RemoteControlClient;
 import android.os.Looper;
 import android.util.Log;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * RemoteControlClient enables exposing information meant to be consumed by remote controls capable
@@ -32,6 +35,10 @@ import java.lang.reflect.Method;
  * {@link android.media.AudioManager#registerMediaButtonEventReceiver(android.content.ComponentName)}
  * before the RemoteControlClient can be registered through
  * {@link android.media.AudioManager#registerRemoteControlClient(android.media.RemoteControlClient)}.
+ *
+ * On SDK level 14 and up the client is called directly; the reflective Methods are only a
+ * fallback, and are looked up once rather than for every editor. Metadata, playback state and
+ * transport flags that are the same as what was applied last are not sent again.
  */
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class RemoteControlClientCompat {
@@ -45,8 +52,32 @@ public class RemoteControlClientCompat {
     private static Method sRCCSetPlayStateMethod;
     private static Method sRCCSetTransportControlFlags;
 
+    // MetadataEditor methods, looked up with the first editor
+    private static Method sMEPutStringMethod;
+    private static Method sMEPutBitmapMethod;
+    private static Method sMEPutLongMethod;
+    private static Method sMEApplyMethod;
+
     private static boolean sHasRemoteControlAPIs = false;
 
+    // whether the client can be called directly instead of through reflection
+    private static boolean sDirectCalls = false;
+
+    // what was last applied to the client; UNSET when nothing was
+    private static final int UNSET = Integer.MIN_VALUE;
+    private final Map<Integer, String> mAppliedStrings = new HashMap<Integer, String>();
+    private final Map<Integer, Long> mAppliedLongs = new HashMap<Integer, Long>();
+    private final Map<Integer, Bitmap> mAppliedBitmaps = new HashMap<Integer, Bitmap>();
+    private int mPlaybackState = UNSET;
+    private int mTransportControlFlags = UNSET;
+
+    // counters, see getStats()
+    private int mApplies;
+    private int mAppliesSkipped;
+    private int mKeysWritten;
+    private int mKeysSkipped;
+    private int mStateCallsSkipped;
+
     static {
         try {
             ClassLoader classLoader = RemoteControlClientCompat.class.getClassLoader();
@@ -78,6 +109,7 @@ public class RemoteControlClientCompat {
                     "setTransportControlFlags", int.class);
 
             sHasRemoteControlAPIs = true;
+            sDirectCalls = android.os.Build.VERSION.SDK_INT >= 14;
         } catch (ClassNotFoundException e) {
             // Silently fail when running on an OS before ICS.
         } catch (NoSuchMethodException e) {
@@ -130,44 +162,26 @@ public class RemoteControlClientCompat {
      * information has been set, use {@link #apply()} to make it the new metadata that should be
      * displayed for the associated client. Once the metadata has been "applied", you cannot reuse
      * this instance of the MetadataEditor.
+     *
+     * The values are only collected until {@link #apply()}, which sends the ones that differ from
+     * what the client shows, or nothing at all if none do.
      */
     public class MetadataEditorCompat {
 
-        private Method mPutStringMethod;
-        private Method mPutBitmapMethod;
-        private Method mPutLongMethod;
-        private Method mClearMethod;
-        private Method mApplyMethod;
+        private final boolean mStartEmpty;
 
-        private Object mActualMetadataEditor;
+        // what was put since the editor was created or cleared
+        private final Map<Integer, String> mStrings = new HashMap<Integer, String>();
+        private final Map<Integer, Long> mLongs = new HashMap<Integer, Long>();
+        private final Map<Integer, Bitmap> mBitmaps = new HashMap<Integer, Bitmap>();
 
         /**
          * The metadata key for the content artwork / album art.
          */
         public final static int METADATA_KEY_ARTWORK = 100;
 
-        private MetadataEditorCompat(Object actualMetadataEditor) {
-            if (sHasRemoteControlAPIs && actualMetadataEditor == null) {
-                throw new IllegalArgumentException("Remote Control API's exist, " +
-                        "should not be given a null MetadataEditor");
-            }
-            if (sHasRemoteControlAPIs) {
-                Class metadataEditorClass = actualMetadataEditor.getClass();
-
-                try {
-                    mPutStringMethod = metadataEditorClass.getMethod("putString",
-                            int.class, String.class);
-                    mPutBitmapMethod = metadataEditorClass.getMethod("putBitmap",
-                            int.class, Bitmap.class);
-                    mPutLongMethod = metadataEditorClass.getMethod("putLong",
-                            int.class, long.class);
-                    mClearMethod = metadataEditorClass.getMethod("clear", new Class[]{});
-                    mApplyMethod = metadataEditorClass.getMethod("apply", new Class[]{});
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
-            mActualMetadataEditor = actualMetadataEditor;
+        private MetadataEditorCompat(boolean startEmpty) {
+            mStartEmpty = startEmpty;
         }
 
         /**
@@ -192,18 +206,14 @@ public class RemoteControlClientCompat {
          *      calls together.
          */
         public MetadataEditorCompat putString(int key, String value) {
-            if (sHasRemoteControlAPIs) {
-                try {
-                    mPutStringMethod.invoke(mActualMetadataEditor, key, value);
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
+            mStrings.put(key, value);
             return this;
         }
 
         /**
-         * Sets the album / artwork picture to be displayed on the remote control.
+         * Sets the album / artwork picture to be displayed on the remote control. A bitmap is
+         * only sent again if it is another object than the one applied last, so pass the same
+         * object for the same art.
          * @param key the identifier of the bitmap to set. The only valid value is
          *      {@link #METADATA_KEY_ARTWORK}
          * @param bitmap The bitmap for the artwork, or null if there isn't any.
@@ -213,13 +223,7 @@ public class RemoteControlClientCompat {
          * @see android.graphics.Bitmap
          */
         public MetadataEditorCompat putBitmap(int key, Bitmap bitmap) {
-            if (sHasRemoteControlAPIs) {
-                try {
-                    mPutBitmapMethod.invoke(mActualMetadataEditor, key, bitmap);
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
+            mBitmaps.put(key, bitmap);
             return this;
         }
 
@@ -239,13 +243,7 @@ public class RemoteControlClientCompat {
          * @throws IllegalArgumentException
          */
         public MetadataEditorCompat putLong(int key, long value) {
-            if (sHasRemoteControlAPIs) {
-                try {
-                    mPutLongMethod.invoke(mActualMetadataEditor, key, value);
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
+            mLongs.put(key, value);
             return this;
         }
 
@@ -254,13 +252,9 @@ public class RemoteControlClientCompat {
          * created with {@link android.media.RemoteControlClient#editMetadata(boolean)}.
          */
         public void clear() {
-            if (sHasRemoteControlAPIs) {
-                try {
-                    mClearMethod.invoke(mActualMetadataEditor, (Object[]) null);
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
+            mStrings.clear();
+            mLongs.clear();
+            mBitmaps.clear();
         }
 
         /**
@@ -270,13 +264,7 @@ public class RemoteControlClientCompat {
          * MetadataEditor cannot be reused to edit the RemoteControlClient's metadata.
          */
         public void apply() {
-            if (sHasRemoteControlAPIs) {
-                try {
-                    mApplyMethod.invoke(mActualMetadataEditor, (Object[]) null);
-                } catch (Exception e) {
-                    throw new RuntimeException(e.getMessage(), e);
-                }
-            }
+            if (sHasRemoteControlAPIs) applyMetadata(this);
         }
     }
 
@@ -287,18 +275,145 @@ public class RemoteControlClientCompat {
      * @return a new MetadataEditor instance.
      */
     public MetadataEditorCompat editMetadata(boolean startEmpty) {
-        Object metadataEditor;
-        if (sHasRemoteControlAPIs) {
-            try {
-                metadataEditor = sRCCEditMetadataMethod.invoke(mActualRemoteControlClient,
-                        startEmpty);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        return new MetadataEditorCompat(startEmpty);
+    }
+
+    /**
+     * Sends what an editor holds that the client doesn't show yet. An editor that starts empty
+     * only needs a real empty editor if it leaves out a key that was applied before; otherwise
+     * editing the applied metadata comes to the same.
+     */
+    private void applyMetadata(MetadataEditorCompat editor) {
+        boolean startEmpty = editor.mStartEmpty
+                && (!editor.mStrings.keySet().containsAll(mAppliedStrings.keySet())
+                        || !editor.mLongs.keySet().containsAll(mAppliedLongs.keySet())
+                        || !editor.mBitmaps.keySet().containsAll(mAppliedBitmaps.keySet()));
+        Object actual = startEmpty ? newMetadataEditor(true) : null;
+
+        for (Map.Entry<Integer, String> entry : editor.mStrings.entrySet()) {
+            int key = entry.getKey();
+            String value = entry.getValue();
+            if (!startEmpty && mAppliedStrings.containsKey(key)
+                    && equal(mAppliedStrings.get(key), value)) {
+                mKeysSkipped++;
+                continue;
+            }
+            if (actual == null) actual = newMetadataEditor(false);
+            invokePutString(actual, key, value);
+            mKeysWritten++;
+        }
+        for (Map.Entry<Integer, Long> entry : editor.mLongs.entrySet()) {
+            int key = entry.getKey();
+            Long value = entry.getValue();
+            if (!startEmpty && value.equals(mAppliedLongs.get(key))) {
+                mKeysSkipped++;
+                continue;
+            }
+            if (actual == null) actual = newMetadataEditor(false);
+            invokePutLong(actual, key, value);
+            mKeysWritten++;
+        }
+        for (Map.Entry<Integer, Bitmap> entry : editor.mBitmaps.entrySet()) {
+            int key = entry.getKey();
+            Bitmap value = entry.getValue();
+            if (!startEmpty && mAppliedBitmaps.containsKey(key)
+                    && mAppliedBitmaps.get(key) == value) {
+                mKeysSkipped++;
+                continue;
+            }
+            if (actual == null) actual = newMetadataEditor(false);
+            invokePutBitmap(actual, key, value);
+            mKeysWritten++;
+        }
+
+        if (actual == null) {
+            mAppliesSkipped++;
+            return;
+        }
+        invokeApply(actual);
+        mApplies++;
+        if (startEmpty) {
+            mAppliedStrings.clear();
+            mAppliedLongs.clear();
+            mAppliedBitmaps.clear();
+        }
+        mAppliedStrings.putAll(editor.mStrings);
+        mAppliedLongs.putAll(editor.mLongs);
+        mAppliedBitmaps.putAll(editor.mBitmaps);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private Object newMetadataEditor(boolean startEmpty) {
+        try {
+            if (sDirectCalls) {
+                return DirectCalls.editMetadata(mActualRemoteControlClient, startEmpty);
+            }
+            Object editor = sRCCEditMetadataMethod.invoke(mActualRemoteControlClient, startEmpty);
+            lookUpMetadataEditorMethods(editor.getClass());
+            return editor;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static synchronized void lookUpMetadataEditorMethods(Class metadataEditorClass)
+            throws NoSuchMethodException {
+        if (sMEApplyMethod != null) return;
+        sMEPutStringMethod = metadataEditorClass.getMethod("putString", int.class, String.class);
+        sMEPutBitmapMethod = metadataEditorClass.getMethod("putBitmap", int.class, Bitmap.class);
+        sMEPutLongMethod = metadataEditorClass.getMethod("putLong", int.class, long.class);
+        sMEApplyMethod = metadataEditorClass.getMethod("apply", new Class[]{});
+    }
+
+    private static void invokePutString(Object editor, int key, String value) {
+        try {
+            if (sDirectCalls) {
+                DirectCalls.putString(editor, key, value);
+            } else {
+                sMEPutStringMethod.invoke(editor, key, value);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static void invokePutLong(Object editor, int key, long value) {
+        try {
+            if (sDirectCalls) {
+                DirectCalls.putLong(editor, key, value);
+            } else {
+                sMEPutLongMethod.invoke(editor, key, value);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static void invokePutBitmap(Object editor, int key, Bitmap value) {
+        try {
+            if (sDirectCalls) {
+                DirectCalls.putBitmap(editor, key, value);
+            } else {
+                sMEPutBitmapMethod.invoke(editor, key, value);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static void invokeApply(Object editor) {
+        try {
+            if (sDirectCalls) {
+                DirectCalls.apply(editor);
+            } else {
+                sMEApplyMethod.invoke(editor, (Object[]) null);
             }
-        } else {
-            metadataEditor = null;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
         }
-        return new MetadataEditorCompat(metadataEditor);
     }
 
     /**
@@ -316,11 +431,20 @@ public class RemoteControlClientCompat {
      */
     public void setPlaybackState(int state) {
         if (sHasRemoteControlAPIs) {
+            if (state == mPlaybackState) {
+                mStateCallsSkipped++;
+                return;
+            }
             try {
-                sRCCSetPlayStateMethod.invoke(mActualRemoteControlClient, state);
+                if (sDirectCalls) {
+                    DirectCalls.setPlaybackState(mActualRemoteControlClient, state);
+                } else {
+                    sRCCSetPlayStateMethod.invoke(mActualRemoteControlClient, state);
+                }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            mPlaybackState = state;
         }
     }
 
@@ -338,16 +462,66 @@ public class RemoteControlClientCompat {
      */
     public void setTransportControlFlags(int transportControlFlags) {
         if (sHasRemoteControlAPIs) {
+            if (transportControlFlags == mTransportControlFlags) {
+                mStateCallsSkipped++;
+                return;
+            }
             try {
-                sRCCSetTransportControlFlags.invoke(mActualRemoteControlClient,
-                        transportControlFlags);
+                if (sDirectCalls) {
+                    DirectCalls.setTransportControlFlags(mActualRemoteControlClient,
+                            transportControlFlags);
+                } else {
+                    sRCCSetTransportControlFlags.invoke(mActualRemoteControlClient,
+                            transportControlFlags);
+                }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            mTransportControlFlags = transportControlFlags;
         }
     }
 
     public final Object getActualRemoteControlClientObject() {
         return mActualRemoteControlClient;
     }
+
+    public String getStats() {
+        return "RemoteControlClient: " + mApplies + " metadata applies, " + mAppliesSkipped
+                + " skipped as unchanged; " + mKeysWritten + " keys written, " + mKeysSkipped
+                + " unchanged; " + mStateCallsSkipped + " state and flag calls skipped";
+    }
+
+    /**
+     * Direct calls into RemoteControlClient, for SDK level 14 and up. The class is only loaded
+     * there, so older devices never have to resolve the classes it refers to.
+     */
+    private static class DirectCalls {
+        static Object editMetadata(Object client, boolean startEmpty) {
+            return ((RemoteControlClient) client).editMetadata(startEmpty);
+        }
+
+        static void putString(Object editor, int key, String value) {
+            ((RemoteControlClient.MetadataEditor) editor).putString(key, value);
+        }
+
+        static void putLong(Object editor, int key, long value) {
+            ((RemoteControlClient.MetadataEditor) editor).putLong(key, value);
+        }
+
+        static void putBitmap(Object editor, int key, Bitmap value) {
+            ((RemoteControlClient.MetadataEditor) editor).putBitmap(key, value);
+        }
+
+        static void apply(Object editor) {
+            ((RemoteControlClient.MetadataEditor) editor).apply();
+        }
+
+        static void setPlaybackState(Object client, int state) {
+            ((RemoteControlClient) client).setPlaybackState(state);
+        }
+
+        static void setTransportControlFlags(Object client, int flags) {
+            ((RemoteControlClient) client).setTransportControlFlags(flags);
+        }
+    }
 }
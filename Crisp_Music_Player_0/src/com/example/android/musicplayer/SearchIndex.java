@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Search-as-you-type over the titles, artists and albums of the library. The index works on the
+ * distinct strings of the {@link LibraryStore} pools (its "entries") rather than on tracks, and
+ * only maps matching entries to tracks at the end:
+ * <ul>
+ * <li>for prefixes, the distinct words of all entries are kept in one sorted array, so the
+ * words starting with a query token are a contiguous range found by binary search, each with
+ * the list of entries it appears in;</li>
+ * <li>for substrings, every trigram (three consecutive chars) maps to the entries containing it.
+ * A substring query only has to check the entries of its rarest trigram.</li>
+ * </ul>
+ * All lists are stored as flat int arrays with offsets, like {@link LibraryIndex}. Text is folded
+ * with {@link #fold(String)} before it is indexed or looked up, so matching ignores case, common
+ * accents and punctuation.
+ *
+ * Results are tracks, ranked by what matched (titles before artists before albums, and whole
+ * prefixes before word prefixes before substrings) and then by title. An index is built for a
+ * fixed state of the library and never changes; build a new one when the library changes.
+ */
+public class SearchIndex {
+    final static String TAG = "SearchIndex";
+
+    static final int FIELD_TITLE = 0;
+    static final int FIELD_ARTIST = 1;
+    static final int FIELD_ALBUM = 2;
+    static final int[] FIELD_WEIGHTS = { 3, 2, 1 };
+
+    static final int MATCH_SUBSTRING = 1;
+    static final int MATCH_WORD_PREFIX = 2;
+    static final int MATCH_PREFIX = 3;
+    static final int MAX_SCORE = 3 * MATCH_PREFIX;
+
+    // Latin-1 accented letters and their unaccented counterparts
+    static final String ACCENTED = "\u00e0\u00e1\u00e2\u00e3\u00e4\u00e5\u00e7"
+            + "\u00e8\u00e9\u00ea\u00eb\u00ec\u00ed\u00ee"
+            + "\u00ef\u00f1\u00f2\u00f3\u00f4\u00f5\u00f6"
+            + "\u00f8\u00f9\u00fa\u00fb\u00fc\u00fd\u00ff";
+    static final String UNACCENTED = "aaaaaaceeeeiiiinoooooouuuuyy";
+
+    // entries are the title pool codes, then the artist codes, then the album codes
+    final int mArtistOffset;
+    final int mAlbumOffset;
+    final String[] mFolded;
+
+    // distinct words in sorted order -> entries containing them
+    final String[] mWords;
+    final int[] mWordStart;
+    final int[] mWordEntries;
+
+    // trigram -> entries containing it
+    final LongIntMap mTrigramIds;
+    final int[] mTrigramStart;
+    final int[] mTrigramEntries;
+
+    // entry -> positions in mSongOrder of its tracks, in increasing order
+    final int[] mEntryTrackStart;
+    final int[] mEntryTracks;
+    final int[] mSongOrder;
+
+    // typo-tolerant matching over mWords, built on first use
+    FuzzyMatcher mFuzzyMatcher;
+
+    // scratch space for queries, reused to avoid garbage on every keystroke
+    int mStamp = 0;
+    final int[] mEntryStamps;
+    final int[] mEntryScores;
+    final int[] mEntryDistances;
+    final int[] mTrackStamps;
+    final int[] mTrackScores;
+
+    SearchIndex(int artistOffset, int albumOffset, String[] folded, String[] words,
+            int[] wordStart, int[] wordEntries, LongIntMap trigramIds, int[] trigramStart,
+            int[] trigramEntries, int[] entryTrackStart, int[] entryTracks, int[] songOrder) {
+        mArtistOffset = artistOffset;
+        mAlbumOffset = albumOffset;
+        mFolded = folded;
+        mWords = words;
+        mWordStart = wordStart;
+        mWordEntries = wordEntries;
+        mTrigramIds = trigramIds;
+        mTrigramStart = trigramStart;
+        mTrigramEntries = trigramEntries;
+        mEntryTrackStart = entryTrackStart;
+        mEntryTracks = entryTracks;
+        mSongOrder = songOrder;
+        mEntryStamps = new int[folded.length];
+        mEntryScores = new int[folded.length];
+        mEntryDistances = new int[folded.length];
+        mTrackStamps = new int[songOrder.length];
+        mTrackScores = new int[songOrder.length];
+    }
+
+    /**
+     * Lower-cases the text, removes accents from Latin-1 letters and turns everything that isn't
+     * a letter or digit into a single space. Null folds to the empty string.
+     */
+    public static String fold(String text) {
+        if (text == null) return "";
+        StringBuilder folded = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                int accent = ACCENTED.indexOf(c);
+                folded.append(accent >= 0 ? UNACCENTED.charAt(accent) : c);
+                space = false;
+            } else if (!space) {
+                folded.append(' ');
+                space = true;
+            }
+        }
+        int length = folded.length();
+        if (length > 0 && folded.charAt(length - 1) == ' ') folded.setLength(length - 1);
+        return folded.toString();
+    }
+
+    static long trigram(String text, int i) {
+        return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+                | text.charAt(i + 2);
+    }
+
+    /** Indexes the tracks of the given sort orders, in title order. */
+    public static SearchIndex build(LibraryStore store, SortOrders orders) {
+        long start = System.currentTimeMillis();
+        StringPool titles = store.getTitlePool();
+        StringPool artists = store.getArtistPool();
+        StringPool albums = store.getAlbumPool();
+        int artistOffset = titles.size();
+        int albumOffset = artistOffset + artists.size();
+        String[] folded = new String[albumOffset + albums.size()];
+        for (int code = 0; code < titles.size(); code++) {
+            folded[code] = fold(titles.get(code));
+        }
+        for (int code = 0; code < artists.size(); code++) {
+            folded[artistOffset + code] = fold(artists.get(code));
+        }
+        for (int code = 0; code < albums.size(); code++) {
+            folded[albumOffset + code] = fold(albums.get(code));
+        }
+
+        // (word, entry) and (trigram, entry) pairs, packed into longs
+        HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+        LongIntMap trigramIds = new LongIntMap();
+        PairList wordPairs = new PairList();
+        PairList trigramPairs = new PairList();
+        for (int entry = 0; entry < folded.length; entry++) {
+            String text = folded[entry];
+            int wordStart = 0;
+            while (wordStart < text.length()) {
+                int wordEnd = text.indexOf(' ', wordStart);
+                if (wordEnd < 0) wordEnd = text.length();
+                String word = text.substring(wordStart, wordEnd);
+                Integer id = wordIds.get(word);
+                if (id == null) {
+                    id = wordIds.size();
+                    wordIds.put(word, id);
+                }
+                wordPairs.add(id, entry);
+                wordStart = wordEnd + 1;
+            }
+            for (int i = 0; i + 3 <= text.length(); i++) {
+                long key = trigram(text, i);
+                int id = trigramIds.get(key, -1);
+                if (id < 0) {
+                    id = trigramIds.size();
+                    trigramIds.put(key, id);
+                }
+                trigramPairs.add(id, entry);
+            }
+        }
+
+        // renumber the words in sorted order so that prefixes are ranges
+        String[] words = wordIds.keySet().toArray(new String[wordIds.size()]);
+        Arrays.sort(words);
+        int[] sortedIds = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            sortedIds[wordIds.get(words[i])] = i;
+        }
+        wordPairs.renumberKeys(sortedIds);
+
+        int[] wordStart = new int[words.length + 1];
+        int[] wordEntries = wordPairs.group(wordStart);
+        int[] trigramStart = new int[trigramIds.size() + 1];
+        int[] trigramEntries = trigramPairs.group(trigramStart);
+
+        // each track is listed under its title, artist and album entries
+        int[] songOrder = orders.getSongOrder();
+        int trackCount = songOrder.length;
+        int[] positions = new int[3 * trackCount];
+        int[] entries = new int[3 * trackCount];
+        for (int p = 0; p < trackCount; p++) {
+            int row = songOrder[p];
+            positions[3 * p] = p;
+            entries[3 * p] = store.getTitleCode(row);
+            positions[3 * p + 1] = p;
+            entries[3 * p + 1] = artistOffset + store.getArtistCode(row);
+            positions[3 * p + 2] = p;
+            entries[3 * p + 2] = albumOffset + store.getAlbumCode(row);
+        }
+        int[] entryTrackStart = new int[folded.length + 1];
+        int[] entryTracks = LibraryIndex.group(positions, entries, entryTrackStart);
+
+        SearchIndex index = new SearchIndex(artistOffset, albumOffset, folded, words, wordStart,
+                wordEntries, trigramIds, trigramStart, trigramEntries, entryTrackStart,
+                entryTracks, songOrder);
+        Log.i(TAG, "Built search index over " + folded.length + " entries and " + trackCount
+                + " tracks in " + (System.currentTimeMillis() - start) + " ms, "
+                + (index.memoryBytes() / 1024) + " KB");
+        return index;
+    }
+
+    /**
+     * Returns the rows of the tracks matching the query, best matches first, at most limit of
+     * them. Every word of the query must start a word of the same title, artist or album; if the
+     * query is at least three chars long, titles, artists and albums that merely contain it
+     * match too.
+     */
+    public synchronized int[] search(String query, int limit) {
+        String q = fold(query);
+        if (q.length() == 0 || limit <= 0) return new int[0];
+        IntList matched = new IntList();
+
+        // word prefixes: entries having a word starting with every token
+        String[] tokens = q.split(" ");
+        IntList candidates = entriesWithPrefix(tokens[0]);
+        for (int t = 1; t < tokens.length && candidates.mSize > 0; t++) {
+            IntList next = entriesWithPrefix(tokens[t]);
+            int marker = nextStamp();
+            for (int i = 0; i < next.mSize; i++) mEntryStamps[next.mValues[i]] = marker;
+            int kept = 0;
+            for (int i = 0; i < candidates.mSize; i++) {
+                int entry = candidates.mValues[i];
+                if (mEntryStamps[entry] == marker) candidates.mValues[kept++] = entry;
+            }
+            candidates.mSize = kept;
+        }
+        // the stamps above were only used for intersecting; start scoring afresh
+        int stamp = nextStamp();
+        for (int i = 0; i < candidates.mSize; i++) {
+            int entry = candidates.mValues[i];
+            score(entry, mFolded[entry].startsWith(q) ? MATCH_PREFIX : MATCH_WORD_PREFIX,
+                    stamp, matched);
+        }
+
+        // substrings: verify the entries of the query's rarest trigram
+        if (q.length() >= 3) {
+            int rarest = -1;
+            for (int i = 0; i + 3 <= q.length(); i++) {
+                int id = mTrigramIds.get(trigram(q, i), -1);
+                if (id < 0) {
+                    rarest = -1;
+                    break;
+                }
+                if (rarest < 0 || LibraryIndex.count(mTrigramStart, id)
+                        < LibraryIndex.count(mTrigramStart, rarest)) {
+                    rarest = id;
+                }
+            }
+            if (rarest >= 0) {
+                for (int i = mTrigramStart[rarest]; i < mTrigramStart[rarest + 1]; i++) {
+                    int entry = mTrigramEntries[i];
+                    if (mEntryStamps[entry] != stamp && mFolded[entry].indexOf(q) >= 0) {
+                        score(entry, MATCH_SUBSTRING, stamp, matched);
+                    }
+                }
+            }
+        }
+        return rankTracks(matched, stamp, limit);
+    }
+
+    /**
+     * Like {@link #search(String, int)}, but tolerates typos: every word of the query must be
+     * within a couple of typos of a word (or for the last query word, of the start of a word) of
+     * the same title, artist or album. Tracks are ranked by the total number of typos, then by
+     * field, then by title.
+     */
+    public synchronized int[] searchFuzzy(String query, int limit) {
+        String q = fold(query);
+        if (q.length() == 0 || limit <= 0) return new int[0];
+        FuzzyMatcher matcher = getFuzzyMatcher();
+        String[] tokens = q.split(" ");
+
+        // entries matching every token, with their total distance in mEntryDistances
+        IntList candidates = null;
+        for (int t = 0; t < tokens.length; t++) {
+            String token = tokens[t];
+            FuzzyMatcher.Matches words = matcher.match(token, FuzzyMatcher.maxEdits(token),
+                    t == tokens.length - 1);
+            int marker = nextStamp();
+            IntList entries = new IntList();
+            for (int i = 0; i < words.size(); i++) {
+                int w = words.getWord(i);
+                int distance = words.getDistance(i);
+                for (int j = mWordStart[w]; j < mWordStart[w + 1]; j++) {
+                    int entry = mWordEntries[j];
+                    if (mEntryStamps[entry] != marker) {
+                        mEntryStamps[entry] = marker;
+                        mEntryScores[entry] = distance;
+                        entries.add(entry);
+                    } else if (distance < mEntryScores[entry]) {
+                        mEntryScores[entry] = distance;
+                    }
+                }
+            }
+            if (candidates == null) {
+                candidates = entries;
+                for (int i = 0; i < entries.mSize; i++) {
+                    int entry = entries.mValues[i];
+                    mEntryDistances[entry] = mEntryScores[entry];
+                }
+            } else {
+                int kept = 0;
+                for (int i = 0; i < candidates.mSize; i++) {
+                    int entry = candidates.mValues[i];
+                    if (mEntryStamps[entry] == marker) {
+                        mEntryDistances[entry] += mEntryScores[entry];
+                        candidates.mValues[kept++] = entry;
+                    }
+                }
+                candidates.mSize = kept;
+            }
+            if (candidates.mSize == 0) break;
+        }
+
+        IntList matched = new IntList();
+        int stamp = nextStamp();
+        for (int i = 0; i < candidates.mSize; i++) {
+            int entry = candidates.mValues[i];
+            // fewer typos first, then titles before artists before albums
+            int closeness = Math.max(0, FuzzyMatcher.MAX_EDITS - mEntryDistances[entry]);
+            setScore(entry, 3 * closeness + FIELD_WEIGHTS[getField(entry)], stamp, matched);
+        }
+        return rankTracks(matched, stamp, limit);
+    }
+
+    FuzzyMatcher getFuzzyMatcher() {
+        if (mFuzzyMatcher == null) {
+            long start = System.currentTimeMillis();
+            mFuzzyMatcher = new FuzzyMatcher(mWords);
+            Log.i(TAG, "Built fuzzy matcher over " + mWords.length + " words in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        return mFuzzyMatcher;
+    }
+
+    int nextStamp() {
+        if (++mStamp == 0) {
+            Arrays.fill(mEntryStamps, 0);
+            Arrays.fill(mTrackStamps, 0);
+            mStamp = 1;
+        }
+        return mStamp;
+    }
+
+    void score(int entry, int match, int stamp, IntList matched) {
+        setScore(entry, match * FIELD_WEIGHTS[getField(entry)], stamp, matched);
+    }
+
+    void setScore(int entry, int score, int stamp, IntList matched) {
+        mEntryStamps[entry] = stamp;
+        mEntryScores[entry] = score;
+        matched.add(entry);
+    }
+
+    int getField(int entry) {
+        if (entry < mArtistOffset) return FIELD_TITLE;
+        if (entry < mAlbumOffset) return FIELD_ARTIST;
+        return FIELD_ALBUM;
+    }
+
+    /** Returns the entries having a word that starts with the prefix, without duplicates. */
+    IntList entriesWithPrefix(String prefix) {
+        int first = Arrays.binarySearch(mWords, prefix);
+        if (first < 0) first = -first - 1;
+        int marker = nextStamp();
+        IntList entries = new IntList();
+        for (int w = first; w < mWords.length && mWords[w].startsWith(prefix); w++) {
+            for (int i = mWordStart[w]; i < mWordStart[w + 1]; i++) {
+                int entry = mWordEntries[i];
+                if (mEntryStamps[entry] != marker) {
+                    mEntryStamps[entry] = marker;
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gives every track the best score of its matching entries, and returns the best tracks.
+     * Entries are visited from the best score down; once the tracks found so far fill the
+     * limit, entries with lower scores can't change the result and are skipped. Scores are
+     * small, so the tracks are then bucketed by score and only the buckets needed to reach the
+     * limit are sorted, by position in title order.
+     */
+    int[] rankTracks(IntList matched, int stamp, int limit) {
+        int[] entryStart = new int[MAX_SCORE + 2];
+        for (int i = 0; i < matched.mSize; i++) {
+            entryStart[MAX_SCORE - mEntryScores[matched.mValues[i]] + 1]++;
+        }
+        for (int level = 1; level < entryStart.length; level++) {
+            entryStart[level] += entryStart[level - 1];
+        }
+        int[] entries = new int[matched.mSize];
+        int[] next = LibraryStore.copyOf(entryStart, entryStart.length);
+        for (int i = 0; i < matched.mSize; i++) {
+            int entry = matched.mValues[i];
+            entries[next[MAX_SCORE - mEntryScores[entry]]++] = entry;
+        }
+
+        IntList tracks = new IntList();
+        int[] bucketSizes = new int[MAX_SCORE + 1];
+        for (int level = 0; level <= MAX_SCORE && tracks.mSize < limit; level++) {
+            int score = MAX_SCORE - level;
+            for (int i = entryStart[level]; i < entryStart[level + 1]; i++) {
+                int entry = entries[i];
+                for (int j = mEntryTrackStart[entry]; j < mEntryTrackStart[entry + 1]; j++) {
+                    int p = mEntryTracks[j];
+                    // levels go down, so a track seen before already has a better score
+                    if (mTrackStamps[p] != stamp) {
+                        mTrackStamps[p] = stamp;
+                        mTrackScores[p] = score;
+                        tracks.add(p);
+                        bucketSizes[score]++;
+                    }
+                }
+            }
+        }
+
+        int[] rows = new int[Math.min(limit, tracks.mSize)];
+        int count = 0;
+        for (int score = MAX_SCORE; score > 0 && count < rows.length; score--) {
+            if (bucketSizes[score] == 0) continue;
+            int[] bucket = new int[bucketSizes[score]];
+            int size = 0;
+            for (int i = 0; i < tracks.mSize; i++) {
+                int p = tracks.mValues[i];
+                if (mTrackScores[p] == score) bucket[size++] = p;
+            }
+            Arrays.sort(bucket);
+            for (int i = 0; i < size && count < rows.length; i++) {
+                rows[count++] = mSongOrder[bucket[i]];
+            }
+        }
+        return rows;
+    }
+
+    /** Returns roughly how many bytes the index takes, not counting the shared sort orders. */
+    long memoryBytes() {
+        long bytes = LibraryStore.arrayBytes(mFolded.length, 4)
+                + LibraryStore.arrayBytes(mWords.length, 4);
+        for (String text : mFolded) bytes += LibraryStore.stringBytes(text);
+        for (String word : mWords) bytes += LibraryStore.stringBytes(word);
+        bytes += LibraryStore.arrayBytes(mWordStart.length, 4)
+                + LibraryStore.arrayBytes(mWordEntries.length, 4)
+                + LibraryStore.arrayBytes(mTrigramIds.mKeys.length, 12)
+                + LibraryStore.arrayBytes(mTrigramStart.length, 4)
+                + LibraryStore.arrayBytes(mTrigramEntries.length, 4)
+                + LibraryStore.arrayBytes(mEntryTrackStart.length, 4)
+                + LibraryStore.arrayBytes(mEntryTracks.length, 4)
+                + 3L * LibraryStore.arrayBytes(mEntryStamps.length, 4)
+                + 2L * LibraryStore.arrayBytes(mTrackStamps.length, 4);
+        return bytes;
+    }
+
+    /** Growable list of ints. */
+    static class IntList {
+        int[] mValues = new int[16];
+        int mSize = 0;
+
+        void add(int value) {
+            if (mSize == mValues.length) mValues = LibraryStore.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+    }
+
+    /** Growable list of (key, value) int pairs, packed into longs with the key in the high half. */
+    static class PairList {
+        long[] mPairs = new long[1024];
+        int mSize = 0;
+
+        void add(int key, int value) {
+            if (mSize == mPairs.length) mPairs = LibraryStore.copyOf(mPairs, mSize * 2);
+            mPairs[mSize++] = ((long) key << 32) | value;
+        }
+
+        void renumberKeys(int[] newKeys) {
+            for (int i = 0; i < mSize; i++) {
+                int key = (int) (mPairs[i] >>> 32);
+                mPairs[i] = ((long) newKeys[key] << 32) | (mPairs[i] & 0xffffffffL);
+            }
+        }
+
+        /**
+         * Sorts the pairs and returns the distinct values of each key back to back. Fills start
+         * with the offset of each key's values (start must have one more slot than there are
+         * keys).
+         */
+        int[] group(int[] start) {
+            long[] pairs = LibraryStore.copyOf(mPairs, mSize);
+            ParallelSort.sort(pairs);
+            int[] values = new int[pairs.length];
+            int count = 0;
+            for (int i = 0; i < pairs.length; i++) {
+                if (i > 0 && pairs[i] == pairs[i - 1]) continue;
+                start[(int) (pairs[i] >>> 32) + 1]++;
+                values[count++] = (int) pairs[i];
+            }
+            for (int key = 1; key < start.length; key++) start[key] += start[key - 1];
+            return LibraryStore.copyOf(values, count);
+        }
+    }
+}
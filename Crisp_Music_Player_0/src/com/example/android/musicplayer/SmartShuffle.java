@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A shuffle that spreads each artist's tracks evenly over the play order, so the same artist
+ * rarely comes up twice in a row, and likewise spreads each album over its artist's tracks.
+ *
+ * It works by "dithered" placement. An artist with k tracks gets the positions
+ * (offset + i) / k for i = 0..k-1 on the [0, 1) line, with a random offset in [0, 1) shared by
+ * the artist and a little random jitter per track; sorting every track by its position then
+ * interleaves the artists. Which of the artist's tracks goes in which slot is decided the same
+ * way one level down: the tracks of each of the artist's albums are dithered over [0, 1) and the
+ * artist's tracks are taken in that order, so the albums interleave too. The random offsets and
+ * jitter keep the result from looking like a fixed rotation of artists.
+ *
+ * Grouping and the final ordering are sorts, so the whole shuffle is O(n log n).
+ */
+public class SmartShuffle {
+    // how far a track may stray from its even spot, as a fraction of its artist's spacing
+    static final double JITTER = 0.2;
+
+    // positions in [0, 1) are turned into ints with this many steps for sorting
+    static final double SCALE = 1 << 30;
+
+    /**
+     * Returns a smart shuffle of the list as a play order: the list index of the track to play
+     * at each position. The track at index first (if first is not negative) is played first.
+     */
+    public static int[] shuffle(TrackList list, int first, Random random) {
+        LibraryStore store = list.getStore();
+        int size = list.size();
+        int[] artists = new int[size];
+        int[] albums = new int[size];
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = list.getRow(i);
+            artists[i] = store.getArtistCode(row);
+            albums[i] = store.getAlbumCode(row);
+            indexes[i] = i;
+        }
+
+        // group the tracks by artist, and by album within each artist
+        int[] grouped = ParallelSort.sortByKey(ParallelSort.sortByKey(indexes, albums), artists);
+
+        double[] positions = new double[size];
+        int artistStart = 0;
+        while (artistStart < size) {
+            int artist = artists[grouped[artistStart]];
+            int artistEnd = artistStart;
+            while (artistEnd < size && artists[grouped[artistEnd]] == artist) artistEnd++;
+
+            // spread each album over [0, 1)
+            int albumStart = artistStart;
+            while (albumStart < artistEnd) {
+                int album = albums[grouped[albumStart]];
+                int albumEnd = albumStart;
+                while (albumEnd < artistEnd && albums[grouped[albumEnd]] == album) albumEnd++;
+                shuffleRange(grouped, albumStart, albumEnd, random);
+                dither(grouped, albumStart, albumEnd, positions, random);
+                albumStart = albumEnd;
+            }
+
+            // order the artist's tracks by album position, then spread them over [0, 1)
+            sortRange(grouped, artistStart, artistEnd, positions);
+            dither(grouped, artistStart, artistEnd, positions, random);
+            artistStart = artistEnd;
+        }
+
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) keys[i] = (int) (positions[i] * SCALE);
+        int[] order = ParallelSort.sortByKey(indexes, keys);
+
+        // Start at the pinned track. Rotating keeps the spacing between tracks (the order is
+        // circular on [0, 1)), which moving a single track wouldn't.
+        if (first >= 0 && first < size) {
+            int start = 0;
+            while (order[start] != first) start++;
+            int[] rotated = new int[size];
+            System.arraycopy(order, start, rotated, 0, size - start);
+            System.arraycopy(order, 0, rotated, size - start, start);
+            order = rotated;
+        }
+        return order;
+    }
+
+    /** Spreads the tracks of values[from, to) evenly over [0, 1) in their current order. */
+    static void dither(int[] values, int from, int to, double[] positions, Random random) {
+        int k = to - from;
+        double offset = random.nextDouble();
+        for (int i = 0; i < k; i++) {
+            double jitter = (random.nextDouble() * 2 - 1) * JITTER / 2;
+            double position = (offset + i + jitter) / k;
+            positions[values[from + i]] = position - Math.floor(position);
+        }
+    }
+
+    static void shuffleRange(int[] values, int from, int to, Random random) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    /** Sorts values[from, to) by their positions. */
+    static void sortRange(int[] values, int from, int to, double[] positions) {
+        long[] packed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            packed[i - from] = ((long) (positions[values[i]] * SCALE) << 32) | values[i];
+        }
+        Arrays.sort(packed);
+        for (int i = from; i < to; i++) {
+            values[i] = (int) packed[i - from];
+        }
+    }
+
+    /**
+     * Quality of a play order: the smallest number of positions between two tracks by the same
+     * artist (1 means back to back), or the size of the order if no artist repeats.
+     */
+    public static int minArtistDistance(TrackList list, int[] order) {
+        LibraryStore store = list.getStore();
+        int[] lastSeen = new int[store.getArtistPool().size()];
+        Arrays.fill(lastSeen, -1);
+        int min = order.length;
+        for (int position = 0; position < order.length; position++) {
+            int artist = store.getArtistCode(list.getRow(order[position]));
+            if (lastSeen[artist] >= 0) min = Math.min(min, position - lastSeen[artist]);
+            lastSeen[artist] = position;
+        }
+        return min;
+    }
+}
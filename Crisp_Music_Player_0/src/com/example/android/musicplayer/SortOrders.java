@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+/**
+ * The sorted views of a list of tracks: the tracks in title order, and the artists and albums
+ * they use in name order, all following {@link LibraryCollator}. Building the orders ranks the
+ * title, artist and album pools once, and then sorts by comparing ints.
+ *
+ * Orders are built for a fixed state of the store and never change; build new orders when the
+ * library changes.
+ */
+public class SortOrders {
+    // rows of the tracks in title order, and the artist and album codes they use in name order
+    final int[] mSongOrder;
+    final int[] mArtistOrder;
+    final int[] mAlbumOrder;
+
+    SortOrders(int[] songOrder, int[] artistOrder, int[] albumOrder) {
+        mSongOrder = songOrder;
+        mArtistOrder = artistOrder;
+        mAlbumOrder = albumOrder;
+    }
+
+    /** Sorts the given tracks and the artists and albums they use. */
+    public static SortOrders build(LibraryStore store, TrackList tracks,
+            LibraryCollator collator) {
+        int[] titleRanks = collator.rank(store.getTitlePool());
+        int[] artistRanks = collator.rank(store.getArtistPool());
+        int[] albumRanks = collator.rank(store.getAlbumPool());
+
+        int[] rows = tracks.toRowArray();
+        int[] artists = usedCodes(rows, store.mArtists, artistRanks.length);
+        int[] albums = usedCodes(rows, store.mAlbums, albumRanks.length);
+
+        return new SortOrders(
+                ParallelSort.sortByKey(rows, rowRanks(rows, store.mTitles, titleRanks)),
+                ParallelSort.sortByKey(artists, artistRanks),
+                ParallelSort.sortByKey(albums, albumRanks));
+    }
+
+    /** Returns the distinct codes the rows have in the given column, in order of appearance. */
+    static int[] usedCodes(int[] rows, int[] column, int codeCount) {
+        boolean[] seen = new boolean[codeCount];
+        int[] codes = new int[Math.min(rows.length, codeCount)];
+        int count = 0;
+        for (int row : rows) {
+            int code = column[row];
+            if (!seen[code]) {
+                seen[code] = true;
+                codes[count++] = code;
+            }
+        }
+        return LibraryStore.copyOf(codes, count);
+    }
+
+    /**
+     * Looks up the rank of every row's code, indexed by row. Codes without a rank (added after
+     * the pool was ranked) sort last.
+     */
+    static int[] rowRanks(int[] rows, int[] column, int[] ranks) {
+        int maxRow = -1;
+        for (int row : rows) maxRow = Math.max(maxRow, row);
+        int[] rowRanks = new int[maxRow + 1];
+        for (int row : rows) {
+            int code = column[row];
+            rowRanks[row] = code < ranks.length ? ranks[code] : Integer.MAX_VALUE;
+        }
+        return rowRanks;
+    }
+
+    /** Returns the rows of the tracks in title order. */
+    public int[] getSongOrder() {
+        return mSongOrder;
+    }
+
+    /** Returns the codes of the artists in name order. */
+    public int[] getArtistOrder() {
+        return mArtistOrder;
+    }
+
+    /** Returns the codes of the albums in name order. */
+    public int[] getAlbumOrder() {
+        return mAlbumOrder;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dictionary that maps each distinct string to a small int code. Codes are handed out in
+ * insertion order starting at 0 and never change, so they can be stored in int columns and used
+ * as array indexes. A null string is a valid entry and gets a code like any other value.
+ */
+public class StringPool {
+    final HashMap<String, Integer> mCodes = new HashMap<String, Integer>();
+    final List<String> mValues = new ArrayList<String>();
+
+    /** Returns the code for the given string, adding it to the pool if it's not there yet. */
+    public synchronized int intern(String value) {
+        Integer code = mCodes.get(value);
+        if (code == null) {
+            code = mValues.size();
+            mCodes.put(value, code);
+            mValues.add(value);
+        }
+        return code;
+    }
+
+    /** Returns the code for the given string, or -1 if the pool doesn't contain it. */
+    public synchronized int find(String value) {
+        Integer code = mCodes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /** Returns the string with the given code. */
+    public synchronized String get(int code) {
+        return mValues.get(code);
+    }
+
+    /** Returns the number of distinct strings in the pool. */
+    public synchronized int size() {
+        return mValues.size();
+    }
+
+    public synchronized void clear() {
+        mCodes.clear();
+        mValues.clear();
+    }
+
+    /** Returns the total number of chars held by the distinct strings of this pool. */
+    synchronized long charCount() {
+        long chars = 0;
+        for (String value : mValues) {
+            if (value != null) chars += value.length();
+        }
+        return chars;
+    }
+}
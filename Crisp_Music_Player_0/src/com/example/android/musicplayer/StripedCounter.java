@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads can bump at the same time without contending on one cache line: each
+ * thread adds to one of a few stripes, picked by its ID, and reading the counter sums them.
+ */
+public class StripedCounter {
+    static final int STRIPES = 4;
+    // longs between two stripes, so that each stripe has a 64 byte cache line to itself
+    static final int PADDING = 8;
+
+    final String mName;
+    final AtomicLongArray mStripes = new AtomicLongArray(STRIPES * PADDING);
+
+    public StripedCounter(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        mStripes.addAndGet(stripe * PADDING, delta);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) sum += mStripes.get(i * PADDING);
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) mStripes.set(i * PADDING, 0);
+    }
+}
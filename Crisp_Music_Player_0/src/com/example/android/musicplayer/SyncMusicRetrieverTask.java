@@ -0,0 +1,50 @@
+/*   
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import android.os.AsyncTask;
+
+/**
+ * Asynchronous task that brings an already prepared library up to date. It runs
+ * {@link LibrarySync#query()} in the background and then applies the changes it found with
+ * {@link MusicRetriever#applyChanges(LibrarySync.Changes)} on the UI thread, where the track
+ * lists are read. Upon finishing, it notifies the indicated {@link LibrarySyncedListener}.
+ */
+public class SyncMusicRetrieverTask extends AsyncTask<Void, Void, LibrarySync.Changes> {
+    LibrarySync mSync;
+    LibrarySyncedListener mListener;
+
+    public SyncMusicRetrieverTask(LibrarySync sync, LibrarySyncedListener listener) {
+        mSync = sync;
+        mListener = listener;
+    }
+
+    @Override
+    protected LibrarySync.Changes doInBackground(Void... arg0) {
+        return mSync.query();
+    }
+
+    @Override
+    protected void onPostExecute(LibrarySync.Changes changes) {
+        mListener.onLibrarySynced(MusicRetriever.applyChanges(changes));
+    }
+
+    public interface LibrarySyncedListener {
+        /** @param changed whether the sync changed anything in the library */
+        public void onLibrarySynced(boolean changed);
+    }
+}
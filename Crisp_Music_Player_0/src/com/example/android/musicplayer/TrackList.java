@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.AbstractList;
+import java.util.Random;
+import java.util.RandomAccess;
+
+import com.example.android.musicplayer.MusicRetriever.Item;
+
+/**
+ * A list of tracks backed by an int array of {@link LibraryStore} row indexes. It can be used
+ * anywhere a {@code List<Item>} is expected: {@link #get(int)} returns a freshly created Item for
+ * the row, and Items added to the list must have come from the same store. Callers that only need
+ * the rows should use {@link #getRow(int)} and {@link #addRow(int)}, which don't allocate.
+ */
+public class TrackList extends AbstractList<Item> implements RandomAccess {
+    final LibraryStore mStore;
+    int[] mRows;
+    int mSize = 0;
+
+    public TrackList(LibraryStore store) {
+        mStore = store;
+        mRows = new int[16];
+    }
+
+    public LibraryStore getStore() {
+        return mStore;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Item get(int index) {
+        return mStore.getItem(getRow(index));
+    }
+
+    /** Returns the store row of the track at the given position. */
+    public int getRow(int index) {
+        checkIndex(index, mSize);
+        return mRows[index];
+    }
+
+    @Override
+    public Item set(int index, Item item) {
+        checkIndex(index, mSize);
+        Item previous = mStore.getItem(mRows[index]);
+        mRows[index] = rowOf(item);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Item item) {
+        addRow(index, rowOf(item));
+    }
+
+    public void addRow(int row) {
+        addRow(mSize, row);
+    }
+
+    public void addRow(int index, int row) {
+        checkIndex(index, mSize + 1);
+        if (mSize == mRows.length) {
+            mRows = LibraryStore.copyOf(mRows, mRows.length * 2);
+        }
+        System.arraycopy(mRows, index, mRows, index + 1, mSize - index);
+        mRows[index] = row;
+        mSize++;
+        modCount++;
+    }
+
+    @Override
+    public Item remove(int index) {
+        return mStore.getItem(removeRow(index));
+    }
+
+    /** Removes the track at the given position and returns its store row. */
+    public int removeRow(int index) {
+        checkIndex(index, mSize);
+        int row = mRows[index];
+        System.arraycopy(mRows, index + 1, mRows, index, mSize - index - 1);
+        mSize--;
+        modCount++;
+        return row;
+    }
+
+    @Override
+    public void clear() {
+        mSize = 0;
+        modCount++;
+    }
+
+    /**
+     * Removes every track whose row is set in the given mask, keeping the order of the others.
+     *
+     * @return the number of tracks removed
+     */
+    public int removeRows(boolean[] mask) {
+        int kept = 0;
+        for (int i = 0; i < mSize; i++) {
+            int row = mRows[i];
+            if (row >= mask.length || !mask[row]) mRows[kept++] = row;
+        }
+        int removed = mSize - kept;
+        if (removed > 0) {
+            mSize = kept;
+            modCount++;
+        }
+        return removed;
+    }
+
+    /** Returns the first position holding the given store row, or -1 if there is none. */
+    public int indexOfRow(int row) {
+        for (int i = 0; i < mSize; i++) {
+            if (mRows[i] == row) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Item) || ((Item) o).row < 0) return -1;
+        return indexOfRow(((Item) o).row);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    /** Replaces the contents of this list with the rows of another list. */
+    public void setRows(TrackList other) {
+        mRows = LibraryStore.copyOf(other.mRows, Math.max(other.mSize, 16));
+        mSize = other.mSize;
+        modCount++;
+    }
+
+    /** Shuffles the rows of this list in place (Fisher-Yates). */
+    public void shuffleRows(Random random) {
+        for (int i = mSize - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int row = mRows[i];
+            mRows[i] = mRows[j];
+            mRows[j] = row;
+        }
+        modCount++;
+    }
+
+    /** Returns a copy of the rows held by this list. */
+    public int[] toRowArray() {
+        return LibraryStore.copyOf(mRows, mSize);
+    }
+
+    int rowOf(Item item) {
+        if (item == null || item.row < 0) {
+            throw new IllegalArgumentException("Item does not belong to the library: " + item);
+        }
+        return item.row;
+    }
+
+    static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
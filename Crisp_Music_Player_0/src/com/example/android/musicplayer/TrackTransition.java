@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Locale;
+
+/**
+ * One track change, from deciding which track to play until it is audible, timed stage by
+ * stage. {@link MusicService} starts every track through one pipeline that enters the stages in
+ * order, so where the time of a skip goes can be read off the same few numbers whatever caused
+ * it. A track that was prepared ahead on the next player skips the stages done beforehand.
+ */
+public class TrackTransition {
+    /** Why the track is changing. */
+    public enum Cause {
+        NEXT,       // the last track ended
+        SKIP,       // the user skipped ahead
+        PREVIOUS,   // the user went back
+        GIVEN,      // the user picked a track
+        URL,        // the user asked for a URL or path
+        RETRY,      // the player failed and the track is tried again
+        PREPARED    // the next track was prepared ahead, for gapless playback or a crossfade
+    }
+
+    /** The stages of a transition, in the order they are entered. */
+    public enum Stage {
+        RESOLVE_ITEM,
+        ACQUIRE_PLAYER,
+        SET_SOURCE,
+        PREPARE,
+        START
+    }
+
+    static final Stage[] STAGES = Stage.values();
+
+    final Cause mCause;
+    final Clock mClock;
+    final long mBeganAt;
+    // when each stage was entered, 0 for stages that were skipped
+    final long[] mEnteredAt = new long[STAGES.length];
+    Stage mStage;
+    // when the track became audible or the transition failed; 0 while it's under way
+    long mEndedAt;
+    String mFailure;
+
+    public TrackTransition(Cause cause, Clock clock) {
+        mCause = cause;
+        mClock = clock;
+        mBeganAt = clock.nanoTime();
+    }
+
+    public Cause getCause() {
+        return mCause;
+    }
+
+    /** Returns the stage the transition is in, or reached last; null before the first. */
+    public Stage getStage() {
+        return mStage;
+    }
+
+    public void enter(Stage stage) {
+        if (mEndedAt != 0) return;
+        mEnteredAt[stage.ordinal()] = mClock.nanoTime();
+        mStage = stage;
+    }
+
+    /** Marks the track as audible, which ends the transition. */
+    public void finish() {
+        if (mEndedAt == 0) mEndedAt = mClock.nanoTime();
+    }
+
+    /** Ends the transition without the track having started, in whatever stage it was. */
+    public void fail(String reason) {
+        if (mEndedAt != 0) return;
+        mEndedAt = mClock.nanoTime();
+        mFailure = reason == null ? "unknown error" : reason;
+    }
+
+    public boolean isEnded() {
+        return mEndedAt != 0;
+    }
+
+    /** Returns whether the track started playing. */
+    public boolean isFinished() {
+        return mEndedAt != 0 && mFailure == null;
+    }
+
+    /**
+     * Returns how long the transition spent in a stage, until the next stage it entered or its
+     * end, in nanoseconds; -1 if it skipped the stage or is still in it.
+     */
+    public long getStageNanos(Stage stage) {
+        long entered = mEnteredAt[stage.ordinal()];
+        if (entered == 0) return -1;
+        for (int i = stage.ordinal() + 1; i < STAGES.length; i++) {
+            if (mEnteredAt[i] != 0) return mEnteredAt[i] - entered;
+        }
+        return mEndedAt == 0 ? -1 : mEndedAt - entered;
+    }
+
+    /** Returns how long the whole transition took, in nanoseconds; -1 while it's under way. */
+    public long getTotalNanos() {
+        return mEndedAt == 0 ? -1 : mEndedAt - mBeganAt;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(mCause.name().toLowerCase(Locale.US)).append(':');
+        for (Stage stage : STAGES) {
+            long nanos = getStageNanos(stage);
+            if (nanos < 0) continue;
+            sb.append(' ').append(stage.name().toLowerCase(Locale.US)).append(' ')
+                    .append(formatMs(nanos)).append(',');
+        }
+        if (mEndedAt == 0) {
+            sb.append(" under way in ").append(mStage);
+        } else if (mFailure != null) {
+            sb.append(" failed in ").append(mStage).append(" after ")
+                    .append(formatMs(getTotalNanos())).append(": ").append(mFailure);
+        } else {
+            sb.append(' ').append(formatMs(getTotalNanos())).append(" to audio");
+        }
+        return sb.toString();
+    }
+
+    static String formatMs(long nanos) {
+        return (nanos / 100000) / 10f + " ms";
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.musicplayer;
+
+import java.util.Random;
+
+/**
+ * Draws indexes at random with probability proportional to their weights, leaving out the
+ * indexes drawn most recently.
+ *
+ * Draws use an alias table (Vose's method), which picks an index in constant time: one random
+ * slot, then one coin flip between the slot's own index and its alias. The table is built for a
+ * snapshot of the weights and costs a pass over them, so weights are changed through a Fenwick
+ * tree (a tree of partial sums in one array) instead, in O(log n). As long as no weight has
+ * grown past its snapshot, the alias table still works by rejection: an index it picks is kept
+ * with probability current weight / snapshot weight, otherwise another draw is made, which
+ * gives exactly the current weights. Recently drawn indexes have their current weight at zero,
+ * so they're rejected the same way.
+ *
+ * When a weight grows past its snapshot, or a draw is rejected too many times in a row, draws
+ * walk the Fenwick tree instead. Once the rejections and walks since the table was built have
+ * cost about as much as rebuilding it, it is rebuilt; so weights that keep shrinking, as skipped
+ * tracks' do, don't leave every draw paying for rejections forever.
+ */
+public class WeightedSampler {
+    // draws rejected this many times in a row fall back to the Fenwick tree
+    static final int MAX_REJECTIONS = 16;
+
+    // the weights, and the weights the alias table was built for
+    final double[] mWeights;
+    final double[] mSnapshot;
+
+    // alias table: slot i keeps index i with probability mProbabilities[i], else mAliases[i]
+    final double[] mProbabilities;
+    final int[] mAliases;
+    boolean mAliasValid;
+    // rejected tries and tree levels walked since the table was built; a rebuild costs size()
+    int mFallbackCost;
+
+    // Fenwick tree over the current weights, with recently drawn indexes at zero
+    final double[] mTree;
+    final int mTopBit;
+
+    // ring buffer of the last drawn indexes, and how many times each is in it
+    final int[] mRecent;
+    int mRecentNext = 0;
+    int mRecentSize = 0;
+    final int[] mExcluded;
+
+    /**
+     * Creates a sampler over the given weights (which must not be negative) that leaves out
+     * the last window drawn indexes, or all but one if there are fewer.
+     */
+    public WeightedSampler(double[] weights, int window) {
+        int size = weights.length;
+        mWeights = weights.clone();
+        mSnapshot = new double[size];
+        mProbabilities = new double[size];
+        mAliases = new int[size];
+        mTree = new double[size + 1];
+        int topBit = 1;
+        while (topBit * 2 <= size) topBit *= 2;
+        mTopBit = topBit;
+        mRecent = new int[Math.max(0, Math.min(window, size - 1))];
+        mExcluded = new int[size];
+        for (int i = 0; i < size; i++) add(i, mWeights[i]);
+        buildAliases();
+    }
+
+    public int size() {
+        return mWeights.length;
+    }
+
+    public double getWeight(int index) {
+        return mWeights[index];
+    }
+
+    /** Changes the weight of an index, in O(log n). */
+    public void setWeight(int index, double weight) {
+        double previous = mWeights[index];
+        mWeights[index] = weight;
+        if (mExcluded[index] == 0) add(index, weight - previous);
+        if (weight > mSnapshot[index]) mAliasValid = false;
+    }
+
+    /**
+     * Draws an index and leaves it out of the next draws for the length of the window. Returns
+     * -1 if every index left has weight zero.
+     */
+    public int next(Random random) {
+        int size = size();
+        if (size == 0) return -1;
+        if (mFallbackCost >= size) buildAliases();
+        int index = -1;
+        if (mAliasValid) {
+            for (int tries = 0; tries < MAX_REJECTIONS && index < 0; tries++) {
+                int slot = random.nextInt(size);
+                int candidate = random.nextDouble() < mProbabilities[slot] ? slot : mAliases[slot];
+                double weight = mExcluded[candidate] == 0 ? mWeights[candidate] : 0;
+                if (random.nextDouble() * mSnapshot[candidate] < weight) {
+                    index = candidate;
+                } else {
+                    mFallbackCost++;
+                }
+            }
+        }
+        if (index < 0) {
+            index = find(random.nextDouble() * sum(size));
+            mFallbackCost += 32 - Integer.numberOfLeadingZeros(size);
+        }
+        if (index >= 0) exclude(index);
+        return index;
+    }
+
+    /** Leaves the index out of the next draws, as if it had just been drawn. */
+    public void exclude(int index) {
+        if (mRecent.length == 0) return;
+        if (mRecentSize == mRecent.length) {
+            int oldest = mRecent[mRecentNext];
+            if (--mExcluded[oldest] == 0) add(oldest, mWeights[oldest]);
+        } else {
+            mRecentSize++;
+        }
+        mRecent[mRecentNext] = index;
+        mRecentNext = (mRecentNext + 1) % mRecent.length;
+        if (mExcluded[index]++ == 0) add(index, -mWeights[index]);
+    }
+
+    /** Builds the alias table for the current weights, with Vose's method. */
+    void buildAliases() {
+        int size = size();
+        double total = 0;
+        for (int i = 0; i < size; i++) total += mWeights[i];
+        System.arraycopy(mWeights, 0, mSnapshot, 0, size);
+        mAliasValid = total > 0;
+        mFallbackCost = 0;
+        if (!mAliasValid) return;
+
+        // scale the weights to average 1, and pair every slot under 1 with one over 1
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < size; i++) {
+            mProbabilities[i] = mWeights[i] * size / total;
+            mAliases[i] = i;
+            if (mProbabilities[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            mAliases[less] = more;
+            mProbabilities[more] -= 1 - mProbabilities[less];
+            if (mProbabilities[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        // whatever is left is 1 give or take rounding
+        while (largeCount > 0) mProbabilities[large[--largeCount]] = 1;
+        while (smallCount > 0) mProbabilities[small[--smallCount]] = 1;
+    }
+
+    /** Adds delta to the weight of index in the Fenwick tree. */
+    void add(int index, double delta) {
+        for (int i = index + 1; i < mTree.length; i += i & -i) mTree[i] += delta;
+    }
+
+    /** Returns the sum of the weights of the first count indexes in the Fenwick tree. */
+    double sum(int count) {
+        double sum = 0;
+        for (int i = count; i > 0; i -= i & -i) sum += mTree[i];
+        return sum;
+    }
+
+    /**
+     * Returns the index where the running sum of the weights in the Fenwick tree passes target,
+     * or -1 if there is no weight left.
+     */
+    int find(double target) {
+        int size = size();
+        int position = 0;
+        for (int bit = mTopBit; bit > 0; bit >>= 1) {
+            int next = position + bit;
+            if (next <= size && mTree[next] <= target) {
+                target -= mTree[next];
+                position = next;
+            }
+        }
+        // rounding can land past the last index with weight left; step back to it
+        if (position >= size) position = size - 1;
+        while (position >= 0 && (mExcluded[position] > 0 || mWeights[position] <= 0)) {
+            position--;
+        }
+        return position;
+    }
+}